@@ -0,0 +1,158 @@
+package rmi;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Measures the rate at which a skeleton accepts short-lived connections
+    with 1, 2, 4 and 8 acceptors.
+
+    <p>
+    For each acceptor count, a skeleton is started with
+    <code>setAcceptors</code>, and client threads repeatedly open a
+    connection, make one call on it and close it, for a fixed time. The
+    benchmark reports the connections completed per second. A first round,
+    whose result is discarded, warms up the client and server code paths, as
+    otherwise the first acceptor count measured is penalized. Acceptors only
+    help when the machine has cores to spread them on, so the number of
+    available processors is printed first.
+
+    <p>
+    Run with <code>java -cp .:bench rmi.AcceptorBenchmark [clients]
+    [seconds] [first port]</code> after compiling the project. The defaults
+    are 16 client threads, 2 seconds per acceptor count and port 22000.
+ */
+public class AcceptorBenchmark
+{
+    private static final int[]  ACCEPTORS = {1, 2, 4, 8};
+
+    /** Runs the benchmark.
+
+        @param arguments Number of client threads, seconds per acceptor count
+                         and first port.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int     clients = arguments.length > 0 ? Integer.parseInt(arguments[0])
+                                               : 16;
+        long    seconds = arguments.length > 1 ? Long.parseLong(arguments[1])
+                                               : 2;
+        int     firstPort = arguments.length > 2
+                            ? Integer.parseInt(arguments[2]) : 22000;
+        Method  ping = PingInterface.class.getMethod("ping");
+        PrintStream out = System.out;
+
+        out.println("processors: " + Runtime.getRuntime().availableProcessors());
+        out.printf("%-10s %16s%n", "acceptors", "connections/s");
+
+        measure(new InetSocketAddress("127.0.0.1", firstPort), 1, ping,
+                clients, seconds);
+
+        for(int acceptors : ACCEPTORS)
+        {
+            InetSocketAddress   address =
+                new InetSocketAddress("127.0.0.1", firstPort + acceptors);
+
+            out.printf("%-10d %16.0f%n", acceptors,
+                       measure(address, acceptors, ping, clients, seconds));
+        }
+
+        // the service threads of the skeletons outlive them
+        System.exit(0);
+    }
+
+    /** Starts a skeleton with the given number of acceptors, and returns the
+        rate at which clients connect to it and call it.
+     */
+    private static double measure(InetSocketAddress address, int acceptors,
+                                  Method ping, int clients, long seconds)
+        throws Exception
+    {
+        PrintStream             out = System.out;
+        Skeleton<PingInterface> skeleton = new Skeleton<PingInterface>(
+            PingInterface.class, new PingServer(), address);
+
+        skeleton.setAcceptors(acceptors);
+
+        // the skeleton logs every connection
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try
+        {
+            skeleton.start();
+
+            long    start = System.nanoTime();
+            long    count = run(address, ping, clients,
+                                start + seconds * 1_000_000_000L);
+
+            return count * 1e9 / (System.nanoTime() - start);
+        }
+        finally
+        {
+            skeleton.stop();
+            System.setOut(out);
+        }
+    }
+
+    /** Opens, uses and closes connections from several threads until the
+        deadline, and returns the number completed.
+     */
+    private static long run(InetSocketAddress address, Method ping,
+                            int clients, long deadline)
+        throws InterruptedException
+    {
+        LongAdder   completed = new LongAdder();
+        Thread[]    threads = new Thread[clients];
+
+        for(int i = 0; i < clients; ++i)
+        {
+            threads[i] = new Thread(() -> {
+                while(System.nanoTime() < deadline)
+                {
+                    try
+                    {
+                        Connection  connection = ConnectionPool.connect(address);
+
+                        try
+                        {
+                            connection.send(new Request(ping));
+                            connection.receive();
+                        }
+                        finally
+                        {
+                            connection.close();
+                        }
+
+                        completed.increment();
+                    }
+                    catch(Exception e)
+                    {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+
+        return completed.sum();
+    }
+
+    public interface PingInterface
+    {
+        void ping() throws RMIException;
+    }
+
+    private static class PingServer implements PingInterface
+    {
+        @Override
+        public void ping()
+        {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package rmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** Measures the CPU cost and the bytes saved by each registered codec.
+
+    <p>
+    For several payload sizes, a text-heavy <code>Response</code> is serialized
+    and then compressed and decompressed repeatedly. The benchmark reports the
+    serialized size, the size on the wire, and the CPU time per frame spent in
+    the codec, measured with the thread CPU clock. Frames below the threshold
+    are reported as they would be sent: uncompressed.
+
+    <p>
+    Run with <code>java -cp .:bench rmi.CompressionBenchmark</code> after
+    compiling the project.
+ */
+public class CompressionBenchmark
+{
+    private static final int[]      SIZES = {256, 1024, 4096, 65536, 1 << 20};
+    private static final String[]   WORDS =
+        {"request", "response", "skeleton", "stub", "timeout", "rack", "host",
+         "interface", "method", "latency", "error", "retry", "GET", "PUT"};
+
+    /** Runs the benchmark.
+
+        @param arguments Ignored.
+     */
+    public static void main(String[] arguments) throws IOException
+    {
+        ThreadMXBean    threads = ManagementFactory.getThreadMXBean();
+
+        System.out.println("threshold: " + Codecs.getThreshold() + " bytes");
+        System.out.printf("%-10s %-8s %12s %12s %8s %14s %14s%n", "payload",
+                          "codec", "raw bytes", "wire bytes", "ratio",
+                          "compress us", "decompress us");
+
+        for(int size : SIZES)
+        {
+            byte[]  raw = serialize(Response.result(text(size)));
+
+            for(String name : Codecs.names())
+            {
+                Codec   codec = Codecs.get(name);
+                int     iterations = Math.max(20, (32 << 20) / raw.length);
+
+                if(raw.length < Codecs.getThreshold())
+                {
+                    System.out.printf("%-10d %-8s %12d %12d %8.2f %14s %14s%n",
+                                      size, name, raw.length, raw.length, 1.0,
+                                      "-", "-");
+                    continue;
+                }
+
+                // warm up
+                byte[]  packed = null;
+                for(int i = 0; i < iterations; ++i)
+                    packed = codec.compress(raw, 0, raw.length);
+
+                long    start = threads.getCurrentThreadCpuTime();
+                for(int i = 0; i < iterations; ++i)
+                    packed = codec.compress(raw, 0, raw.length);
+                long    compress = threads.getCurrentThreadCpuTime() - start;
+
+                for(int i = 0; i < iterations; ++i)
+                    codec.decompress(packed, 0, packed.length, raw.length);
+
+                start = threads.getCurrentThreadCpuTime();
+                for(int i = 0; i < iterations; ++i)
+                    codec.decompress(packed, 0, packed.length, raw.length);
+                long    decompress = threads.getCurrentThreadCpuTime() - start;
+
+                System.out.printf("%-10d %-8s %12d %12d %8.2f %14.1f %14.1f%n",
+                                  size, name, raw.length, packed.length + 4,
+                                  (double)raw.length / (packed.length + 4),
+                                  compress / 1000.0 / iterations,
+                                  decompress / 1000.0 / iterations);
+            }
+        }
+    }
+
+    /** Builds a list of log-like lines totalling about <code>size</code>
+        characters.
+     */
+    private static List<String> text(int size)
+    {
+        Random          random = new Random(size);
+        List<String>    lines = new ArrayList<>();
+        int             length = 0;
+
+        while(length < size)
+        {
+            StringBuilder   line = new StringBuilder();
+
+            line.append(random.nextInt(100000)).append(' ');
+            for(int i = 0; i < 8; ++i)
+                line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+
+            lines.add(line.toString());
+            length += line.length();
+        }
+
+        return lines;
+    }
+
+    private static byte[] serialize(Object object) throws IOException
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+
+        try(ObjectOutputStream stream = new ObjectOutputStream(bytes))
+        {
+            stream.writeObject(object);
+        }
+
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,190 @@
+package rmi;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Measures the read throughput of replica groups of 1, 2, 4 and 8
+    members.
+
+    <p>
+    For each group size, a primary and its followers are started, and client
+    threads read through one replicated stub for a fixed time. Each replica
+    serves reads on a single service thread, and each read takes a
+    millisecond of service time, standing in for the work of a real lookup:
+    one replica then serves at most about a thousand reads per second, and
+    the benchmark shows how far the rate grows as reads are spread over more
+    replicas. The rate stops growing once the client threads, or the cores
+    running them, are saturated, so the number of available processors is
+    printed first.
+
+    <p>
+    Run with <code>java -cp .:bench rmi.ReplicaBenchmark [clients] [seconds]
+    [first port]</code> after compiling the project. The defaults are 32
+    client threads, 2 seconds per group size and port 23000.
+ */
+public class ReplicaBenchmark
+{
+    private static final int[]  REPLICAS = {1, 2, 4, 8};
+    private static final long   SERVICE_MILLIS = 1;
+
+    /** Runs the benchmark.
+
+        @param arguments Number of client threads, seconds per group size and
+                         first port.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int     clients = arguments.length > 0 ? Integer.parseInt(arguments[0])
+                                               : 32;
+        long    seconds = arguments.length > 1 ? Long.parseLong(arguments[1])
+                                               : 2;
+        int     port = arguments.length > 2
+                       ? Integer.parseInt(arguments[2]) : 23000;
+        PrintStream out = System.out;
+
+        out.println("processors: " + Runtime.getRuntime().availableProcessors());
+        out.printf("%-10s %16s%n", "replicas", "reads/s");
+
+        for(int replicas : REPLICAS)
+        {
+            out.printf("%-10d %16.0f%n", replicas,
+                       measure(port, replicas, clients, seconds));
+            port += replicas;
+        }
+
+        // the service threads of the skeletons outlive them
+        System.exit(0);
+    }
+
+    /** Starts a group of replicas on consecutive ports, and returns the rate
+        at which clients read from it.
+     */
+    private static double measure(int port, int replicas, int clients,
+                                  long seconds)
+        throws Exception
+    {
+        PrintStream                         out = System.out;
+        InetSocketAddress                   primary =
+            new InetSocketAddress("127.0.0.1", port);
+        List<InetSocketAddress>             followers = new ArrayList<>();
+        List<Replica<DirectoryInterface>>   group = new ArrayList<>();
+
+        group.add(Replica.primary(DirectoryInterface.class,
+                                  new DirectoryServer(), primary));
+
+        for(int i = 1; i < replicas; ++i)
+        {
+            InetSocketAddress   address =
+                new InetSocketAddress("127.0.0.1", port + i);
+
+            followers.add(address);
+            group.add(Replica.follower(DirectoryInterface.class,
+                                       new DirectoryServer(), address,
+                                       primary));
+        }
+
+        // the skeletons log every connection
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        try
+        {
+            for(Replica<DirectoryInterface> replica : group)
+            {
+                replica.getSkeleton().setPoolSize(1);
+                replica.start();
+            }
+
+            DirectoryInterface  directory = Stub.createReplicated(
+                DirectoryInterface.class, primary, followers, false);
+
+            // connect to every replica before the clock starts
+            run(directory, clients, System.nanoTime() + 200_000_000L);
+
+            long    start = System.nanoTime();
+            long    count = run(directory, clients,
+                                start + seconds * 1_000_000_000L);
+
+            return count * 1e9 / (System.nanoTime() - start);
+        }
+        finally
+        {
+            for(Replica<DirectoryInterface> replica : group)
+                replica.stop();
+
+            System.setOut(out);
+        }
+    }
+
+    /** Reads from several threads until the deadline, and returns the number
+        of reads completed.
+     */
+    private static long run(DirectoryInterface directory, int clients,
+                            long deadline)
+        throws InterruptedException
+    {
+        LongAdder   completed = new LongAdder();
+        Thread[]    threads = new Thread[clients];
+
+        for(int i = 0; i < clients; ++i)
+        {
+            int     key = i;
+
+            threads[i] = new Thread(() -> {
+                while(System.nanoTime() < deadline)
+                {
+                    try
+                    {
+                        directory.lookup(key);
+                        completed.increment();
+                    }
+                    catch(RMIException e)
+                    {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+
+        return completed.sum();
+    }
+
+    public interface DirectoryInterface
+    {
+        @ReadOnly
+        String lookup(int key) throws RMIException;
+
+        void bind(int key, String value) throws RMIException;
+    }
+
+    private static class DirectoryServer implements DirectoryInterface
+    {
+        @Override
+        public String lookup(int key)
+        {
+            try
+            {
+                Thread.sleep(SERVICE_MILLIS);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            return "entry " + key;
+        }
+
+        @Override
+        public void bind(int key, String value)
+        {
+        }
+    }
+}
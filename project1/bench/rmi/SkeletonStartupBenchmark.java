@@ -0,0 +1,149 @@
+package rmi;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Measures the memory and time taken to create and start many skeletons.
+
+    <p>
+    The benchmark creates and starts <i>count</i> skeletons on consecutive
+    ports, either all sharing one <code>SkeletonRuntime</code> or each with
+    threads of its own, and reports the heap retained per skeleton after a
+    garbage collection, the growth of the resident set per skeleton where
+    <code>/proc</code> tells it, which includes thread stacks, the time taken
+    per skeleton, and the number of live threads. It then calls one skeleton,
+    to show that the shared threads are only created when needed, and stops
+    them all.
+
+    <p>
+    Run with <code>java -cp .:bench rmi.SkeletonStartupBenchmark [count]
+    [shared|dedicated] [first port]</code> after compiling the project. The
+    defaults are 10000 shared skeletons from port 20000. Each started skeleton
+    holds a listening socket, so the limit on open files must exceed the
+    count.
+ */
+public class SkeletonStartupBenchmark
+{
+    /** Runs the benchmark.
+
+        @param arguments Number of skeletons, <code>shared</code> or
+                         <code>dedicated</code>, and the first port.
+     */
+    public static void main(String[] arguments) throws Exception
+    {
+        int             count = arguments.length > 0 ? Integer.parseInt(arguments[0])
+                                                     : 10000;
+        boolean         shared = arguments.length <= 1
+                                 || arguments[1].equals("shared");
+        int             firstPort = arguments.length > 2
+                                    ? Integer.parseInt(arguments[2]) : 20000;
+        MemoryMXBean    memory = ManagementFactory.getMemoryMXBean();
+        SkeletonRuntime runtime = shared ? new SkeletonRuntime() : null;
+        List<Skeleton<PingInterface>>   skeletons = new ArrayList<>(count);
+
+        int     threadsBefore = Thread.activeCount();
+        long    heapBefore = usedHeap(memory);
+        long    residentBefore = resident();
+        long    start = System.nanoTime();
+
+        for(int i = 0; i < count; ++i)
+        {
+            Skeleton<PingInterface> skeleton = new Skeleton<PingInterface>(
+                PingInterface.class, new PingServer(),
+                new InetSocketAddress(firstPort + i), runtime);
+
+            skeleton.start();
+            skeletons.add(skeleton);
+        }
+
+        long    elapsed = System.nanoTime() - start;
+        long    heapAfter = usedHeap(memory);
+        long    residentAfter = resident();
+
+        System.out.printf("%d %s skeletons started in %.1f ms, %.1f us each%n",
+                          count, shared ? "shared" : "dedicated",
+                          elapsed / 1e6, elapsed / 1e3 / count);
+        System.out.printf("heap retained: %.1f KiB per skeleton%n",
+                          (heapAfter - heapBefore) / 1024.0 / count);
+
+        if(residentBefore > 0)
+        {
+            System.out.printf("resident set grew by %.1f KiB per skeleton%n",
+                              (residentAfter - residentBefore) / 1024.0 / count);
+        }
+
+        System.out.printf("threads: %d before, %d after starting%n",
+                          threadsBefore, Thread.activeCount());
+
+        PingInterface   stub = Stub.create(PingInterface.class,
+                                           new InetSocketAddress(firstPort));
+
+        stub.ping();
+        System.out.printf("threads: %d after one call%n", Thread.activeCount());
+
+        start = System.nanoTime();
+
+        for(Skeleton<PingInterface> skeleton : skeletons)
+            skeleton.stop();
+
+        System.out.printf("stopped in %.1f ms%n",
+                          (System.nanoTime() - start) / 1e6);
+
+        if(runtime != null)
+            runtime.shutdown();
+
+        // the service threads of dedicated skeletons outlive them
+        System.exit(0);
+    }
+
+    /** Returns the resident set size of the process in bytes, or zero if
+        it cannot be read.
+     */
+    private static long resident()
+    {
+        Path    status = Paths.get("/proc/self/status");
+
+        try
+        {
+            for(String line : Files.readAllLines(status))
+            {
+                if(line.startsWith("VmRSS:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        }
+        catch(IOException | NumberFormatException e) { }
+
+        return 0;
+    }
+
+    private static long usedHeap(MemoryMXBean memory) throws InterruptedException
+    {
+        for(int i = 0; i < 3; ++i)
+        {
+            System.gc();
+            Thread.sleep(100);
+        }
+
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    public interface PingInterface
+    {
+        void ping() throws RMIException;
+    }
+
+    private static class PingServer implements PingInterface
+    {
+        @Override
+        public void ping()
+        {
+        }
+    }
+}
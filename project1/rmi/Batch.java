@@ -0,0 +1,385 @@
+package rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/** Records calls on a stub and sends them to the skeleton together.
+
+    <p>
+    A batch saves a round trip per call when a client has many small calls to
+    make to one skeleton. Calls are recorded by passing a lambda which makes
+    exactly one call on the remote interface; the batch returns a
+    <code>Deferred</code> for its result. <code>execute</code> then sends all
+    recorded calls in one message, and the skeleton returns all their results
+    in one response. For example:
+
+    <pre>
+    Batch&lt;Directory&gt;            batch = Batch.of(stub);
+    Batch.Deferred&lt;String&gt;    name = batch.call(d -&gt; d.lookup(1));
+    Batch.Deferred&lt;Void&gt;      done = batch.run(d -&gt; d.touch(2));
+
+    batch.execute();
+    System.out.println(name.get());
+    </pre>
+
+    <p>
+    Each deferred result reports the outcome of its call as a direct call on
+    the stub would: <code>get</code> returns the result, or throws the
+    exception thrown by the server object, or an <code>RMIException</code> if
+    the call could not be made. One call failing does not affect the others.
+    Methods with streamed results cannot be batched, and
+    <code>Cacheable</code> results are not served from the stub's near cache.
+
+    <p>
+    A batch of calls on a sharded stub sends one message to each skeleton
+    owning the key of some call, and the messages are sent in parallel. A
+    skeleton failing then affects only the calls sent to it.
+
+    <p>
+    Batches are not thread-safe. A batch may be used again once it has been
+    executed, to record and send further calls.
+ */
+public class Batch<T>
+{
+    /** How the skeleton executes the calls of a batch. */
+    public enum Mode
+    {
+        /** One after another, in the order they were recorded. */
+        SEQUENTIAL,
+        /** Concurrently, on the skeleton's service threads. */
+        PARALLEL
+    }
+
+    private final StubInvocationHandler<T>      handler;
+    private final ShardedInvocationHandler<T>   shards;
+    private final T                             recorder;
+    private final List<Request>                 requests = new ArrayList<>();
+    private final List<StubInvocationHandler<T>> targets = new ArrayList<>();
+    private final List<Deferred<?>>             results = new ArrayList<>();
+    private Request                             recorded;
+    private StubInvocationHandler<T>            target;
+
+    private Batch(Class<T> c, StubInvocationHandler<T> handler,
+                  ShardedInvocationHandler<T> shards)
+    {
+        this.handler = handler;
+        this.shards = shards;
+        this.recorder = c.cast(Proxy.newProxyInstance(c.getClassLoader(),
+                                                      new Class<?>[] {c},
+                                                      new Recorder()));
+    }
+
+    /** Creates a batch of calls to the skeleton of a stub.
+
+        @param stub A stub created by <code>Stub.create</code> or
+                    <code>Stub.createSharded</code>.
+        @return An empty batch.
+        @throws IllegalArgumentException If <code>stub</code> is not a stub.
+        @throws NullPointerException If <code>stub</code> is
+                                     <code>null</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Batch<T> of(T stub)
+    {
+        RMIUtil.checkNotNull(stub);
+        InvocationHandler handler = Proxy.isProxyClass(stub.getClass())
+            ? Proxy.getInvocationHandler(stub) : null;
+        if (handler instanceof ShardedInvocationHandler)
+        {
+            ShardedInvocationHandler<T> shards = (ShardedInvocationHandler<T>) handler;
+            return new Batch<T>(shards.getInterface(), null, shards);
+        }
+        if (!(handler instanceof StubInvocationHandler))
+            throw new IllegalArgumentException("not an RMI stub: " + stub);
+        StubInvocationHandler<T> single = (StubInvocationHandler<T>) handler;
+        return new Batch<T>((Class<T>) single.getInterface(), single, null);
+    }
+
+    /** Records a call which returns a result.
+
+        @param call Lambda making exactly one call on the object it is given.
+        @return The deferred result of the call.
+        @throws IllegalArgumentException If <code>call</code> does not make
+                                         exactly one call of a remote method,
+                                         or the method has a streamed result.
+     */
+    public <R> Deferred<R> call(Call<T, R> call)
+    {
+        recorded = null;
+        try
+        {
+            call.call(recorder);
+        }
+        catch (IllegalArgumentException e)
+        {
+            recorded = null;
+            throw e;
+        }
+        catch (Exception e)
+        {
+            recorded = null;
+            throw new IllegalArgumentException("recording a call failed", e);
+        }
+        Request request = recorded;
+        recorded = null;
+        if (request == null)
+            throw new IllegalArgumentException("no remote call was made");
+        Deferred<R> deferred = new Deferred<R>();
+        requests.add(request);
+        targets.add(target);
+        results.add(deferred);
+        return deferred;
+    }
+
+    /** Records a call whose result, if any, is not needed.
+
+        @param call Lambda making exactly one call on the object it is given.
+        @return The deferred outcome of the call.
+        @throws IllegalArgumentException If <code>call</code> does not make
+                                         exactly one call of a remote method,
+                                         or the method has a streamed result.
+     */
+    public Deferred<Void> run(VoidCall<T> call)
+    {
+        return call(recorder -> {
+            call.call(recorder);
+            return null;
+        });
+    }
+
+    /** Returns the number of calls recorded and not yet executed. */
+    public int size()
+    {
+        return requests.size();
+    }
+
+    /** Executes the recorded calls one after another.
+
+        @throws RMIException If the batch could not be sent or its response
+                             could not be read. Every deferred result of the
+                             calls sent to the skeleton then throws an
+                             <code>RMIException</code> too.
+     */
+    public void execute() throws RMIException
+    {
+        execute(Mode.SEQUENTIAL);
+    }
+
+    /** Executes the recorded calls.
+
+        @param mode Whether the skeleton may execute the calls concurrently.
+        @throws RMIException If the batch could not be sent or its response
+                             could not be read. Every deferred result of the
+                             calls sent to the skeleton then throws an
+                             <code>RMIException</code> too. When the batch
+                             was split between shards, the calls sent to
+                             other skeletons complete nonetheless, and the
+                             failure is thrown once all have ended.
+     */
+    public void execute(Mode mode) throws RMIException
+    {
+        RMIUtil.checkNotNull(mode);
+        boolean parallel = mode == Mode.PARALLEL;
+        Map<StubInvocationHandler<T>, Part> parts = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++)
+        {
+            parts.computeIfAbsent(targets.get(i), Part::new)
+                 .add(requests.get(i), results.get(i));
+        }
+        requests.clear();
+        targets.clear();
+        results.clear();
+        if (parts.isEmpty())
+            return;
+
+        // the calling thread sends the last part, after starting the others
+        List<Part> sent = new ArrayList<>(parts.values());
+        Part own = sent.remove(sent.size() - 1);
+        List<CompletableFuture<RMIException>> others = new ArrayList<>();
+        for (Part part : sent)
+        {
+            others.add(CompletableFuture.supplyAsync(() -> part.execute(parallel),
+                                                     ShardedInvocationHandler.executor()));
+        }
+        RMIException failure = own.execute(parallel);
+        for (CompletableFuture<RMIException> other : others)
+        {
+            RMIException e = other.join();
+            if (failure == null)
+                failure = e;
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    /** Call of a remote method returning a result, made on a recording
+        object.
+     */
+    @FunctionalInterface
+    public interface Call<T, R>
+    {
+        /** Makes the call.
+
+            @param remote The object on which to make the call.
+            @return The value returned by the call, which is ignored.
+         */
+        R call(T remote) throws Exception;
+    }
+
+    /** Call of a remote method whose result is not needed, made on a
+        recording object.
+     */
+    @FunctionalInterface
+    public interface VoidCall<T>
+    {
+        /** Makes the call.
+
+            @param remote The object on which to make the call.
+         */
+        void call(T remote) throws Exception;
+    }
+
+    /** Result of a call in a batch, available once the batch has been
+        executed.
+     */
+    public static final class Deferred<R>
+    {
+        private Response    response;
+
+        private Deferred()
+        {
+        }
+
+        private void complete(Response response)
+        {
+            this.response = response;
+        }
+
+        /** Tells whether the batch containing the call has been executed. */
+        public boolean isDone()
+        {
+            return response != null;
+        }
+
+        /** Returns the result of the call.
+
+            @return The value returned by the remote method.
+            @throws IllegalStateException If the batch has not been executed.
+            @throws Exception The exception thrown by the remote method, or an
+                              <code>RMIException</code> if the call could not
+                              be made.
+         */
+        @SuppressWarnings("unchecked")
+        public R get() throws Exception
+        {
+            if (response == null)
+                throw new IllegalStateException("batch has not been executed");
+            try
+            {
+                return (R) StubInvocationHandler.unwrap(response);
+            }
+            catch (Exception | Error e)
+            {
+                throw e;
+            }
+            catch (Throwable t)
+            {
+                throw new RMIException(t);
+            }
+        }
+    }
+
+    /** Calls of a batch sent to one skeleton. */
+    private class Part
+    {
+        private final StubInvocationHandler<T>  handler;
+        private final List<Request>             requests = new ArrayList<>();
+        private final List<Deferred<?>>         results = new ArrayList<>();
+
+        private Part(StubInvocationHandler<T> handler)
+        {
+            this.handler = handler;
+        }
+
+        private void add(Request request, Deferred<?> result)
+        {
+            requests.add(request);
+            results.add(result);
+        }
+
+        /** Sends the calls and completes their results.
+
+            @return The failure to send the calls or read their responses,
+                    or <code>null</code>.
+         */
+        private RMIException execute(boolean parallel)
+        {
+            Request[] batch = requests.toArray(new Request[0]);
+            Response[] responses;
+            try
+            {
+                responses = handler.invokeBatch(batch, parallel);
+                if (responses.length != batch.length)
+                    throw new RMIException("skeleton returned " + responses.length
+                                           + " responses to " + batch.length
+                                           + " calls");
+            }
+            catch (RMIException e)
+            {
+                for (Deferred<?> deferred : results)
+                    deferred.complete(Response.except(e));
+                return e;
+            }
+            for (int i = 0; i < responses.length; i++)
+                results.get(i).complete(responses[i]);
+            return null;
+        }
+    }
+
+    /** Records the call made on the recording object. */
+    private class Recorder implements InvocationHandler
+    {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if (method.getDeclaringClass() == Object.class)
+                throw new IllegalArgumentException("not a remote method: " + method.getName());
+            if (recorded != null)
+                throw new IllegalArgumentException("more than one remote call was made");
+            if (StreamKind.of(method.getReturnType()) != null)
+                throw new IllegalArgumentException("streamed results cannot be batched: "
+                                                   + method.getName());
+            target = shards != null ? shards.route(method, args) : handler;
+            recorded = target.request(method, args);
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    /** Value a recording object returns for a call, so that unboxing it cannot fail. */
+    static Object defaultValue(Class<?> type)
+    {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == char.class)
+            return '\0';
+        if (type == long.class)
+            return 0L;
+        if (type == float.class)
+            return 0f;
+        if (type == double.class)
+            return 0d;
+        if (type == byte.class)
+            return (byte) 0;
+        if (type == short.class)
+            return (short) 0;
+        return 0;
+    }
+}
@@ -0,0 +1,25 @@
+package rmi;
+
+import java.io.Serializable;
+
+/**
+ * Calls recorded by a <code>Batch</code>, sent to the skeleton in one frame.
+ */
+class BatchRequest implements Serializable {
+    private Request[] requests;
+    private boolean parallel;
+
+    BatchRequest(Request[] requests, boolean parallel) {
+        this.requests = requests;
+        this.parallel = parallel;
+    }
+
+    Request[] getRequests() {
+        return requests;
+    }
+
+    /** Whether the skeleton may execute the calls concurrently. */
+    boolean isParallel() {
+        return parallel;
+    }
+}
@@ -0,0 +1,29 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Responses to the calls of a <code>BatchRequest</code>, in call order. Each
+ * element is a <code>Response</code>, or the bytes of a response serialized on
+ * its own, as kept by the skeleton's result cache.
+ */
+class BatchResponse implements Serializable {
+    private Object[] responses;
+
+    BatchResponse(Object[] responses) {
+        this.responses = responses;
+    }
+
+    int size() {
+        return responses.length;
+    }
+
+    Response get(int i) throws IOException, ClassNotFoundException {
+        Object response = responses[i];
+        if (response instanceof byte[]) {
+            return (Response) Connection.decode((byte[]) response);
+        }
+        return (Response) response;
+    }
+}
@@ -0,0 +1,60 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/** Marks a method of a remote interface whose concurrent calls are merged
+    into calls of a batch variant on the server object.
+
+    <p>
+    The server object must have a public method, named by
+    <code>value</code>, which takes a <code>java.util.List</code> of argument
+    arrays, one per call, and returns a <code>java.util.List</code> of results
+    in the same order. For example:
+
+    <pre>
+    public interface Directory
+    {
+        &#64;Batched("lookupAll")
+        String lookup(int id) throws RMIException;
+    }
+
+    public class DirectoryServer implements Directory
+    {
+        public List&lt;String&gt; lookupAll(List&lt;Object[]&gt; calls) { ... }
+        ...
+    }
+    </pre>
+
+    <p>
+    The first call to arrive opens a batch, which is closed once
+    <code>window</code> has passed or <code>maxSize</code> calls have joined
+    it. The batch variant is then invoked once, and each caller receives its
+    own result. If the batch variant throws an exception, every call in the
+    batch fails with it. Sizes of executed batches are reported in the
+    histogram <code>.batching.</code><em>method</em><code>.size</code> under
+    the skeleton's metric prefix, as described in <code>Metrics</code>.
+    The window and size can be changed at run time with
+    <code>Skeleton.setBatching</code>.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Batched
+{
+    /** Name of the batch variant on the server object. */
+    String value();
+
+    /** Longest time a call waits for others to join its batch. */
+    long window() default 2;
+
+    /** Unit of <code>window</code>. */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+
+    /** Largest number of calls in one batch. */
+    int maxSize() default 100;
+}
@@ -0,0 +1,664 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BinaryOperator;
+
+/** Makes the same call on many skeletons at once and combines the results.
+
+    <p>
+    A broadcast is created over the addresses of skeletons serving the same
+    remote interface. Like a <code>Batch</code>, it records a call through a
+    lambda which makes exactly one call on the remote interface; it then
+    sends that call to every skeleton without waiting for any answer, and
+    returns a future for the combined result. For example:
+
+    <pre>
+    Broadcast&lt;Shard&gt;         shards = Broadcast.create(Shard.class, addresses);
+
+    shards.setTimeout(200, TimeUnit.MILLISECONDS);
+
+    Broadcast.Result&lt;Long&gt;  total =
+        shards.call(s -&gt; s.count(), Broadcast.reducing(0L, Long::sum)).get();
+    </pre>
+
+    <p>
+    The calling thread only records the call: requests are written, on
+    pooled connections where there are some, by the threads of a shared
+    pool, and the connections are then watched by a single shared selector
+    thread until each response begins to arrive, when a pool thread reads
+    it. Threads are busy only while requests and responses are moving, not
+    while the skeletons compute, so a broadcast to hundreds of skeletons
+    needs no thread per skeleton. Connections which are not pooled yet are
+    opened by a pool thread, which waits for the skeleton to answer their
+    handshake, a round trip which pooled connections save. A skeleton which
+    cannot be reached holds up a pool thread, but never the broadcast
+    beyond its timeout.
+
+    <p>
+    An <code>Aggregator</code> combines the results as they arrive, and may
+    complete the broadcast before every skeleton has answered, as
+    <code>firstN</code> does. The broadcast also completes once its timeout
+    has elapsed. Its <code>Result</code> reports the combined value together
+    with the skeletons whose calls failed and those which had not answered in
+    time; the connections to the latter are closed. Methods with streamed
+    results cannot be broadcast.
+ */
+public class Broadcast<T>
+{
+    private static EventLoop        loop;
+    private static ExecutorService  executor;
+
+    private final Class<T>                  c;
+    private final List<InetSocketAddress>   addresses;
+    private volatile long                   timeoutNanos = Long.MAX_VALUE;
+
+    private Broadcast(Class<T> c, List<InetSocketAddress> addresses)
+    {
+        this.c = c;
+        this.addresses = addresses;
+    }
+
+    /** Creates a broadcast to the skeletons at the given addresses.
+
+        @param c A <code>Class</code> object representing the remote interface
+                 served by the skeletons.
+        @param addresses The network addresses of the skeletons. Duplicates
+                         are called once.
+        @return The broadcast.
+        @throws NullPointerException If any argument or address is
+                                     <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface.
+     */
+    public static <T> Broadcast<T> create(Class<T> c,
+                                          Collection<InetSocketAddress> addresses)
+    {
+        RMIUtil.checkNotNull(c, addresses);
+        RMIUtil.checkNotNull(addresses.toArray());
+        RMIUtil.checkInterface(c);
+        return new Broadcast<T>(c, new ArrayList<>(new LinkedHashSet<>(addresses)));
+    }
+
+    /** Sets how long calls wait for the skeletons which have not answered
+        yet. By default calls wait for every skeleton.
+
+        @param timeout The time, from the moment a call is made, after which
+                       it completes with the results received so far.
+        @param unit The unit of <code>timeout</code>.
+        @throws IllegalArgumentException If <code>timeout</code> is not
+                                         positive.
+     */
+    public void setTimeout(long timeout, TimeUnit unit)
+    {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("timeout must be positive");
+        timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /** Calls every skeleton and lists the results in the order they arrive.
+
+        @param call Lambda making exactly one call on the object it is given.
+        @return The future result of the broadcast.
+        @throws IllegalArgumentException If <code>call</code> does not make
+                                         exactly one call of a remote method,
+                                         or the method has a streamed result.
+     */
+    public <R> CompletableFuture<Result<List<R>>> call(Batch.Call<T, R> call)
+    {
+        return call(call, Broadcast.<R>toList());
+    }
+
+    /** Calls every skeleton and combines the results.
+
+        @param call Lambda making exactly one call on the object it is given.
+        @param aggregator The aggregator combining the results. It is used by
+                          this call only, from one thread at a time.
+        @return The future result of the broadcast.
+        @throws IllegalArgumentException If <code>call</code> does not make
+                                         exactly one call of a remote method,
+                                         or the method has a streamed result.
+     */
+    public <R, A> CompletableFuture<Result<A>> call(Batch.Call<T, R> call,
+                                                     Aggregator<? super R, A> aggregator)
+    {
+        RMIUtil.checkNotNull(call, aggregator);
+        Gather<A> gather = new Gather<A>(record(call), aggregator, addresses);
+        List<Target>    targets = new ArrayList<>(addresses.size());
+        for (InetSocketAddress address : addresses)
+        {
+            Target  target = new Target(gather, address);
+            gather.await(target);
+            targets.add(target);
+        }
+        gather.sent();
+        if (timeoutNanos != Long.MAX_VALUE)
+        {
+            CompletableFuture.delayedExecutor(timeoutNanos, TimeUnit.NANOSECONDS)
+                             .execute(gather::finish);
+        }
+        for (Target target : targets)
+            executor().execute(target::send);
+        return gather.future;
+    }
+
+    /** Returns an aggregator listing the results in the order they arrive. */
+    public static <R> Aggregator<R, List<R>> toList()
+    {
+        return new Aggregator<R, List<R>>()
+        {
+            private final List<R>   results = new ArrayList<>();
+
+            @Override
+            public boolean add(R result)
+            {
+                results.add(result);
+                return false;
+            }
+
+            @Override
+            public List<R> get()
+            {
+                return new ArrayList<>(results);
+            }
+        };
+    }
+
+    /** Returns an aggregator folding the results with a function.
+
+        @param identity The value of the aggregate before any result arrives.
+        @param operator The function combining the aggregate with a result.
+     */
+    public static <R> Aggregator<R, R> reducing(R identity, BinaryOperator<R> operator)
+    {
+        RMIUtil.checkNotNull(operator);
+        return new Aggregator<R, R>()
+        {
+            private R   value = identity;
+
+            @Override
+            public boolean add(R result)
+            {
+                value = operator.apply(value, result);
+                return false;
+            }
+
+            @Override
+            public R get()
+            {
+                return value;
+            }
+        };
+    }
+
+    /** Returns an aggregator listing the first results to arrive, which
+        completes the broadcast as soon as it has enough of them.
+
+        @param n The number of results wanted.
+        @throws IllegalArgumentException If <code>n</code> is not positive.
+     */
+    public static <R> Aggregator<R, List<R>> firstN(int n)
+    {
+        if (n < 1)
+            throw new IllegalArgumentException("n must be positive");
+        return new Aggregator<R, List<R>>()
+        {
+            private final List<R>   results = new ArrayList<>(n);
+
+            @Override
+            public boolean add(R result)
+            {
+                results.add(result);
+                return results.size() >= n;
+            }
+
+            @Override
+            public List<R> get()
+            {
+                return new ArrayList<>(results);
+            }
+        };
+    }
+
+    /** Combines the results of a broadcast call as they arrive. Results of
+        calls which failed are not added.
+     */
+    public interface Aggregator<R, A>
+    {
+        /** Adds the result of one skeleton.
+
+            @param result The value returned by the remote method.
+            @return Whether enough results have been gathered, in which case
+                    the broadcast completes without waiting for the other
+                    skeletons.
+         */
+        boolean add(R result);
+
+        /** Returns the combination of the results added so far. */
+        A get();
+    }
+
+    /** Outcome of a broadcast call. */
+    public static final class Result<A>
+    {
+        private final A                                     value;
+        private final Map<InetSocketAddress, Throwable>     failures;
+        private final Set<InetSocketAddress>                stragglers;
+
+        private Result(A value, Map<InetSocketAddress, Throwable> failures,
+                       Set<InetSocketAddress> stragglers)
+        {
+            this.value = value;
+            this.failures = Collections.unmodifiableMap(failures);
+            this.stragglers = Collections.unmodifiableSet(stragglers);
+        }
+
+        /** Returns the combination of the results received. */
+        public A getValue()
+        {
+            return value;
+        }
+
+        /** Returns the skeletons whose calls failed, with the exception
+            thrown by the remote method, or an <code>RMIException</code> if
+            the call could not be made.
+         */
+        public Map<InetSocketAddress, Throwable> getFailures()
+        {
+            return failures;
+        }
+
+        /** Returns the skeletons which had not answered when the broadcast
+            completed, because it timed out or its aggregator had enough
+            results.
+         */
+        public Set<InetSocketAddress> getStragglers()
+        {
+            return stragglers;
+        }
+
+        /** Tells whether every skeleton answered successfully. */
+        public boolean isComplete()
+        {
+            return failures.isEmpty() && stragglers.isEmpty();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "<Broadcast.Result, value: " + value + ", failures: "
+                   + failures.keySet() + ", stragglers: " + stragglers + " >";
+        }
+    }
+
+    /** Records the one call made by a lambda on a recording object. */
+    private Request record(Batch.Call<T, ?> call)
+    {
+        Request[]   recorded = new Request[1];
+        T           recorder = c.cast(Proxy.newProxyInstance(
+            c.getClassLoader(), new Class<?>[] {c}, new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args)
+                {
+                    if (method.getDeclaringClass() == Object.class)
+                        throw new IllegalArgumentException("not a remote method: " + method.getName());
+                    if (recorded[0] != null)
+                        throw new IllegalArgumentException("more than one remote call was made");
+                    if (StreamKind.of(method.getReturnType()) != null)
+                        throw new IllegalArgumentException("streamed results cannot be broadcast: "
+                                                           + method.getName());
+                    recorded[0] = args != null ? new Request(method, args) : new Request(method);
+                    return Batch.defaultValue(method.getReturnType());
+                }
+            }));
+        try
+        {
+            call.call(recorder);
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new IllegalArgumentException("recording a call failed", e);
+        }
+        if (recorded[0] == null)
+            throw new IllegalArgumentException("no remote call was made");
+        return recorded[0].trace(TraceContext.outbound());
+    }
+
+    /** Selector thread shared by all broadcasts, which does not keep the
+        process alive. Every connection it watches awaits a response, so none
+        is closed for being idle: the broadcast's timeout decides how long
+        to wait.
+     */
+    private static synchronized EventLoop loop() throws IOException
+    {
+        if (loop == null)
+            loop = new EventLoop("rmi-broadcast", true, 0);
+        return loop;
+    }
+
+    /** Threads sending requests and reading responses for all broadcasts,
+        which do not keep the process alive.
+     */
+    private static synchronized ExecutorService executor()
+    {
+        if (executor == null)
+        {
+            ThreadFactory   threads = Executors.defaultThreadFactory();
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread  thread = threads.newThread(r);
+                thread.setName("rmi-broadcast-" + thread.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /** State of one broadcast call, guarded by itself. */
+    private static final class Gather<A>
+    {
+        private final Request                               request;
+        private final Aggregator<Object, A>                 aggregator;
+        private final List<InetSocketAddress>               addresses;
+        private final Set<InetSocketAddress>                answered = new LinkedHashSet<>();
+        private final CompletableFuture<Result<A>>          future = new CompletableFuture<>();
+        private final Map<InetSocketAddress, Throwable>     failures = new LinkedHashMap<>();
+        private final Map<InetSocketAddress, Target>        waiting = new LinkedHashMap<>();
+        private boolean                                     registering = true;
+        private boolean                                     done;
+
+        @SuppressWarnings("unchecked")
+        Gather(Request request, Aggregator<?, A> aggregator,
+               List<InetSocketAddress> addresses)
+        {
+            this.request = request;
+            this.aggregator = (Aggregator<Object, A>) aggregator;
+            this.addresses = addresses;
+        }
+
+        synchronized boolean isDone()
+        {
+            return done;
+        }
+
+        /** Registers a skeleton whose response is awaited, before any
+            request is sent.
+         */
+        synchronized void await(Target target)
+        {
+            waiting.put(target.address, target);
+        }
+
+        /** Marks a skeleton's outcome as about to be reported, so that its
+            connection is not abandoned. The skeleton stays awaited until
+            the outcome is reported, as responses are read by several
+            threads.
+
+            @return Whether the broadcast was still waiting for the skeleton.
+         */
+        synchronized boolean claim(Target target)
+        {
+            if (done || target.claimed || !waiting.containsKey(target.address))
+                return false;
+            target.claimed = true;
+            return true;
+        }
+
+        synchronized void succeeded(Target target, Object result)
+        {
+            if (!answered(target))
+                return;
+            if (aggregator.add(result))
+                finish();
+            else
+                completeIfAnswered();
+        }
+
+        synchronized void failed(Target target, Throwable error)
+        {
+            if (!answered(target))
+                return;
+            failures.put(target.address, error);
+            completeIfAnswered();
+        }
+
+        private boolean answered(Target target)
+        {
+            if (done)
+                return false;
+            waiting.remove(target.address);
+            answered.add(target.address);
+            return true;
+        }
+
+        /** Notes that every skeleton has been registered. */
+        synchronized void sent()
+        {
+            registering = false;
+            completeIfAnswered();
+        }
+
+        private void completeIfAnswered()
+        {
+            if (!registering && waiting.isEmpty())
+                finish();
+        }
+
+        /** Completes the broadcast with the results received so far, and
+            abandons the skeletons still awaited. Skeletons to which the call
+            had not been sent yet are never called, and count as stragglers
+            too.
+         */
+        synchronized void finish()
+        {
+            if (done)
+                return;
+            done = true;
+            for (Target target : waiting.values())
+            {
+                // a claimed target's connection is already back in the pool
+                if (!target.claimed)
+                    target.abandon();
+            }
+            Set<InetSocketAddress>  stragglers = new LinkedHashSet<>(addresses);
+            stragglers.removeAll(answered);
+            future.complete(new Result<A>(aggregator.get(), failures, stragglers));
+        }
+    }
+
+    /** Call to one skeleton, sent from the pool, whose connection is
+        watched by the loop until the response arrives and then read from the
+        pool. Once the response has been read, the target claims it from the
+        broadcast: a response which arrives too late is discarded with its
+        connection, which the broadcast may already have closed.
+     */
+    private static final class Target implements EventLoop.Endpoint
+    {
+        private final Gather<?>             gather;
+        private final InetSocketAddress     address;
+        private final ClientMetrics         metrics;
+        private final long                  start = System.nanoTime();
+        private volatile Connection         connection;
+        /** Whether the outcome is being reported, guarded by the broadcast. */
+        private boolean                     claimed;
+
+        Target(Gather<?> gather, InetSocketAddress address)
+        {
+            this.gather = gather;
+            this.address = address;
+            this.metrics = ClientMetrics.of(address, gather.request.getMethod());
+            metrics.begin();
+        }
+
+        /** Sends the request, on a pooled connection if there is one, and
+            parks the connection with the loop. The request is sent again on
+            a new connection only if writing it to the pooled one failed:
+            once it has been written, the skeleton may have executed the
+            call. Does nothing if the broadcast completed before the
+            target's turn came.
+         */
+        void send()
+        {
+            if (gather.isDone())
+                return;
+            Connection  pooled = ConnectionPool.acquire(address);
+            if (pooled != null)
+            {
+                try
+                {
+                    write(pooled);
+                }
+                catch (IOException e)
+                {
+                    // the skeleton closed the pooled connection
+                    ConnectionPool.close(pooled);
+                    connect();
+                    return;
+                }
+                park(pooled);
+                return;
+            }
+            connect();
+        }
+
+        /** Sends the request on a new connection. The skeleton's answer to
+            the hello is read before the connection is parked, as the loop
+            must only find the connection readable once the response has
+            begun to arrive.
+         */
+        private void connect()
+        {
+            if (gather.isDone())
+                return;
+            Connection  connection = null;
+            try
+            {
+                connection = ConnectionPool.connect(address);
+                write(connection);
+                connection.awaitAnswer();
+            }
+            catch (IOException e)
+            {
+                if (connection != null)
+                    ConnectionPool.close(connection);
+                fail(new RMIException(e.getMessage(), e));
+                return;
+            }
+            park(connection);
+        }
+
+        private void write(Connection connection) throws IOException
+        {
+            this.connection = connection;
+            connection.setEndpoint(this);
+            connection.send(gather.request);
+        }
+
+        /** Has the loop watch a connection the request was written to. */
+        private void park(Connection connection)
+        {
+            try
+            {
+                loop().park(connection);
+            }
+            catch (IOException e)
+            {
+                ConnectionPool.close(connection);
+                fail(new RMIException(e.getMessage(), e));
+            }
+        }
+
+        /** Hands the connection to the pool, as the loop thread must not
+            block reading the response.
+         */
+        @Override
+        public void readable(Connection connection)
+        {
+            executor().execute(() -> receive(connection));
+        }
+
+        /** Reads the response. */
+        private void receive(Connection connection)
+        {
+            Response    response;
+            try
+            {
+                response = (Response) connection.receive();
+            }
+            catch (IOException | ClassNotFoundException | ClassCastException e)
+            {
+                ConnectionPool.close(connection);
+                fail(new RMIException(e.getMessage(), e));
+                return;
+            }
+            if (!gather.claim(this))
+            {
+                ConnectionPool.close(connection);
+                return;
+            }
+            ConnectionPool.release(connection);
+            NearCache.observe(address, response);
+            Throwable   error = response.getError();
+            metrics.end(System.nanoTime() - start, error);
+            if (error != null)
+                gather.failed(this, error);
+            else
+                gather.succeeded(this, response.getResult());
+        }
+
+        private void fail(Throwable error)
+        {
+            if (!gather.claim(this))
+                return;
+            metrics.end(System.nanoTime() - start, error);
+            gather.failed(this, error);
+        }
+
+        /** Gives up on the response, closing the connection it would come
+            on. Called with the broadcast's lock held.
+         */
+        void abandon()
+        {
+            metrics.end(System.nanoTime() - start, null);
+            Connection  connection = this.connection;
+            if (connection != null)
+                ConnectionPool.close(connection);
+        }
+
+        @Override
+        public void acceptable()
+        {
+        }
+
+        @Override
+        public void failed(IOException e)
+        {
+        }
+
+        @Override
+        public boolean isOpen()
+        {
+            return !gather.isDone();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package rmi;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct buffers used to frame and serialize messages.
+ *
+ * <p>
+ * Buffers come in size classes from 1 KiB to 1 MiB, each four times the
+ * previous one. A request is served from the smallest class that fits; requests
+ * larger than the largest class get an unpooled heap buffer. Each class keeps
+ * at most <code>RETAINED_BYTES</code> worth of idle buffers, so a burst of
+ * large messages does not pin memory forever.
+ *
+ * <p>
+ * When leak detection is on (in tests, or with the system property
+ * <code>rmi.buffers.leakDetection=true</code>), the arena remembers where every
+ * outstanding buffer was acquired, and reports buffers which are garbage
+ * collected without having been released.
+ */
+class BufferArena {
+    static final int MIN_CLASS_SIZE = 1024;
+    static final int CLASSES = 6;
+    static final int RETAINED_BYTES = 4 << 20;
+
+    private static final BufferArena SHARED = new BufferArena("rmi.buffers");
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final ConcurrentLinkedQueue<ByteBuffer>[] free;
+    private final AtomicInteger[] idle;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+    private final ConcurrentHashMap<LeakRecord, Boolean> tracked = new ConcurrentHashMap<>();
+    private volatile boolean leakDetection = Boolean.getBoolean("rmi.buffers.leakDetection");
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    BufferArena(String metricPrefix) {
+        free = new ConcurrentLinkedQueue[CLASSES];
+        idle = new AtomicInteger[CLASSES];
+        for (int i = 0; i < CLASSES; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+            idle[i] = new AtomicInteger();
+        }
+        if (metricPrefix != null) {
+            Metrics.gauge(metricPrefix + ".outstanding", outstanding::get);
+            Metrics.gauge(metricPrefix + ".hits", hits::get);
+            Metrics.gauge(metricPrefix + ".misses", misses::get);
+            Metrics.gauge(metricPrefix + ".leaks", leaks::get);
+            Metrics.gauge(metricPrefix + ".hit.percent", this::hitPercent);
+        }
+    }
+
+    /** Returns the arena shared by all stubs and skeletons. */
+    static BufferArena shared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrows a buffer with at least the given capacity, positioned at zero
+     * with its limit at its capacity.
+     */
+    PooledBuffer acquire(int capacity) {
+        int sizeClass = sizeClass(capacity);
+        PooledBuffer pooled;
+        if (sizeClass < 0) {
+            misses.incrementAndGet();
+            pooled = new PooledBuffer(this, ByteBuffer.allocate(capacity), -1);
+        } else {
+            ByteBuffer buffer = free[sizeClass].poll();
+            if (buffer != null) {
+                idle[sizeClass].decrementAndGet();
+                hits.incrementAndGet();
+                buffer.clear();
+            } else {
+                misses.incrementAndGet();
+                buffer = ByteBuffer.allocateDirect(classSize(sizeClass));
+            }
+            pooled = new PooledBuffer(this, buffer, sizeClass);
+        }
+        outstanding.incrementAndGet();
+        if (leakDetection) track(pooled);
+        return pooled;
+    }
+
+    void release(PooledBuffer pooled) {
+        outstanding.decrementAndGet();
+        if (pooled.leakToken != null) {
+            LeakRecord record = (LeakRecord) pooled.leakToken;
+            record.released = true;
+            tracked.remove(record);
+        }
+        int sizeClass = pooled.sizeClass();
+        if (sizeClass < 0) return;
+        if (idle[sizeClass].incrementAndGet() * (long) classSize(sizeClass) > RETAINED_BYTES
+                && idle[sizeClass].get() > 1) {
+            idle[sizeClass].decrementAndGet();
+            return;
+        }
+        free[sizeClass].add(pooled.raw());
+    }
+
+    void setLeakDetection(boolean enabled) {
+        leakDetection = enabled;
+    }
+
+    boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /** Returns the stack traces at which currently outstanding buffers were acquired. */
+    List<Throwable> outstandingTraces() {
+        List<Throwable> traces = new ArrayList<>();
+        for (LeakRecord record: tracked.keySet()) {
+            traces.add(record.site);
+        }
+        return traces;
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    long leaks() {
+        return leaks.get();
+    }
+
+    long hitPercent() {
+        long h = hits.get(), total = h + misses.get();
+        return total == 0 ? 0 : h * 100 / total;
+    }
+
+    static int classSize(int sizeClass) {
+        return MIN_CLASS_SIZE << (2 * sizeClass);
+    }
+
+    static int sizeClass(int capacity) {
+        for (int i = 0; i < CLASSES; i++) {
+            if (capacity <= classSize(i)) return i;
+        }
+        return -1;
+    }
+
+    private void track(PooledBuffer pooled) {
+        LeakRecord record = new LeakRecord(new Throwable("buffer of " + pooled.raw().capacity()
+                + " bytes acquired here"));
+        pooled.leakToken = record;
+        tracked.put(record, Boolean.TRUE);
+        CLEANER.register(pooled, record);
+    }
+
+    /** Runs when a tracked buffer becomes unreachable; reports it unless it was released. */
+    private class LeakRecord implements Runnable {
+        private final Throwable site;
+        private volatile boolean released;
+
+        LeakRecord(Throwable site) {
+            this.site = site;
+        }
+
+        @Override
+        public void run() {
+            if (released) return;
+            tracked.remove(this);
+            outstanding.decrementAndGet();
+            leaks.incrementAndGet();
+            System.err.println("> Pooled buffer was garbage collected without being released");
+            site.printStackTrace();
+        }
+    }
+}
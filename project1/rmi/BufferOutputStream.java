@@ -0,0 +1,71 @@
+package rmi;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream writing into pooled buffers. When the current buffer fills up,
+ * its contents move to a buffer of the next size class and the old one goes
+ * back to the arena. The first <code>reserved</code> bytes are left free for a
+ * frame header, so a frame can be written with a single channel write.
+ */
+class BufferOutputStream extends OutputStream {
+    private final BufferArena arena;
+    private final int reserved;
+    private PooledBuffer pooled;
+    private ByteBuffer buffer;
+
+    BufferOutputStream(BufferArena arena, int reserved) {
+        this.arena = arena;
+        this.reserved = reserved;
+        this.pooled = arena.acquire(BufferArena.MIN_CLASS_SIZE);
+        this.buffer = pooled.buffer();
+        this.buffer.position(reserved);
+    }
+
+    @Override
+    public void write(int b) {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensure(len);
+        buffer.put(b, off, len);
+    }
+
+    /** Number of bytes written, not counting the reserved header space. */
+    int size() {
+        return buffer.position() - reserved;
+    }
+
+    /** Returns the underlying buffer, positioned after the last byte written. */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /** Returns the buffer to the arena. The stream must not be used afterwards. */
+    void release() {
+        if (pooled != null) {
+            pooled.release();
+            pooled = null;
+            buffer = null;
+        }
+    }
+
+    /** Does not release the buffer: the contents are still needed after serialization. */
+    @Override
+    public void close() {
+    }
+
+    private void ensure(int n) {
+        if (buffer.remaining() >= n) return;
+        PooledBuffer bigger = arena.acquire(Math.max(buffer.capacity() * 2, buffer.position() + n));
+        buffer.flip();
+        bigger.buffer().put(buffer);
+        pooled.release();
+        pooled = bigger;
+        buffer = bigger.buffer();
+    }
+}
@@ -0,0 +1,50 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/** Marks a method of a remote interface whose results may be cached.
+
+    <p>
+    A skeleton keeps the serialized responses of cacheable methods, keyed by
+    method and arguments, and answers later calls with equal arguments from the
+    cache without invoking the server object. Arguments are compared with
+    <code>Arrays.deepEquals</code>, so argument classes must implement
+    <code>equals</code> and <code>hashCode</code> by value. Only normal results
+    are cached; exceptions and streamed results are not.
+
+    <p>
+    The annotation should be placed only on methods which are pure lookups, or
+    whose results may be served stale for up to the given time to live. Entries
+    can be dropped before they expire with the <code>invalidate</code> methods
+    of <code>Skeleton</code>.
+
+    <p>
+    Stubs may also cache results, in their <code>NearCache</code>, if
+    <code>maxStaleness</code> is positive. Every response carries the number
+    of invalidations the skeleton has made, and a stub drops all results it
+    cached from a skeleton as soon as it learns of a new invalidation. Since a
+    stub serving cached results does not contact the skeleton, it learns of
+    invalidations only with the responses to calls it does send;
+    <code>maxStaleness</code> bounds how long it may go without doing so.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cacheable
+{
+    /** Time for which a cached result may be served. */
+    long ttl() default 60;
+
+    /** Time for which stubs may serve a result without contacting the
+        skeleton. Zero, the default, disables caching in stubs.
+     */
+    long maxStaleness() default 0;
+
+    /** Unit of <code>ttl</code> and <code>maxStaleness</code>. */
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -0,0 +1,73 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counterpart of <code>CachingObjectOutputStream</code>. Remembers the class
+ * descriptors sent on a connection, and optionally resolves class names through
+ * a cache shared by all connections of a skeleton, which avoids the stack walk
+ * for the caller's class loader that <code>ObjectInputStream</code> does for
+ * every descriptor.
+ */
+class CachingObjectInputStream extends ObjectInputStream {
+    private final List<ObjectStreamClass> descriptors = new ArrayList<>();
+    private final Map<String, Class<?>> classes;
+
+    /**
+     * @param in stream of frame payloads.
+     * @param classes cache of resolved classes, or <code>null</code> to
+     *                resolve every descriptor.
+     */
+    CachingObjectInputStream(InputStream in, Map<String, Class<?>> classes) throws IOException {
+        super(in);
+        this.classes = classes;
+    }
+
+    /**
+     * Reads one message, and the reset which follows it, so that the stream
+     * does not keep the objects read reachable until the next message.
+     */
+    Object readMessage() throws IOException, ClassNotFoundException {
+        Object message = readObject();
+        // a reset between messages is consumed when the stream looks for more data
+        available();
+        return message;
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+        int tag = readInt();
+        if (tag >= 0) {
+            if (tag >= descriptors.size()) {
+                throw new StreamCorruptedException("unknown class descriptor " + tag);
+            }
+            return descriptors.get(tag);
+        }
+        if (tag == CachingObjectOutputStream.CLEAR) {
+            descriptors.clear();
+        } else if (tag != CachingObjectOutputStream.NEW) {
+            throw new StreamCorruptedException("invalid class descriptor tag " + tag);
+        }
+        ObjectStreamClass desc = super.readClassDescriptor();
+        descriptors.add(desc);
+        return desc;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        if (classes == null) return super.resolveClass(desc);
+        Class<?> c = classes.get(desc.getName());
+        if (c == null) {
+            c = super.resolveClass(desc);
+            classes.put(desc.getName(), c);
+        }
+        return c;
+    }
+}
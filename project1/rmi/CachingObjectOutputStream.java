@@ -0,0 +1,102 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Object output stream which stays open for the life of a connection and sends
+ * each class descriptor in full only once.
+ *
+ * <p>
+ * Every class descriptor is preceded by a tag: a non-negative tag refers to a
+ * descriptor sent earlier on the connection, <code>NEW</code> announces a
+ * descriptor which the reader must remember under the next free number, and
+ * <code>CLEAR</code> asks the reader to forget all remembered descriptors
+ * before reading a new one. The dictionary is bounded by
+ * <code>ResetPolicy</code>.
+ *
+ * <p>
+ * Objects implementing a remote interface are replaced by stubs, as
+ * <code>RemoteExports</code> describes, or as <code>Duplex</code> does for
+ * a duplex connection.
+ */
+class CachingObjectOutputStream extends ObjectOutputStream {
+    static final int NEW = -1;
+    static final int CLEAR = -2;
+
+    private final Map<ObjectStreamClass, Integer> ids = new HashMap<>();
+    private final InetAddress local;
+    private Duplex duplex;
+    private int messages;
+    private boolean clear;
+
+    CachingObjectOutputStream(OutputStream out) throws IOException {
+        this(out, null);
+    }
+
+    /**
+     * @param local address on which the receiver reaches this process, put in
+     *              the stubs of objects passed by reference, or
+     *              <code>null</code> for the local host's address.
+     */
+    CachingObjectOutputStream(OutputStream out, InetAddress local) throws IOException {
+        super(out);
+        this.local = local;
+        enableReplaceObject(true);
+    }
+
+    /** Exports the objects passed by reference on a duplex connection from now on. */
+    void setDuplex(Duplex duplex) {
+        this.duplex = duplex;
+    }
+
+    /**
+     * Writes one message, followed by a reset, so that objects mutated
+     * between calls are sent afresh and neither stream keeps the objects of
+     * the message reachable once it has been read.
+     */
+    void writeMessage(Object message) throws IOException {
+        if (++messages > ResetPolicy.getMaxMessages()) {
+            messages = 1;
+            clear = true;
+        }
+        writeObject(message);
+        reset();
+        flush();
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+        Integer id = clear ? null : ids.get(desc);
+        if (id != null) {
+            writeInt(id);
+            return;
+        }
+        int limit = ResetPolicy.getMaxDescriptors();
+        if (clear || ids.size() >= limit) {
+            ids.clear();
+            clear = false;
+            writeInt(CLEAR);
+        } else {
+            writeInt(NEW);
+        }
+        super.writeClassDescriptor(desc);
+        if (limit > 0) {
+            ids.put(desc, ids.size());
+        } else {
+            // caching disabled: make the reader drop the descriptor again
+            clear = true;
+        }
+        Metrics.counter("rmi.serialization.descriptors.sent").increment();
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) throws IOException {
+        return duplex != null ? duplex.replace(obj) : RemoteExports.replace(obj, local);
+    }
+}
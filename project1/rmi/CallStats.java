@@ -0,0 +1,40 @@
+package rmi;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-method call counts and latencies of one skeleton. Recording takes no
+ * lock, so every call is recorded.
+ */
+class CallStats {
+    private final ConcurrentHashMap<String, Entry> methods = new ConcurrentHashMap<>();
+
+    /**
+     * @param nanos time taken to serve the call.
+     * @param failed whether the call ended with an exception.
+     */
+    void record(String method, long nanos, boolean failed) {
+        Entry entry = methods.get(method);
+        if (entry == null) entry = methods.computeIfAbsent(method, m -> new Entry());
+        entry.latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (failed) entry.errors.increment();
+    }
+
+    Map<String, Statistics.MethodStatistics> snapshot() {
+        Map<String, Statistics.MethodStatistics> snapshot = new TreeMap<>();
+        methods.forEach((name, entry) -> {
+            HistogramSnapshot latency = new HistogramSnapshot(entry.latency);
+            snapshot.put(name, new Statistics.MethodStatistics(latency.getCount(), entry.errors.sum(), latency));
+        });
+        return snapshot;
+    }
+
+    private static final class Entry {
+        private final Metrics.Histogram latency = new Metrics.Histogram();
+        private final LongAdder errors = new LongAdder();
+    }
+}
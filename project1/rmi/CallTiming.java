@@ -0,0 +1,214 @@
+package rmi;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Breakdown of the time taken by a sampled call on a stub.
+
+    <p>
+    A fraction of calls, set with <code>setSampleRate</code>, is sampled. For
+    those calls the stub measures its own phases, and the skeleton measures
+    its phases and returns them with the response. The breakdown of the last
+    sampled call made by a thread is returned by <code>last</code>, and every
+    breakdown is passed to the registered listeners. For example:
+
+    <pre>
+    CallTiming.setSampleRate(1);
+    stub.lookup(1);
+    System.out.println(CallTiming.last());
+    </pre>
+
+    <p>
+    All times are in nanoseconds. The skeleton's phases are measured with its
+    own clock and reported as durations, so they can be combined with the
+    stub's even if the clocks of the two hosts differ. Whatever time is not
+    accounted for by a phase was spent on the network and in sending the
+    response, and is reported by <code>getNetworkNanos</code>. Responses
+    which the skeleton serves from its result cache, or shares between
+    coalesced calls, carry no timings of the skeleton; nor do calls made in a
+    <code>Batch</code>, which are not sampled.
+ */
+public final class CallTiming
+{
+    private static final ThreadLocal<CallTiming>    last = new ThreadLocal<>();
+    private static final List<Listener>             listeners =
+        new CopyOnWriteArrayList<>();
+    private static volatile double                  sampleRate;
+
+    private final String    methodName;
+    private final long      connect;
+    private final long      encode;
+    private final long      decode;
+    private final long      total;
+    private final long[]    server;
+
+    CallTiming(String methodName, long connect, long encode, long decode,
+               long total, long[] server)
+    {
+        this.methodName = methodName;
+        this.connect = connect;
+        this.encode = encode;
+        this.decode = decode;
+        this.total = total;
+        this.server = server;
+    }
+
+    /** Receives the breakdown of every sampled call. */
+    @FunctionalInterface
+    public interface Listener
+    {
+        /** Called on the thread which made the call, once it has completed.
+
+            @param timing The breakdown of the call.
+         */
+        void timed(CallTiming timing);
+    }
+
+    /** Sets the fraction of calls which are sampled.
+
+        @param rate A fraction between zero, the default, which samples no
+                    calls, and one, which samples every call.
+        @throws IllegalArgumentException If <code>rate</code> is not between
+                                         zero and one.
+     */
+    public static void setSampleRate(double rate)
+    {
+        if (!(rate >= 0 && rate <= 1))
+            throw new IllegalArgumentException("sample rate out of range: " + rate);
+        sampleRate = rate;
+    }
+
+    /** Returns the fraction of calls which are sampled. */
+    public static double getSampleRate()
+    {
+        return sampleRate;
+    }
+
+    /** Returns the breakdown of the last sampled call made by the current
+        thread, or <code>null</code> if it has made none.
+     */
+    public static CallTiming last()
+    {
+        return last.get();
+    }
+
+    /** Registers a listener for the breakdowns of sampled calls.
+
+        @throws NullPointerException If <code>listener</code> is
+                                     <code>null</code>.
+     */
+    public static void addListener(Listener listener)
+    {
+        RMIUtil.checkNotNull(listener);
+        listeners.add(listener);
+    }
+
+    /** Removes a listener registered with <code>addListener</code>. */
+    public static void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /** Decides whether the next call is sampled. */
+    static boolean sample()
+    {
+        double rate = sampleRate;
+        return rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    /** Makes the breakdown of a call available to the calling thread and the
+        listeners.
+     */
+    static void publish(CallTiming timing)
+    {
+        last.set(timing);
+        for (Listener listener : listeners)
+            listener.timed(timing);
+    }
+
+    /** Returns the name of the method called. */
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    /** Returns the time from the start of the call until the result had
+        been read.
+     */
+    public long getTotalNanos()
+    {
+        return total;
+    }
+
+    /** Returns the time spent opening a connection to the skeleton, or zero
+        if an open connection was reused.
+     */
+    public long getConnectNanos()
+    {
+        return connect;
+    }
+
+    /** Returns the time the stub spent serializing the request. */
+    public long getEncodeNanos()
+    {
+        return encode;
+    }
+
+    /** Returns the time the stub spent deserializing the response. */
+    public long getDecodeNanos()
+    {
+        return decode;
+    }
+
+    /** Tells whether the skeleton returned its timings. */
+    public boolean hasServerTimings()
+    {
+        return server != null;
+    }
+
+    /** Returns the time the request waited for a service thread of the
+        skeleton, or zero if the skeleton returned no timings.
+     */
+    public long getQueueNanos()
+    {
+        return server == null ? 0 : server[0];
+    }
+
+    /** Returns the time the skeleton spent deserializing the request, or
+        zero if it returned no timings.
+     */
+    public long getServerDecodeNanos()
+    {
+        return server == null ? 0 : server[1];
+    }
+
+    /** Returns the time the skeleton spent executing the call, including the
+        server object's method, or zero if it returned no timings.
+     */
+    public long getServiceNanos()
+    {
+        return server == null ? 0 : server[2];
+    }
+
+    /** Returns the time not accounted for by any other phase: transferring
+        the request and response, and serializing the response.
+     */
+    public long getNetworkNanos()
+    {
+        long accounted = connect + encode + decode + getQueueNanos()
+                         + getServerDecodeNanos() + getServiceNanos();
+        return Math.max(total - accounted, 0);
+    }
+
+    @Override
+    public String toString()
+    {
+        return methodName + ": total " + total + " ns, connect " + connect
+               + ", encode " + encode + ", queue " + getQueueNanos()
+               + ", server decode " + getServerDecodeNanos() + ", service "
+               + getServiceNanos() + ", network " + getNetworkNanos()
+               + ", decode " + decode
+               + (server == null ? " (no server timings)" : "");
+    }
+}
@@ -0,0 +1,100 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the calls made through stubs, for each method of each remote
+ * interface and each skeleton address.
+ *
+ * <p>
+ * The metrics of a method are registered in <code>Metrics</code> under
+ * <code>rmi.stub.</code><i>interface</i><code>.</code><i>method</i><code>.</code><i>endpoint</i>,
+ * where the endpoint is the skeleton's host and port with the dots of the host
+ * replaced by underscores, followed by:
+ * <ul>
+ * <li><code>latency.us</code>: histogram of call durations, from the stub's
+ *     point of view, including connecting and queuing on the skeleton;</li>
+ * <li><code>connect.us</code>: histogram of the time spent opening
+ *     connections, for calls which had to;</li>
+ * <li><code>bytes.sent</code> and <code>bytes.received</code>: size of
+ *     requests and responses;</li>
+ * <li><code>inflight</code>: gauge of calls started and not yet completed;</li>
+ * <li><code>errors.</code><i>class</i>: calls which failed with an exception
+ *     of the given class, thrown either by the server object or by the
+ *     connection.</li>
+ * </ul>
+ * Overloads of a method share their metrics.
+ *
+ * <p>
+ * Once a stub has called a method, its metrics are found with two lookups in
+ * concurrent maps, and are recorded in adders and atomic histograms, so calls
+ * do not contend on any lock.
+ */
+final class ClientMetrics {
+    private static final ConcurrentHashMap<InetSocketAddress, ConcurrentHashMap<Method, ClientMetrics>> byAddress =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ClientMetrics> byName = new ConcurrentHashMap<>();
+
+    private final String prefix;
+    private final Metrics.Histogram latency;
+    private final Metrics.Histogram connect;
+    private final Metrics.Counter sent;
+    private final Metrics.Counter received;
+    private final LongAdder inFlight = new LongAdder();
+    private final ConcurrentHashMap<Class<?>, Metrics.Counter> errors = new ConcurrentHashMap<>();
+
+    private ClientMetrics(String prefix) {
+        this.prefix = prefix;
+        this.latency = Metrics.histogram(prefix + ".latency.us");
+        this.connect = Metrics.histogram(prefix + ".connect.us");
+        this.sent = Metrics.counter(prefix + ".bytes.sent");
+        this.received = Metrics.counter(prefix + ".bytes.received");
+        Metrics.gauge(prefix + ".inflight", inFlight::sum);
+    }
+
+    /** Returns the metrics of calls of a method on the skeleton at an address. */
+    static ClientMetrics of(InetSocketAddress address, Method method) {
+        ConcurrentHashMap<Method, ClientMetrics> methods = byAddress.get(address);
+        if (methods == null) methods = byAddress.computeIfAbsent(address, a -> new ConcurrentHashMap<>());
+        ClientMetrics metrics = methods.get(method);
+        if (metrics == null) {
+            metrics = methods.computeIfAbsent(method, m -> byName.computeIfAbsent(name(address, m), ClientMetrics::new));
+        }
+        return metrics;
+    }
+
+    /** Name under which the metrics of a method and address are registered. */
+    static String name(InetSocketAddress address, Method method) {
+        return "rmi.stub." + method.getDeclaringClass().getSimpleName() + "." + method.getName() + "."
+                + address.getHostString().replace('.', '_') + ":" + address.getPort();
+    }
+
+    void begin() {
+        inFlight.increment();
+    }
+
+    /** Records the traffic of a call which reached the skeleton. */
+    void exchanged(long connectNanos, long sentBytes, long receivedBytes) {
+        if (connectNanos > 0) connect.record(TimeUnit.NANOSECONDS.toMicros(connectNanos));
+        sent.add(sentBytes);
+        received.add(receivedBytes);
+    }
+
+    /** @param error exception the call failed with, or <code>null</code>. */
+    void end(long nanos, Throwable error) {
+        inFlight.decrement();
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (error != null) {
+            Class<?> c = error.getClass();
+            Metrics.Counter counter = errors.get(c);
+            if (counter == null) {
+                counter = errors.computeIfAbsent(c, e -> Metrics.counter(prefix + ".errors." + e.getName()));
+            }
+            counter.increment();
+        }
+    }
+}
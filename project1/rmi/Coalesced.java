@@ -0,0 +1,31 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface whose concurrent calls may share one
+    invocation.
+
+    <p>
+    When a skeleton receives a call to a coalesced method while a call with
+    equal arguments is already being invoked, it does not invoke the server
+    object again. It waits for the running invocation instead, and sends its
+    response, serialized once, to every caller. Arguments are compared with
+    <code>Arrays.deepEquals</code>. Exceptions thrown by the invocation are
+    shared in the same way. Methods with streamed results are never coalesced.
+
+    <p>
+    The annotation should be placed only on methods whose callers can accept a
+    result computed for another caller that arrived slightly earlier, such as
+    expensive lookups. It may be combined with <code>Cacheable</code>, in which
+    case calls are coalesced only when the result is not cached.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Coalesced
+{
+}
@@ -0,0 +1,42 @@
+package rmi;
+
+import java.io.IOException;
+
+/** Payload compression codec.
+
+    <p>
+    Codecs are registered with <code>Codecs</code> under a unique name. When a
+    stub connects to a skeleton, the two sides agree on the first codec in the
+    stub's preference order which both of them have registered, and compress
+    every frame on that connection larger than the threshold set with
+    <code>Codecs.setThreshold</code>. Implementations must be thread-safe: a
+    single codec object is shared by all connections.
+ */
+public interface Codec
+{
+    /** Returns the name under which the codec is negotiated. */
+    String name();
+
+    /** Compresses a range of bytes.
+
+        @param data Array holding the bytes to compress.
+        @param offset Index of the first byte to compress.
+        @param length Number of bytes to compress.
+        @return The compressed bytes.
+        @throws IOException If the data cannot be compressed.
+     */
+    byte[] compress(byte[] data, int offset, int length) throws IOException;
+
+    /** Decompresses a range of bytes produced by <code>compress</code>.
+
+        @param data Array holding the compressed bytes.
+        @param offset Index of the first compressed byte.
+        @param length Number of compressed bytes.
+        @param originalLength Number of bytes originally given to
+                              <code>compress</code>.
+        @return The original bytes.
+        @throws IOException If the data is corrupt.
+     */
+    byte[] decompress(byte[] data, int offset, int length, int originalLength)
+        throws IOException;
+}
@@ -0,0 +1,111 @@
+package rmi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+
+/** Registry of payload compression codecs.
+
+    <p>
+    The registry is shared by all stubs and skeletons in the process. Codecs are
+    kept in preference order: a stub offers its codecs in this order when it
+    connects, and the skeleton accepts the first one it also has. The built-in
+    <code>"deflate"</code> codec is registered initially.
+
+    <p>
+    Frames smaller than the threshold are never compressed, since for small
+    payloads the CPU cost outweighs the bytes saved. Frames which do not shrink
+    when compressed are also sent as they are.
+ */
+public final class Codecs
+{
+    /** Default compression threshold, in bytes. */
+    public static final int     DEFAULT_THRESHOLD = 1024;
+
+    private static final List<Codec>    codecs = new CopyOnWriteArrayList<>();
+    private static volatile int         threshold = DEFAULT_THRESHOLD;
+
+    static
+    {
+        codecs.add(new DeflateCodec(Deflater.BEST_SPEED));
+    }
+
+    private Codecs()
+    {
+    }
+
+    /** Registers a codec, replacing any codec of the same name.
+
+        <p>
+        A codec registered without a preference goes after all codecs already
+        registered.
+
+        @param codec The codec to register.
+        @param preferred If <code>true</code>, the codec is offered before all
+                         other codecs.
+        @throws NullPointerException If <code>codec</code> or its name is
+                                     <code>null</code>.
+     */
+    public static synchronized void register(Codec codec, boolean preferred)
+    {
+        RMIUtil.checkNotNull(codec);
+        RMIUtil.checkNotNull(codec.name());
+        unregister(codec.name());
+        if (preferred) {
+            codecs.add(0, codec);
+        } else {
+            codecs.add(codec);
+        }
+    }
+
+    /** Removes a codec. Connections which have already negotiated the codec
+        continue to use it.
+
+        @param name Name of the codec to remove.
+        @return <code>true</code> if a codec was removed.
+     */
+    public static synchronized boolean unregister(String name)
+    {
+        return codecs.removeIf(codec -> codec.name().equals(name));
+    }
+
+    /** Returns the codec registered under the given name, or
+        <code>null</code> if there is none.
+     */
+    public static Codec get(String name)
+    {
+        for (Codec codec: codecs) {
+            if (codec.name().equals(name)) return codec;
+        }
+        return null;
+    }
+
+    /** Returns the names of the registered codecs, in preference order. */
+    public static List<String> names()
+    {
+        List<String> names = new ArrayList<>();
+        for (Codec codec: codecs) {
+            names.add(codec.name());
+        }
+        return names;
+    }
+
+    /** Sets the size, in bytes, below which frames are sent uncompressed.
+
+        @param bytes The new threshold. <code>Integer.MAX_VALUE</code> disables
+                     compression.
+        @throws IllegalArgumentException If <code>bytes</code> is negative.
+     */
+    public static void setThreshold(int bytes)
+    {
+        if (bytes < 0) throw new IllegalArgumentException("negative threshold: " + bytes);
+        threshold = bytes;
+    }
+
+    /** Returns the size, in bytes, below which frames are sent uncompressed. */
+    public static int getThreshold()
+    {
+        return threshold;
+    }
+}
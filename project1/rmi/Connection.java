@@ -0,0 +1,640 @@
+package rmi;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Framed message channel between a stub and a skeleton.
+ *
+ * <p>
+ * Messages are sent as frames: a four-byte payload length, a flags byte, and
+ * the payload. Compressed payloads are prefixed with their uncompressed length.
+ * Neither length may exceed <code>MAX_FRAME_SIZE</code>: a peer announcing a
+ * longer frame is treated as corrupt rather than trusted with an allocation.
+ * The payloads of all frames sent in one direction form a single
+ * serialization stream, written by one <code>CachingObjectOutputStream</code>
+ * kept for the life of the connection, so class descriptors are sent only once
+ * per connection. Each frame carries exactly one message. Frames flagged as
+ * standalone are the exception: their payload is a complete serialization of
+ * its own, produced by <code>encode</code>, so that it can be prepared once
+ * and sent on any connection. Frames flagged as direct are not part of the
+ * stream either: they carry a simple request or response written by
+ * <code>DirectEncoding</code>, without serialization.
+ *
+ * <p>
+ * When the stub connects it sends a hello listing the codecs it has, in
+ * preference order, and the skeleton answers with the name of the codec it
+ * picked, or an empty name if it has none of them. The stub does not wait for
+ * the answer before sending its first request, so negotiation costs no round
+ * trip: the first request goes out uncompressed, and everything after it on
+ * the connection may be compressed.
+ *
+ * <p>
+ * Messages are serialized into, and frames are read into, direct buffers
+ * borrowed from the shared <code>BufferArena</code>, and are written to and
+ * read from the socket channel without intermediate copies.
+ *
+ * <p>
+ * A connection is used by one call at a time, unless it has been handed to a
+ * <code>Duplex</code>, which multiplexes calls on it. If sending a message fails the
+ * serialization stream can no longer be trusted, and the connection is marked
+ * broken and must be closed.
+ */
+class Connection implements Closeable {
+    private static final int MAGIC = 0x524d4931;
+    private static final int HEADER_SIZE = 5;
+    private static final int FLAG_COMPRESSED = 1;
+    private static final int FLAG_STANDALONE = 2;
+    private static final int FLAG_DIRECT = 4;
+    /** Largest payload, compressed or not, accepted from a peer. */
+    static final int MAX_FRAME_SIZE = 64 << 20;
+
+    private final SocketChannel channel;
+    private final InetSocketAddress address;
+    private final BufferArena arena = BufferArena.shared();
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer probe = ByteBuffer.allocate(1);
+    private final Map<String, Class<?>> classes;
+    private final FrameSink sink = new FrameSink();
+    private final FrameSource source = new FrameSource();
+    private CachingObjectOutputStream encoder;
+    private CachingObjectInputStream decoder;
+    private final DirectEncoding direct;
+    private volatile Codec codec;
+    private boolean negotiated;
+    private volatile boolean broken;
+    private long lastUsed = System.nanoTime();
+    private long encodeNanos;
+    private long decodeNanos;
+    private long sentBytes;
+    private long receivedBytes;
+    private Traffic traffic;
+    private EventLoop.Endpoint endpoint;
+    private Duplex duplex;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Connection(SocketChannel channel, InetSocketAddress address, Map<String, Class<?>> classes)
+            throws IOException {
+        this.channel = channel;
+        this.address = address;
+        this.classes = classes;
+        this.direct = new DirectEncoding(classes);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Opens a connection to a skeleton and sends the hello.
+     * @param address address of the skeleton.
+     */
+    static Connection connect(InetSocketAddress address) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(address.getHostName(), address.getPort()));
+        try {
+            Connection connection = new Connection(channel, address, null);
+            connection.opened();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream hello = new DataOutputStream(bytes);
+            List<String> names = Codecs.names();
+            hello.writeInt(MAGIC);
+            hello.writeShort(names.size());
+            for (String name: names) {
+                hello.writeUTF(name);
+            }
+            connection.writeFully(ByteBuffer.wrap(bytes.toByteArray()));
+            return connection;
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Reads the hello of a stub which has just connected and answers it.
+     * @param channel accepted channel, in blocking mode.
+     * @param classes cache of resolved classes shared by the skeleton's connections.
+     * @param traffic counters of the skeleton, kept up to date until the connection is closed.
+     */
+    static Connection accept(SocketChannel channel, Map<String, Class<?>> classes, Traffic traffic)
+            throws IOException {
+        Events.Accept event = new Events.Accept();
+        event.begin();
+        Connection connection = new Connection(channel, null, classes);
+        connection.traffic = traffic;
+        ByteBuffer start = connection.readFully(6);
+        if (start.getInt() != MAGIC) {
+            throw new StreamCorruptedException("connection from " + connection.getRemoteAddress()
+                    + " is not an RMI stub");
+        }
+        int count = start.getShort() & 0xffff;
+        for (int i = 0; i < count; i++) {
+            Codec codec = Codecs.get(connection.readUTF());
+            if (connection.codec == null && codec != null) connection.codec = codec;
+        }
+        byte[] name = connection.codec == null ? new byte[0]
+                : connection.codec.name().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer ack = ByteBuffer.allocate(2 + name.length);
+        ack.putShort((short) name.length).put(name).flip();
+        connection.writeFully(ack);
+        connection.negotiated();
+        traffic.open.incrementAndGet();
+        event.end();
+        if (event.shouldCommit()) {
+            event.remoteAddress = String.valueOf(connection.getRemoteAddress());
+            event.codec = connection.getCodecName();
+            event.commit();
+        }
+        connection.opened();
+        return connection;
+    }
+
+    /** Serializes a message and sends it as one frame. */
+    synchronized void send(Object message) throws IOException {
+        if (broken) throw new IOException("connection is broken");
+        BufferOutputStream bytes = new BufferOutputStream(arena, HEADER_SIZE);
+        sink.target = bytes;
+        try {
+            Events.Serialization event = new Events.Serialization();
+            event.begin();
+            long start = System.nanoTime();
+            int flags = 0;
+            if (DirectEncoding.accepts(message)) {
+                direct.write(message, bytes);
+                flags = FLAG_DIRECT;
+            } else {
+                if (encoder == null) {
+                    encoder = new CachingObjectOutputStream(sink, channel.socket().getLocalAddress());
+                    encoder.setDuplex(duplex);
+                }
+                encoder.writeMessage(message);
+            }
+            encodeNanos = System.nanoTime() - start;
+            sentBytes = bytes.size();
+            serialized(event, "encode", message, sentBytes);
+            writeFrame(bytes.buffer(), HEADER_SIZE, bytes.size(), flags);
+            lastUsed = System.nanoTime();
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        } finally {
+            sink.target = null;
+            bytes.release();
+        }
+    }
+
+    /**
+     * Serializes a message on its own, independently of any connection.
+     * @return payload which can be sent with <code>sendEncoded</code> on any
+     *         connection, any number of times.
+     */
+    static byte[] encode(Object message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CachingObjectOutputStream out = new CachingObjectOutputStream(bytes);
+        out.writeMessage(message);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /** Deserializes a message serialized by <code>encode</code>. */
+    static Object decode(byte[] message) throws IOException, ClassNotFoundException {
+        return new CachingObjectInputStream(new ByteArrayInputStream(message), null).readObject();
+    }
+
+    /** Sends a message serialized earlier by <code>encode</code>. */
+    synchronized void sendEncoded(byte[] message) throws IOException {
+        if (broken) throw new IOException("connection is broken");
+        try {
+            writeFrame(ByteBuffer.wrap(message), 0, message.length, FLAG_STANDALONE);
+            sentBytes = message.length;
+            lastUsed = System.nanoTime();
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Blocks for the next frame and deserializes the message it carries.
+     * @throws ClosedException If the peer closed the connection between
+     *                         messages.
+     */
+    Object receive() throws IOException, ClassNotFoundException {
+        synchronized (source) {
+            try {
+                Object message;
+                boolean standalone = source.nextIsStandalone();
+                Events.Serialization event = new Events.Serialization();
+                event.begin();
+                long start = System.nanoTime();
+                receivedBytes = source.remaining();
+                if (standalone) {
+                    message = new CachingObjectInputStream(source.frame(), classes).readObject();
+                    source.release();
+                } else if (source.isDirect()) {
+                    message = direct.read(source.buffer);
+                } else {
+                    if (decoder == null) decoder = new CachingObjectInputStream(source, classes);
+                    message = decoder.readMessage();
+                }
+                source.releaseIfExhausted();
+                lastUsed = System.nanoTime();
+                decodeNanos = lastUsed - start;
+                serialized(event, "decode", message, receivedBytes);
+                return message;
+            } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                broken = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Frames a message serialized by <code>encode</code>, for writing with
+     * <code>writeSome</code> on a channel which does not block.
+     */
+    ByteBuffer[] frameEncoded(byte[] message) throws IOException {
+        return frame(ByteBuffer.wrap(message), 0, message.length, FLAG_STANDALONE);
+    }
+
+    /**
+     * Writes as much of a frame as the channel takes without blocking. The
+     * channel must not be blocking.
+     * @return whether the whole frame has been written.
+     */
+    synchronized boolean writeSome(ByteBuffer[] frame) throws IOException {
+        if (broken) throw new IOException("connection is broken");
+        try {
+            long written = channel.write(frame);
+            if (traffic != null) traffic.out.add(written);
+            lastUsed = System.nanoTime();
+            return !frame[frame.length - 1].hasRemaining();
+        } catch (IOException | RuntimeException e) {
+            broken = true;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a payload as one frame, compressing it if worthwhile.
+     * @param buffer buffer holding the payload at <code>offset</code>. If the
+     *               offset leaves room, the header is written in place before
+     *               the payload.
+     */
+    private void writeFrame(ByteBuffer buffer, int offset, int length, int flags) throws IOException {
+        writeFully(frame(buffer, offset, length, flags));
+    }
+
+    /** Returns the buffers to write for a payload, compressing it if worthwhile. */
+    private ByteBuffer[] frame(ByteBuffer buffer, int offset, int length, int flags) throws IOException {
+        Codec codec = this.codec;
+        if (codec != null && length >= Codecs.getThreshold()) {
+            // codecs work on arrays, so only frames worth compressing are copied out
+            byte[] raw = new byte[length];
+            buffer.duplicate().position(offset).get(raw, 0, length);
+            byte[] packed = codec.compress(raw, 0, length);
+            if (packed.length + 4 < length) {
+                Metrics.counter("rmi.codec." + codec.name() + ".raw.bytes").add(length);
+                Metrics.counter("rmi.codec." + codec.name() + ".wire.bytes").add(packed.length + 4);
+                ByteBuffer prefix = ByteBuffer.allocate(HEADER_SIZE + 4);
+                prefix.putInt(packed.length + 4).put((byte) (flags | FLAG_COMPRESSED)).putInt(length).flip();
+                return new ByteBuffer[] {prefix, ByteBuffer.wrap(packed)};
+            }
+        }
+        Metrics.counter("rmi.codec.none.wire.bytes").add(length);
+        if (offset >= HEADER_SIZE) {
+            buffer.putInt(offset - HEADER_SIZE, length).put(offset - HEADER_SIZE + 4, (byte) flags);
+            buffer.limit(offset + length).position(offset - HEADER_SIZE);
+            return new ByteBuffer[] {buffer};
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(length).put((byte) flags).flip();
+            buffer.limit(offset + length).position(offset);
+            return new ByteBuffer[] {header, buffer};
+        }
+    }
+
+    private void writeFully(ByteBuffer... buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer: buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers);
+            if (traffic != null) traffic.out.add(written);
+            remaining -= written;
+        }
+    }
+
+    private int read(ByteBuffer buffer) throws IOException {
+        int read = channel.read(buffer);
+        if (read > 0 && traffic != null) traffic.in.add(read);
+        return read;
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (read(buffer) < 0) throw new EOFException("connection closed by peer");
+        }
+    }
+
+    private ByteBuffer readFully(int n) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(n);
+        readFully(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    private String readUTF() throws IOException {
+        int length = readFully(2).getShort() & 0xffff;
+        return new String(readFully(length).array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the skeleton's answer to the hello, unless it has been read
+     * already. Until then, bytes waiting on a new connection are not
+     * necessarily the start of a response.
+     */
+    void awaitAnswer() throws IOException {
+        synchronized (source) {
+            if (!negotiated) readAnswer();
+        }
+    }
+
+    private void readAnswer() throws IOException {
+        String name = readUTF();
+        codec = name.isEmpty() ? null : Codecs.get(name);
+        negotiated();
+    }
+
+    private void negotiated() {
+        negotiated = true;
+        Metrics.counter("rmi.connection.codec." + (codec == null ? "none" : codec.name())).increment();
+    }
+
+    /** Returns the name of the negotiated codec, or <code>null</code> if frames are not compressed. */
+    String getCodecName() {
+        return codec == null ? null : codec.name();
+    }
+
+    /** Whether a failed send or receive left the connection unusable. */
+    boolean isBroken() {
+        return broken;
+    }
+
+    /**
+     * Checks, without blocking, that an idle connection has not been closed
+     * by the peer. Any byte waiting on an idle connection is a protocol error,
+     * so the connection is then considered stale too.
+     */
+    boolean isStale() {
+        if (broken || !channel.isOpen()) return true;
+        synchronized (source) {
+            try {
+                channel.configureBlocking(false);
+                try {
+                    probe.clear();
+                    return channel.read(probe) != 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            } catch (IOException ioe) {
+                return true;
+            }
+        }
+    }
+
+    /** Address the stub connected to, or <code>null</code> for accepted connections. */
+    InetSocketAddress getAddress() {
+        return address;
+    }
+
+    /** Nanoseconds spent serializing the last message sent with <code>send</code>. */
+    long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    /** Nanoseconds spent deserializing the last message received, once its frame had arrived. */
+    long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    /** Serialized size of the last message sent. */
+    long getSentBytes() {
+        return sentBytes;
+    }
+
+    /** Serialized size of the last message received. */
+    long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    private void serialized(Events.Serialization event, String direction, Object message, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.direction = direction;
+            event.messageType = message == null ? null : message.getClass().getName();
+            event.remoteAddress = String.valueOf(getRemoteAddress());
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    private void opened() {
+        Events.ConnectionOpen event = new Events.ConnectionOpen();
+        if (event.shouldCommit()) {
+            event.remoteAddress = String.valueOf(getRemoteAddress());
+            event.side = address != null ? "stub" : "skeleton";
+            event.commit();
+        }
+    }
+
+    /** Listener of the skeleton which accepted the connection, or <code>null</code> for a stub's. */
+    EventLoop.Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    void setEndpoint(EventLoop.Endpoint endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    /** Makes objects passed by reference in the messages sent from now on be exported on a duplex connection. */
+    synchronized void setDuplex(Duplex duplex) {
+        this.duplex = duplex;
+        if (encoder != null) encoder.setDuplex(duplex);
+    }
+
+    /** Nanosecond timestamp of the last message sent or received. */
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    SocketAddress getRemoteAddress() {
+        return channel.socket().getRemoteSocketAddress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed.compareAndSet(false, true)) {
+            if (traffic != null) traffic.open.decrementAndGet();
+            Events.ConnectionClose event = new Events.ConnectionClose();
+            if (event.shouldCommit()) {
+                event.remoteAddress = String.valueOf(getRemoteAddress());
+                event.side = address != null ? "stub" : "skeleton";
+                event.commit();
+            }
+        }
+        broken = true;
+        try {
+            channel.close();
+        } finally {
+            // a reader blocked on the channel has now failed and let go of the source
+            synchronized (source) {
+                source.release();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<Connection, remote: " + getRemoteAddress() + ", codec: " + getCodecName() + " >";
+    }
+
+    /** Thrown when the peer closes the connection cleanly, between two frames. */
+    static class ClosedException extends EOFException {
+        ClosedException() {
+            super("connection closed by peer");
+        }
+    }
+
+    /** Directs the encoder's output into the frame currently being built. */
+    private static class FrameSink extends OutputStream {
+        private BufferOutputStream target;
+
+        @Override
+        public void write(int b) {
+            target.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            target.write(b, off, len);
+        }
+    }
+
+    /**
+     * Presents the payloads of incoming frames as one stream. A new frame is
+     * read from the channel only when the decoder needs bytes beyond the
+     * current one.
+     */
+    private class FrameSource extends InputStream {
+        private PooledBuffer pooled;
+        private ByteBuffer buffer;
+        private boolean standalone;
+        private boolean direct;
+
+        @Override
+        public int read() throws IOException {
+            if (!ensure()) return -1;
+            return buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!ensure()) return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        private boolean ensure() throws IOException {
+            while (buffer == null || !buffer.hasRemaining()) {
+                release();
+                next();
+            }
+            return true;
+        }
+
+        /** Reads the next frame, if necessary, and tells whether it is standalone. */
+        boolean nextIsStandalone() throws IOException {
+            ensure();
+            return standalone;
+        }
+
+        /** Whether the current frame was written by <code>DirectEncoding</code>. */
+        boolean isDirect() {
+            return direct;
+        }
+
+        /** Number of bytes left in the current frame. */
+        int remaining() {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        /** Returns the remainder of the current frame as a stream of its own. */
+        InputStream frame() {
+            return new BufferInputStream(buffer);
+        }
+
+        void releaseIfExhausted() {
+            if (buffer != null && !buffer.hasRemaining()) release();
+        }
+
+        void release() {
+            if (pooled != null) pooled.release();
+            pooled = null;
+            buffer = null;
+        }
+
+        /** Reads the next frame into a pooled buffer. */
+        private void next() throws IOException {
+            if (!negotiated) readAnswer();
+            header.clear();
+            if (Connection.this.read(header) < 0) throw new ClosedException();
+            readFully(header);
+            header.flip();
+            int length = header.getInt();
+            int flags = header.get();
+            standalone = (flags & FLAG_STANDALONE) != 0;
+            direct = (flags & FLAG_DIRECT) != 0;
+            if (length < 0) throw new StreamCorruptedException("negative frame length: " + length);
+            if (length > MAX_FRAME_SIZE) {
+                throw new StreamCorruptedException("frame length " + length + " exceeds " + MAX_FRAME_SIZE);
+            }
+            pooled = arena.acquire(length);
+            buffer = pooled.buffer();
+            buffer.limit(length);
+            readFully(buffer);
+            buffer.flip();
+            if ((flags & FLAG_COMPRESSED) != 0) {
+                if (codec == null || length < 4) {
+                    throw new StreamCorruptedException("unexpected compressed frame");
+                }
+                int original = buffer.getInt();
+                if (original < 0 || original > MAX_FRAME_SIZE) {
+                    throw new StreamCorruptedException("uncompressed frame length " + original
+                            + " out of range");
+                }
+                byte[] packed = new byte[length - 4];
+                buffer.get(packed);
+                release();
+                buffer = ByteBuffer.wrap(codec.decompress(packed, 0, packed.length, original));
+            }
+        }
+    }
+}
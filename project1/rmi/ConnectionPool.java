@@ -0,0 +1,80 @@
+package rmi;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Idle connections kept by stubs for reuse, per skeleton address.
+ *
+ * <p>
+ * A connection is returned to the pool once the response to its call, or the
+ * last chunk of a streamed result, has been received. Connections are reused
+ * most recently returned first, so that rarely used extras age out. At most
+ * <code>MAX_IDLE</code> connections are kept per address, and none is reused
+ * after being idle for <code>IDLE_TIMEOUT</code>, which is shorter than the
+ * time after which skeletons close idle connections themselves.
+ */
+class ConnectionPool {
+    static final int MAX_IDLE = 8;
+    static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(30);
+
+    private static final ConcurrentHashMap<InetSocketAddress, ConcurrentLinkedDeque<Connection>> idle =
+            new ConcurrentHashMap<>();
+    private static final Metrics.Counter opened = Metrics.counter("rmi.connections.opened");
+    private static final Metrics.Counter reused = Metrics.counter("rmi.connections.reused");
+
+    private ConnectionPool() {
+    }
+
+    /**
+     * Takes an idle connection to the given address.
+     * @return a connection, or <code>null</code> if none is available.
+     */
+    static Connection acquire(InetSocketAddress address) {
+        ConcurrentLinkedDeque<Connection> connections = idle.get(address);
+        if (connections == null) return null;
+        Connection connection;
+        while ((connection = connections.pollFirst()) != null) {
+            if (System.nanoTime() - connection.getLastUsed() < IDLE_TIMEOUT && !connection.isStale()) {
+                reused.increment();
+                return connection;
+            }
+            close(connection);
+        }
+        return null;
+    }
+
+    /** Opens a new connection to the given address. */
+    static Connection connect(InetSocketAddress address) throws IOException {
+        Connection connection = Connection.connect(address);
+        opened.increment();
+        return connection;
+    }
+
+    /** Returns a connection whose call has completed, or closes it if it cannot be reused. */
+    static void release(Connection connection) {
+        if (connection.isBroken()) {
+            close(connection);
+            return;
+        }
+        ConcurrentLinkedDeque<Connection> connections =
+                idle.computeIfAbsent(connection.getAddress(), a -> new ConcurrentLinkedDeque<>());
+        connections.offerFirst(connection);
+        while (connections.size() > MAX_IDLE) {
+            Connection extra = connections.pollLast();
+            if (extra == null) break;
+            close(extra);
+        }
+    }
+
+    static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+}
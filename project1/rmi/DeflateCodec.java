@@ -0,0 +1,71 @@
+package rmi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Built-in codec based on the JDK's zlib bindings. Deflaters and inflaters
+ * hold native memory, so each thread keeps one of each and resets it per frame.
+ */
+class DeflateCodec implements Codec {
+    static final String NAME = "deflate";
+
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    DeflateCodec(int level) {
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, length / 2));
+        byte[] chunk = new byte[Math.min(8192, Math.max(64, length))];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            out.write(chunk, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public byte[] decompress(byte[] data, int offset, int length, int originalLength) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        byte[] out = new byte[originalLength];
+        try {
+            int n = 0;
+            while (n < originalLength && !inflater.finished()) {
+                int read = inflater.inflate(out, n, originalLength - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            }
+            if (n != originalLength) {
+                throw new IOException("deflate frame inflated to " + n + " bytes, expected " + originalLength);
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException("corrupt deflate frame", dfe);
+        }
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        return "<DeflateCodec, level: " + level + " >";
+    }
+}
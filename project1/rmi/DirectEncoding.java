@@ -0,0 +1,277 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoding of simple calls which bypasses Java serialization.
+ *
+ * <p>
+ * Deserializing even a small request costs several kilobytes of garbage: the
+ * object stream rebuilds class descriptors and field reflectors for every
+ * message. Requests and responses whose values are all <code>null</code>,
+ * strings, or boxed primitives are instead written field by field, and are
+ * read back allocating only the message, its argument array and the values
+ * themselves. Anything else, including traced requests, failed calls,
+ * streams and calls carrying replication log positions, still goes through
+ * the serialization stream.
+ *
+ * <p>
+ * Methods are sent by name and parameter types the first time they are used
+ * on a connection, and by number afterwards. The receiving side keeps the
+ * name and types it decoded and hands the same instances to every request,
+ * so the method of a request is resolved without allocating.
+ *
+ * <p>
+ * One instance serves one connection. Encoding and decoding may run
+ * concurrently, as they use separate state.
+ */
+class DirectEncoding {
+    private static final int REQUEST = 1;
+    private static final int RESPONSE = 2;
+    private static final int NEW_METHOD = -1;
+
+    private static final int NULL = 0;
+    private static final int BOOLEAN = 1;
+    private static final int BYTE = 2;
+    private static final int SHORT = 3;
+    private static final int CHAR = 4;
+    private static final int INT = 5;
+    private static final int LONG = 6;
+    private static final int FLOAT = 7;
+    private static final int DOUBLE = 8;
+    private static final int STRING = 9;
+
+    private static final Map<Class<?>, Integer> TAGS = new IdentityHashMap<>();
+    private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+    static {
+        TAGS.put(Boolean.class, BOOLEAN);
+        TAGS.put(Byte.class, BYTE);
+        TAGS.put(Short.class, SHORT);
+        TAGS.put(Character.class, CHAR);
+        TAGS.put(Integer.class, INT);
+        TAGS.put(Long.class, LONG);
+        TAGS.put(Float.class, FLOAT);
+        TAGS.put(Double.class, DOUBLE);
+        TAGS.put(String.class, STRING);
+        for (Class<?> c: new Class<?>[] {boolean.class, byte.class, short.class, char.class,
+                int.class, long.class, float.class, double.class}) {
+            PRIMITIVES.put(c.getName(), c);
+        }
+    }
+
+    private final Map<String, Class<?>> classes;
+    private final Map<Method, Integer> sent = new HashMap<>();
+    private final List<MethodRef> received = new ArrayList<>();
+
+    /** @param classes cache of resolved classes, or <code>null</code>. */
+    DirectEncoding(Map<String, Class<?>> classes) {
+        this.classes = classes;
+    }
+
+    /** Tells whether a message can be encoded without serialization. */
+    static boolean accepts(Object message) {
+        if (message instanceof Request) {
+            Request request = (Request) message;
+            if (request.getTrace() != null || request.getAfter() != 0 || request.getMethod() == null) {
+                return false;
+            }
+            Object[] args = request.unwrapParams();
+            if (args.length > 255) return false;
+            for (Object arg: args) {
+                if (!simple(arg)) return false;
+            }
+            return true;
+        }
+        if (message instanceof Response) {
+            Response response = (Response) message;
+            return response.isSuccess() && response.getTimings() == null && response.getPosition() == 0
+                    && simple(response.getResult());
+        }
+        return false;
+    }
+
+    private static boolean simple(Object value) {
+        return value == null || TAGS.containsKey(value.getClass());
+    }
+
+    /** Writes a message for which <code>accepts</code> returned true. */
+    void write(Object message, BufferOutputStream out) {
+        if (message instanceof Request) {
+            Request request = (Request) message;
+            Method method = request.getMethod();
+            out.write(REQUEST);
+            Integer id = sent.get(method);
+            if (id != null) {
+                writeInt(out, id);
+            } else {
+                writeInt(out, NEW_METHOD);
+                writeString(out, method.getName());
+                Class<?>[] types = method.getParameterTypes();
+                out.write(types.length);
+                for (Class<?> type: types) {
+                    writeString(out, type.getName());
+                }
+                sent.put(method, sent.size());
+            }
+            writeInt(out, request.unwrapObject());
+            out.write(request.isTimed() ? 1 : 0);
+            Object[] args = request.unwrapParams();
+            out.write(args.length);
+            for (Object arg: args) {
+                writeValue(out, arg);
+            }
+        } else {
+            Response response = (Response) message;
+            out.write(RESPONSE);
+            writeLong(out, response.getEpoch());
+            writeLong(out, response.getVersion());
+            writeValue(out, response.getResult());
+        }
+    }
+
+    /** Reads a message from the rest of a frame, which it must fill exactly. */
+    Object read(ByteBuffer in) throws IOException, ClassNotFoundException {
+        Object message;
+        int kind = in.get();
+        if (kind == REQUEST) {
+            int id = in.getInt();
+            MethodRef method;
+            if (id == NEW_METHOD) {
+                String name = readString(in);
+                Class<?>[] types = new Class<?>[in.get() & 0xff];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = resolve(readString(in));
+                }
+                method = new MethodRef(name, types);
+                received.add(method);
+            } else if (id >= 0 && id < received.size()) {
+                method = received.get(id);
+            } else {
+                throw new StreamCorruptedException("unknown method number " + id);
+            }
+            int object = in.getInt();
+            boolean timed = in.get() != 0;
+            int count = in.get() & 0xff;
+            Object[] args = count == 0 ? null : new Object[count];
+            for (int i = 0; i < count; i++) {
+                args[i] = readValue(in);
+            }
+            Request request = new Request(method.name, method.types, args).to(object);
+            message = timed ? request.timed() : request;
+        } else if (kind == RESPONSE) {
+            long epoch = in.getLong();
+            long version = in.getLong();
+            message = Response.result(readValue(in)).stamp(epoch, version);
+        } else {
+            throw new StreamCorruptedException("unknown message kind " + kind);
+        }
+        if (in.hasRemaining()) throw new StreamCorruptedException("trailing bytes after message");
+        return message;
+    }
+
+    private Class<?> resolve(String name) throws ClassNotFoundException {
+        Class<?> c = PRIMITIVES.get(name);
+        if (c != null) return c;
+        if (classes != null) {
+            c = classes.get(name);
+            if (c != null) return c;
+        }
+        c = Class.forName(name, false, DirectEncoding.class.getClassLoader());
+        if (classes != null) classes.put(name, c);
+        return c;
+    }
+
+    private static void writeValue(BufferOutputStream out, Object value) {
+        if (value == null) {
+            out.write(NULL);
+            return;
+        }
+        int tag = TAGS.get(value.getClass());
+        out.write(tag);
+        switch (tag) {
+            case BOOLEAN: out.write((Boolean) value ? 1 : 0); break;
+            case BYTE: out.write((Byte) value); break;
+            case SHORT: writeShort(out, (Short) value); break;
+            case CHAR: writeShort(out, (Character) value); break;
+            case INT: writeInt(out, (Integer) value); break;
+            case LONG: writeLong(out, (Long) value); break;
+            case FLOAT: writeInt(out, Float.floatToRawIntBits((Float) value)); break;
+            case DOUBLE: writeLong(out, Double.doubleToRawLongBits((Double) value)); break;
+            default: writeString(out, (String) value);
+        }
+    }
+
+    private static Object readValue(ByteBuffer in) throws IOException {
+        int tag = in.get();
+        switch (tag) {
+            case NULL: return null;
+            case BOOLEAN: return in.get() != 0;
+            case BYTE: return in.get();
+            case SHORT: return in.getShort();
+            case CHAR: return in.getChar();
+            case INT: return in.getInt();
+            case LONG: return in.getLong();
+            case FLOAT: return in.getFloat();
+            case DOUBLE: return in.getDouble();
+            case STRING: return readString(in);
+            default: throw new StreamCorruptedException("unknown value tag " + tag);
+        }
+    }
+
+    private static void writeString(BufferOutputStream out, String s) {
+        int length = s.length();
+        writeInt(out, length);
+        for (int i = 0; i < length; i++) {
+            writeShort(out, s.charAt(i));
+        }
+    }
+
+    private static String readString(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length * 2L > in.remaining()) {
+            throw new StreamCorruptedException("bad string length " + length);
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    private static void writeShort(BufferOutputStream out, int v) {
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void writeInt(BufferOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+
+    private static void writeLong(BufferOutputStream out, long v) {
+        writeInt(out, (int) (v >>> 32));
+        writeInt(out, (int) v);
+    }
+
+    /** Name and parameter types of a method, shared by all requests for it. */
+    private static final class MethodRef {
+        private final String name;
+        private final Class<?>[] types;
+
+        MethodRef(String name, Class<?>[] types) {
+            this.name = name;
+            this.types = types;
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.lang.ref.Cleaner;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Connection carrying calls in both directions, so that a server can call
+ * back objects passed to it by a client without the client listening on a
+ * port of its own.
+ *
+ * <p>
+ * A client opens a duplex connection by sending <code>OPEN</code> on a new
+ * connection to a skeleton, which hands the connection over to a duplex of
+ * its own instead of parking it. From then on every message on the
+ * connection is an <code>Envelope</code>: a request, or a response carrying
+ * the id of the request it answers, so that any number of calls can be
+ * outstanding in each direction at once. Each end has a thread reading the
+ * connection. Requests are executed on an executor rather than by the
+ * reader, so that a callback can itself call the other end.
+ *
+ * <p>
+ * Objects passed by reference in messages sent on a duplex connection are
+ * exported on the connection rather than by <code>RemoteExports</code>: the
+ * stubs deserialized at the other end call back over the same connection,
+ * and only work there. An object stays exported until every stub received
+ * for it has been garbage collected, or the connection closes. Calls to
+ * exported objects are flagged as callbacks; other calls are served by the
+ * skeleton at the server end, and refused at the client end.
+ */
+final class Duplex {
+    /** Message by which a client turns a new connection into a duplex one. */
+    static final Envelope OPEN = new Envelope(Envelope.OPEN, 0, false, null);
+
+    private static final Map<InetSocketAddress, Duplex> clients = new HashMap<>();
+    private static final ThreadLocal<Duplex> reading = new ThreadLocal<>();
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static ExecutorService callbacks;
+
+    /** Serves the calls which are not callbacks. */
+    interface Service {
+        Response respond(Request request);
+    }
+
+    private final Connection connection;
+    private final Service service;
+    private final Executor executor;
+    private final Consumer<Duplex> closed;
+    private final ConcurrentHashMap<Long, CompletableFuture<Response>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+    private final Map<Object, Export> byObject = new IdentityHashMap<>();
+    private final ConcurrentHashMap<Integer, Export> byId = new ConcurrentHashMap<>();
+    private int next = 1;
+    private volatile boolean open = true;
+
+    /**
+     * @param service server of calls which are not callbacks, or
+     *                <code>null</code> at the client end.
+     * @param executor executor of the calls received.
+     * @param closed called once the connection has closed.
+     */
+    Duplex(Connection connection, Service service, Executor executor, Consumer<Duplex> closed) {
+        this.connection = connection;
+        this.service = service;
+        this.executor = executor;
+        this.closed = closed;
+        connection.setDuplex(this);
+    }
+
+    /**
+     * Returns the process's duplex connection to a skeleton, opening it if
+     * there is none or the last one has closed.
+     */
+    static Duplex connect(InetSocketAddress address) throws IOException {
+        synchronized (clients) {
+            Duplex duplex = clients.get(address);
+            if (duplex != null && duplex.open) return duplex;
+            Connection connection = ConnectionPool.connect(address);
+            duplex = new Duplex(connection, null, callbacks(), d -> {
+                synchronized (clients) {
+                    clients.remove(address, d);
+                }
+            });
+            try {
+                connection.send(OPEN);
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+            clients.put(address, duplex);
+            duplex.start();
+            return duplex;
+        }
+    }
+
+    /** Duplex whose connection the current thread is reading, if any. */
+    static Duplex reading() {
+        return reading.get();
+    }
+
+    /** Starts the thread reading the connection. */
+    void start() {
+        Thread reader = new Thread(this::read, "rmi-duplex-" + connection.getRemoteAddress());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Sends a request and waits for its response.
+     * @param callback whether the request is addressed to an object exported
+     *                 by the other end on this connection.
+     */
+    Response call(Request request, boolean callback) throws IOException {
+        long id = calls.incrementAndGet();
+        CompletableFuture<Response> reply = new CompletableFuture<>();
+        pending.put(id, reply);
+        try {
+            if (!open) throw new IOException("duplex connection is closed");
+            try {
+                connection.send(new Envelope(Envelope.REQUEST, id, callback, request));
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+            return reply.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting for " + request.unwrapMethodName());
+        } catch (ExecutionException e) {
+            throw (IOException) e.getCause();
+        } finally {
+            pending.remove(id);
+        }
+    }
+
+    /**
+     * Returns the object to serialize in place of another: a stub calling
+     * back over this connection if the object implements a remote interface,
+     * or the object itself.
+     */
+    Object replace(Object obj) {
+        Class<?>[] interfaces = RemoteExports.interfaces(obj.getClass());
+        if (interfaces.length == 0) return obj;
+        int id;
+        synchronized (this) {
+            Export export = byObject.get(obj);
+            if (export == null) {
+                export = new Export(new ObjectTable.Dispatcher(interfaces, obj, next++));
+                byObject.put(obj, export);
+                byId.put(export.dispatcher.getId(), export);
+            }
+            export.sent++;
+            id = export.dispatcher.getId();
+        }
+        InetSocketAddress local = (InetSocketAddress) connection.getChannel().socket().getLocalSocketAddress();
+        StubInvocationHandler<?> handler = new StubInvocationHandler<>(interfaces[0], local, id).callback();
+        return Proxy.newProxyInstance(interfaces[0].getClassLoader(), interfaces, handler);
+    }
+
+    /** Tells the other end once a stub received on this connection has been garbage collected. */
+    void hold(StubInvocationHandler<?> handler, int id) {
+        CLEANER.register(handler, () -> {
+            if (!open) return;
+            try {
+                executor.execute(() -> {
+                    try {
+                        connection.send(new Envelope(Envelope.RELEASE, 0, false, id));
+                    } catch (IOException e) {
+                        close();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the executor is shutting down with the connection
+            }
+        });
+    }
+
+    /** Number of objects currently exported on the connection. */
+    int exported() {
+        return byId.size();
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    /** Closes the connection, failing the calls waiting for a response and dropping the exported objects. */
+    void close() {
+        synchronized (this) {
+            if (!open) return;
+            open = false;
+            byObject.clear();
+            byId.clear();
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        IOException failure = new IOException("duplex connection closed");
+        pending.values().forEach(reply -> reply.completeExceptionally(failure));
+        closed.accept(this);
+    }
+
+    private void read() {
+        reading.set(this);
+        try {
+            while (open) {
+                Envelope envelope = (Envelope) connection.receive();
+                switch (envelope.kind) {
+                    case Envelope.RESPONSE:
+                        CompletableFuture<Response> reply = pending.get(envelope.id);
+                        if (reply != null) reply.complete((Response) envelope.payload);
+                        break;
+                    case Envelope.REQUEST:
+                        executor.execute(() -> serve(envelope));
+                        break;
+                    case Envelope.RELEASE:
+                        release((Integer) envelope.payload);
+                        break;
+                    default:
+                        throw new StreamCorruptedException("unexpected duplex message " + envelope.kind);
+                }
+            }
+        } catch (Connection.ClosedException e) {
+            // the other end closed the connection
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            if (open) System.out.println("> Duplex connection to " + connection.getRemoteAddress()
+                    + " failed: " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    private void serve(Envelope envelope) {
+        Request request = (Request) envelope.payload;
+        Response response;
+        if (envelope.callback) {
+            response = dispatch(request);
+        } else if (service != null) {
+            response = service.respond(request);
+        } else {
+            response = Response.except(new RMIException("the client end of a duplex connection only serves callbacks"));
+        }
+        try {
+            connection.send(new Envelope(Envelope.RESPONSE, envelope.id, false, response));
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    /** Invokes a call on an object exported on the connection. */
+    private Response dispatch(Request request) {
+        try {
+            Export export = byId.get(request.unwrapObject());
+            if (export == null) {
+                throw new RMIException("no callback exported with id " + request.unwrapObject());
+            }
+            Method method = export.dispatcher.getMethods().get(request.unwrapMethodName(), request.unwrapTypes());
+            if (StreamKind.of(method.getReturnType()) != null) {
+                throw new RMIException("streamed results cannot be sent on a duplex connection: "
+                        + method.getName());
+            }
+            MicroBatcher batcher = export.dispatcher.getBatchers().get(method);
+            Object[] params = request.unwrapParams();
+            return Response.result(batcher != null ? batcher.call(params)
+                    : method.invoke(export.dispatcher.getServer(), params));
+        } catch (InvocationTargetException | RMIException e) {
+            return Response.except(e);
+        } catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException e) {
+            return Response.except(new RMIException(e.getMessage(), e));
+        }
+    }
+
+    /** Counts a stub sent for an object as collected, and unexports the object once none is left. */
+    private synchronized void release(int id) {
+        Export export = byId.get(id);
+        if (export == null || --export.sent > 0) return;
+        byId.remove(id);
+        byObject.remove(export.dispatcher.getServer());
+    }
+
+    /** Executor of callbacks at the client end, whose threads do not keep the process alive. */
+    private static synchronized ExecutorService callbacks() {
+        if (callbacks == null) {
+            ThreadFactory threads = Executors.defaultThreadFactory();
+            callbacks = Executors.newCachedThreadPool(r -> {
+                Thread thread = threads.newThread(r);
+                thread.setName("rmi-callback-" + thread.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return callbacks;
+    }
+
+    /** Object exported on the connection, and the number of stubs sent for it and not yet collected. */
+    private static final class Export {
+        private final ObjectTable.Dispatcher dispatcher;
+        private int sent;
+
+        Export(ObjectTable.Dispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+    }
+
+    /** Message on a duplex connection. */
+    static final class Envelope implements Serializable {
+        static final byte OPEN = 0;
+        static final byte REQUEST = 1;
+        static final byte RESPONSE = 2;
+        static final byte RELEASE = 3;
+
+        private final byte kind;
+        /** Id of the request, which its response carries back. */
+        private final long id;
+        /** Whether a request is addressed to an object exported on the connection. */
+        private final boolean callback;
+        private final Object payload;
+
+        Envelope(byte kind, long id, boolean callback, Object payload) {
+            this.kind = kind;
+            this.id = id;
+            this.callback = callback;
+            this.payload = payload;
+        }
+
+        boolean isOpen() {
+            return kind == OPEN;
+        }
+
+        @Override
+        public String toString() {
+            return "<Envelope " + kind + ", id: " + id + ", payload: " + payload + " >";
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selector thread serving the listeners of one or more skeletons.
+ *
+ * <p>
+ * The loop accepts connections on the listening channels registered with it,
+ * and watches connections which are idle between calls. When a connection has
+ * a request waiting, its channel is made blocking again and the connection is
+ * handed to its endpoint, which serves the request on a service thread and
+ * parks the connection with the loop once the response has been sent.
+ * Connections idle for longer than <code>IDLE_TIMEOUT</code> are closed,
+ * unless the loop was created to keep them.
+ *
+ * <p>
+ * The loop also watches connections handed over to a writer, which writes to
+ * them without blocking and, when the socket is full, asks the loop to tell it
+ * once there is room again. Nothing is expected to arrive on these
+ * connections until the writer parks them, so the writer hangs up as soon as
+ * one is readable, which is how the loop notices that the peer closed it.
+ *
+ * <p>
+ * The thread is started when the first channel is registered, so a loop which
+ * is never used costs only its selector.
+ */
+class EventLoop {
+    static final long IDLE_TIMEOUT = 60_000;
+    private static final long IDLE_CHECK = 1_000;
+
+    /** Listener of one skeleton. Its methods are called on the loop thread. */
+    interface Endpoint {
+        /** Accepts a connection on the endpoint's listening channel. */
+        void acceptable() throws IOException;
+
+        /** Serves a request waiting on a parked connection, whose channel is blocking again. */
+        void readable(Connection connection);
+
+        /** Reports an exception raised while accepting. */
+        void failed(IOException e);
+
+        /** Whether connections parked for the endpoint should still be watched. */
+        boolean isOpen();
+    }
+
+    /** Writer of a watched connection. Its methods are called on the loop thread. */
+    interface Writer {
+        /** Resumes writing, after <code>awaitWritable</code>, once the socket has room. */
+        void writable();
+
+        /**
+         * Stops writing and closes the connection, which the peer closed, or
+         * which the loop no longer watches because its endpoint or the loop
+         * itself closed. A writer which has already parked the connection
+         * ignores the call.
+         */
+        void hangup();
+    }
+
+    /** Key attachment of a watched connection. */
+    private static final class Watch {
+        private final Connection connection;
+        private final Writer writer;
+
+        Watch(Connection connection, Writer writer) {
+            this.connection = connection;
+            this.writer = writer;
+        }
+    }
+
+    private final String name;
+    private final boolean daemon;
+    private final long idleTimeout;
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private List<Connection> parked = new ArrayList<>();
+    // reused on every pass of the loop, which runs once per call
+    private List<Connection> registering = new ArrayList<>();
+    private final List<Connection> ready = new ArrayList<>();
+    private Thread thread;
+    private boolean closed;
+
+    EventLoop(String name) throws IOException {
+        this(name, false);
+    }
+
+    /** @param daemon whether the loop's thread should not keep the process alive. */
+    EventLoop(String name, boolean daemon) throws IOException {
+        this(name, daemon, IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param daemon whether the loop's thread should not keep the process alive.
+     * @param idleTimeout milliseconds after which a parked connection is
+     *                    closed, or 0 to watch parked connections until they
+     *                    are readable or their endpoint closes.
+     */
+    EventLoop(String name, boolean daemon, long idleTimeout) throws IOException {
+        this.name = name;
+        this.daemon = daemon;
+        this.idleTimeout = idleTimeout;
+        this.selector = Selector.open();
+    }
+
+    /** Starts accepting connections on a listening channel for an endpoint. */
+    void listen(ServerSocketChannel server, Endpoint endpoint) throws IOException {
+        server.configureBlocking(false);
+        execute(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, endpoint);
+            } catch (ClosedChannelException e) {
+                // the endpoint was closed before it started
+            }
+        });
+    }
+
+    /**
+     * Watches a connection whose call has completed until its next request.
+     * The connection must have been given an endpoint.
+     */
+    void park(Connection connection) throws IOException {
+        connection.getChannel().configureBlocking(false);
+        synchronized (this) {
+            if (!closed) {
+                parked.add(connection);
+                start();
+                selector.wakeup();
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    /**
+     * Watches a connection written by a writer without blocking, until the
+     * writer parks it or the connection closes. The connection must have
+     * been given an endpoint. Parking the connection replaces the watch,
+     * since a channel has a single key per selector.
+     */
+    void watch(Connection connection, Writer writer) throws IOException {
+        connection.getChannel().configureBlocking(false);
+        execute(() -> {
+            try {
+                connection.getChannel().register(selector, SelectionKey.OP_READ, new Watch(connection, writer));
+            } catch (ClosedChannelException e) {
+                // whoever closed the connection released it
+            }
+        });
+    }
+
+    /** Calls the writer of a watched connection back once its socket has room. */
+    void awaitWritable(Connection connection) {
+        execute(() -> {
+            SelectionKey key = connection.getChannel().keyFor(selector);
+            if (key != null && key.isValid() && key.attachment() instanceof Watch) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    /**
+     * Closes the connections parked for an endpoint, hangs up the writers of
+     * its watched connections, and waits until the loop
+     * has done so. The endpoint must no longer be open.
+     */
+    void release(Endpoint endpoint) {
+        CountDownLatch done = new CountDownLatch(1);
+        Runnable task = () -> {
+            try {
+                for (SelectionKey key: selector.keys()) {
+                    if (key.attachment() instanceof Connection) {
+                        Connection connection = (Connection) key.attachment();
+                        if (connection.getEndpoint() == endpoint) {
+                            key.cancel();
+                            closeQuietly(connection);
+                        }
+                    } else if (key.attachment() instanceof Watch) {
+                        Watch watch = (Watch) key.attachment();
+                        if (watch.connection.getEndpoint() == endpoint) {
+                            key.cancel();
+                            watch.writer.hangup();
+                        }
+                    }
+                }
+                // deregisters the cancelled keys, releasing the endpoint's listening port
+                selector.selectNow();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                done.countDown();
+            }
+        };
+        synchronized (this) {
+            if (thread == null) return;
+        }
+        if (Thread.currentThread() == thread) {
+            task.run();
+        } else {
+            execute(task);
+            await(done);
+        }
+    }
+
+    /** Stops the thread and closes every connection still parked. */
+    void close() {
+        Thread thread;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            thread = this.thread;
+            selector.wakeup();
+        }
+        if (thread == null) {
+            shutdown();
+        } else if (thread != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Whether the loop's thread has been started and not stopped. */
+    synchronized boolean isRunning() {
+        return thread != null && !closed;
+    }
+
+    /**
+     * Runs a task on the loop thread. Once the loop is closed, tasks run on
+     * the calling thread instead, and find the selector closed.
+     */
+    private void execute(Runnable task) {
+        synchronized (this) {
+            if (!closed) {
+                tasks.add(task);
+                start();
+                selector.wakeup();
+                return;
+            }
+        }
+        runQuietly(task);
+    }
+
+    private static void runQuietly(Runnable task) {
+        try {
+            task.run();
+        } catch (ClosedSelectorException e) {
+            // the loop closed while the task was waiting
+        }
+    }
+
+    private void start() {
+        if (thread != null || closed) return;
+        thread = new Thread(this::run, name);
+        thread.setDaemon(daemon);
+        thread.start();
+    }
+
+    private void run() {
+        long lastCheck = System.currentTimeMillis();
+        while (true) {
+            try {
+                synchronized (this) {
+                    if (closed) break;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                registerParked();
+                if (selector.selectedKeys().isEmpty()) {
+                    selector.select(IDLE_CHECK);
+                }
+                ready.clear();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        Endpoint endpoint = (Endpoint) key.attachment();
+                        try {
+                            endpoint.acceptable();
+                        } catch (IOException e) {
+                            endpoint.failed(e);
+                        }
+                    } else if (key.attachment() instanceof Watch) {
+                        Watch watch = (Watch) key.attachment();
+                        if (key.isReadable()) {
+                            // a writer which has just parked the connection leaves the request to its next key
+                            key.interestOps(0);
+                            watch.writer.hangup();
+                        } else if (key.isWritable()) {
+                            key.interestOps(SelectionKey.OP_READ);
+                            watch.writer.writable();
+                        }
+                    } else if (key.isReadable()) {
+                        key.cancel();
+                        ready.add((Connection) key.attachment());
+                    }
+                }
+                if (!ready.isEmpty()) {
+                    // deregisters the cancelled keys, so the channels can block again
+                    selector.selectNow();
+                    for (Connection connection: ready) {
+                        try {
+                            connection.getChannel().configureBlocking(true);
+                        } catch (IOException e) {
+                            closeQuietly(connection);
+                            continue;
+                        }
+                        connection.getEndpoint().readable(connection);
+                    }
+                }
+                if (System.currentTimeMillis() - lastCheck >= IDLE_CHECK) {
+                    lastCheck = System.currentTimeMillis();
+                    closeIdle();
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        shutdown();
+    }
+
+    private void registerParked() {
+        List<Connection> connections;
+        synchronized (this) {
+            if (parked.isEmpty()) return;
+            connections = parked;
+            parked = registering;
+        }
+        for (Connection connection: connections) {
+            if (!connection.getEndpoint().isOpen()) {
+                closeQuietly(connection);
+                continue;
+            }
+            try {
+                connection.getChannel().register(selector, SelectionKey.OP_READ, connection);
+            } catch (ClosedChannelException e) {
+                closeQuietly(connection);
+            }
+        }
+        connections.clear();
+        registering = connections;
+    }
+
+    private void closeIdle() {
+        if (idleTimeout == 0) return;
+        long now = System.nanoTime();
+        for (SelectionKey key: selector.keys()) {
+            if (key.attachment() instanceof Connection && key.isValid()) {
+                Connection connection = (Connection) key.attachment();
+                if (now - connection.getLastUsed() > TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+                    System.out.println("> Close idle connection: " + connection);
+                    key.cancel();
+                    closeQuietly(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the selector and every idle connection, and hangs up the writers
+     * of watched connections. Service threads still running close theirs when
+     * done.
+     */
+    private void shutdown() {
+        List<Connection> connections;
+        synchronized (this) {
+            connections = parked;
+            parked = new ArrayList<>();
+        }
+        if (selector.isOpen()) {
+            for (SelectionKey key: selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    connections.add((Connection) key.attachment());
+                } else if (key.attachment() instanceof Watch) {
+                    ((Watch) key.attachment()).writer.hangup();
+                }
+            }
+        }
+        for (Connection connection: connections) {
+            closeQuietly(connection);
+        }
+        try {
+            selector.close();
+        } catch (IOException ie) {
+            ie.printStackTrace();
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            runQuietly(task);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+}
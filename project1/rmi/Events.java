@@ -0,0 +1,142 @@
+package rmi;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder events of stubs, skeletons and connections.
+ *
+ * <p>
+ * Events are created, timed and committed on every call, but fields which
+ * cost anything to compute are only filled in once <code>shouldCommit</code>
+ * says the event will be recorded. While no recording has the events enabled
+ * their methods do nothing, so they can stay in production code. Stack traces
+ * are not recorded.
+ */
+final class Events {
+    static final String STUB_CALL = "rmi.StubCall";
+    static final String INVOCATION = "rmi.Invocation";
+
+    private Events() {
+    }
+
+    @Name(STUB_CALL)
+    @Label("RMI Stub Call")
+    @Category({"RMI", "Stub"})
+    @Description("Call made through a stub, from its start until its result has been read")
+    @StackTrace(false)
+    static final class StubCall extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Request Size")
+        @DataAmount
+        long requestBytes;
+
+        @Label("Response Size")
+        @DataAmount
+        long responseBytes;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("rmi.Accept")
+    @Label("RMI Accept")
+    @Category({"RMI", "Skeleton"})
+    @Description("Handshake with a stub which has just connected to a skeleton")
+    @StackTrace(false)
+    static final class Accept extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Codec")
+        String codec;
+    }
+
+    @Name("rmi.QueueWait")
+    @Label("RMI Queue Wait")
+    @Category({"RMI", "Skeleton"})
+    @Description("Time a connection with a request waiting waited for a service thread")
+    @StackTrace(false)
+    static final class QueueWait extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+    }
+
+    @Name(INVOCATION)
+    @Label("RMI Invocation")
+    @Category({"RMI", "Skeleton"})
+    @Description("Invocation of the server object by a skeleton")
+    @StackTrace(false)
+    static final class Invocation extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Request Size")
+        @Description("Size of the message which carried the call")
+        @DataAmount
+        long requestBytes;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("rmi.Serialization")
+    @Label("RMI Serialization")
+    @Category({"RMI", "Connection"})
+    @Description("Serialization of a message sent, or deserialization of a message received")
+    @StackTrace(false)
+    static final class Serialization extends Event {
+        @Label("Direction")
+        @Description("encode or decode")
+        String direction;
+
+        @Label("Message Type")
+        String messageType;
+
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Serialized Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("rmi.ConnectionOpen")
+    @Label("RMI Connection Open")
+    @Category({"RMI", "Connection"})
+    @StackTrace(false)
+    static final class ConnectionOpen extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Side")
+        @Description("stub or skeleton")
+        String side;
+    }
+
+    @Name("rmi.ConnectionClose")
+    @Label("RMI Connection Close")
+    @Category({"RMI", "Connection"})
+    @StackTrace(false)
+    static final class ConnectionClose extends Event {
+        @Label("Remote Address")
+        String remoteAddress;
+
+        @Label("Side")
+        @Description("stub or skeleton")
+        String side;
+    }
+}
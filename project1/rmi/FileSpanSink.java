@@ -0,0 +1,69 @@
+package rmi;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/** Appends spans to a file, one per line, for local analysis.
+
+    <p>
+    Each line holds tab-separated fields: trace, span and parent identifiers
+    in hexadecimal, kind, method name, start time in milliseconds since the
+    epoch, duration in nanoseconds, <code>error</code> or <code>ok</code>, and
+    the remote address. Lines are flushed as they are written, so the file can
+    be read while spans are still being exported. Spans exported after an
+    error writing the file are dropped.
+ */
+public class FileSpanSink implements SpanSink, Closeable
+{
+    private final Writer    out;
+    private boolean         failed;
+
+    /** Opens a file for appending spans, creating it if necessary.
+
+        @param file The file.
+        @throws IOException If the file cannot be opened.
+     */
+    public FileSpanSink(File file) throws IOException
+    {
+        out = new BufferedWriter(new OutputStreamWriter(
+            new FileOutputStream(file, true), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public synchronized void export(Span span)
+    {
+        if (failed)
+            return;
+
+        try
+        {
+            out.write(Long.toHexString(span.getTraceId()) + "\t"
+                      + Long.toHexString(span.getSpanId()) + "\t"
+                      + Long.toHexString(span.getParentId()) + "\t"
+                      + span.getKind() + "\t" + span.getName() + "\t"
+                      + span.getStartMillis() + "\t" + span.getDurationNanos()
+                      + "\t" + (span.isError() ? "error" : "ok") + "\t"
+                      + span.getRemote() + "\n");
+            out.flush();
+        }
+        catch(IOException e)
+        {
+            failed = true;
+            e.printStackTrace();
+        }
+    }
+
+    /** Closes the file. Spans exported afterwards are dropped. */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        failed = true;
+        out.close();
+    }
+}
@@ -0,0 +1,82 @@
+package rmi;
+
+import java.io.Serializable;
+
+/** Copy of the distribution recorded by a histogram at some point in time.
+
+    <p>
+    Values are counted in the same buckets on every host, so snapshots taken
+    on several skeletons can be merged into the distribution of the whole
+    fleet. Percentiles are within 12.5% of the true values.
+ */
+public final class HistogramSnapshot implements Serializable
+{
+    private final long[]    buckets;
+    private final long      count;
+    private final long      max;
+
+    HistogramSnapshot(Metrics.Histogram histogram)
+    {
+        this(histogram.buckets(), histogram.max());
+    }
+
+    private HistogramSnapshot(long[] buckets, long max)
+    {
+        long count = 0;
+        for (long bucket : buckets)
+            count += bucket;
+        this.buckets = buckets;
+        this.count = count;
+        this.max = max;
+    }
+
+    /** Returns the number of values recorded. */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /** Returns the largest value recorded, or zero if none was. */
+    public long getMax()
+    {
+        return max;
+    }
+
+    /** Returns the smallest value at or below which the given fraction of
+        values lie.
+
+        @param fraction A fraction between zero and one, for example
+                        <code>0.99</code> for the 99th percentile.
+        @throws IllegalArgumentException If <code>fraction</code> is not
+                                         between zero and one.
+     */
+    public long percentile(double fraction)
+    {
+        if (!(fraction >= 0 && fraction <= 1))
+            throw new IllegalArgumentException("fraction out of range: " + fraction);
+        return Math.min(Metrics.Histogram.percentile(buckets, count, fraction), max);
+    }
+
+    /** Returns the distribution of the values of both snapshots.
+
+        @param other The snapshot to merge with this one.
+        @throws NullPointerException If <code>other</code> is
+                                     <code>null</code>.
+     */
+    public HistogramSnapshot merge(HistogramSnapshot other)
+    {
+        long[] merged = new long[Math.max(buckets.length, other.buckets.length)];
+        for (int i = 0; i < buckets.length; i++)
+            merged[i] += buckets[i];
+        for (int i = 0; i < other.buckets.length; i++)
+            merged[i] += other.buckets[i];
+        return new HistogramSnapshot(merged, Math.max(max, other.max));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count " + count + ", p50 " + percentile(0.5) + ", p90 "
+               + percentile(0.9) + ", p99 " + percentile(0.99) + ", max " + max;
+    }
+}
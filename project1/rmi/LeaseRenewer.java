@@ -0,0 +1,110 @@
+package rmi;
+
+import java.lang.ref.Cleaner;
+import java.net.InetSocketAddress;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Leases held by this process on objects passed to it by reference.
+ *
+ * <p>
+ * Each stub deserialized for an object exported by <code>RemoteExports</code>
+ * is counted here against the object's address and id. While the count of an
+ * object is positive, a daemon thread renews the process's lease on it, every
+ * third of the lease duration returned by the exporting process. When every
+ * stub for an object has been garbage collected, the lease is released at
+ * once rather than left to expire. All leases of the process are held under
+ * one random holder id.
+ */
+final class LeaseRenewer {
+    static final long HOLDER = new SecureRandom().nextLong();
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private static final Map<InetSocketAddress, Map<Integer, Integer>> held = new HashMap<>();
+    private static final Map<InetSocketAddress, Set<Integer>> released = new HashMap<>();
+    private static long interval = RemoteExports.DEFAULT_LEASE / 3;
+    private static boolean added;
+    private static Thread thread;
+
+    private LeaseRenewer() {
+    }
+
+    /**
+     * Holds a lease on an object for as long as a deserialized stub for it is
+     * reachable. The lease is renewed without waiting, as the one granted to
+     * the stub in transit may be short.
+     */
+    static void hold(StubInvocationHandler<?> handler, InetSocketAddress address, int id) {
+        synchronized (LeaseRenewer.class) {
+            held.computeIfAbsent(address, a -> new HashMap<>()).merge(id, 1, Integer::sum);
+            added = true;
+            if (thread == null) {
+                thread = new Thread(LeaseRenewer::run, "rmi-leases");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            LeaseRenewer.class.notifyAll();
+        }
+        CLEANER.register(handler, () -> drop(address, id));
+    }
+
+    /** Counts a stub for an object as collected. */
+    private static synchronized void drop(InetSocketAddress address, int id) {
+        Map<Integer, Integer> ids = held.get(address);
+        if (ids == null || ids.merge(id, -1, Integer::sum) > 0) return;
+        ids.remove(id);
+        if (ids.isEmpty()) held.remove(address);
+        released.computeIfAbsent(address, a -> new TreeSet<>()).add(id);
+        LeaseRenewer.class.notifyAll();
+    }
+
+    private static void run() {
+        while (true) {
+            Map<InetSocketAddress, int[]> renewals = new HashMap<>();
+            Map<InetSocketAddress, int[]> releases = new HashMap<>();
+            synchronized (LeaseRenewer.class) {
+                if (!added && released.isEmpty()) {
+                    try {
+                        LeaseRenewer.class.wait(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                added = false;
+                held.forEach((address, ids) ->
+                        renewals.put(address, ids.keySet().stream().mapToInt(Integer::intValue).toArray()));
+                released.forEach((address, ids) ->
+                        releases.put(address, ids.stream().mapToInt(Integer::intValue).toArray()));
+                released.clear();
+            }
+            releases.forEach((address, ids) -> {
+                try {
+                    leases(address).release(HOLDER, ids);
+                } catch (RMIException e) {
+                    // the leases expire on their own
+                }
+            });
+            long shortest = RemoteExports.DEFAULT_LEASE;
+            for (Map.Entry<InetSocketAddress, int[]> e: renewals.entrySet()) {
+                try {
+                    shortest = Math.min(shortest, leases(e.getKey()).renew(HOLDER, e.getValue()));
+                } catch (RMIException ex) {
+                    // the exporting process may be gone; calls through the stubs will tell
+                    System.out.println("> Lease renewal failed for " + e.getKey() + ": " + ex.getMessage());
+                }
+            }
+            synchronized (LeaseRenewer.class) {
+                interval = Math.max(1, shortest / 3);
+            }
+        }
+    }
+
+    private static RemoteExports.Leases leases(InetSocketAddress address) {
+        return Stub.create(RemoteExports.Leases.class, address, ObjectTable.PRIMARY);
+    }
+}
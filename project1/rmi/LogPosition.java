@@ -0,0 +1,74 @@
+package rmi;
+
+/**
+ * Positions in the operation log of a replica group, carried by the calls
+ * made in a scope.
+ *
+ * <p>
+ * A scope holds the position a read must observe, which requests built in
+ * it carry to the skeleton, and the highest position reached by the writes
+ * made in it, which responses carry back. The skeleton opens a scope for
+ * each call with the position its request carries, and stamps the response
+ * with the position its writes reached; a stub raises the position of the
+ * current scope to the one stamped on each response it receives. A call
+ * forwarded by a replica thus passes both positions on.
+ */
+final class LogPosition {
+    private static final ThreadLocal<Scope> current = new ThreadLocal<>();
+
+    /** Positions of the calls made by a thread until the scope is exited. */
+    static final class Scope {
+        private final long required;
+        private final Scope previous;
+        private long written;
+
+        private Scope(long required, Scope previous) {
+            this.required = required;
+            this.previous = previous;
+        }
+    }
+
+    private LogPosition() {
+    }
+
+    /**
+     * Opens a scope on the calling thread.
+     * @param required position reads made in the scope must observe, or 0.
+     */
+    static Scope enter(long required) {
+        Scope scope = new Scope(required, current.get());
+        current.set(scope);
+        return scope;
+    }
+
+    /**
+     * Closes a scope, which must be the innermost one open.
+     * @return the highest position written in the scope.
+     */
+    static long exit(Scope scope) {
+        if (scope.previous == null) {
+            current.remove();
+        } else {
+            current.set(scope.previous);
+        }
+        return scope.written;
+    }
+
+    /** Returns the position reads must observe in the current scope, or 0. */
+    static long required() {
+        Scope scope = current.get();
+        return scope == null ? 0 : scope.required;
+    }
+
+    /** Returns the highest position written in the current scope, or 0. */
+    static long written() {
+        Scope scope = current.get();
+        return scope == null ? 0 : scope.written;
+    }
+
+    /** Records a position reached by a write made in the current scope, if any. */
+    static void wrote(long position) {
+        Scope scope = current.get();
+        if (scope != null && position > scope.written) scope.written = position;
+    }
+}
@@ -0,0 +1,58 @@
+package rmi;
+
+import java.util.Map;
+
+/** Management interface of a skeleton.
+
+    <p>
+    Every skeleton can serve this interface on its own port, next to its
+    remote interface, so that operators can inspect and tune a running server
+    with nothing more than a stub. Serving it is off by default and is turned
+    on with <code>Skeleton.setManagementEnabled</code>; stubs are created with
+    <code>Stub.management</code>. For example:
+
+    <pre>
+    Management      management = Stub.management(address);
+    Statistics      statistics = management.getStatistics();
+
+    management.setPoolSize(2 * statistics.getPoolSize());
+    </pre>
+
+    <p>
+    Calls to the management interface are not counted in the statistics they
+    report.
+ */
+public interface Management
+{
+    /** Returns the statistics of the skeleton serving the call.
+
+        @throws RMIException If the call cannot be made.
+     */
+    Statistics getStatistics() throws RMIException;
+
+    /** Returns the current values of the metrics of the process running the
+        skeleton, as reported by <code>Metrics.snapshot</code>.
+
+        @throws RMIException If the call cannot be made.
+     */
+    Map<String, Long> getMetrics() throws RMIException;
+
+    /** Changes the number of service threads of the skeleton.
+
+        @param threads The new number of threads.
+        @throws IllegalArgumentException If <code>threads</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be made.
+     */
+    void setPoolSize(int threads) throws RMIException;
+
+    /** Changes the number of requests which may wait for a service thread.
+
+        @param limit The new limit. Requests arriving while the limit is
+                     reached are refused, by closing their connection.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be made.
+     */
+    void setQueueLimit(int limit) throws RMIException;
+}
@@ -0,0 +1,78 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Methods of a remote interface, resolved once so that looking up the method
+ * named by a request neither copies <code>Method</code> objects nor their
+ * parameter types.
+ */
+class MethodTable {
+    private final Map<String, Entry[]> methods = new HashMap<>();
+
+    /**
+     * @param c remote interface.
+     * @param implClass class of the server object. Methods whose name it does
+     *                  not have are rejected when they are looked up.
+     */
+    MethodTable(Class<?> c, Class<?> implClass) {
+        this(new Class<?>[] {c}, implClass);
+    }
+
+    /**
+     * @param interfaces remote interfaces of the server object. A method
+     *                   declared by several is resolved to the first.
+     * @param implClass class of the server object.
+     */
+    MethodTable(Class<?>[] interfaces, Class<?> implClass) {
+        Map<String, List<Entry>> byName = new HashMap<>();
+        for (Class<?> c: interfaces) {
+            for (Method method: c.getMethods()) {
+                method.setAccessible(true);
+                byName.computeIfAbsent(method.getName(), n -> new ArrayList<>()).add(new Entry(method));
+            }
+        }
+        for (Method method: implClass.getMethods()) {
+            List<Entry> entries = byName.get(method.getName());
+            if (entries == null) continue;
+            for (Entry entry: entries) {
+                entry.implemented = true;
+            }
+        }
+        byName.forEach((name, entries) -> methods.put(name, entries.toArray(new Entry[0])));
+    }
+
+    /**
+     * Finds a method by name and parameter types.
+     * @throws NoSuchMethodException If the interface has no such method.
+     * @throws RMIException If the server object has no method of that name.
+     */
+    Method get(String name, Class<?>[] types) throws NoSuchMethodException, RMIException {
+        Entry[] entries = methods.get(name);
+        if (entries != null) {
+            for (Entry entry: entries) {
+                if (Arrays.equals(entry.types, types)) {
+                    if (!entry.implemented) throw new RMIException("Method not in skeleton interface");
+                    return entry.method;
+                }
+            }
+        }
+        throw new NoSuchMethodException(name + Arrays.toString(types));
+    }
+
+    private static final class Entry {
+        private final Method method;
+        private final Class<?>[] types;
+        private boolean implemented;
+
+        Entry(Method method) {
+            this.method = method;
+            this.types = method.getParameterTypes();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package rmi;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/** Process-wide registry of RMI metrics.
+
+    <p>
+    Metrics are named with dot-separated paths beginning with
+    <code>rmi.</code>, for example <code>rmi.codec.deflate.connections</code>.
+    Counters only ever increase; gauges report a current value. Histograms
+    record distributions of values, such as sizes or latencies, and are
+    reported as several metrics: <code>.count</code>, <code>.p50</code>,
+    <code>.p90</code>, <code>.p99</code> and <code>.max</code> appended to
+    their name. Recording a value does not take any lock, so metrics may be
+    updated on every call.
+
+    <p>
+    Stubs record the latency, connection time, traffic, errors and calls in
+    flight of each method they call on each skeleton, under
+    <code>rmi.stub.</code><i>interface</i><code>.</code><i>method</i><code>.</code><i>host</i><code>:</code><i>port</i>,
+    with the dots of the host replaced by underscores. Started skeletons
+    report the counters of their result cache under
+    <code>rmi.skeleton.</code><i>port</i><code>.</code><i>n</i><code>.cache</code>,
+    and of their coalesced calls under
+    <code>rmi.skeleton.</code><i>port</i><code>.</code><i>n</i><code>.coalesce</code>,
+    and the batches of each <code>Batched</code> method of their server under
+    <code>rmi.skeleton.</code><i>port</i><code>.</code><i>n</i><code>.batching.</code><i>method</i>,
+    where <i>n</i> numbers the skeletons created by the process, so that a
+    skeleton restarted on the port of another does not take over its metrics.
+    These metrics are removed when the skeleton stops.
+ */
+public final class Metrics
+{
+    private static final ConcurrentHashMap<String, Counter>         counters =
+        new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LongSupplier>    gauges =
+        new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Histogram>       histograms =
+        new ConcurrentHashMap<>();
+    private static final String[]   SUFFIXES = {".count", ".p50", ".p90", ".p99", ".max"};
+
+    private Metrics()
+    {
+    }
+
+    /** Returns the counter with the given name, creating it if necessary. */
+    static Counter counter(String name) {
+        Counter counter = counters.get(name);
+        return counter != null ? counter : counters.computeIfAbsent(name, n -> new Counter());
+    }
+
+    /** Registers a gauge, replacing any gauge of the same name. */
+    static void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /** Registers a histogram, replacing any histogram of the same name. */
+    static void histogram(String name, Histogram histogram) {
+        histograms.put(name, histogram);
+    }
+
+    /** Removes the metric with the given name, if any. */
+    static void unregister(String name) {
+        counters.remove(name);
+        gauges.remove(name);
+        histograms.remove(name);
+    }
+
+    /** Returns the histogram with the given name, creating it if necessary. */
+    static Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        return histogram != null ? histogram : histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /** Returns the current value of a metric, or <code>null</code> if no
+        metric with the given name exists.
+     */
+    public static Long get(String name)
+    {
+        Counter counter = counters.get(name);
+        if (counter != null) return counter.get();
+        LongSupplier gauge = gauges.get(name);
+        if (gauge != null) return gauge.getAsLong();
+        for (String suffix : SUFFIXES) {
+            if (name.endsWith(suffix)) {
+                Histogram histogram = histograms.get(name.substring(0, name.length() - suffix.length()));
+                return histogram == null ? null : histogram.report(suffix);
+            }
+        }
+        return null;
+    }
+
+    /** Returns the current values of all metrics, sorted by name. */
+    public static Map<String, Long> snapshot()
+    {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.get()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            for (String suffix : SUFFIXES) {
+                values.put(name + suffix, histogram.report(suffix));
+            }
+        });
+        return values;
+    }
+
+    /** Monotonic counter. */
+    static final class Counter {
+        private final LongAdder adder = new LongAdder();
+
+        void increment() {
+            adder.increment();
+        }
+
+        void add(long n) {
+            adder.add(n);
+        }
+
+        long get() {
+            return adder.sum();
+        }
+    }
+
+    /**
+     * Distribution of non-negative values, in log-linear buckets: values
+     * below 16 are counted exactly, and larger values in eight buckets per
+     * power of two, so reported percentiles are within 12.5% of the truth.
+     */
+    static final class Histogram {
+        static final int BUCKETS = 16 + 60 * 8;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            counts.incrementAndGet(bucket(value));
+            count.increment();
+            max.accumulate(value);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        /** Returns the smallest value at or below which the given fraction of values lie. */
+        long percentile(double fraction) {
+            long[] snapshot = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            return Math.min(percentile(snapshot, total, fraction), max());
+        }
+
+        /** Returns a copy of the bucket counts. */
+        long[] buckets() {
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+            }
+            return snapshot;
+        }
+
+        private long report(String suffix) {
+            switch (suffix) {
+                case ".count": return count();
+                case ".p50": return percentile(0.5);
+                case ".p90": return percentile(0.9);
+                case ".p99": return percentile(0.99);
+                default: return max();
+            }
+        }
+
+        static long percentile(long[] buckets, long total, double fraction) {
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= Math.max(rank, 1)) return upperBound(i);
+            }
+            return upperBound(buckets.length - 1);
+        }
+
+        static int bucket(long value) {
+            if (value < 16) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - 3)) & 7;
+            return Math.min(16 + (exponent - 4) * 8 + sub, BUCKETS - 1);
+        }
+
+        /** Largest value counted in a bucket. */
+        static long upperBound(int bucket) {
+            if (bucket < 16) return bucket;
+            int exponent = (bucket - 16) / 8 + 4;
+            int sub = (bucket - 16) % 8;
+            return ((8L + sub + 1) << (exponent - 3)) - 1;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package rmi;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges concurrent calls of a <code>Batched</code> method into invocations of
+ * its batch variant.
+ *
+ * <p>
+ * The worker whose call opens a batch leads it: it waits until the window
+ * has passed or the batch is full, invokes the batch variant, and hands each
+ * waiting worker its result. Workers whose calls join an open batch only wait.
+ */
+class MicroBatcher {
+    private final Object impl;
+    private final Method variant;
+    private final Metrics.Histogram sizes = new Metrics.Histogram();
+    private final Metrics.Counter invocations = new Metrics.Counter();
+    private volatile long window;
+    private volatile int maxSize;
+    private List<Pending> open;
+
+    MicroBatcher(Object impl, Method variant, Batched batched) {
+        this.impl = impl;
+        this.variant = variant;
+        tune(batched.unit().toNanos(batched.window()), batched.maxSize());
+    }
+
+    /** Reports the batch sizes and invocations as metrics named after the given prefix. */
+    void register(String metricPrefix) {
+        Metrics.histogram(metricPrefix + ".size", sizes);
+        Metrics.gauge(metricPrefix + ".invocations", invocations::get);
+    }
+
+    /** Removes the metrics reported by <code>register</code> with the given prefix. */
+    void unregister(String metricPrefix) {
+        Metrics.unregister(metricPrefix + ".size");
+        Metrics.unregister(metricPrefix + ".invocations");
+    }
+
+    /**
+     * Finds the batch variant named by a <code>Batched</code> annotation.
+     * @throws Error If the server object has no suitable public method.
+     */
+    static Method variant(Class<?> implClass, Method method, Batched batched) {
+        try {
+            Method variant = implClass.getMethod(batched.value(), List.class);
+            if (!List.class.isAssignableFrom(variant.getReturnType())) {
+                throw new Error("batch variant " + batched.value() + " of " + method.getName()
+                        + " does not return a List");
+            }
+            variant.setAccessible(true);
+            return variant;
+        } catch (NoSuchMethodException e) {
+            throw new Error("server object has no public method " + batched.value()
+                    + "(List) to batch calls of " + method.getName());
+        }
+    }
+
+    /**
+     * @param window nanoseconds a batch stays open.
+     * @param maxSize largest number of calls in one batch.
+     */
+    void tune(long window, int maxSize) {
+        this.window = window;
+        this.maxSize = maxSize;
+    }
+
+    /** Makes one call as part of a batch and returns its own result. */
+    Object call(Object[] args) throws InvocationTargetException, IllegalAccessException, RMIException {
+        Pending pending = new Pending(args);
+        List<Pending> batch;
+        boolean leader = false;
+        synchronized (this) {
+            if (open == null) {
+                open = new ArrayList<>();
+                leader = true;
+            }
+            batch = open;
+            batch.add(pending);
+            if (batch.size() >= maxSize) {
+                open = null;
+                notifyAll();
+            }
+        }
+        if (leader) {
+            await(batch);
+            execute(batch);
+        }
+        return pending.result();
+    }
+
+    /** Waits until the batch has been closed by a call which filled it, or closes it when the window ends. */
+    private synchronized void await(List<Pending> batch) {
+        long deadline = System.nanoTime() + window;
+        boolean interrupted = false;
+        long remaining;
+        while (open == batch && (remaining = deadline - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (open == batch) open = null;
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void execute(List<Pending> batch) {
+        sizes.record(batch.size());
+        invocations.increment();
+        List<Object[]> calls = new ArrayList<>(batch.size());
+        for (Pending pending: batch) {
+            calls.add(pending.args);
+        }
+        try {
+            List<?> results = (List<?>) variant.invoke(impl, calls);
+            if (results == null || results.size() != batch.size()) {
+                throw new RMIException("batch variant " + variant.getName() + " returned "
+                        + (results == null ? "null" : results.size() + " results") + " for " + batch.size() + " calls");
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).complete(results.get(i));
+            }
+        } catch (Throwable t) {
+            for (Pending pending: batch) {
+                pending.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static class Pending {
+        private final Object[] args;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        Pending(Object[] args) {
+            this.args = args;
+        }
+
+        void complete(Object value) {
+            result.complete(value);
+        }
+
+        void completeExceptionally(Throwable t) {
+            result.completeExceptionally(t);
+        }
+
+        Object result() throws InvocationTargetException, IllegalAccessException, RMIException {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return result.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InvocationTargetException) throw (InvocationTargetException) cause;
+                if (cause instanceof IllegalAccessException) throw (IllegalAccessException) cause;
+                if (cause instanceof RMIException) throw (RMIException) cause;
+                throw new RMIException(cause.getMessage(), cause);
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
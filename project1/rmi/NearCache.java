@@ -0,0 +1,232 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Results of <code>Cacheable</code> methods cached by stubs.
+
+    <p>
+    Results are cached per skeleton address, for at most the
+    <code>maxStaleness</code> given by the method's annotation, and are
+    compared by their serialized arguments. The cache of each address is
+    emptied whenever a response shows that the skeleton has invalidated
+    results since the cache was filled, or that a different skeleton now runs
+    at the address. Each address keeps at most <code>getMaxEntries</code>
+    results, evicting the least recently used.
+
+    <p>
+    Results of immutable types such as strings and boxed primitives are
+    returned as they are; other results are kept serialized, and each hit
+    returns a fresh copy, so that callers cannot modify each other's results.
+ */
+public final class NearCache
+{
+    /** Default maximum number of results cached per skeleton address. */
+    public static final int     DEFAULT_MAX_ENTRIES = 1024;
+
+    /** Returned by <code>get</code> on a miss. */
+    static final Object         MISS = new Object();
+
+    private static final ConcurrentHashMap<InetSocketAddress, Endpoint>
+                                endpoints = new ConcurrentHashMap<>();
+    private static volatile int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    private static final Metrics.Counter hits = Metrics.counter("rmi.nearcache.hits");
+    private static final Metrics.Counter misses = Metrics.counter("rmi.nearcache.misses");
+    private static final Metrics.Counter invalidations = Metrics.counter("rmi.nearcache.invalidations");
+
+    private NearCache()
+    {
+    }
+
+    /** Sets the maximum number of results cached per skeleton address.
+
+        @param entries The new maximum. Zero disables caching in stubs.
+        @throws IllegalArgumentException If <code>entries</code> is negative.
+     */
+    public static void setMaxEntries(int entries)
+    {
+        if (entries < 0) throw new IllegalArgumentException("negative limit: " + entries);
+        maxEntries = entries;
+        endpoints.values().forEach(Endpoint::trim);
+    }
+
+    /** Returns the maximum number of results cached per skeleton address. */
+    public static int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /** Drops all results cached by stubs in this process. */
+    public static void clear()
+    {
+        endpoints.values().forEach(Endpoint::clear);
+    }
+
+    /**
+     * Returns the cached result of a call, or <code>MISS</code>.
+     */
+    static Object get(InetSocketAddress address, Key key) {
+        Endpoint endpoint = endpoints.get(address);
+        Object result = endpoint == null ? MISS : endpoint.get(key);
+        if (result == MISS) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of times the cache of an address has been emptied.
+     * Taken before a call is sent, it tells <code>put</code> whether the
+     * result may already be stale when it arrives.
+     */
+    static long generation(InetSocketAddress address) {
+        return endpoint(address).generation();
+    }
+
+    /** Learns the skeleton's invalidation version from a response. */
+    static void observe(InetSocketAddress address, Response response) {
+        if (response.getEpoch() == 0) return;
+        endpoint(address).observe(response.getEpoch(), response.getVersion());
+    }
+
+    /**
+     * Caches the result of a call, unless the cache of the address has been
+     * emptied since <code>generation</code> was taken.
+     * @param ttl time for which the result may be served, in nanoseconds.
+     */
+    static void put(InetSocketAddress address, Key key, Object result, long ttl, long generation) {
+        Object stored = result;
+        if (!isImmutable(result)) {
+            try {
+                stored = new Encoded(Connection.encode(result));
+            } catch (IOException ioe) {
+                return;
+            }
+        }
+        endpoint(address).put(key, stored, ttl, generation);
+    }
+
+    private static Endpoint endpoint(InetSocketAddress address) {
+        Endpoint endpoint = endpoints.get(address);
+        return endpoint != null ? endpoint : endpoints.computeIfAbsent(address, a -> new Endpoint());
+    }
+
+    private static boolean isImmutable(Object result) {
+        return result == null || result instanceof String || result instanceof Number
+                && result.getClass().getName().startsWith("java.lang.")
+                || result instanceof Boolean || result instanceof Character || result instanceof Enum;
+    }
+
+    /** Cached results of one skeleton address. */
+    private static class Endpoint {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long epoch;
+        private long version;
+        private long generation;
+
+        synchronized Object get(Key key) {
+            Entry entry = entries.get(key);
+            if (entry == null) return MISS;
+            if (System.nanoTime() - entry.expires > 0) {
+                entries.remove(key);
+                return MISS;
+            }
+            if (!(entry.result instanceof Encoded)) return entry.result;
+            try {
+                return Connection.decode(((Encoded) entry.result).bytes);
+            } catch (IOException | ClassNotFoundException e) {
+                entries.remove(key);
+                return MISS;
+            }
+        }
+
+        synchronized long generation() {
+            return generation;
+        }
+
+        synchronized void observe(long epoch, long version) {
+            if (epoch != this.epoch || version > this.version) {
+                if (!entries.isEmpty()) invalidations.increment();
+                clear();
+                this.epoch = epoch;
+                this.version = version;
+            }
+        }
+
+        synchronized void put(Key key, Object result, long ttl, long generation) {
+            if (generation != this.generation) return;
+            entries.put(key, new Entry(result, System.nanoTime() + ttl));
+            trim();
+        }
+
+        synchronized void trim() {
+            int max = maxEntries;
+            while (entries.size() > max) {
+                entries.remove(entries.keySet().iterator().next());
+            }
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            generation++;
+        }
+    }
+
+    private static class Entry {
+        private final Object result;
+        private final long expires;
+
+        Entry(Object result, long expires) {
+            this.result = result;
+            this.expires = expires;
+        }
+    }
+
+    private static class Encoded {
+        private final byte[] bytes;
+
+        Encoded(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Method and serialized arguments of a call. Arguments are compared in
+     * serialized form so that callers mutating them afterwards cannot alter
+     * cached keys.
+     */
+    static final class Key {
+        private final int object;
+        private final Method method;
+        private final byte[] args;
+        private final int hash;
+
+        /** @param object id of the remote object called, as objects at one address share a cache. */
+        Key(int object, Method method, Object[] args) throws IOException {
+            this.object = object;
+            this.method = method;
+            this.args = Connection.encode(args == null ? new Object[0] : args);
+            this.hash = 31 * (31 * object + method.hashCode()) + Arrays.hashCode(this.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key that = (Key) obj;
+            return hash == that.hash && object == that.object && method.equals(that.method)
+                    && Arrays.equals(args, that.args);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remote objects exported on one skeleton, by object id.
+ *
+ * <p>
+ * The skeleton's own server object has id <code>PRIMARY</code> and is held
+ * apart, so that calls to it do not look up the table. Objects exported next
+ * to it are given increasing ids, which are never reused while the skeleton
+ * exists: a stub left with the id of an unexported object fails rather than
+ * reaching another object.
+ */
+class ObjectTable {
+    /** Id of the skeleton's own server object. */
+    static final int PRIMARY = 0;
+
+    private final Dispatcher primary;
+    private final ConcurrentHashMap<Integer, Dispatcher> objects = new ConcurrentHashMap<>();
+    private final AtomicInteger next = new AtomicInteger(PRIMARY + 1);
+
+    /** @throws Error If the primary object cannot be dispatched to. */
+    ObjectTable(Class<?> c, Object server) {
+        this.primary = new Dispatcher(new Class<?>[] {c}, server, PRIMARY);
+    }
+
+    Dispatcher primary() {
+        return primary;
+    }
+
+    /**
+     * Adds an object to the table.
+     * @return the id of the object.
+     * @throws Error If the object cannot be dispatched to.
+     * @throws IllegalStateException If every id has been used.
+     */
+    int export(Class<?>[] interfaces, Object server) {
+        int id = next.getAndUpdate(i -> i == Integer.MAX_VALUE ? i : i + 1);
+        if (id == Integer.MAX_VALUE) throw new IllegalStateException("object ids exhausted");
+        objects.put(id, new Dispatcher(interfaces, server, id));
+        return id;
+    }
+
+    /** @return whether an object had been exported with the id. */
+    boolean unexport(int id) {
+        return objects.remove(id) != null;
+    }
+
+    /** Returns the object with an id, or <code>null</code> if none is exported with it. */
+    Dispatcher get(int id) {
+        return id == PRIMARY ? primary : objects.get(id);
+    }
+
+    /** Number of objects exported next to the primary one. */
+    int size() {
+        return objects.size();
+    }
+
+    /**
+     * Server object with the methods of its remote interface, resolved once,
+     * and the batchers of its <code>Batched</code> methods.
+     */
+    static final class Dispatcher {
+        private final Class<?>[] interfaces;
+        private final Object server;
+        private final int id;
+        private final MethodTable methods;
+        private final Map<Method, MicroBatcher> batchers = new HashMap<>();
+
+        /**
+         * @throws Error If a <code>Batched</code> method is streamed or has
+         *               no batch variant in the server object.
+         */
+        Dispatcher(Class<?>[] interfaces, Object server, int id) {
+            this.interfaces = interfaces;
+            this.server = server;
+            this.id = id;
+            this.methods = new MethodTable(interfaces, server.getClass());
+            for (Class<?> c : interfaces) {
+                for (Method method : c.getMethods()) {
+                    Batched batched = method.getAnnotation(Batched.class);
+                    if (batched == null) continue;
+                    if (StreamKind.of(method.getReturnType()) != null) {
+                        throw new Error("streamed method " + method.getName() + " cannot be batched");
+                    }
+                    Method variant = MicroBatcher.variant(server.getClass(), method, batched);
+                    batchers.put(method, new MicroBatcher(server, variant, batched));
+                }
+            }
+        }
+
+        Class<?>[] getInterfaces() {
+            return interfaces;
+        }
+
+        Object getServer() {
+            return server;
+        }
+
+        int getId() {
+            return id;
+        }
+
+        MethodTable getMethods() {
+            return methods;
+        }
+
+        Map<Method, MicroBatcher> getBatchers() {
+            return batchers;
+        }
+    }
+}
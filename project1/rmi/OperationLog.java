@@ -0,0 +1,89 @@
+package rmi;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered log of the writes executed by the primary of a replica group.
+ *
+ * <p>
+ * Each write is appended with the next position, starting from 1, and
+ * published to the followers, which subscribe through the primary's
+ * skeleton. The latest <code>RETAINED</code> entries are kept, so that a
+ * follower which connects late, or which missed entries because it fell
+ * behind by more than its buffer, can resume from the position it has
+ * reached. A follower further behind than that cannot catch up.
+ */
+final class OperationLog implements ReplicationLog {
+    /** Number of entries kept for followers resuming, and buffered per follower. */
+    static final int RETAINED = 1 << 16;
+
+    /** Write recorded in the log: the method called and its arguments. */
+    static final class Entry implements Serializable {
+        private final long position;
+        private final String methodName;
+        private final Class<?>[] types;
+        private final Object[] args;
+
+        private Entry(long position, Method method, Object[] args) {
+            this.position = position;
+            this.methodName = method.getName();
+            this.types = method.getParameterTypes();
+            this.args = args;
+        }
+
+        long getPosition() {
+            return position;
+        }
+
+        /** Finds the method written in the remote interface the log is kept for. */
+        Method resolve(Class<?> c) throws NoSuchMethodException {
+            return c.getMethod(methodName, types);
+        }
+
+        Object[] getArgs() {
+            return args;
+        }
+
+        @Override
+        public String toString() {
+            return "<Entry " + position + ", " + methodName + " >";
+        }
+    }
+
+    private final Topic<Entry> topic = new Topic<>(RETAINED, Topic.Overflow.DROP_NEWEST);
+    private final ArrayDeque<Entry> retained = new ArrayDeque<>();
+    private long position;
+
+    /**
+     * Appends a write and publishes it to the followers.
+     * @return the position of the write.
+     */
+    synchronized long append(Method method, Object[] args) {
+        Entry entry = new Entry(++position, method, args);
+        retained.add(entry);
+        if (retained.size() > RETAINED) retained.poll();
+        topic.publish(entry);
+        return position;
+    }
+
+    synchronized long position() {
+        return position;
+    }
+
+    @Override
+    public synchronized Subscription<Entry> follow(long from) {
+        long oldest = position - retained.size() + 1;
+        if (from < oldest) {
+            throw new IllegalStateException("log position " + from + " is no longer retained");
+        }
+        List<Entry> backlog = new ArrayList<>();
+        for (Entry entry: retained) {
+            if (entry.position >= from) backlog.add(entry);
+        }
+        return topic.subscribe(backlog);
+    }
+}
@@ -0,0 +1,47 @@
+package rmi;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer borrowed from a <code>BufferArena</code>. The holder must call
+ * <code>release</code> exactly once, after which the buffer may be handed to
+ * another thread and must no longer be touched.
+ */
+class PooledBuffer {
+    private final BufferArena arena;
+    private final ByteBuffer buffer;
+    private final int sizeClass;
+    private volatile boolean released;
+    Object leakToken;
+
+    PooledBuffer(BufferArena arena, ByteBuffer buffer, int sizeClass) {
+        this.arena = arena;
+        this.buffer = buffer;
+        this.sizeClass = sizeClass;
+    }
+
+    ByteBuffer buffer() {
+        if (released) throw new IllegalStateException("buffer used after release");
+        return buffer;
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    ByteBuffer raw() {
+        return buffer;
+    }
+
+    /** Returns the buffer to its arena. */
+    void release() {
+        if (released) throw new IllegalStateException("buffer released twice");
+        released = true;
+        arena.release(this);
+    }
+
+    @Override
+    public String toString() {
+        return "<PooledBuffer, capacity: " + buffer.capacity() + (released ? ", released" : "") + " >";
+    }
+}
@@ -0,0 +1,24 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks a method of a remote interface which does not modify the state of
+    the server object.
+
+    <p>
+    In a group of <code>Replica</code> skeletons, a read-only call may be
+    served by any replica, while every other call is a write, executed by the
+    primary and recorded in its operation log, from which the followers apply
+    it in turn. A method marked read-only which does modify the server object
+    makes the replicas diverge.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ReadOnly
+{
+}
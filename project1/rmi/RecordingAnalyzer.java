@@ -0,0 +1,207 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/** Summarizes the RMI calls in a flight recording.
+
+    <p>
+    Stubs and skeletons emit flight recorder events in the <code>RMI</code>
+    category: <code>rmi.StubCall</code> for each call made through a stub,
+    <code>rmi.Invocation</code> for each invocation of a server object, and
+    events for accepted connections, time spent waiting for a service thread,
+    serialization and connections opened and closed. These events are
+    recorded like any other, for example with
+    <code>-XX:StartFlightRecording</code>, and cost nothing while no recording
+    is running.
+
+    <p>
+    This class reads a recording and ranks methods by the total time spent in
+    their calls, separately for calls made by stubs and invocations on
+    skeletons. It can be run as a command line tool:
+
+    <pre>
+    java rmi.RecordingAnalyzer recording.jfr [count]
+    </pre>
+ */
+public class RecordingAnalyzer
+{
+    private RecordingAnalyzer()
+    {
+    }
+
+    /** Calls of one method recorded by one side. */
+    public static final class MethodSummary
+    {
+        private final String    side;
+        private final String    method;
+        private long            calls;
+        private long            failures;
+        private long            totalNanos;
+        private long            maxNanos;
+        private long            bytes;
+
+        private MethodSummary(String side, String method)
+        {
+            this.side = side;
+            this.method = method;
+        }
+
+        /** Returns <code>stub</code> for calls made through stubs, or
+            <code>skeleton</code> for invocations of server objects.
+         */
+        public String getSide()
+        {
+            return side;
+        }
+
+        /** Returns the name of the method, qualified by its interface. */
+        public String getMethod()
+        {
+            return method;
+        }
+
+        /** Returns the number of calls recorded. */
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        /** Returns the number of calls which failed. */
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        /** Returns the total duration of the calls, in nanoseconds. */
+        public long getTotalNanos()
+        {
+            return totalNanos;
+        }
+
+        /** Returns the duration of the longest call, in nanoseconds. */
+        public long getMaxNanos()
+        {
+            return maxNanos;
+        }
+
+        /** Returns the total size of the requests and, for stubs, of the
+            responses, in serialized bytes.
+         */
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return side + " " + method + ": " + calls + " calls, "
+                   + failures + " failed, " + totalNanos + " ns total, "
+                   + maxNanos + " ns max, " + bytes + " bytes";
+        }
+    }
+
+    /** Reads a recording and summarizes its calls.
+
+        @param recording The recording file.
+        @return One summary for each method and side, the method with the
+                largest total time first.
+        @throws IOException If the recording cannot be read.
+     */
+    public static List<MethodSummary> analyze(Path recording)
+        throws IOException
+    {
+        Map<String, MethodSummary>  summaries = new HashMap<>();
+
+        try(RecordingFile file = new RecordingFile(recording))
+        {
+            while(file.hasMoreEvents())
+            {
+                RecordedEvent   event = file.readEvent();
+                String          name = event.getEventType().getName();
+                String          side;
+                long            bytes;
+
+                if(name.equals(Events.STUB_CALL))
+                {
+                    side = "stub";
+                    bytes = event.getLong("requestBytes")
+                            + event.getLong("responseBytes");
+                }
+                else if(name.equals(Events.INVOCATION))
+                {
+                    side = "skeleton";
+                    bytes = event.getLong("requestBytes");
+                }
+                else
+                    continue;
+
+                String          method = event.getString("method");
+                MethodSummary   summary = summaries.computeIfAbsent(
+                    side + " " + method, key -> new MethodSummary(side, method));
+                long            nanos = event.getDuration().toNanos();
+
+                summary.calls++;
+                summary.totalNanos += nanos;
+                summary.maxNanos = Math.max(summary.maxNanos, nanos);
+                summary.bytes += bytes;
+
+                if(event.getBoolean("failed"))
+                    summary.failures++;
+            }
+        }
+
+        List<MethodSummary>     hottest = new ArrayList<>(summaries.values());
+
+        hottest.sort(Comparator.comparingLong(MethodSummary::getTotalNanos)
+                               .reversed());
+        return hottest;
+    }
+
+    /** Prints the hottest methods of a recording.
+
+        @param arguments The recording file, optionally followed by the number
+                         of methods to print, ten by default.
+     */
+    public static void main(String[] arguments) throws IOException
+    {
+        if(arguments.length < 1 || arguments.length > 2)
+        {
+            System.err.println("usage: java rmi.RecordingAnalyzer "
+                               + "recording.jfr [count]");
+            System.exit(2);
+        }
+
+        int     count = arguments.length > 1 ? Integer.parseInt(arguments[1])
+                                             : 10;
+
+        System.out.printf("%-9s %-40s %9s %7s %12s %10s %10s %12s%n", "side",
+                          "method", "calls", "failed", "total ms", "mean us",
+                          "max us", "bytes");
+
+        for(MethodSummary summary : analyze(Paths.get(arguments[0])))
+        {
+            if(count-- == 0)
+                break;
+
+            System.out.printf("%-9s %-40s %9d %7d %12.1f %10d %10d %12d%n",
+                              summary.getSide(), summary.getMethod(),
+                              summary.getCalls(), summary.getFailures(),
+                              summary.getTotalNanos() / 1e6,
+                              summary.getTotalNanos() / summary.getCalls()
+                              / 1000,
+                              summary.getMaxNanos() / 1000,
+                              summary.getBytes());
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package rmi;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Objects passed by reference in calls, exported on a skeleton of their own.
+ *
+ * <p>
+ * When a message is serialized, each object which implements a remote
+ * interface, and is not itself a stub, is exported here and replaced by a
+ * stub for it, so only the stub crosses the network and the receiver calls
+ * back for what it needs. The first export starts a skeleton on a port chosen
+ * by the system, served by a runtime whose threads do not keep the process
+ * alive. An object sent several times is exported once.
+ *
+ * <p>
+ * Exports are reclaimed with leases. Each time an object is sent, it is
+ * granted a lease for the stub in transit. A process which deserializes the
+ * stub then holds a lease of its own, which <code>LeaseRenewer</code> renews
+ * until the stub is garbage collected, and releases afterwards. An object is
+ * unexported once it has no lease left, and calls through stubs which outlive
+ * it fail with an <code>RMIException</code>. Leases last one minute, or the
+ * number of milliseconds given by the <code>rmi.lease</code> property.
+ */
+final class RemoteExports {
+    static final long DEFAULT_LEASE = 60_000;
+    private static final int SERVICE_THREADS = 20;
+
+    /** Remote interfaces implemented by each class, empty for classes sent by value. */
+    private static final ClassValue<Class<?>[]> REMOTE_INTERFACES = new ClassValue<Class<?>[]>() {
+        @Override
+        protected Class<?>[] computeValue(Class<?> type) {
+            return remoteInterfaces(type);
+        }
+    };
+
+    private static final Map<Object, Export> byObject = new IdentityHashMap<>();
+    private static final Map<Integer, Export> byId = new HashMap<>();
+    private static volatile long leaseMillis = Long.getLong("rmi.lease", DEFAULT_LEASE);
+    private static Skeleton<Leases> skeleton;
+
+    private RemoteExports() {
+    }
+
+    /** Lease service, served as the primary object of the exports' skeleton. */
+    interface Leases {
+        /**
+         * Renews the leases of a holder on objects. Ids of objects which are
+         * no longer exported are ignored.
+         * @return the lease duration, in milliseconds.
+         */
+        long renew(long holder, int[] ids) throws RMIException;
+
+        /** Gives up the leases of a holder on objects. */
+        void release(long holder, int[] ids) throws RMIException;
+    }
+
+    /**
+     * Returns the object to serialize in place of another: a stub if the
+     * object implements a remote interface, or the object itself.
+     * @param local address on which the receiver reaches this process, or
+     *              <code>null</code> if unknown.
+     */
+    static Object replace(Object obj, InetAddress local) throws IOException {
+        Class<?>[] interfaces = interfaces(obj.getClass());
+        if (interfaces.length == 0) return obj;
+        int id;
+        int port;
+        synchronized (RemoteExports.class) {
+            start();
+            Export export = byObject.get(obj);
+            if (export == null) {
+                export = new Export(skeleton.export(interfaces, obj), obj);
+                byObject.put(obj, export);
+                byId.put(export.id, export);
+            }
+            export.transit = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseMillis);
+            id = export.id;
+            port = skeleton.getSocketAddress().getPort();
+        }
+        InetAddress host = local == null || local.isAnyLocalAddress() ? InetAddress.getLocalHost() : local;
+        StubInvocationHandler<?> handler =
+                new StubInvocationHandler<>(interfaces[0], new InetSocketAddress(host, port), id).leased();
+        return Proxy.newProxyInstance(interfaces[0].getClassLoader(), interfaces, handler);
+    }
+
+    /** Remote interfaces implemented by a class, none for classes sent by value. */
+    static Class<?>[] interfaces(Class<?> type) {
+        return REMOTE_INTERFACES.get(type);
+    }
+
+    /** Number of objects currently exported. */
+    static synchronized int size() {
+        return byId.size();
+    }
+
+    /** Changes the duration of the leases granted from now on. */
+    static void setLeaseDuration(long duration, TimeUnit unit) {
+        leaseMillis = unit.toMillis(duration);
+        synchronized (RemoteExports.class) {
+            RemoteExports.class.notifyAll();
+        }
+    }
+
+    private static void start() throws IOException {
+        if (skeleton != null) return;
+        SkeletonRuntime runtime = new SkeletonRuntime(1, SERVICE_THREADS, true);
+        Skeleton<Leases> started = new Skeleton<>(Leases.class, new LeaseServer(), new InetSocketAddress(0), runtime);
+        try {
+            started.start();
+        } catch (RMIException e) {
+            runtime.shutdown();
+            throw new IOException("unable to export remote objects", e);
+        }
+        skeleton = started;
+        Thread sweeper = new Thread(RemoteExports::sweep, "rmi-exports");
+        sweeper.setDaemon(true);
+        sweeper.start();
+    }
+
+    /** Unexports, every third of a lease, the objects whose leases have all expired. */
+    private static void sweep() {
+        synchronized (RemoteExports.class) {
+            while (true) {
+                try {
+                    RemoteExports.class.wait(Math.max(1, leaseMillis / 3));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long now = System.nanoTime();
+                for (Iterator<Export> it = byId.values().iterator(); it.hasNext(); ) {
+                    Export export = it.next();
+                    if (export.expired(now)) {
+                        it.remove();
+                        unexport(export);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void unexport(Export export) {
+        byObject.remove(export.object);
+        skeleton.unexport(export.id);
+    }
+
+    /**
+     * Finds the remote interfaces implemented by a class: those whose methods
+     * all declare <code>RMIException</code>. Stubs are proxies which
+     * serialize themselves, and have none.
+     */
+    private static Class<?>[] remoteInterfaces(Class<?> type) {
+        Set<Class<?>> found = new LinkedHashSet<>();
+        if (!Proxy.isProxyClass(type)) {
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Class<?> i: c.getInterfaces()) {
+                    if (isRemote(i)) found.add(i);
+                }
+            }
+        }
+        return found.toArray(new Class<?>[0]);
+    }
+
+    private static boolean isRemote(Class<?> c) {
+        Method[] methods = c.getMethods();
+        if (methods.length == 0) return false;
+        for (Method method: methods) {
+            boolean declared = false;
+            for (Class<?> exception: method.getExceptionTypes()) {
+                if (exception.equals(RMIException.class)) declared = true;
+            }
+            if (!declared) return false;
+        }
+        return true;
+    }
+
+    /** Exported object, and the leases on it. */
+    private static final class Export {
+        private final int id;
+        private final Object object;
+        /** Expiry of each holder's lease, in <code>System.nanoTime</code> units. */
+        private final Map<Long, Long> holders = new HashMap<>();
+        /** Expiry of the lease of stubs in transit. */
+        private long transit;
+
+        Export(int id, Object object) {
+            this.id = id;
+            this.object = object;
+        }
+
+        boolean expired(long now) {
+            holders.values().removeIf(expiry -> expiry - now < 0);
+            return holders.isEmpty() && transit - now < 0;
+        }
+    }
+
+    private static final class LeaseServer implements Leases {
+        @Override
+        public long renew(long holder, int[] ids) {
+            long lease = leaseMillis;
+            long expiry = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lease);
+            synchronized (RemoteExports.class) {
+                for (int id: ids) {
+                    Export export = byId.get(id);
+                    if (export != null) export.holders.put(holder, expiry);
+                }
+            }
+            return lease;
+        }
+
+        @Override
+        public void release(long holder, int[] ids) {
+            long now = System.nanoTime();
+            synchronized (RemoteExports.class) {
+                for (int id: ids) {
+                    Export export = byId.get(id);
+                    if (export == null) continue;
+                    export.holders.remove(holder);
+                    if (export.expired(now)) {
+                        byId.remove(id);
+                        unexport(export);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package rmi;
+
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stub side of a subscription.
+ *
+ * <p>
+ * A daemon thread reads the chunks pushed by the skeleton into a buffer of
+ * <code>StreamReceiver.WINDOW</code> events. When the caller falls behind
+ * and the buffer is full, the thread stops reading, so that the connection
+ * backs up and the skeleton applies the topic's overflow policy to the
+ * events still to come. The subscription owns the connection on which the
+ * call was made: it returns it to the pool once the skeleton has ended the
+ * subscription, and closes it if the caller ends it first.
+ */
+final class RemoteSubscription<E> implements Subscription<E> {
+    /** Marks the end of the events, once they have all been read. */
+    private static final Object END = new Object();
+
+    private final Connection connection;
+    private final LinkedBlockingQueue<Object> events = new LinkedBlockingQueue<>(StreamReceiver.WINDOW);
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean closed;
+    private volatile RuntimeException error;
+    /** Whether the connection still belongs to the subscription. */
+    private boolean owned = true;
+    private boolean cancelled;
+
+    RemoteSubscription(Connection connection) {
+        this.connection = connection;
+    }
+
+    /** Starts reading the events pushed by the skeleton. */
+    RemoteSubscription<E> start() {
+        Thread reader = new Thread(this::read, "rmi-subscription-" + connection.getRemoteAddress());
+        reader.setDaemon(true);
+        reader.start();
+        return this;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        return unwrap(events.take());
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return unwrap(events.poll(timeout, unit));
+    }
+
+    @SuppressWarnings("unchecked")
+    private E unwrap(Object event) {
+        if (event != END) return (E) event;
+        // leave the mark for other threads waiting
+        events.offer(END);
+        if (error != null) throw error;
+        return null;
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (cancelled) return;
+            cancelled = true;
+            if (owned) {
+                owned = false;
+                ConnectionPool.close(connection);
+            }
+        }
+        events.clear();
+        events.offer(END);
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                StreamChunk chunk = (StreamChunk) connection.receive();
+                dropped.add(chunk.getDropped());
+                for (Object event: chunk.getElements()) {
+                    events.put(event);
+                }
+                if (chunk.isLast()) {
+                    synchronized (this) {
+                        if (owned) ConnectionPool.release(connection);
+                        owned = false;
+                    }
+                    break;
+                }
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException | InterruptedException e) {
+            synchronized (this) {
+                if (cancelled) return;
+                error = new IllegalStateException("subscription failed", new RMIException(e.getMessage(), e));
+                owned = false;
+                ConnectionPool.close(connection);
+            }
+        }
+        closed = true;
+        try {
+            events.put(END);
+        } catch (InterruptedException e) {
+            // nobody is left to wake
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<RemoteSubscription, " + connection + " >";
+    }
+}
@@ -0,0 +1,421 @@
+package rmi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/** Member of a group of skeletons serving copies of the same server object.
+
+    <p>
+    One member of the group is the primary, and the others follow it. Each
+    member has a server object of its own, in the same initial state, and
+    serves it on its own skeleton. Methods of the remote interface marked
+    <code>ReadOnly</code> are served by whichever member receives them. Every
+    other method is a write: the primary executes writes one at a time,
+    appending each to an ordered operation log, and followers forward the
+    writes they receive to the primary. Each follower subscribes to the log
+    of the primary, which pushes the writes to it as they are executed, and
+    applies them to its own server object in log order. Writes must
+    therefore be deterministic, so that applying the same writes in the same
+    order leaves every copy in the same state; a write which throws is
+    logged and applied all the same.
+
+    <p>
+    Followers lag behind the primary by the time a write takes to reach
+    them. Calls made through <code>Stub.createReplicated</code> with
+    read-your-writes consistency carry the log position of the caller's last
+    write, and a follower serving such a read first waits until it has
+    applied that position. A follower still behind after the maximum wait,
+    or which has fallen further behind than the primary retains log entries
+    for, forwards the read to the primary. A follower also waits until it has
+    applied each write it forwarded, so that plain stubs calling one follower
+    read their own writes too.
+
+    <p>
+    Followers are not promoted: while the primary is unreachable, writes fail
+    and followers keep serving reads at the position they reached, and
+    resume following once the primary is back. The log is kept in memory
+    only: when the process of the primary restarts, its followers must be
+    restarted with copies in the primary's new initial state.
+ */
+public class Replica<T>
+{
+    /** Time a follower waits to catch up with a read's position by default,
+        in milliseconds.
+     */
+    public static final long    DEFAULT_MAX_WAIT = 500;
+
+    /** Id of the operation log on the skeleton of the primary, the first
+        object exported on it.
+     */
+    private static final int    LOG = ObjectTable.PRIMARY + 1;
+    /** Time a follower waits before subscribing again to the log, in
+        milliseconds.
+     */
+    private static final long   RETRY = 100;
+
+    private final Class<T>              c;
+    private final T                     server;
+    private final Skeleton<T>           skeleton;
+    private final OperationLog          log;
+    private final InetSocketAddress     primary;
+    private final T                     forward;
+    private volatile long               maxWaitNanos =
+        TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_WAIT);
+    private long                        position;
+    private boolean                     lost;
+    private Thread                      follower;
+    private volatile Subscription<?>    subscription;
+
+    private Replica(Class<T> c, T server, InetSocketAddress address,
+                    InetSocketAddress primary)
+    {
+        RMIUtil.checkNotNull(c, server, address);
+        RMIUtil.checkInterface(c);
+
+        this.c = c;
+        this.server = server;
+        this.primary = primary;
+        this.log = primary == null ? new OperationLog() : null;
+        this.forward = primary == null ? null : Stub.create(c, primary);
+        this.skeleton = new Skeleton<T>(c, c.cast(Proxy.newProxyInstance(
+            c.getClassLoader(), new Class<?>[] {c}, new Handler())), address);
+
+        if(log != null && skeleton.export(ReplicationLog.class, log) != LOG)
+            throw new IllegalStateException("operation log exported with wrong id");
+    }
+
+    /** Creates the primary of a group.
+
+        @param c A <code>Class</code> object representing the remote interface.
+        @param server The primary's copy of the server object.
+        @param address The address of the primary's skeleton, which followers
+                       and stubs connect to.
+        @return The primary, not yet started.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface.
+     */
+    public static <T> Replica<T> primary(Class<T> c, T server,
+                                         InetSocketAddress address)
+    {
+        return new Replica<T>(c, server, address, null);
+    }
+
+    /** Creates a follower of a primary.
+
+        @param c A <code>Class</code> object representing the remote interface.
+        @param server The follower's copy of the server object, in the state
+                      the primary's copy had when the primary was created.
+        @param address The address of the follower's own skeleton.
+        @param primary The address of the primary's skeleton.
+        @return The follower, not yet started.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface.
+     */
+    public static <T> Replica<T> follower(Class<T> c, T server,
+                                          InetSocketAddress address,
+                                          InetSocketAddress primary)
+    {
+        RMIUtil.checkNotNull(primary);
+        return new Replica<T>(c, server, address, primary);
+    }
+
+    /** Returns the skeleton of the replica, which may be configured before
+        the replica is started. It serves a wrapper of the server object.
+     */
+    public Skeleton<T> getSkeleton()
+    {
+        return skeleton;
+    }
+
+    /** Tells whether the replica is the primary of its group. */
+    public boolean isPrimary()
+    {
+        return log != null;
+    }
+
+    /** Returns the position of the last write in the operation log which the
+        replica has executed or applied. Positions start at 1.
+     */
+    public synchronized long getPosition()
+    {
+        return log != null ? log.position() : position;
+    }
+
+    /** Sets the time a follower waits to catch up with the position of a
+        read, before it forwards the read to the primary.
+
+        @param maxWait The maximum wait, zero to forward reads at once.
+        @param unit The unit of <code>maxWait</code>.
+        @throws IllegalArgumentException If <code>maxWait</code> is negative.
+     */
+    public void setMaxWait(long maxWait, TimeUnit unit)
+    {
+        if(maxWait < 0)
+            throw new IllegalArgumentException("wait must not be negative");
+
+        maxWaitNanos = unit.toNanos(maxWait);
+    }
+
+    /** Starts the skeleton of the replica and, for a follower, the thread
+        applying the log of the primary.
+
+        @throws RMIException If the skeleton cannot be started.
+     */
+    public synchronized void start() throws RMIException
+    {
+        skeleton.start();
+
+        if(log != null || follower != null)
+            return;
+
+        follower = new Thread(this::follow,
+                              "rmi-replica-" + skeleton.getSocketAddress());
+        follower.setDaemon(true);
+        follower.start();
+    }
+
+    /** Stops the replica: its skeleton, and a follower's subscription to the
+        log of the primary.
+     */
+    public void stop()
+    {
+        Thread                  thread;
+
+        synchronized(this)
+        {
+            thread = follower;
+            follower = null;
+        }
+
+        if(thread != null)
+        {
+            thread.interrupt();
+
+            Subscription<?>     current = subscription;
+
+            if(current != null)
+                current.close();
+        }
+
+        skeleton.stop();
+    }
+
+    /** Subscribes to the log of the primary and applies its entries, until
+        the replica is stopped or the log no longer retains the next entry.
+     */
+    private void follow()
+    {
+        ReplicationLog  remote = Stub.create(ReplicationLog.class, primary, LOG);
+
+        while(following())
+        {
+            Subscription<OperationLog.Entry>    entries;
+
+            try
+            {
+                entries = remote.follow(getPosition() + 1);
+            }
+            catch(IllegalStateException e)
+            {
+                synchronized(this)
+                {
+                    lost = true;
+                    notifyAll();
+                }
+
+                return;
+            }
+            catch(RMIException e)
+            {
+                if(!pause())
+                    return;
+
+                continue;
+            }
+
+            subscription = entries;
+
+            try
+            {
+                OperationLog.Entry  entry;
+
+                while(following() && (entry = entries.take()) != null)
+                {
+                    long    next = getPosition() + 1;
+
+                    // a gap means entries were dropped while this replica
+                    // lagged: subscribe again from the first one missing
+                    if(entry.getPosition() > next)
+                        break;
+
+                    if(entry.getPosition() == next)
+                        apply(entry);
+                }
+            }
+            catch(IllegalStateException e)
+            {
+                // the connection to the primary failed
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            finally
+            {
+                subscription = null;
+                entries.close();
+            }
+
+            if(!pause())
+                return;
+        }
+    }
+
+    private synchronized boolean following()
+    {
+        return follower == Thread.currentThread();
+    }
+
+    /** Waits before subscribing again, unless the replica is stopped. */
+    private boolean pause()
+    {
+        try
+        {
+            Thread.sleep(RETRY);
+            return following();
+        }
+        catch(InterruptedException e)
+        {
+            return false;
+        }
+    }
+
+    /** Applies a write of the log to the server object. */
+    private void apply(OperationLog.Entry entry)
+    {
+        try
+        {
+            local(entry.resolve(c), entry.getArgs());
+        }
+        catch(NoSuchMethodException e)
+        {
+            // cannot happen if the primary serves the same interface
+        }
+        catch(Throwable t)
+        {
+            // the write failed on the primary too
+        }
+
+        synchronized(this)
+        {
+            position = entry.getPosition();
+            notifyAll();
+        }
+    }
+
+    /** Waits until the replica has applied a position.
+
+        @return <code>false</code> if the replica is still behind after the
+                maximum wait, or can no longer catch up.
+     */
+    private synchronized boolean await(long required)
+        throws InterruptedException
+    {
+        long    deadline = System.nanoTime() + maxWaitNanos;
+        long    remaining;
+
+        while(position < required && !lost
+              && (remaining = deadline - System.nanoTime()) > 0)
+        {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+
+        return position >= required && !lost;
+    }
+
+    /** Calls the server object outside the log positions of the current
+        call, so that calls it makes in turn do not carry them.
+     */
+    private Object local(Method method, Object[] args) throws Throwable
+    {
+        LogPosition.Scope   scope = LogPosition.enter(0);
+
+        try
+        {
+            return method.invoke(server, args);
+        }
+        catch(InvocationTargetException e)
+        {
+            throw e.getTargetException();
+        }
+        finally
+        {
+            LogPosition.exit(scope);
+        }
+    }
+
+    /** Calls the primary, passing on the positions of the current call. */
+    private Object forward(Method method, Object[] args) throws Throwable
+    {
+        try
+        {
+            return method.invoke(forward, args);
+        }
+        catch(InvocationTargetException e)
+        {
+            throw e.getTargetException();
+        }
+    }
+
+    /** Wrapper of the server object served by the skeleton. */
+    private class Handler implements InvocationHandler
+    {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+            throws Throwable
+        {
+            if(method.getDeclaringClass() == Object.class)
+                return local(method, args);
+
+            if(method.isAnnotationPresent(ReadOnly.class))
+            {
+                if(log == null && !await(LogPosition.required()))
+                    return forward(method, args);
+
+                return local(method, args);
+            }
+
+            if(log == null)
+            {
+                Object  result = forward(method, args);
+
+                await(LogPosition.written());
+                return result;
+            }
+
+            // writes are executed in the order of the log
+            synchronized(log)
+            {
+                try
+                {
+                    return local(method, args);
+                }
+                finally
+                {
+                    LogPosition.wrote(log.append(method, args));
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return (isPrimary() ? "primary " : "follower of " + primary + " ") +
+               "at " + skeleton.getSocketAddress();
+    }
+}
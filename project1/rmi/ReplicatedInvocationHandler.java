@@ -0,0 +1,120 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Handler of a stub for a replica group. Writes go to the primary. Reads go
+ * to the member with the fewest calls in progress from this stub, starting
+ * the search at the next member in turn so that idle members share the
+ * reads, and are retried on the primary if the chosen follower cannot be
+ * reached. With read-your-writes consistency, reads carry the highest log
+ * position reached by the writes of the stub.
+ */
+final class ReplicatedInvocationHandler<T> implements InvocationHandler, Serializable {
+    private final Class<T> c;
+    /** Addresses of the members, the primary first. */
+    private final List<InetSocketAddress> addresses;
+    private final boolean readYourWrites;
+    private transient StubInvocationHandler<T>[] members;
+    private transient AtomicIntegerArray calls;
+    private transient AtomicInteger next;
+    private transient AtomicLong written;
+
+    ReplicatedInvocationHandler(Class<T> c, List<InetSocketAddress> addresses, boolean readYourWrites) {
+        this.c = c;
+        this.addresses = addresses;
+        this.readYourWrites = readYourWrites;
+        init();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void init() {
+        members = new StubInvocationHandler[addresses.size()];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new StubInvocationHandler<>(c, addresses.get(i));
+        }
+        calls = new AtomicIntegerArray(members.length);
+        next = new AtomicInteger();
+        written = new AtomicLong();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                            && equals(Proxy.getInvocationHandler(args[0]));
+                case "hashCode":
+                    return hashCode();
+                default:
+                    return toString();
+            }
+        }
+        if (!method.isAnnotationPresent(ReadOnly.class)) {
+            LogPosition.Scope scope = LogPosition.enter(0);
+            try {
+                return members[0].invoke(proxy, method, args);
+            } finally {
+                long position = LogPosition.exit(scope);
+                if (readYourWrites) written.accumulateAndGet(position, Math::max);
+            }
+        }
+        int member = pick();
+        calls.incrementAndGet(member);
+        LogPosition.Scope scope = LogPosition.enter(readYourWrites ? written.get() : 0);
+        try {
+            return members[member].invoke(proxy, method, args);
+        } catch (RMIException e) {
+            if (member == 0) throw e;
+            return members[0].invoke(proxy, method, args);
+        } finally {
+            LogPosition.exit(scope);
+            calls.decrementAndGet(member);
+        }
+    }
+
+    /** Chooses the member to read from. */
+    private int pick() {
+        int start = Math.floorMod(next.getAndIncrement(), members.length);
+        int best = start;
+        for (int i = 1; i < members.length; i++) {
+            int member = (start + i) % members.length;
+            if (calls.get(member) < calls.get(best)) best = member;
+        }
+        return best;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ReplicatedInvocationHandler)) return false;
+        ReplicatedInvocationHandler<?> that = (ReplicatedInvocationHandler<?>) obj;
+        return addresses.equals(that.addresses) && c.getName().equals(that.c.getName())
+                && readYourWrites == that.readYourWrites;
+    }
+
+    @Override
+    public int hashCode() {
+        return addresses.hashCode() * 31 + c.getName().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Replicated stub for RMI " + c + " over " + addresses;
+    }
+}
@@ -0,0 +1,14 @@
+package rmi;
+
+/**
+ * Remote interface through which the followers of a replica group read the
+ * operation log of the primary, exported on the primary's skeleton.
+ */
+interface ReplicationLog {
+    /**
+     * Subscribes to the entries of the log from a position on.
+     * @throws IllegalStateException if the entry at <code>from</code> is no
+     *                               longer retained.
+     */
+    Subscription<OperationLog.Entry> follow(long from) throws RMIException;
+}
@@ -2,25 +2,93 @@ package rmi;
 
 import java.io.Serializable;
 import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by musteryu on 2017/1/28.
  */
 class Request implements Serializable {
+    /** Object id of the skeleton's management interface. */
+    static final int MANAGEMENT = -1;
+
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Class<?>[] NO_TYPES = new Class<?>[0];
+    /** Parameter types by method, so that building a request does not copy them. */
+    private static final ConcurrentHashMap<Method, Class<?>[]> PARAMETER_TYPES = new ConcurrentHashMap<>();
+
     private Class<?>[] types;
     private Object[] args;
     private String methodName;
+    private int object;
+    private boolean timed;
+    private long after;
+    private TraceContext trace;
+    private transient Method method;
 
     Request(Method method) {
         this.types = null;
         this.args = null;
         this.methodName = method.getName();
+        this.method = method;
     }
 
     Request(Method method, Object[] objects) {
-        types = method.getParameterTypes();
+        types = PARAMETER_TYPES.computeIfAbsent(method, Method::getParameterTypes);
         args = objects;
         this.methodName = method.getName();
+        this.method = method;
+    }
+
+    /** Request decoded by <code>DirectEncoding</code>; the types are shared and must not be modified. */
+    Request(String methodName, Class<?>[] types, Object[] args) {
+        this.methodName = methodName;
+        this.types = types;
+        this.args = args;
+    }
+
+    /** Addresses the request to an object other than the skeleton's server object. */
+    Request to(int object) {
+        this.object = object;
+        return this;
+    }
+
+    int unwrapObject() {
+        return object;
+    }
+
+    /** Asks the skeleton to attach its timings to the response. */
+    Request timed() {
+        this.timed = true;
+        return this;
+    }
+
+    boolean isTimed() {
+        return timed;
+    }
+
+    /** Asks a replica to observe the given log position before serving the call. */
+    Request after(long position) {
+        this.after = position;
+        return this;
+    }
+
+    long getAfter() {
+        return after;
+    }
+
+    /** Carries the trace context of the call, if it is traced. */
+    Request trace(TraceContext trace) {
+        this.trace = trace;
+        return this;
+    }
+
+    TraceContext getTrace() {
+        return trace;
+    }
+
+    /** Method the request was built for, or <code>null</code> once it has been sent. */
+    Method getMethod() {
+        return method;
     }
 
     boolean nonParams() {
@@ -28,12 +96,12 @@ class Request implements Serializable {
     }
 
     Class<?>[] unwrapTypes() throws ClassNotFoundException {
-        if (types == null) return new Class<?>[0];
+        if (types == null) return NO_TYPES;
         return types;
     }
 
     Object[] unwrapParams() {
-        if (args == null) return new Object[0];
+        if (args == null) return NO_ARGS;
         return args;
     }
 
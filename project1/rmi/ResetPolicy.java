@@ -0,0 +1,73 @@
+package rmi;
+
+/** Bounds on the serialization state kept alive for each connection.
+
+    <p>
+    Stubs and skeletons keep one object output stream and one object input
+    stream open for the whole life of a connection. Object references are
+    forgotten after every message, so each call still sees the current state of
+    its arguments. Class descriptors, however, are sent in full only the first
+    time they are used on a connection, and referred to by number afterwards.
+
+    <p>
+    The descriptor dictionary of a connection is cleared, and descriptors are
+    sent in full again, when it reaches <code>getMaxDescriptors</code> entries or
+    when <code>getMaxMessages</code> messages have been sent since it was last
+    cleared. Changes apply to messages sent after the change, on new and
+    existing connections.
+ */
+public final class ResetPolicy
+{
+    /** Default maximum number of class descriptors remembered per connection. */
+    public static final int     DEFAULT_MAX_DESCRIPTORS = 1024;
+    /** Default number of messages after which the dictionary is cleared. */
+    public static final int     DEFAULT_MAX_MESSAGES = 100000;
+
+    private static volatile int maxDescriptors = DEFAULT_MAX_DESCRIPTORS;
+    private static volatile int maxMessages = DEFAULT_MAX_MESSAGES;
+
+    private ResetPolicy()
+    {
+    }
+
+    /** Sets the maximum number of class descriptors remembered per connection.
+
+        @param descriptors The new maximum. Zero disables descriptor caching.
+        @throws IllegalArgumentException If <code>descriptors</code> is
+                                         negative.
+     */
+    public static void setMaxDescriptors(int descriptors)
+    {
+        if (descriptors < 0) throw new IllegalArgumentException("negative limit: " + descriptors);
+        maxDescriptors = descriptors;
+    }
+
+    /** Returns the maximum number of class descriptors remembered per
+        connection.
+     */
+    public static int getMaxDescriptors()
+    {
+        return maxDescriptors;
+    }
+
+    /** Sets the number of messages after which a connection's descriptor
+        dictionary is cleared.
+
+        @param messages The new interval, at least one.
+        @throws IllegalArgumentException If <code>messages</code> is not
+                                         positive.
+     */
+    public static void setMaxMessages(int messages)
+    {
+        if (messages <= 0) throw new IllegalArgumentException("non-positive interval: " + messages);
+        maxMessages = messages;
+    }
+
+    /** Returns the number of messages after which a connection's descriptor
+        dictionary is cleared.
+     */
+    public static int getMaxMessages()
+    {
+        return maxMessages;
+    }
+}
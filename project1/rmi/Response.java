@@ -1,13 +1,19 @@
 package rmi;
 
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
 
 class Response implements Serializable{
     private Object o;
     private Throwable t;
     private State state;
+    private StreamKind kind;
+    private long epoch;
+    private long version;
+    private long position;
+    private long[] timings;
     private enum State {
-        success, exception
+        success, exception, stream
     }
 
     Response(Object o) {
@@ -28,6 +34,86 @@ class Response implements Serializable{
         return new Response(t);
     }
 
+    /** Announces that the return value follows as a sequence of chunks. */
+    static Response stream(StreamKind kind) {
+        Response response = new Response((Object) null);
+        response.state = State.stream;
+        response.kind = kind;
+        return response;
+    }
+
+    boolean isStream() {
+        return state == State.stream;
+    }
+
+    StreamKind getStreamKind() {
+        return kind;
+    }
+
+    /**
+     * Stamps the response with the skeleton's invalidation version, which stubs
+     * use to drop results they have cached.
+     * @param epoch identifies the skeleton instance.
+     * @param version number of invalidations made by the skeleton so far.
+     */
+    Response stamp(long epoch, long version) {
+        this.epoch = epoch;
+        this.version = version;
+        return this;
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    /** Stamps the response with the log position reached by the writes of the call. */
+    Response at(long position) {
+        this.position = position;
+        return this;
+    }
+
+    long getPosition() {
+        return position;
+    }
+
+    /**
+     * Attaches the time the skeleton spent on a sampled call, in nanoseconds.
+     * @param queue waiting for a service thread.
+     * @param decode deserializing the request.
+     * @param service from then until the response was ready to be sent.
+     */
+    Response time(long queue, long decode, long service) {
+        this.timings = new long[] {queue, decode, service};
+        return this;
+    }
+
+    /** Returns the skeleton's timings, or <code>null</code> if none were attached. */
+    long[] getTimings() {
+        return timings;
+    }
+
+    boolean isSuccess() {
+        return state == State.success;
+    }
+
+    /** Returns the result of a successful call. */
+    Object getResult() {
+        return o;
+    }
+
+    /**
+     * Returns the exception of a failed call, as thrown by the server object
+     * rather than wrapped by reflection.
+     */
+    Throwable getError() {
+        if (state != State.exception) return null;
+        return t instanceof InvocationTargetException ? ((InvocationTargetException) t).getTargetException() : t;
+    }
+
     Object getOrThrow() throws Throwable {
         if (state == State.exception) throw t;
         return o;
@@ -42,6 +128,8 @@ class Response implements Serializable{
                 return "<Response, Object: " + this.o + " >";
             case exception:
                 return "<Response, Exception: " + this.t + " >";
+            case stream:
+                return "<Response, Stream: " + this.kind + " >";
         }
         return "";
     }
@@ -0,0 +1,191 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Serialized responses of <code>Cacheable</code> methods, kept by a skeleton.
+ *
+ * <p>
+ * Entries are kept in least recently used order and evicted from the old end
+ * when either the entry limit or the byte limit is exceeded. Expired entries
+ * are dropped when they are looked up. All operations take the cache's lock,
+ * but only for the duration of a map operation: invocation and encoding happen
+ * outside it.
+ *
+ * <p>
+ * The cache counts invalidations. Responses are stamped with the count taken
+ * before invocation, together with an epoch identifying the skeleton
+ * instance, so that stubs can tell when results they cached may be stale. A
+ * result whose invocation overlapped an invalidation is not cached.
+ *
+ * <p>
+ * Hits, misses, evictions and expirations are counted per cache, so that the
+ * skeletons of one process report them separately.
+ */
+class ResultCache {
+    static final int DEFAULT_MAX_ENTRIES = 10_000;
+    static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private final Metrics.Counter hits = new Metrics.Counter();
+    private final Metrics.Counter misses = new Metrics.Counter();
+    private final Metrics.Counter evictions = new Metrics.Counter();
+    private final Metrics.Counter expirations = new Metrics.Counter();
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long epoch = ThreadLocalRandom.current().nextLong() | 1;
+    private volatile long version;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes;
+
+    /**
+     * Returns the cached response for a call, or <code>null</code> on a miss.
+     */
+    synchronized byte[] get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.expires > 0) {
+            remove(key);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.response;
+    }
+
+    /**
+     * Caches a response.
+     * @param ttl time to live, in nanoseconds.
+     * @param version invalidation count taken before the invocation which
+     *                produced the response.
+     */
+    synchronized void put(Key key, byte[] response, long ttl, long version) {
+        if (version != this.version || response.length > maxBytes) return;
+        remove(key);
+        entries.put(key, new Entry(response, System.nanoTime() + ttl));
+        bytes += response.length;
+        trim();
+    }
+
+    synchronized void setLimits(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    /** Drops every entry whose key matches, and counts an invalidation. */
+    synchronized void invalidate(Predicate<Key> matching) {
+        version++;
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (matching.test(e.getKey())) {
+                bytes -= e.getValue().response.length;
+                it.remove();
+            }
+        }
+    }
+
+    /** Reports the cache's counters as gauges named after the given prefix. */
+    void register(String metricPrefix) {
+        Metrics.gauge(metricPrefix + ".hits", hits::get);
+        Metrics.gauge(metricPrefix + ".misses", misses::get);
+        Metrics.gauge(metricPrefix + ".evictions", evictions::get);
+        Metrics.gauge(metricPrefix + ".expirations", expirations::get);
+    }
+
+    /** Removes the gauges reported by <code>register</code> with the given prefix. */
+    void unregister(String metricPrefix) {
+        Metrics.unregister(metricPrefix + ".hits");
+        Metrics.unregister(metricPrefix + ".misses");
+        Metrics.unregister(metricPrefix + ".evictions");
+        Metrics.unregister(metricPrefix + ".expirations");
+    }
+
+    long epoch() {
+        return epoch;
+    }
+
+    long version() {
+        return version;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    private void remove(Key key) {
+        Entry old = entries.remove(key);
+        if (old != null) bytes -= old.response.length;
+    }
+
+    private void trim() {
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            bytes -= it.next().response.length;
+            it.remove();
+            evictions.increment();
+        }
+    }
+
+    private static class Entry {
+        private final byte[] response;
+        private final long expires;
+
+        Entry(byte[] response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+
+    /** Method and arguments of a call, compared deeply. */
+    static final class Key {
+        private final int object;
+        private final Method method;
+        private final Object[] args;
+        private final int hash;
+
+        /** @param object id of the object called, as objects of one interface share the cache. */
+        Key(int object, Method method, Object[] args) {
+            this.object = object;
+            this.method = method;
+            this.args = args;
+            this.hash = 31 * (31 * object + method.hashCode()) + Arrays.deepHashCode(args);
+        }
+
+        Method getMethod() {
+            return method;
+        }
+
+        Object[] getArgs() {
+            return args;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) return false;
+            Key that = (Key) obj;
+            return hash == that.hash && object == that.object && method.equals(that.method)
+                    && Arrays.deepEquals(args, that.args);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package rmi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Marks the parameter of a remote method which decides the skeleton a
+    sharded stub sends the call to.
+
+    <p>
+    A stub created with <code>Stub.createSharded</code> looks up the argument
+    passed for this parameter on its <code>ShardRing</code>, and calls the
+    skeleton which owns it. Every method of a sharded interface must have
+    exactly one parameter so marked. Calls with equal keys always reach the
+    same skeleton, as long as the members of the ring do not change.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface ShardKey
+{
+}
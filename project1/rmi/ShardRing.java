@@ -0,0 +1,214 @@
+package rmi;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** Consistent-hash ring assigning keys to the skeletons of a sharded service.
+
+    <p>
+    Each member is placed on the ring at a number of points, its virtual
+    nodes, derived from its address. A key belongs to the member whose point
+    follows the key's hash on the ring. Adding a member therefore moves to it
+    only the keys falling just before its points, about one key in the new
+    number of members, and removing a member moves only its own keys; all
+    other keys keep their owner. The more virtual nodes, the more evenly keys
+    are spread.
+
+    <p>
+    Keys are hashed with <code>hashCode</code>. Clients sharing a service must
+    agree on the owner of every key, so key classes must compute the same hash
+    code in every process, as <code>String</code>, <code>Integer</code> and
+    <code>Long</code> do; enums and classes inheriting the identity hash code
+    of <code>Object</code> must not be used as keys.
+
+    <p>
+    A ring is thread-safe. Members may be added and removed while sharded
+    stubs are using it; each call is routed by the membership current when it
+    is made.
+ */
+public class ShardRing implements Serializable
+{
+    /** Number of virtual nodes per member by default. */
+    public static final int     DEFAULT_VIRTUAL_NODES = 128;
+
+    private final int                                           virtualNodes;
+    private final Set<InetSocketAddress>                        members =
+        new LinkedHashSet<>();
+    private volatile TreeMap<Long, InetSocketAddress>           points =
+        new TreeMap<>();
+
+    /** Creates a ring with <code>DEFAULT_VIRTUAL_NODES</code> per member.
+
+        @param members The addresses of the skeletons sharing the keys.
+        @throws NullPointerException If <code>members</code> or any address
+                                     is <code>null</code>.
+     */
+    public ShardRing(Collection<InetSocketAddress> members)
+    {
+        this(members, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /** Creates a ring.
+
+        @param members The addresses of the skeletons sharing the keys.
+        @param virtualNodes The number of points of each member on the ring.
+        @throws IllegalArgumentException If <code>virtualNodes</code> is not
+                                         positive.
+        @throws NullPointerException If <code>members</code> or any address
+                                     is <code>null</code>.
+     */
+    public ShardRing(Collection<InetSocketAddress> members, int virtualNodes)
+    {
+        RMIUtil.checkNotNull(members);
+
+        if(virtualNodes < 1)
+            throw new IllegalArgumentException("virtual nodes must be positive");
+
+        this.virtualNodes = virtualNodes;
+
+        for(InetSocketAddress member : members)
+        {
+            RMIUtil.checkNotNull(member);
+            this.members.add(member);
+        }
+
+        rebuild();
+    }
+
+    /** Adds a member to the ring.
+
+        @param member The address of the skeleton.
+        @return <code>true</code> if the member was not on the ring.
+        @throws NullPointerException If <code>member</code> is
+                                     <code>null</code>.
+     */
+    public synchronized boolean add(InetSocketAddress member)
+    {
+        RMIUtil.checkNotNull(member);
+
+        if(!members.add(member))
+            return false;
+
+        rebuild();
+        return true;
+    }
+
+    /** Removes a member from the ring. Its keys pass to the members
+        following its points.
+
+        @param member The address of the skeleton.
+        @return <code>true</code> if the member was on the ring.
+     */
+    public synchronized boolean remove(InetSocketAddress member)
+    {
+        if(!members.remove(member))
+            return false;
+
+        rebuild();
+        return true;
+    }
+
+    /** Returns the current members of the ring. */
+    public synchronized Set<InetSocketAddress> getMembers()
+    {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(members));
+    }
+
+    /** Returns the member owning a key.
+
+        @param key The key.
+        @return The address of the skeleton owning <code>key</code>.
+        @throws IllegalStateException If the ring has no members.
+        @throws NullPointerException If <code>key</code> is
+                                     <code>null</code>.
+     */
+    public InetSocketAddress owner(Object key)
+    {
+        RMIUtil.checkNotNull(key);
+
+        TreeMap<Long, InetSocketAddress>        ring = points;
+
+        if(ring.isEmpty())
+            throw new IllegalStateException("shard ring has no members");
+
+        Map.Entry<Long, InetSocketAddress>      point =
+            ring.ceilingEntry(mix(key.hashCode()));
+
+        return point != null ? point.getValue() : ring.firstEntry().getValue();
+    }
+
+    /** Places every member's points on a new ring, which then replaces the
+        one calls are routed by. Where two points collide, the member whose
+        name sorts first keeps it, so that every client builds the same ring.
+     */
+    private synchronized void rebuild()
+    {
+        TreeMap<Long, InetSocketAddress>    ring = new TreeMap<>();
+
+        for(InetSocketAddress member : members)
+        {
+            String  name = name(member);
+
+            for(int i = 0; i < virtualNodes; ++i)
+            {
+                ring.merge(mix(hash(name + "#" + i)), member,
+                           (kept, other) ->
+                               name(kept).compareTo(name(other)) <= 0
+                                   ? kept : other);
+            }
+        }
+
+        points = ring;
+    }
+
+    /** Name of a member. A resolved address is named by its IP address,
+        since its host string changes once a reverse lookup has been made.
+     */
+    private static String name(InetSocketAddress member)
+    {
+        String  host = member.isUnresolved()
+            ? member.getHostString() : member.getAddress().getHostAddress();
+
+        return host + ":" + member.getPort();
+    }
+
+    /** FNV-1a hash of the UTF-8 bytes of a string. */
+    private static long hash(String s)
+    {
+        long    h = 0xcbf29ce484222325L;
+
+        for(byte b : s.getBytes(StandardCharsets.UTF_8))
+        {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+
+        return h;
+    }
+
+    /** Spreads the bits of a hash over the ring, as the finalizer of
+        MurmurHash3 does.
+     */
+    private static long mix(long h)
+    {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "ShardRing" + members;
+    }
+}
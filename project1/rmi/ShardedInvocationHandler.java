@@ -0,0 +1,121 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Handler of a sharded stub. Each call is forwarded to the stub of the
+ * skeleton owning the call's <code>ShardKey</code> argument on the ring; the
+ * stubs of the members are created on first use and kept, so that calls to
+ * a member share its pooled connections.
+ */
+final class ShardedInvocationHandler<T> implements InvocationHandler, Serializable {
+    /** Index of the shard key parameter of each method. */
+    private static final ConcurrentHashMap<Method, Integer> KEYS = new ConcurrentHashMap<>();
+    private static ExecutorService executor;
+
+    private final Class<T> c;
+    private final ShardRing ring;
+    private transient ConcurrentHashMap<InetSocketAddress, StubInvocationHandler<T>> members =
+            new ConcurrentHashMap<>();
+
+    ShardedInvocationHandler(Class<T> c, ShardRing ring) {
+        for (Method method: c.getMethods()) {
+            KEYS.computeIfAbsent(method, ShardedInvocationHandler::keyIndex);
+        }
+        this.c = c;
+        this.ring = ring;
+    }
+
+    /**
+     * Finds the parameter of a method marked as the shard key.
+     * @throws Error if the method has none, or several.
+     */
+    private static int keyIndex(Method method) {
+        int index = -1;
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation: annotations[i]) {
+                if (annotation.annotationType() != ShardKey.class) continue;
+                if (index >= 0) {
+                    throw new Error(method.getName() + " has more than one shard key");
+                }
+                index = i;
+            }
+        }
+        if (index < 0) throw new Error(method.getName() + " has no shard key");
+        return index;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        members = new ConcurrentHashMap<>();
+    }
+
+    /** Returns the stub of the skeleton a call is to be sent to. */
+    StubInvocationHandler<T> route(Method method, Object[] args) {
+        Object key = args[KEYS.computeIfAbsent(method, ShardedInvocationHandler::keyIndex)];
+        return members.computeIfAbsent(ring.owner(key), address -> new StubInvocationHandler<>(c, address));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return args[0] != null && Proxy.isProxyClass(args[0].getClass())
+                            && equals(Proxy.getInvocationHandler(args[0]));
+                case "hashCode":
+                    return hashCode();
+                default:
+                    return toString();
+            }
+        }
+        return route(method, args).invoke(proxy, method, args);
+    }
+
+    Class<T> getInterface() {
+        return c;
+    }
+
+    /** Executor of the parts of a batch sent to other shards than the caller's own. */
+    static synchronized ExecutorService executor() {
+        if (executor == null) {
+            ThreadFactory threads = Executors.defaultThreadFactory();
+            executor = Executors.newCachedThreadPool(r -> {
+                Thread thread = threads.newThread(r);
+                thread.setName("rmi-shard-" + thread.getName());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ShardedInvocationHandler)) return false;
+        ShardedInvocationHandler<?> that = (ShardedInvocationHandler<?>) obj;
+        return ring == that.ring && c.getName().equals(that.c.getName());
+    }
+
+    @Override
+    public int hashCode() {
+        return System.identityHashCode(ring) * 31 + c.getName().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Sharded stub for RMI " + c + " over " + ring;
+    }
+}
@@ -0,0 +1,88 @@
+package rmi;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Runs at most one invocation at a time per key, for <code>Coalesced</code>
+ * methods. The first caller for a key becomes the leader and runs the
+ * invocation; callers arriving while it runs wait for its serialized response.
+ * The key is removed as soon as the leader finishes, so later callers start a
+ * new invocation. Leaders and followers are counted per instance, so that
+ * the skeletons of one process report them separately.
+ */
+class SingleFlight {
+    private final Metrics.Counter leaders = new Metrics.Counter();
+    private final Metrics.Counter followers = new Metrics.Counter();
+    private final ConcurrentHashMap<ResultCache.Key, CompletableFuture<byte[]>> flights = new ConcurrentHashMap<>();
+
+    /** Produces a serialized response. */
+    interface Call {
+        byte[] call() throws IOException, IllegalAccessException;
+    }
+
+    /**
+     * Runs the call, or waits for the one already running for the same key.
+     * @return the serialized response of the leader.
+     */
+    byte[] run(ResultCache.Key key, Call call) throws IOException, IllegalAccessException {
+        CompletableFuture<byte[]> flight = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = flights.putIfAbsent(key, flight);
+        if (running != null) {
+            followers.increment();
+            return await(running);
+        }
+        leaders.increment();
+        try {
+            byte[] response = call.call();
+            flight.complete(response);
+            return response;
+        } catch (IOException | IllegalAccessException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            flights.remove(key, flight);
+        }
+    }
+
+    /** Reports the counts of leaders and followers as gauges named after the given prefix. */
+    void register(String metricPrefix) {
+        Metrics.gauge(metricPrefix + ".leaders", leaders::get);
+        Metrics.gauge(metricPrefix + ".followers", followers::get);
+        Metrics.gauge(metricPrefix + ".ratio.percent", () -> {
+            long shared = followers.get();
+            long total = leaders.get() + shared;
+            return total == 0 ? 0 : shared * 100 / total;
+        });
+    }
+
+    /** Removes the gauges reported by <code>register</code> with the given prefix. */
+    void unregister(String metricPrefix) {
+        Metrics.unregister(metricPrefix + ".leaders");
+        Metrics.unregister(metricPrefix + ".followers");
+        Metrics.unregister(metricPrefix + ".ratio.percent");
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> running) throws IOException, IllegalAccessException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return running.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof IllegalAccessException) throw (IllegalAccessException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw (Error) cause;
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
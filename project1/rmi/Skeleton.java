@@ -4,9 +4,21 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /** RMI skeleton
 
@@ -33,13 +45,35 @@ import java.util.concurrent.*;
 public class Skeleton<T>
 {
     private InetSocketAddress address;
-    private ExecutorService pool;
-    private ServerSocket serverSocket;
+    private final ThreadPoolExecutor pool;
     private T impl;
     private Class<T> c;
-    private Listener listener;
+    private List<Listener> listeners;
+    private int acceptors = 1;
+    private final SkeletonRuntime runtime;
     private boolean active;
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+    private final ResultCache cache = new ResultCache();
+    private final int instance = instances.incrementAndGet();
+    /** Prefix of the metrics of the running skeleton, or <code>null</code> when stopped. */
+    private String metricPrefix;
+    private final SingleFlight flights = new SingleFlight();
+    private final CallStats calls = new CallStats();
+    private final Traffic traffic = new Traffic();
+    private final Management management = new ManagementServer();
+    private final Metrics.Counter rejected = new Metrics.Counter();
+    private final Watchdog watchdog;
+    private volatile boolean managementEnabled;
+    private volatile int queueLimit = Integer.MAX_VALUE;
+    /** Orders the two pool setters of concurrent <code>setPoolSize</code> calls. */
+    private final Object poolSizeLock = new Object();
+    private static final MethodTable MANAGEMENT_METHODS = new MethodTable(Management.class, Management.class);
+    private final ObjectTable objects;
+    private final Set<Duplex> duplexes = ConcurrentHashMap.newKeySet();
+    private final Set<Connection> pushing = ConcurrentHashMap.newKeySet();
     private static final int THREAD_NUM = 20;
+    /** Numbers the skeletons of the process, to keep their metrics apart. */
+    private static final AtomicInteger instances = new AtomicInteger();
     private static final int DEFAULT_PORT = 5656;
     private static final String DEFAULT_HOST = "127.0.0.1";
     private Throwable stopEx = null;
@@ -59,7 +93,9 @@ public class Skeleton<T>
                       calls are forwarded by the skeleton to this object.
         @throws Error If <code>c</code> does not represent a remote interface -
                       an interface whose methods are all marked as throwing
-                      <code>RMIException</code>.
+                      <code>RMIException</code> - or if <code>server</code>
+                      lacks the batch variant of a <code>Batched</code>
+                      method.
         @throws NullPointerException If either of <code>c</code> or
                                      <code>server</code> is <code>null</code>.
      */
@@ -82,19 +118,53 @@ public class Skeleton<T>
                        system when <code>start</code> is called.
         @throws Error If <code>c</code> does not represent a remote interface -
                       an interface whose methods are all marked as throwing
-                      <code>RMIException</code>.
+                      <code>RMIException</code> - or if <code>server</code>
+                      lacks the batch variant of a <code>Batched</code>
+                      method.
         @throws NullPointerException If either of <code>c</code> or
                                      <code>server</code> is <code>null</code>.
      */
     public Skeleton(Class<T> c, T server, InetSocketAddress address)
+    {
+        this(c, server, address, null);
+    }
+
+    /** Creates a <code>Skeleton</code> which shares the threads of a runtime.
+
+        <p>
+        The skeleton has no threads of its own: its listening port is watched
+        by one of the runtime's I/O threads, and its requests are served by
+        the runtime's service threads. Its pool size cannot be changed, as the
+        pool belongs to the runtime.
+
+        @param c An object representing the class of the interface for which the
+                 skeleton server is to handle method call requests.
+        @param server An object implementing said interface.
+        @param address The address at which the skeleton is to run, or
+                       <code>null</code>.
+        @param runtime The runtime whose threads serve the skeleton, or
+                       <code>null</code> for the skeleton to have threads of
+                       its own.
+        @throws Error If <code>c</code> does not represent a remote interface,
+                      or if <code>server</code> lacks the batch variant of a
+                      <code>Batched</code> method.
+        @throws NullPointerException If either of <code>c</code> or
+                                     <code>server</code> is <code>null</code>.
+     */
+    public Skeleton(Class<T> c, T server, InetSocketAddress address, SkeletonRuntime runtime)
     {
         RMIUtil.checkInterface(c);
         RMIUtil.checkNotNull(c, server);
         this.impl = server;
         this.active = false;
         this.c = c;
-        this.pool = Executors.newFixedThreadPool(THREAD_NUM);
+        this.runtime = runtime;
+        this.pool = runtime != null ? runtime.pool()
+                : new ThreadPoolExecutor(THREAD_NUM, THREAD_NUM, 0L, TimeUnit.MILLISECONDS,
+                                         new LinkedBlockingQueue<>());
         this.address = address;
+        this.objects = new ObjectTable(c, server);
+        this.watchdog = new Watchdog("rmi-watchdog-" + c.getSimpleName());
     }
 
     /** Called when the listening thread exits.
@@ -172,21 +242,59 @@ public class Skeleton<T>
             return;
         }
 
-        /* try to open socket */
-        ServerSocket servsock = null;
+        /* open the listening sockets, sharing the port if there are several */
+        List<ServerSocketChannel> sockets = new ArrayList<>();
         try {
             if (this.address == null){
                 this.address = new InetSocketAddress(7000);
             }
-            servsock = new ServerSocket(this.address.getPort());
+            int count = this.acceptors;
+            int port = this.address.getPort();
+            for (int i = 0; i < count; i++) {
+                ServerSocketChannel servsock = ServerSocketChannel.open();
+                sockets.add(servsock);
+                if (count > 1 && !servsock.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    System.out.println("> SO_REUSEPORT is not supported, accepting on one socket");
+                    count = 1;
+                }
+                servsock.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (count > 1) servsock.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                servsock.bind(new InetSocketAddress(port));
+                // the others bind the port chosen for the first
+                port = ((InetSocketAddress) servsock.getLocalAddress()).getPort();
+            }
+            if (this.address.getPort() == 0) {
+                // stubs created from the skeleton need the port the system chose
+                this.address = new InetSocketAddress(this.address.getAddress(), port);
+            }
         } catch (IOException ioe) {
+            closeAll(sockets);
             System.out.println("> Skeleton failed to open TCP socket");
             throw new RMIException("Skeleton failed to open TCP socket", ioe.getCause());
         }
-        /* open listener thread */
-        this.serverSocket = servsock;
-        this.listener = new Listener(this.serverSocket, this.impl, this.pool);
-        this.listener.start();
+        /* register each with one of the runtime's event loops, or with one of our own */
+        this.listeners = new ArrayList<>(sockets.size());
+        try {
+            for (ServerSocketChannel servsock: sockets) {
+                EventLoop loop = this.runtime != null ? this.runtime.loop()
+                        : new EventLoop("rmi-listener-" + this.address.getPort()
+                                        + (sockets.size() > 1 ? "-" + this.listeners.size() : ""));
+                Listener listener = new Listener(servsock, loop);
+                this.listeners.add(listener);
+                listener.start();
+            }
+        } catch (IOException ioe) {
+            closeListeners();
+            closeAll(sockets);
+            throw new RMIException("Skeleton failed to open selector", ioe);
+        }
+        this.metricPrefix = "rmi.skeleton." + this.address.getPort() + "." + this.instance;
+        this.cache.register(this.metricPrefix + ".cache");
+        this.flights.register(this.metricPrefix + ".coalesce");
+        for (Map.Entry<Method, MicroBatcher> e : objects.primary().getBatchers().entrySet()) {
+            e.getValue().register(this.metricPrefix + ".batching." + e.getKey().getName());
+        }
+        this.watchdog.start();
         active = true;
     }
 
@@ -203,17 +311,334 @@ public class Skeleton<T>
     {
         if (!active) return;
         active = false;
-        if (listener == null) return;
-        listener.close();
-        System.out.println("> Joining the listener");
-        Listener l = listener;
-        listener = null;
+        watchdog.stop();
+        if (metricPrefix != null) {
+            cache.unregister(metricPrefix + ".cache");
+            flights.unregister(metricPrefix + ".coalesce");
+            for (Map.Entry<Method, MicroBatcher> e : objects.primary().getBatchers().entrySet()) {
+                e.getValue().unregister(metricPrefix + ".batching." + e.getKey().getName());
+            }
+            metricPrefix = null;
+        }
+        if (listeners == null) return;
+        System.out.println("> Closing the listener");
+        closeListeners();
+        for (Duplex duplex: duplexes) {
+            duplex.close();
+        }
+        for (Connection connection: pushing) {
+            closeQuietly(connection);
+        }
         stopped(this.stopEx);
-        try {
-            l.join();
-        } catch (InterruptedException ite) {
-            ite.printStackTrace();
+    }
+
+    /** Closes the listeners, and their event loops unless they belong to the runtime. */
+    private void closeListeners() {
+        for (Listener listener: listeners) {
+            listener.close();
+            if (runtime == null) listener.loop.close();
         }
+        listeners = null;
+    }
+
+    private static void closeAll(List<ServerSocketChannel> sockets) {
+        for (ServerSocketChannel socket: sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /** Sets the number of sockets accepting connections on the skeleton's
+        port.
+
+        <p>
+        With more than one, the skeleton opens that many listening sockets on
+        its port with <code>SO_REUSEPORT</code>, each served by its own event
+        loop, and the kernel spreads incoming connections across them. This
+        helps when many short-lived clients connect at once and a single
+        thread accepting them all becomes the bottleneck. A skeleton using a
+        <code>SkeletonRuntime</code> takes a loop from the runtime for each
+        socket, so the number of acceptors should not exceed the runtime's
+        I/O threads. Where the option is not supported, the skeleton accepts
+        on one socket.
+
+        <p>
+        The option lets other sockets which set it bind the same port, so two
+        skeletons of the same user, both with several acceptors, may be
+        started on one port and divide its connections between them. There
+        is one acceptor by default. Changes take effect when the skeleton is
+        next started.
+
+        @param acceptors The number of listening sockets.
+        @throws IllegalArgumentException If <code>acceptors</code> is not
+                                         positive.
+     */
+    public synchronized void setAcceptors(int acceptors)
+    {
+        if (acceptors <= 0) {
+            throw new IllegalArgumentException("acceptor count must be positive: " + acceptors);
+        }
+        this.acceptors = acceptors;
+    }
+
+    /** Sets the bounds of the result cache kept for <code>Cacheable</code>
+        methods.
+
+        <p>
+        When either bound is exceeded, the least recently used results are
+        evicted. Results larger than <code>maxBytes</code> are not cached.
+
+        @param maxEntries Maximum number of cached results.
+        @param maxBytes Maximum total size of cached results, in serialized
+                        bytes.
+        @throws IllegalArgumentException If either bound is negative.
+     */
+    public void setCacheLimits(int maxEntries, long maxBytes)
+    {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("negative cache limit");
+        }
+        cache.setLimits(maxEntries, maxBytes);
+    }
+
+    /** Changes how calls of a <code>Batched</code> method of the server object
+        are merged. Objects exported with <code>export</code> keep the window
+        and size of their annotations.
+
+        @param methodName Name of a <code>Batched</code> method of the remote
+                          interface. All overloads with that name are changed.
+        @param window Longest time a call waits for others to join its batch.
+        @param unit Unit of <code>window</code>.
+        @param maxSize Largest number of calls in one batch.
+        @throws IllegalArgumentException If the remote interface has no
+                                         <code>Batched</code> method with the
+                                         given name, or if <code>window</code>
+                                         is negative or <code>maxSize</code>
+                                         is not positive.
+     */
+    public void setBatching(String methodName, long window, TimeUnit unit, int maxSize)
+    {
+        if (window < 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("invalid batching window or size");
+        }
+        boolean found = false;
+        for (Map.Entry<Method, MicroBatcher> e : objects.primary().getBatchers().entrySet()) {
+            if (e.getKey().getName().equals(methodName)) {
+                e.getValue().tune(unit.toNanos(window), maxSize);
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new IllegalArgumentException("no batched method named " + methodName);
+        }
+    }
+
+    /** Exports another object on the skeleton's port.
+
+        <p>
+        Calls made through stubs created with the returned id, using
+        <code>Stub.create(Class, InetSocketAddress, int)</code>, are forwarded
+        to the object. It may implement the skeleton's remote interface or
+        another one, and shares the skeleton's port, threads, connections,
+        result cache and statistics. Objects may be exported and unexported
+        whether the skeleton is running or not.
+
+        @param c An object representing the remote interface of the object.
+        @param server An object implementing said interface.
+        @return The id of the object. Ids are not reused by the skeleton, so a
+                stub kept after its object is unexported never reaches another.
+        @throws Error If <code>c</code> does not represent a remote interface,
+                      or if <code>server</code> lacks the batch variant of a
+                      <code>Batched</code> method.
+        @throws NullPointerException If either of <code>c</code> or
+                                     <code>server</code> is <code>null</code>.
+        @throws IllegalStateException If the skeleton has run out of ids.
+     */
+    public <U> int export(Class<U> c, U server)
+    {
+        RMIUtil.checkNotNull(c, server);
+        RMIUtil.checkInterface(c);
+        return objects.export(new Class<?>[] {c}, server);
+    }
+
+    /** Exports an object implementing several remote interfaces, which have
+        already been checked.
+     */
+    int export(Class<?>[] interfaces, Object server) {
+        return objects.export(interfaces, server);
+    }
+
+    /** Stops forwarding calls to an exported object.
+
+        <p>
+        Calls already running complete. Later calls through stubs for the
+        object fail with an <code>RMIException</code>.
+
+        @param id The id returned by <code>export</code>.
+        @return <code>true</code> if an object was exported with the id.
+     */
+    public boolean unexport(int id)
+    {
+        return objects.unexport(id);
+    }
+
+    /** Turns serving the management interface on or off.
+
+        <p>
+        When enabled, stubs created with <code>Stub.management</code> can read
+        the skeleton's statistics and change its pool size and queue limit
+        while it is running. It is disabled by default.
+
+        @param enabled Whether to serve the management interface.
+     */
+    public void setManagementEnabled(boolean enabled)
+    {
+        managementEnabled = enabled;
+    }
+
+    /** Returns the statistics which the management interface reports. */
+    public Statistics getStatistics()
+    {
+        return new Statistics(pool.getMaximumPoolSize(), pool.getActiveCount(),
+                              pool.getQueue().size(), queueLimit, rejected.get(),
+                              traffic.open.get(), traffic.in.sum(), traffic.out.sum(),
+                              calls.snapshot());
+    }
+
+    /** Changes the number of service threads.
+
+        @param threads The new number of threads. Threads above it finish the
+                       request they are serving before they exit.
+        @throws IllegalArgumentException If <code>threads</code> is not
+                                         positive.
+        @throws IllegalStateException If the skeleton shares the threads of a
+                                      <code>SkeletonRuntime</code>.
+     */
+    public void setPoolSize(int threads)
+    {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("pool size must be positive: " + threads);
+        }
+        if (runtime != null) {
+            throw new IllegalStateException("service threads belong to the skeleton's runtime");
+        }
+        // not the skeleton's lock: stop() holds it while waiting for the
+        // workers, and this may be called from one through management
+        synchronized (poolSizeLock) {
+            if (threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+        }
+    }
+
+    /** Changes the number of requests which may wait for a service thread.
+
+        <p>
+        A request arriving while the limit is reached is refused by closing
+        its connection, and the stub's call fails with an
+        <code>RMIException</code>. There is no limit by default.
+
+        @param limit The new limit.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+     */
+    public void setQueueLimit(int limit)
+    {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("queue limit must be positive: " + limit);
+        }
+        queueLimit = limit;
+    }
+
+    /** Reports invocations which take longer than a threshold.
+
+        <p>
+        While an invocation runs past its threshold, the stack of its service
+        thread is sampled every few milliseconds. When the server object
+        returns, the samples are passed to the listener as a
+        <code>SlowCallReport</code>. Invocations which return before their
+        threshold are not sampled nor reported. There is no threshold by
+        default.
+
+        @param threshold Threshold for methods which have none of their own, or
+                         zero to watch only those which do.
+        @param unit Unit of <code>threshold</code>.
+        @throws IllegalArgumentException If <code>threshold</code> is
+                                         negative.
+     */
+    public void setSlowCallThreshold(long threshold, TimeUnit unit)
+    {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("negative threshold: " + threshold);
+        }
+        watchdog.setThreshold(unit.toNanos(threshold));
+    }
+
+    /** Sets the slow call threshold of one method.
+
+        @param methodName Name of a method of the remote interface. All
+                          overloads with that name are changed.
+        @param threshold Threshold for the method, or zero to never report it.
+        @param unit Unit of <code>threshold</code>.
+        @throws IllegalArgumentException If the remote interface has no method
+                                         with the given name, or if
+                                         <code>threshold</code> is negative.
+     */
+    public void setSlowCallThreshold(String methodName, long threshold, TimeUnit unit)
+    {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("negative threshold: " + threshold);
+        }
+        if (Arrays.stream(c.getMethods()).noneMatch(m -> m.getName().equals(methodName))) {
+            throw new IllegalArgumentException("no method named " + methodName);
+        }
+        watchdog.setThreshold(methodName, unit.toNanos(threshold));
+    }
+
+    /** Sets the receiver of slow call reports.
+
+        @param listener The receiver, or <code>null</code> to print reports to
+                        the standard error stream, as is done by default.
+     */
+    public void setSlowCallListener(SlowCallReport.Listener listener)
+    {
+        watchdog.setListener(listener);
+    }
+
+    /** Drops all cached results. */
+    public void invalidate()
+    {
+        cache.invalidate(key -> true);
+    }
+
+    /** Drops the cached results of all methods with the given name.
+
+        @param methodName Name of a <code>Cacheable</code> method of the remote
+                          interface.
+     */
+    public void invalidate(String methodName)
+    {
+        cache.invalidate(key -> key.getMethod().getName().equals(methodName));
+    }
+
+    /** Drops the cached result of a call.
+
+        @param methodName Name of a <code>Cacheable</code> method of the remote
+                          interface.
+        @param args Arguments of the call, compared with those of cached calls
+                    using <code>Arrays.deepEquals</code>.
+     */
+    public void invalidate(String methodName, Object... args)
+    {
+        cache.invalidate(key -> key.getMethod().getName().equals(methodName)
+                                && Arrays.deepEquals(key.getArgs(), args));
     }
 
     /**
@@ -232,68 +657,128 @@ public class Skeleton<T>
         return this.active;
     }
 
+    /**
+     * Prefix of the names of the skeleton's metrics.
+     * @return metric prefix, <code>null</code> when the skeleton is stopped.
+     */
+    synchronized String getMetricPrefix() {
+        return this.metricPrefix;
+    }
+
+
+    /** Management interface served for this skeleton. */
+    private class ManagementServer implements Management {
+        @Override
+        public Statistics getStatistics() {
+            return Skeleton.this.getStatistics();
+        }
+
+        @Override
+        public Map<String, Long> getMetrics() {
+            return Metrics.snapshot();
+        }
+
+        @Override
+        public void setPoolSize(int threads) {
+            Skeleton.this.setPoolSize(threads);
+        }
+
+        @Override
+        public void setQueueLimit(int limit) {
+            Skeleton.this.setQueueLimit(limit);
+        }
+    }
 
     /**
-     * Listener for incoming requests, only starts when wrapped in a thread.
+     * Listener for incoming requests, served by an event loop.
+     *
+     * <p>
+     * The loop accepts connections and watches idle ones with a selector.
+     * Workers serve one request at a time: when a connection has a request
+     * waiting it is handed to a worker, which parks it with the listener again
+     * once the response has been sent. Connections idle for longer than
+     * <code>EventLoop.IDLE_TIMEOUT</code> are closed. Connections sending a
+     * streamed result are closed when the listener closes, as their workers
+     * may be waiting for credit from a stub that never reads further.
      */
-    private class Listener extends Thread {
-        private ServerSocket serverSocket;
-        private boolean active;
-        private T impl = Skeleton.this.impl;
-        private ExecutorService pool;
-
-        Listener(ServerSocket serverSocket, T impl, ExecutorService pool) {
-            this.active = false;
+    private class Listener implements EventLoop.Endpoint {
+        private final ServerSocketChannel serverSocket;
+        private final EventLoop loop;
+        private final ThreadPoolExecutor pool = Skeleton.this.pool;
+        private volatile boolean open = true;
+        private final List<Future<?>> futures = new LinkedList<>();
+        private final Set<Connection> streaming = ConcurrentHashMap.newKeySet();
+
+        Listener(ServerSocketChannel serverSocket, EventLoop loop) {
             this.serverSocket = serverSocket;
-            this.pool = pool;
-            this.impl = impl;
+            this.loop = loop;
+        }
+
+        void start() throws IOException {
+            this.loop.listen(this.serverSocket, this);
+            System.out.println("> Listener starts at address: " + this.serverSocket.getLocalAddress());
         }
 
         @Override
-        public void run() {
-            this.active = true;
-            List<Future<?>> futures = new LinkedList<>();
-            List<Worker> workers = new LinkedList<>();
-            while (isActive()) {
-                try {
-                    System.out.println("> Listener starts at address: " + this.serverSocket.getLocalSocketAddress());
-                    Socket socket = this.serverSocket.accept();
-                    System.out.println("> Get connection from" + socket.getRemoteSocketAddress());
-                    Worker worker = new Worker(socket, this.impl);
-                    System.out.println("> Start a new worker: " + worker);
-                    if (isActive()) {
-                        System.out.println("> Submit the new worker: " + worker);
-                        workers.add(worker);
-                        futures.add(this.pool.submit(worker));
-                    }
-                } catch (SocketException se) {
-                    System.out.println("> SocketException: " + se.getMessage());
-                    if (serverSocket.isClosed()) {
-                        this.active = false;
-                    }
-                } catch (IOException e) {
-                    if (Skeleton.this.isActive() && Skeleton.this.listen_error(e)) continue;
-                    this.active = false;
-                    Skeleton.this.stopEx = e;
-                    e.printStackTrace();
-                }
+        public void acceptable() throws IOException {
+            SocketChannel socket = this.serverSocket.accept();
+            if (socket == null) return;
+            System.out.println("> Get connection from" + socket.getRemoteAddress());
+            submit(new Worker(socket));
+        }
+
+        @Override
+        public void readable(Connection connection) {
+            submit(new Worker(connection));
+        }
+
+        @Override
+        public void failed(IOException e) {
+            if (e instanceof SocketException || e instanceof ClosedChannelException) {
+                System.out.println("> " + e.getClass().getSimpleName() + ": " + e.getMessage());
+                return;
             }
-            for (Worker w: workers) {
-                w.close(); // close those no ready to invoke
+            if (Skeleton.this.isActive() && Skeleton.this.listen_error(e)) return;
+            Skeleton.this.stopEx = e;
+            e.printStackTrace();
+            closeServerSocket();
+            this.loop.release(this);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return this.open;
+        }
+
+        private void submit(Worker worker) {
+            if (this.pool.getQueue().size() >= Skeleton.this.queueLimit) {
+                System.out.println("> Queue is full, refuse worker: " + worker);
+                Skeleton.this.rejected.increment();
+                worker.closeSocket();
+                return;
             }
-            for (Future<?> f: futures) {
-                try {
-                    System.out.println("> Get result from future: " + f.get());
-                } catch (Throwable throwable) {
-                    System.out.println("> Error while waiting for thread results, with error <" + throwable.getMessage()
-                    + "> and cause <" + throwable.getCause() + ">");
-                }
+            worker.listener = this;
+            worker.submitted = System.nanoTime();
+            worker.queueWait.begin();
+            synchronized (futures) {
+                futures.removeIf(Future::isDone);
+                futures.add(this.pool.submit(worker));
             }
         }
 
-        private void close() {
+        /** Hands a connection whose call has completed back to the loop. */
+        private void park(Connection connection) throws IOException {
+            if (!this.open) {
+                connection.close();
+                return;
+            }
+            this.loop.park(connection);
+        }
+
+        private void closeServerSocket() {
+            this.open = false;
             try {
-                if (!this.serverSocket.isClosed()) {
+                if (this.serverSocket.isOpen()) {
                     System.out.println("> Close serverSocket");
                     this.serverSocket.close();
                 }
@@ -302,111 +787,443 @@ public class Skeleton<T>
             }
         }
 
-        public boolean isActive() {
-            return this.active;
+        /**
+         * Sends a streamed result on a connection, which is closed if the
+         * listener closes before the stream ends.
+         */
+        private void stream(Connection connection, StreamKind kind, Object result)
+                throws IOException, ClassNotFoundException {
+            this.streaming.add(connection);
+            try {
+                // close() may have gone over the connections before this one was added
+                if (!this.open) connection.close();
+                new StreamSender(connection).send(kind, result);
+            } finally {
+                this.streaming.remove(connection);
+            }
+        }
+
+        /**
+         * Stops accepting, closes the idle and streaming connections and
+         * waits for the workers still running. Workers close their
+         * connections when done.
+         */
+        private void close() {
+            closeServerSocket();
+            this.loop.release(this);
+            for (Connection connection: this.streaming) {
+                closeQuietly(connection);
+            }
+            List<Future<?>> running;
+            synchronized (futures) {
+                running = new ArrayList<>(futures);
+                futures.clear();
+            }
+            for (Future<?> f: running) {
+                try {
+                    System.out.println("> Get result from future: " + f.get());
+                } catch (Throwable throwable) {
+                    System.out.println("> Error while waiting for thread results, with error <" + throwable.getMessage()
+                    + "> and cause <" + throwable.getCause() + ">");
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a call received on a duplex connection, as a call of a batch is:
+     * streamed results are refused.
+     */
+    private Response respondDuplex(Connection connection, Request request) {
+        Object response = new Worker(connection).respondInBatch(request);
+        if (response instanceof Response) return (Response) response;
+        try {
+            return (Response) Connection.decode((byte[]) response);
+        } catch (IOException | ClassNotFoundException e) {
+            return Response.except(new RMIException(e.getMessage(), e));
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
         }
     }
 
+    /**
+     * Serves one request from a connection, reading the handshake first if the
+     * connection is new, and then parks the connection with the listener.
+     */
     private class Worker implements Runnable {
-        private Socket socket;
-        private T impl;
-        private boolean closed;
-        private boolean readyToInvoke;
+        private SocketChannel socket;
+        private Connection connection;
+        private Listener listener;
+        private long submitted;
+        private final Events.QueueWait queueWait = new Events.QueueWait();
+        private long queueNanos;
+        private long serviceStart;
+        private boolean timed;
+        /** Whether the connection was handed over to a subscription. */
+        private boolean detached;
 
-        Worker(Socket socket, T impl) {
+        Worker(SocketChannel socket) {
             this.socket = socket;
-            this.impl = impl;
-            this.closed = false;
-            this.readyToInvoke = false;
+        }
+
+        Worker(Connection connection) {
+            this.socket = connection.getChannel();
+            this.connection = connection;
         }
 
         @Override
         public void run() {
-            ObjectOutputStream oos = null;
-            ObjectInputStream ois = null;
+            queueNanos = System.nanoTime() - submitted;
+            queueWait.end();
+            if (queueWait.shouldCommit()) {
+                queueWait.remoteAddress = String.valueOf(this.socket.socket().getRemoteSocketAddress());
+                queueWait.commit();
+            }
             try {
-                oos = new ObjectOutputStream(this.socket.getOutputStream());
-                oos.flush();
-                Thread.sleep(10);
-                InputStream is = this.socket.getInputStream();
-                ois = new ObjectInputStream(is);
-                this.readyToInvoke = true;
-                try {
-                    Object ret = invoke(ois);
-                    oos.writeObject(Response.result(ret));
-                } catch (InvocationTargetException | RMIException e) {
-                    oos.writeObject(Response.except(e));
+                if (this.connection == null) {
+                    this.connection = Connection.accept(this.socket, Skeleton.this.classes, Skeleton.this.traffic);
+                    this.connection.setEndpoint(listener);
+                }
+                Object message = connection.receive();
+                if (message instanceof Request) {
+                    serve((Request) message);
+                } else if (message instanceof BatchRequest) {
+                    serve((BatchRequest) message);
+                } else if (message instanceof Duplex.Envelope) {
+                    openDuplex((Duplex.Envelope) message);
+                    return;
+                } else if (!(message instanceof Integer)) {
+                    // credit for a stream which had already completed is ignored
+                    throw new StreamCorruptedException("unexpected message: " + message);
                 }
+                if (!detached) listener.park(connection);
+            } catch (Connection.ClosedException e) {
+                // the stub closed an idle connection
+                closeSocket();
             } catch (ClassNotFoundException
                     | IllegalAccessException
                     | NoSuchMethodException
                     | IOException
                     | SecurityException e) {
+                closeSocket();
                 Skeleton.this.service_error(new RMIException(e.getMessage(), e.getCause()));
-            } catch (InterruptedException it) {
-                it.printStackTrace();
+            }
+        }
+
+        private void serve(Request request) throws
+                ClassNotFoundException,
+                NoSuchMethodException,
+                IllegalAccessException,
+                IOException {
+            timed = request.isTimed();
+            serviceStart = System.nanoTime();
+            send(respond(request, true));
+        }
+
+        /**
+         * Executes the calls of a batch and sends all their responses at once.
+         * Failures of individual calls which would end a single call with a
+         * service error are reported to <code>service_error</code>, and to
+         * the stub as an <code>RMIException</code> for that call only.
+         */
+        private void serve(BatchRequest batch) throws IOException {
+            Request[] requests = batch.getRequests();
+            Object[] responses = new Object[requests.length];
+            if (!batch.isParallel() || requests.length < 2) {
+                for (int i = 0; i < requests.length; i++) {
+                    responses[i] = respondInBatch(requests[i]);
+                }
+            } else {
+                // helpers claim calls as they start; whatever they do not claim
+                // is executed here, so a busy pool cannot stall the batch
+                AtomicInteger next = new AtomicInteger();
+                CountDownLatch done = new CountDownLatch(requests.length);
+                Runnable drain = () -> {
+                    int i;
+                    while ((i = next.getAndIncrement()) < requests.length) {
+                        responses[i] = respondInBatch(requests[i]);
+                        done.countDown();
+                    }
+                };
+                int helpers = Math.min(requests.length, Skeleton.this.pool.getMaximumPoolSize());
+                for (int i = 1; i < helpers; i++) {
+                    Skeleton.this.pool.execute(drain);
+                }
+                drain.run();
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        done.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+            connection.send(new BatchResponse(responses));
+        }
+
+        /**
+         * Hands the connection over to a duplex, which serves calls from it,
+         * in the pool, from now on.
+         */
+        private void openDuplex(Duplex.Envelope open) throws IOException {
+            if (!open.isOpen()) throw new StreamCorruptedException("unexpected message: " + open);
+            Connection connection = this.connection;
+            Duplex duplex = new Duplex(connection, request -> respondDuplex(connection, request),
+                    Skeleton.this.pool, Skeleton.this.duplexes::remove);
+            // stop waits for the workers before closing the duplexes it knows of
+            Skeleton.this.duplexes.add(duplex);
+            duplex.start();
+        }
+
+        private Object respondInBatch(Request request) {
+            try {
+                return respond(request, false);
+            } catch (ClassNotFoundException
+                    | IllegalAccessException
+                    | NoSuchMethodException
+                    | IOException
+                    | SecurityException e) {
+                RMIException error = new RMIException(e.getMessage(), e);
+                Skeleton.this.service_error(new RMIException(e.getMessage(), e.getCause()));
+                return stamp(Response.except(error), Skeleton.this.cache.version());
+            }
+        }
+
+        /**
+         * Executes a call and returns its response, recording its latency.
+         * The span of a traced call is the current trace context while it
+         * executes, and the call's log positions are those of the current
+         * scope. Calls to the management interface are answered without
+         * being recorded or traced.
+         */
+        private Object respond(Request request, boolean streams) throws
+                ClassNotFoundException,
+                NoSuchMethodException,
+                IllegalAccessException,
+                IOException {
+            if (request.unwrapObject() == Request.MANAGEMENT) {
+                return manage(request);
+            }
+            long start = System.nanoTime();
+            boolean failed = true;
+            TraceContext trace = request.getTrace() == null ? null : request.getTrace().child();
+            TraceContext previous = trace == null ? null : TraceContext.swap(trace);
+            long startMillis = trace == null ? 0 : System.currentTimeMillis();
+            LogPosition.Scope scope = LogPosition.enter(request.getAfter());
+            try {
+                Object response = execute(request, streams);
+                failed = false;
+                if (response instanceof Response) {
+                    failed = !((Response) response).isSuccess();
+                    time((Response) response).at(LogPosition.written());
+                }
+                return response;
             } finally {
-                closeSocket();
-                try {
-                    if (oos != null) oos.close();
-                    if (ois != null) ois.close();
-                } catch (IOException ioe) {
-                    System.out.println("> Worker failed to close socket");
+                LogPosition.exit(scope);
+                long nanos = System.nanoTime() - start;
+                Skeleton.this.calls.record(request.unwrapMethodName(), nanos, failed);
+                if (trace != null) {
+                    TraceContext.swap(previous);
+                    TraceContext.finish(trace, request.unwrapMethodName(), Span.Kind.SERVER, startMillis,
+                            nanos, failed, connection.getRemoteAddress());
                 }
             }
         }
 
-        private synchronized Object invoke(ObjectInputStream ois) throws
+        private Response manage(Request request) throws
+                ClassNotFoundException,
+                NoSuchMethodException,
+                IllegalAccessException {
+            long version = Skeleton.this.cache.version();
+            try {
+                if (!Skeleton.this.managementEnabled) {
+                    throw new RMIException("management interface is not enabled");
+                }
+                Method method = MANAGEMENT_METHODS.get(request.unwrapMethodName(), request.unwrapTypes());
+                Object ret = method.invoke(Skeleton.this.management, request.unwrapParams());
+                return time(stamp(Response.result(ret), version));
+            } catch (InvocationTargetException | RMIException e) {
+                return time(stamp(Response.except(e), version));
+            }
+        }
+
+        /**
+         * Executes a call and returns its response: either a
+         * <code>Response</code>, or a response serialized on its own for
+         * cacheable and coalesced methods. A streamed result is sent on the
+         * spot if <code>streams</code> is set, and <code>null</code> returned.
+         */
+        private Object execute(Request request, boolean streams) throws
                 ClassNotFoundException,
                 NoSuchMethodException,
                 IllegalAccessException,
-                InvocationTargetException,
-                IOException, RMIException {
-            Object res = null;
-
-            Request request = (Request) ois.readObject();
-            String methodName = request.unwrapMethodName();
-            System.out.println("> Method name is: " + methodName);
-            Class<?>[] types = request.unwrapTypes();
-            Method method = Skeleton.this.c.getMethod(methodName, types);
-            method.setAccessible(true);
-            System.out.println("> Get method: " + method.getName());
-            System.out.print("> Get parameters: ");
-            for (Object p: request.unwrapParams()) {
-                System.out.print(" " + p);
+                IOException {
+            long version = Skeleton.this.cache.version();
+            try {
+                ObjectTable.Dispatcher target = Skeleton.this.objects.get(request.unwrapObject());
+                if (target == null) {
+                    throw new RMIException("no object exported with id " + request.unwrapObject());
+                }
+                Method method = resolve(target, request);
+                Object[] params = request.unwrapParams();
+                StreamKind kind = StreamKind.of(method.getReturnType());
+                if (kind != null && !streams) {
+                    throw new RMIException("streamed results cannot be batched or sent on a duplex connection: "
+                            + method.getName());
+                }
+                Cacheable cacheable = method.getAnnotation(Cacheable.class);
+                boolean coalesced = method.isAnnotationPresent(Coalesced.class);
+                if ((cacheable != null || coalesced) && kind == null) {
+                    ResultCache.Key key = new ResultCache.Key(target.getId(), method, params);
+                    byte[] response = cacheable == null ? null : Skeleton.this.cache.get(key);
+                    if (response == null) {
+                        SingleFlight.Call call = () -> encode(target, key, cacheable, version);
+                        response = coalesced ? Skeleton.this.flights.run(key, call) : call.call();
+                    }
+                    return response;
+                }
+                Object ret = invoke(target, method, params);
+                if (kind != null && ret != null) {
+                    if (kind == StreamKind.SUBSCRIPTION && !(ret instanceof Topic.Subscriber)) {
+                        ((Subscription<?>) ret).close();
+                        throw new RMIException("subscriptions must come from a Topic: " + method.getName());
+                    }
+                    connection.send(time(stamp(Response.stream(kind), version)));
+                    if (kind == StreamKind.SUBSCRIPTION) {
+                        push((Topic<?>.Subscriber) ret);
+                    } else {
+                        this.listener.stream(connection, kind, ret);
+                    }
+                    return null;
+                }
+                return stamp(Response.result(ret), version);
+            } catch (InvocationTargetException | RMIException e) {
+                return stamp(Response.except(e), version);
             }
-            System.out.println();
+        }
 
-            boolean mvalid = false;
-            for (Method m: this.impl.getClass().getMethods()) {
-                if (m.getName().equals(method.getName())) {
-                    mvalid = true;
-                    break;
+        /**
+         * Hands the connection over to a subscription, which pushes its events
+         * on it, from the pool and without blocking, until it ends. The
+         * listener's loop watches the connection meanwhile. It is then parked
+         * again, or closed if writing to it failed or the stub closed it.
+         */
+        private void push(Topic<?>.Subscriber subscriber) {
+            Connection connection = this.connection;
+            Listener listener = this.listener;
+            detached = true;
+            Skeleton.this.pushing.add(connection);
+            subscriber.attach(connection, Skeleton.this.pool, listener.loop, () -> {
+                Skeleton.this.pushing.remove(connection);
+                try {
+                    if (connection.isBroken() || !connection.getChannel().isOpen()) {
+                        connection.close();
+                    } else {
+                        listener.park(connection);
+                    }
+                } catch (IOException ioe) {
+                    closeQuietly(connection);
                 }
+            });
+        }
+
+        private void send(Object response) throws IOException {
+            if (response instanceof byte[]) {
+                connection.sendEncoded((byte[]) response);
+            } else if (response != null) {
+                connection.send(response);
             }
-            if (!mvalid) {
-                throw new RMIException("Method not in skeleton interface");
+        }
+
+        /**
+         * Invokes a call and serializes its response on its own, so that it can
+         * be cached or sent to several callers. Normal results of cacheable
+         * methods are cached.
+         */
+        private byte[] encode(ObjectTable.Dispatcher target, ResultCache.Key key, Cacheable cacheable,
+                long version) throws
+                IllegalAccessException,
+                IOException {
+            Response response;
+            try {
+                response = Response.result(invoke(target, key.getMethod(), key.getArgs()));
+            } catch (InvocationTargetException | RMIException e) {
+                return Connection.encode(stamp(Response.except(e), version));
+            }
+            byte[] encoded = Connection.encode(stamp(response, version));
+            if (cacheable != null) {
+                Skeleton.this.cache.put(key, encoded, cacheable.unit().toNanos(cacheable.ttl()), version);
+            }
+            return encoded;
+        }
+
+        /** Attaches the skeleton's timings to the response of a sampled call. */
+        private Response time(Response response) {
+            if (timed) {
+                response.time(queueNanos, connection.getDecodeNanos(), System.nanoTime() - serviceStart);
             }
+            return response;
+        }
 
-            res = method.invoke(this.impl, request.unwrapParams());
-            System.out.println("> Get invoke result: " + res);
+        private Response stamp(Response response, long version) {
+            return response.stamp(Skeleton.this.cache.epoch(), version);
+        }
+
+        /** Finds the method of the object's remote interface named by a request. */
+        private Method resolve(ObjectTable.Dispatcher target, Request request) throws
+                ClassNotFoundException,
+                NoSuchMethodException,
+                RMIException {
+            return target.getMethods().get(request.unwrapMethodName(), request.unwrapTypes());
+        }
 
+        private Object invoke(ObjectTable.Dispatcher target, Method method, Object[] params) throws
+                IllegalAccessException,
+                InvocationTargetException,
+                RMIException {
+            MicroBatcher batcher = target.getBatchers().get(method);
+            Events.Invocation event = new Events.Invocation();
+            event.begin();
+            Watchdog watchdog = Skeleton.this.watchdog;
+            Watchdog.Slot watched = watchdog.isEnabled() ? watchdog.begin(method, params) : null;
+            Object res;
+            try {
+                res = batcher != null ? batcher.call(params) : method.invoke(target.getServer(), params);
+            } catch (InvocationTargetException | RMIException e) {
+                event.failed = true;
+                throw e;
+            } finally {
+                if (watched != null) watchdog.end(watched);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.method = method.getDeclaringClass().getName() + "." + method.getName();
+                    event.remoteAddress = String.valueOf(connection.getRemoteAddress());
+                    event.requestBytes = connection.getReceivedBytes();
+                    event.commit();
+                }
+            }
             return res;
         }
 
         private void closeSocket() {
             try {
-                this.socket.close();
+                if (connection != null) {
+                    connection.close();
+                } else {
+                    this.socket.close();
+                }
             } catch (IOException ioe) {
                 ioe.printStackTrace();
             }
         }
-
-        private void close() {
-            this.closed = true;
-            if (!readyToInvoke) {
-                closeSocket();
-            }
-        }
     }
 }
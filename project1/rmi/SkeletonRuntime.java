@@ -0,0 +1,125 @@
+package rmi;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Threads shared by many skeletons.
+
+    <p>
+    By default each skeleton has a thread of its own to accept and watch
+    connections, and a pool of its own to serve requests. A process which
+    exports many remote objects can instead create a runtime and pass it to
+    the constructor of each skeleton. The skeletons then share the runtime's
+    I/O threads, each of which watches the listening ports and idle
+    connections of many skeletons, and its pool of service threads.
+
+    <p>
+    Threads are only created when they are needed: an I/O thread when the
+    first skeleton assigned to it starts, and service threads as requests
+    arrive. Service threads which have been idle for a minute exit. A
+    skeleton which is started but never called therefore costs its listening
+    socket and a few small objects, and no thread.
+
+    <p>
+    Skeletons are assigned to I/O threads in turn. The runtime must outlive the
+    skeletons which use it: <code>shutdown</code> should only be called once
+    they have all been stopped.
+ */
+public class SkeletonRuntime
+{
+    private static final int    DEFAULT_SERVICE_THREADS = 20;
+    private static final long   KEEP_ALIVE_SECONDS = 60;
+
+    private final EventLoop[]           loops;
+    private final ThreadPoolExecutor    pool;
+    private final boolean               daemon;
+    private int                         next;
+    private boolean                     shutdown;
+
+    /** Creates a runtime with one I/O thread and up to twenty service
+        threads.
+     */
+    public SkeletonRuntime()
+    {
+        this(1, DEFAULT_SERVICE_THREADS);
+    }
+
+    /** Creates a runtime.
+
+        @param ioThreads The number of threads accepting and watching
+                         connections.
+        @param serviceThreads The largest number of threads serving requests.
+        @throws IllegalArgumentException If either number is not positive.
+     */
+    public SkeletonRuntime(int ioThreads, int serviceThreads)
+    {
+        this(ioThreads, serviceThreads, false);
+    }
+
+    /** Creates a runtime whose threads may be daemon threads, for skeletons
+        which the library starts on its own behalf.
+     */
+    SkeletonRuntime(int ioThreads, int serviceThreads, boolean daemon)
+    {
+        if (ioThreads <= 0 || serviceThreads <= 0) {
+            throw new IllegalArgumentException("thread counts must be positive");
+        }
+        this.loops = new EventLoop[ioThreads];
+        this.daemon = daemon;
+        ThreadFactory threads = Executors.defaultThreadFactory();
+        this.pool = new ThreadPoolExecutor(serviceThreads, serviceThreads,
+                                           KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<>(),
+                                           task -> {
+                                               Thread thread = threads.newThread(task);
+                                               thread.setDaemon(daemon);
+                                               return thread;
+                                           });
+        this.pool.allowCoreThreadTimeOut(true);
+    }
+
+    /** Returns the number of threads currently alive in the runtime: I/O
+        threads which have been started, and service threads.
+     */
+    public synchronized int getThreadCount()
+    {
+        int count = pool.getPoolSize();
+        for (EventLoop loop : loops) {
+            if (loop != null && loop.isRunning()) count++;
+        }
+        return count;
+    }
+
+    /** Stops the runtime's threads.
+
+        <p>
+        Connections still open are closed, and requests waiting for a service
+        thread are dropped. Skeletons using the runtime should have been
+        stopped first, and cannot be started again.
+     */
+    public synchronized void shutdown()
+    {
+        shutdown = true;
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.close();
+        }
+        pool.shutdown();
+    }
+
+    /** Returns the next event loop in turn, creating it if necessary. */
+    synchronized EventLoop loop() throws IOException {
+        if (shutdown) throw new IOException("runtime has been shut down");
+        int i = next;
+        next = (next + 1) % loops.length;
+        if (loops[i] == null) loops[i] = new EventLoop("rmi-io-" + i, daemon);
+        return loops[i];
+    }
+
+    ThreadPoolExecutor pool() {
+        return pool;
+    }
+}
@@ -0,0 +1,127 @@
+package rmi;
+
+import java.util.Collections;
+import java.util.List;
+
+/** Report of an invocation which ran longer than its method's threshold.
+
+    <p>
+    A skeleton with a slow call threshold, set with
+    <code>Skeleton.setSlowCallThreshold</code>, watches the invocations of its
+    server object. Once an invocation has run for longer than the threshold,
+    the stack of the thread running it is sampled periodically until it
+    returns. The samples are then grouped by stack and passed, with the method,
+    a summary of its arguments and the time it took, to the skeleton's
+    listener. Calls which return before their threshold cost no more than
+    reading the clock twice.
+ */
+public final class SlowCallReport
+{
+    private final String        method;
+    private final String        arguments;
+    private final long          elapsed;
+    private final int           samples;
+    private final List<Stack>   stacks;
+
+    SlowCallReport(String method, String arguments, long elapsed, int samples,
+                   List<Stack> stacks)
+    {
+        this.method = method;
+        this.arguments = arguments;
+        this.elapsed = elapsed;
+        this.samples = samples;
+        this.stacks = Collections.unmodifiableList(stacks);
+    }
+
+    /** Receives the reports of a skeleton's slow calls. */
+    @FunctionalInterface
+    public interface Listener
+    {
+        /** Called on the service thread which ran the call, once the server
+            object has returned and before the response is sent.
+
+            @param report The report of the call.
+         */
+        void slowCall(SlowCallReport report);
+    }
+
+    /** Stack at which one or more samples found the service thread. */
+    public static final class Stack
+    {
+        private final List<StackTraceElement>   frames;
+        private final int                       count;
+
+        Stack(List<StackTraceElement> frames, int count)
+        {
+            this.frames = frames;
+            this.count = count;
+        }
+
+        /** Returns the frames of the stack, innermost first, down to the
+            server object's method.
+         */
+        public List<StackTraceElement> getFrames()
+        {
+            return frames;
+        }
+
+        /** Returns the number of samples which found this stack. */
+        public int getCount()
+        {
+            return count;
+        }
+    }
+
+    /** Returns the name of the method, qualified by its interface. */
+    public String getMethod()
+    {
+        return method;
+    }
+
+    /** Returns a summary of the arguments of the call. Long values are
+        shortened, and arrays are reduced to their type and length.
+     */
+    public String getArguments()
+    {
+        return arguments;
+    }
+
+    /** Returns the time the server object took, in nanoseconds. */
+    public long getElapsedNanos()
+    {
+        return elapsed;
+    }
+
+    /** Returns the number of stack samples taken. */
+    public int getSampleCount()
+    {
+        return samples;
+    }
+
+    /** Returns the distinct stacks sampled, the most frequent first. */
+    public List<Stack> getStacks()
+    {
+        return stacks;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder   text = new StringBuilder();
+
+        text.append("slow call ").append(method).append('(').append(arguments)
+            .append(") took ").append(elapsed / 1_000_000).append(" ms, ")
+            .append(samples).append(" stack samples");
+
+        for(Stack stack : stacks)
+        {
+            text.append(System.lineSeparator()).append("  ")
+                .append(stack.count).append(" samples:");
+
+            for(StackTraceElement frame : stack.frames)
+                text.append(System.lineSeparator()).append("    at ").append(frame);
+        }
+
+        return text.toString();
+    }
+}
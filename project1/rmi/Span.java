@@ -0,0 +1,100 @@
+package rmi;
+
+/** A finished call of a sampled trace, as seen by a stub or a skeleton. */
+public final class Span
+{
+    /** Side of the call a span was recorded on. */
+    public enum Kind
+    {
+        /** Recorded by the stub, from the start of the call to its result. */
+        CLIENT,
+        /** Recorded by the skeleton, while it executed the call. */
+        SERVER
+    }
+
+    private final TraceContext  context;
+    private final String        name;
+    private final Kind          kind;
+    private final long          startMillis;
+    private final long          durationNanos;
+    private final boolean       error;
+    private final String        remote;
+
+    Span(TraceContext context, String name, Kind kind, long startMillis,
+         long durationNanos, boolean error, String remote)
+    {
+        this.context = context;
+        this.name = name;
+        this.kind = kind;
+        this.startMillis = startMillis;
+        this.durationNanos = durationNanos;
+        this.error = error;
+        this.remote = remote;
+    }
+
+    /** Returns the identifier of the trace the span belongs to. */
+    public long getTraceId()
+    {
+        return context.getTraceId();
+    }
+
+    /** Returns the identifier of the span. */
+    public long getSpanId()
+    {
+        return context.getSpanId();
+    }
+
+    /** Returns the identifier of the parent span, or zero for the root. */
+    public long getParentId()
+    {
+        return context.getParentId();
+    }
+
+    /** Returns the name of the method called. */
+    public String getName()
+    {
+        return name;
+    }
+
+    /** Returns the side of the call the span was recorded on. */
+    public Kind getKind()
+    {
+        return kind;
+    }
+
+    /** Returns the wall-clock time at which the span started, in
+        milliseconds since the epoch.
+     */
+    public long getStartMillis()
+    {
+        return startMillis;
+    }
+
+    /** Returns the duration of the span, in nanoseconds. */
+    public long getDurationNanos()
+    {
+        return durationNanos;
+    }
+
+    /** Tells whether the call failed, with a remote exception or an
+        exception thrown by the server object.
+     */
+    public boolean isError()
+    {
+        return error;
+    }
+
+    /** Returns the address of the other side of the call. */
+    public String getRemote()
+    {
+        return remote;
+    }
+
+    @Override
+    public String toString()
+    {
+        return kind + " " + name + " " + context + " parent "
+               + Long.toHexString(getParentId()) + ", " + durationNanos
+               + " ns" + (error ? ", error" : "");
+    }
+}
@@ -0,0 +1,17 @@
+package rmi;
+
+/** Receives the spans of sampled traces as they finish.
+
+    <p>
+    Spans are exported on the thread which made or served the call, so sinks
+    must be thread-safe and should not block for long.
+ */
+@FunctionalInterface
+public interface SpanSink
+{
+    /** Exports a finished span.
+
+        @param span The span.
+     */
+    void export(Span span);
+}
@@ -0,0 +1,190 @@
+package rmi;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Live statistics of a skeleton, as returned by its management interface.
+
+    <p>
+    Counts cover the time since the skeleton was created; thread, queue and
+    connection figures are current values. Statistics of several skeletons
+    can be merged with <code>merge</code>, which adds up every figure and
+    merges the latency distributions of methods with the same name.
+ */
+public final class Statistics implements Serializable
+{
+    private final int                           poolSize;
+    private final int                           activeThreads;
+    private final int                           queueDepth;
+    private final int                           queueLimit;
+    private final long                          rejected;
+    private final int                           openConnections;
+    private final long                          bytesIn;
+    private final long                          bytesOut;
+    private final Map<String, MethodStatistics> methods;
+
+    Statistics(int poolSize, int activeThreads, int queueDepth, int queueLimit,
+               long rejected, int openConnections, long bytesIn, long bytesOut,
+               Map<String, MethodStatistics> methods)
+    {
+        this.poolSize = poolSize;
+        this.activeThreads = activeThreads;
+        this.queueDepth = queueDepth;
+        this.queueLimit = queueLimit;
+        this.rejected = rejected;
+        this.openConnections = openConnections;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.methods = Collections.unmodifiableMap(new TreeMap<>(methods));
+    }
+
+    /** Returns the number of service threads. */
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    /** Returns the number of service threads serving a request. */
+    public int getActiveThreads()
+    {
+        return activeThreads;
+    }
+
+    /** Returns the fraction of service threads serving a request. */
+    public double getPoolUtilization()
+    {
+        return poolSize == 0 ? 0 : (double) activeThreads / poolSize;
+    }
+
+    /** Returns the number of requests waiting for a service thread. */
+    public int getQueueDepth()
+    {
+        return queueDepth;
+    }
+
+    /** Returns the number of requests which may wait for a service thread. */
+    public int getQueueLimit()
+    {
+        return queueLimit;
+    }
+
+    /** Returns the number of requests refused because the queue was full. */
+    public long getRejected()
+    {
+        return rejected;
+    }
+
+    /** Returns the number of open connections from stubs. */
+    public int getOpenConnections()
+    {
+        return openConnections;
+    }
+
+    /** Returns the number of bytes received from stubs. */
+    public long getBytesIn()
+    {
+        return bytesIn;
+    }
+
+    /** Returns the number of bytes sent to stubs. */
+    public long getBytesOut()
+    {
+        return bytesOut;
+    }
+
+    /** Returns the statistics of each method called, by method name.
+        Overloaded methods are counted together.
+     */
+    public Map<String, MethodStatistics> getMethods()
+    {
+        return methods;
+    }
+
+    /** Returns the statistics of this skeleton and another one together.
+
+        @param other The statistics to merge with these.
+        @throws NullPointerException If <code>other</code> is
+                                     <code>null</code>.
+     */
+    public Statistics merge(Statistics other)
+    {
+        Map<String, MethodStatistics> merged = new TreeMap<>(methods);
+        other.methods.forEach((name, method) -> merged.merge(name, method, MethodStatistics::merge));
+        return new Statistics(poolSize + other.poolSize,
+                              activeThreads + other.activeThreads,
+                              queueDepth + other.queueDepth,
+                              queueLimit + other.queueLimit,
+                              rejected + other.rejected,
+                              openConnections + other.openConnections,
+                              bytesIn + other.bytesIn,
+                              bytesOut + other.bytesOut,
+                              merged);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "threads " + activeThreads + "/" + poolSize + ", queue "
+               + queueDepth + "/" + queueLimit + ", rejected " + rejected
+               + ", connections " + openConnections + ", bytes in " + bytesIn
+               + ", bytes out " + bytesOut + ", methods " + methods;
+    }
+
+    /** Statistics of the calls of one method. */
+    public static final class MethodStatistics implements Serializable
+    {
+        private final long              calls;
+        private final long              errors;
+        private final HistogramSnapshot latency;
+
+        MethodStatistics(long calls, long errors, HistogramSnapshot latency)
+        {
+            this.calls = calls;
+            this.errors = errors;
+            this.latency = latency;
+        }
+
+        /** Returns the number of calls served. */
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        /** Returns the number of calls which ended with an exception. */
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        /** Returns the distribution of the time taken to serve calls, in
+            microseconds, from the moment the request was read until the
+            response was ready to be sent.
+         */
+        public HistogramSnapshot getLatency()
+        {
+            return latency;
+        }
+
+        /** Returns the statistics of the calls of both.
+
+            @param other The statistics to merge with these.
+            @throws NullPointerException If <code>other</code> is
+                                         <code>null</code>.
+         */
+        public MethodStatistics merge(MethodStatistics other)
+        {
+            return new MethodStatistics(calls + other.calls,
+                                        errors + other.errors,
+                                        latency.merge(other.latency));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "calls " + calls + ", errors " + errors + ", latency "
+                   + latency;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package rmi;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/** Polls the management interfaces of a fleet of skeletons and merges their
+    statistics.
+
+    <p>
+    Each poll asks every skeleton for its statistics and merges those it
+    receives, so that latency percentiles are computed over the calls served
+    by the whole fleet rather than averaged. Skeletons which cannot be reached
+    are left out of the poll and reported by <code>getUnreachable</code>.
+
+    <p>
+    The class can also be run as a command line tool, which prints the merged
+    statistics at a regular interval:
+
+    <pre>
+    java rmi.StatsAggregator [-i seconds] host:port...
+    </pre>
+ */
+public class StatsAggregator
+{
+    private final List<InetSocketAddress>   addresses;
+    private final List<Management>          skeletons = new ArrayList<>();
+    private List<InetSocketAddress>         unreachable = Collections.emptyList();
+
+    /** Creates an aggregator for the given skeletons.
+
+        @param addresses The addresses of the skeletons, each of which must
+                         have its management interface enabled.
+        @throws NullPointerException If <code>addresses</code> or any of its
+                                     elements is <code>null</code>.
+     */
+    public StatsAggregator(List<InetSocketAddress> addresses)
+    {
+        this.addresses = new ArrayList<>(addresses);
+        for (InetSocketAddress address : this.addresses)
+            skeletons.add(Stub.management(address));
+    }
+
+    /** Polls every skeleton and merges their statistics.
+
+        @return The merged statistics, or <code>null</code> if no skeleton
+                could be reached.
+     */
+    public Statistics poll()
+    {
+        Statistics                  merged = null;
+        List<InetSocketAddress>     failed = new ArrayList<>();
+
+        for (int i = 0; i < skeletons.size(); ++i)
+        {
+            Statistics      statistics;
+
+            try
+            {
+                statistics = skeletons.get(i).getStatistics();
+            }
+            catch(RMIException e)
+            {
+                failed.add(addresses.get(i));
+                continue;
+            }
+
+            merged = merged == null ? statistics : merged.merge(statistics);
+        }
+
+        unreachable = failed;
+        return merged;
+    }
+
+    /** Returns the skeletons which could not be reached by the last poll. */
+    public List<InetSocketAddress> getUnreachable()
+    {
+        return Collections.unmodifiableList(unreachable);
+    }
+
+    /** Prints the merged statistics of the skeletons given as arguments.
+
+        @param arguments An optional <code>-i</code> followed by the polling
+                         interval in seconds, then the addresses of the
+                         skeletons as <code>host:port</code>. Without an
+                         interval, the skeletons are polled once.
+     */
+    public static void main(String[] arguments) throws InterruptedException
+    {
+        List<InetSocketAddress>     addresses = new ArrayList<>();
+        long                        interval = 0;
+
+        for (int i = 0; i < arguments.length; ++i)
+        {
+            if (arguments[i].equals("-i") && i + 1 < arguments.length)
+            {
+                interval = Long.parseLong(arguments[++i]);
+                continue;
+            }
+
+            int     colon = arguments[i].lastIndexOf(':');
+
+            if (colon < 0)
+            {
+                System.err.println("not a host:port address: " + arguments[i]);
+                System.exit(2);
+            }
+
+            addresses.add(new InetSocketAddress(arguments[i].substring(0, colon),
+                          Integer.parseInt(arguments[i].substring(colon + 1))));
+        }
+
+        if (addresses.isEmpty())
+        {
+            System.err.println("usage: java rmi.StatsAggregator [-i seconds] "
+                               + "host:port...");
+            System.exit(2);
+        }
+
+        StatsAggregator     aggregator = new StatsAggregator(addresses);
+
+        do
+        {
+            print(aggregator.poll(), aggregator.getUnreachable());
+            Thread.sleep(interval * 1000);
+        }
+        while(interval > 0);
+    }
+
+    private static void print(Statistics statistics,
+                              List<InetSocketAddress> unreachable)
+    {
+        for (InetSocketAddress address : unreachable)
+            System.err.println("unreachable: " + address);
+
+        if (statistics == null)
+            return;
+
+        System.out.printf("threads %d/%d (%.0f%%), queue %d, rejected %d, "
+                          + "connections %d, bytes in %d, bytes out %d%n",
+                          statistics.getActiveThreads(),
+                          statistics.getPoolSize(),
+                          100 * statistics.getPoolUtilization(),
+                          statistics.getQueueDepth(),
+                          statistics.getRejected(),
+                          statistics.getOpenConnections(),
+                          statistics.getBytesIn(),
+                          statistics.getBytesOut());
+        System.out.printf("%-24s %10s %8s %10s %10s %10s %10s%n", "method",
+                          "calls", "errors", "p50 us", "p90 us", "p99 us",
+                          "max us");
+
+        for (Map.Entry<String, Statistics.MethodStatistics> entry :
+                 statistics.getMethods().entrySet())
+        {
+            Statistics.MethodStatistics method = entry.getValue();
+            HistogramSnapshot           latency = method.getLatency();
+
+            System.out.printf("%-24s %10d %8d %10d %10d %10d %10d%n",
+                              entry.getKey(), method.getCalls(),
+                              method.getErrors(), latency.percentile(0.5),
+                              latency.percentile(0.9), latency.percentile(0.99),
+                              latency.getMax());
+        }
+    }
+}
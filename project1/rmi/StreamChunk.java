@@ -0,0 +1,47 @@
+package rmi;
+
+import java.io.Serializable;
+
+/**
+ * A run of elements of a streamed return value. The last chunk of a stream is
+ * marked, and carries the exception raised by the source if it failed. Chunks
+ * of a subscription also count the events dropped since the previous chunk.
+ */
+class StreamChunk implements Serializable {
+    private Object[] elements;
+    private boolean last;
+    private Throwable error;
+    private long dropped;
+
+    StreamChunk(Object[] elements, boolean last, Throwable error) {
+        this(elements, last, error, 0);
+    }
+
+    StreamChunk(Object[] elements, boolean last, Throwable error, long dropped) {
+        this.elements = elements;
+        this.last = last;
+        this.error = error;
+        this.dropped = dropped;
+    }
+
+    Object[] getElements() {
+        return elements;
+    }
+
+    boolean isLast() {
+        return last;
+    }
+
+    Throwable getError() {
+        return error;
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return "<StreamChunk, size: " + elements.length + (last ? ", last" : "") + " >";
+    }
+}
@@ -0,0 +1,27 @@
+package rmi;
+
+import java.util.Iterator;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
+
+/**
+ * Stream-like return types which are sent back to the stub in chunks instead of
+ * as a single serialized object. Subscriptions are pushed by their
+ * <code>Topic</code> rather than pulled with credit.
+ */
+enum StreamKind {
+    ITERATOR, STREAM, PUBLISHER, SUBSCRIPTION;
+
+    /**
+     * Returns the kind of stream a remote method declares as its return type.
+     * @param returnType declared return type of the remote method.
+     * @return the stream kind, or <code>null</code> for ordinary return types.
+     */
+    static StreamKind of(Class<?> returnType) {
+        if (returnType == Iterator.class) return ITERATOR;
+        if (returnType == Stream.class) return STREAM;
+        if (returnType == Flow.Publisher.class) return PUBLISHER;
+        if (returnType == Subscription.class) return SUBSCRIPTION;
+        return null;
+    }
+}
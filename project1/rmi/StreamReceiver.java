@@ -0,0 +1,231 @@
+package rmi;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Flow;
+import java.util.stream.StreamSupport;
+
+/**
+ * Stub side of a streamed return value.
+ *
+ * <p>
+ * The receiver owns the connection on which the call was made until the stream
+ * is exhausted or closed. A connection whose stream ran to completion is
+ * returned to the <code>ConnectionPool</code>; one whose stream was cancelled
+ * is closed, since chunks may still be in flight on it. When consumed as an <code>Iterator</code> or
+ * <code>Stream</code>, it keeps at most <code>WINDOW</code> elements granted
+ * and replenishes credit as elements are consumed. When consumed as a
+ * <code>Flow.Publisher</code>, the credit granted is exactly the demand
+ * signalled by the subscriber.
+ *
+ * <p>
+ * Failures of the connection surface as <code>IllegalStateException</code>s
+ * caused by an <code>RMIException</code>, since iterators cannot throw checked
+ * exceptions. Exceptions raised by the remote source are rethrown as they are.
+ */
+class StreamReceiver implements Iterator<Object>, AutoCloseable {
+    static final int WINDOW = 256;
+
+    private Connection connection;
+    private ArrayDeque<Object> buffer = new ArrayDeque<>();
+    private boolean last;
+    private boolean closed;
+    private Throwable error;
+    private int consumed;
+
+    StreamReceiver(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Returns the object handed to the caller of the remote method.
+     * @param kind declared stream kind of the remote method.
+     */
+    Object view(StreamKind kind) {
+        switch (kind) {
+            case PUBLISHER:
+                return new RemotePublisher();
+            case STREAM:
+                grant(WINDOW);
+                return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+                        .onClose(this::close);
+            default:
+                grant(WINDOW);
+                return this;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (buffer.isEmpty() && !last) {
+            receive();
+        }
+        if (buffer.isEmpty() && error != null) {
+            throwError();
+        }
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Object element = unwrap(buffer.poll());
+        if (++consumed >= WINDOW / 2 && !last) {
+            grant(consumed);
+            consumed = 0;
+        }
+        return element;
+    }
+
+    /** Cancels the stream, if it has not yet completed, and releases the connection. */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (last) {
+            ConnectionPool.release(connection);
+            return;
+        }
+        try {
+            connection.send(-1);
+        } catch (IOException ioe) {
+            // the skeleton has already gone away
+        }
+        ConnectionPool.close(connection);
+    }
+
+    /**
+     * Sends credit to the skeleton. Failures are ignored: the skeleton may
+     * already have sent the last chunk and closed the connection, and any real
+     * failure is reported by the next read.
+     */
+    private synchronized void grant(int credit) {
+        if (closed) return;
+        try {
+            connection.send(credit);
+        } catch (IOException ioe) {
+            // reported by the next read, if it matters
+        }
+    }
+
+    /** Blocks for the next chunk and appends its elements to the buffer. */
+    private void receive() {
+        try {
+            StreamChunk chunk = (StreamChunk) connection.receive();
+            for (Object element: chunk.getElements()) {
+                buffer.add(element == null ? Nulls.NULL : element);
+            }
+            if (chunk.isLast()) {
+                last = true;
+                error = chunk.getError();
+                close();
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Exception cause) {
+        last = true;
+        error = new IllegalStateException("remote stream failed",
+                new RMIException(cause.getMessage(), cause));
+        close();
+    }
+
+    private void throwError() {
+        Throwable t = error;
+        error = null;
+        if (t instanceof RuntimeException) throw (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        throw new IllegalStateException("remote stream source failed", t);
+    }
+
+    /** Marks <code>null</code> elements, which <code>ArrayDeque</code> cannot hold. */
+    private enum Nulls { NULL }
+
+    private Object unwrap(Object element) {
+        return element == Nulls.NULL ? null : element;
+    }
+
+    /**
+     * Publisher view. Elements are delivered by a dedicated thread, and each
+     * call to <code>request</code> is forwarded to the skeleton as credit.
+     */
+    private class RemotePublisher implements Flow.Publisher<Object> {
+        private boolean subscribed;
+
+        @Override
+        public synchronized void subscribe(Flow.Subscriber<? super Object> subscriber) {
+            if (subscribed) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) { }
+
+                    @Override
+                    public void cancel() { }
+                });
+                subscriber.onError(new IllegalStateException("remote publisher supports a single subscriber"));
+                return;
+            }
+            subscribed = true;
+            Pump pump = new Pump(subscriber);
+            subscriber.onSubscribe(pump);
+            Thread thread = new Thread(pump, "rmi-stream-" + connection.getRemoteAddress());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private class Pump implements Flow.Subscription, Runnable {
+        private Flow.Subscriber<? super Object> subscriber;
+        private volatile boolean cancelled;
+
+        Pump(Flow.Subscriber<? super Object> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            grant((int) Math.min(n, Integer.MAX_VALUE));
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            close();
+        }
+
+        @Override
+        public void run() {
+            while (!cancelled) {
+                if (buffer.isEmpty() && !last) {
+                    receive();
+                }
+                while (!buffer.isEmpty() && !cancelled) {
+                    subscriber.onNext(unwrap(buffer.poll()));
+                }
+                if (last && buffer.isEmpty()) break;
+            }
+            if (cancelled) return;
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<StreamReceiver, " + connection + " >";
+    }
+}
@@ -0,0 +1,204 @@
+package rmi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * Skeleton side of a streamed return value.
+ *
+ * <p>
+ * The stub grants credit by sending positive <code>Integer</code>s, and cancels
+ * the stream by sending a negative one. The sender never sends more elements
+ * than it has credit for, and pulls elements from the source only when it is
+ * about to send them, so at most one chunk is held in memory at a time.
+ */
+class StreamSender {
+    static final int CHUNK_SIZE = 64;
+
+    private Connection connection;
+
+    StreamSender(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Sends the result to the stub until it is exhausted or cancelled.
+     * @param kind declared stream kind of the remote method.
+     * @param result object returned by the implementation.
+     */
+    void send(StreamKind kind, Object result) throws IOException, ClassNotFoundException {
+        Source source;
+        switch (kind) {
+            case PUBLISHER:
+                source = new PublisherSource((Flow.Publisher<?>) result);
+                break;
+            case STREAM:
+                source = new IteratorSource(((Stream<?>) result).iterator(), (Stream<?>) result);
+                break;
+            default:
+                source = new IteratorSource((Iterator<?>) result, null);
+        }
+        try {
+            int credit = 0;
+            while (true) {
+                if (credit == 0) {
+                    credit = (Integer) connection.receive();
+                    if (credit < 0) return;
+                }
+                StreamChunk chunk = source.next(Math.min(credit, CHUNK_SIZE));
+                connection.send(chunk);
+                if (chunk.isLast()) return;
+                credit -= chunk.getElements().length;
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    private interface Source {
+        /** Blocks until at least one element, completion or failure is available. */
+        StreamChunk next(int max);
+
+        void close();
+    }
+
+    private static class IteratorSource implements Source {
+        private Iterator<?> iterator;
+        private AutoCloseable closeable;
+
+        IteratorSource(Iterator<?> iterator, AutoCloseable closeable) {
+            this.iterator = iterator;
+            this.closeable = closeable;
+        }
+
+        @Override
+        public StreamChunk next(int max) {
+            List<Object> elements = new ArrayList<>(max);
+            try {
+                while (elements.size() < max && iterator.hasNext()) {
+                    elements.add(iterator.next());
+                }
+                return new StreamChunk(elements.toArray(), !iterator.hasNext(), null);
+            } catch (RuntimeException e) {
+                return new StreamChunk(elements.toArray(), true, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closeable == null) return;
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Adapts a publisher to pulls. Demand requested from the publisher never
+     * exceeds the credit granted by the stub, which bounds the queue.
+     */
+    private static class PublisherSource implements Source, Flow.Subscriber<Object> {
+        private static final Object COMPLETE = new Object();
+
+        private LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+        private volatile Flow.Subscription subscription;
+        private Throwable error;
+        private boolean done;
+        private long demand;
+
+        @SuppressWarnings("unchecked")
+        PublisherSource(Flow.Publisher<?> publisher) {
+            ((Flow.Publisher<Object>) publisher).subscribe(this);
+        }
+
+        @Override
+        public StreamChunk next(int max) {
+            List<Object> elements = new ArrayList<>(max);
+            if (!done) {
+                long more = max - demand;
+                Flow.Subscription subscription = awaitSubscription();
+                if (more > 0 && subscription != null) {
+                    demand += more;
+                    subscription.request(more);
+                }
+                try {
+                    take(queue.take(), elements);
+                    while (!done && elements.size() < max && !queue.isEmpty()) {
+                        take(queue.poll(), elements);
+                    }
+                } catch (InterruptedException e) {
+                    done = true;
+                    error = e;
+                }
+            }
+            return new StreamChunk(elements.toArray(), done, error);
+        }
+
+        private void take(Object item, List<Object> elements) {
+            if (item == COMPLETE) {
+                done = true;
+            } else if (item instanceof Failure) {
+                done = true;
+                error = ((Failure) item).cause;
+            } else {
+                demand--;
+                elements.add(item == Null.NULL ? null : item);
+            }
+        }
+
+        private synchronized Flow.Subscription awaitSubscription() {
+            while (subscription == null) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return subscription;
+        }
+
+        @Override
+        public void close() {
+            if (!done && subscription != null) subscription.cancel();
+        }
+
+        @Override
+        public synchronized void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            notifyAll();
+        }
+
+        @Override
+        public void onNext(Object item) {
+            queue.add(item == null ? Null.NULL : item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            queue.add(new Failure(throwable));
+        }
+
+        @Override
+        public void onComplete() {
+            queue.add(COMPLETE);
+        }
+
+        private enum Null { NULL }
+
+        private static class Failure {
+            private Throwable cause;
+
+            Failure(Throwable cause) {
+                this.cause = cause;
+            }
+        }
+    }
+}
@@ -4,6 +4,9 @@ import java.net.InetSocketAddress;
 
 import java.lang.reflect.Proxy;
 import java.net.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 
 /** RMI stub factory.
 
@@ -149,4 +152,153 @@ public abstract class Stub
                 new Class[] { c }, handler);
         return (T) instance;
     }
+
+    /** Creates a stub for an object exported on a remote skeleton.
+
+        <p>
+        The object is one of those exported next to the skeleton's own server
+        object with <code>Skeleton.export</code>, which returned its id. Calls
+        through the stub fail with an <code>RMIException</code> once the
+        object has been unexported. Stubs for different objects at the same
+        address share connections.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote object.
+        @param address The network address of the remote skeleton.
+        @param object The id of the object on the skeleton.
+        @return The stub created.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface
+                      - an interface in which each method is marked as throwing
+                      <code>RMIException</code>, or if an object implementing
+                      this interface cannot be dynamically created.
+     */
+    public static <T> T create(Class<T> c, InetSocketAddress address, int object)
+    {
+        RMIUtil.checkNotNull(c, address);
+        RMIUtil.checkInterface(c);
+        StubInvocationHandler<T> handler = new StubInvocationHandler<>(c, address, object);
+        return c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, handler));
+    }
+
+    /** Creates a stub which calls a remote server over a duplex connection.
+
+        <p>
+        All duplex stubs for the same address share one connection, opened on
+        the first call and reopened after it closes. Arguments passed through
+        such a stub which implement a remote interface are exported on that
+        connection, and the server calls them back over it: the client needs
+        no listening port of its own, and callbacks reach it wherever the
+        client's connection can go. Streamed results are not supported on a
+        duplex connection. Objects exported on the connection are dropped when
+        it closes, and stubs the server holds for them then fail.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote object.
+        @param address The network address of the remote skeleton.
+        @return The stub created.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface
+                      - an interface in which each method is marked as throwing
+                      <code>RMIException</code>, or if an object implementing
+                      this interface cannot be dynamically created.
+     */
+    public static <T> T createDuplex(Class<T> c, InetSocketAddress address)
+    {
+        RMIUtil.checkNotNull(c, address);
+        RMIUtil.checkInterface(c);
+        StubInvocationHandler<T> handler = new StubInvocationHandler<>(c, address).duplex();
+        return c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, handler));
+    }
+
+    /** Creates a stub which routes each call to one of several skeletons, by
+        the argument of the call marked with <code>ShardKey</code>.
+
+        <p>
+        Each call is sent to the member of the ring owning its key when the
+        call is made. A batch of calls on a sharded stub is split by owner,
+        and the parts are sent to their skeletons in parallel. Two sharded
+        stubs are equal if they implement the same interface over the same
+        ring.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote objects.
+        @param ring The ring assigning keys to skeletons.
+        @return The stub created.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface,
+                      or if any of its methods does not have exactly one
+                      parameter marked with <code>ShardKey</code>.
+     */
+    public static <T> T createSharded(Class<T> c, ShardRing ring)
+    {
+        RMIUtil.checkNotNull(c, ring);
+        RMIUtil.checkInterface(c);
+        ShardedInvocationHandler<T> handler = new ShardedInvocationHandler<>(c, ring);
+        return c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, handler));
+    }
+
+    /** Creates a stub for a group of <code>Replica</code> skeletons.
+
+        <p>
+        Calls to methods marked <code>ReadOnly</code> are spread over the
+        members of the group: each goes to the member with the fewest calls
+        in progress from this stub, and is retried on the primary if a
+        follower cannot be reached. Other calls are writes, sent to the
+        primary. With read-your-writes consistency, a read observes every
+        write made earlier through the same stub, from any thread; otherwise
+        a follower may serve it before having applied them. Batches cannot
+        be made on replicated stubs.
+
+        @param c A <code>Class</code> object representing the interface
+                 implemented by the remote objects.
+        @param primary The network address of the primary's skeleton.
+        @param followers The network addresses of the followers' skeletons.
+        @param readYourWrites Whether reads observe the stub's own writes.
+        @return The stub created.
+        @throws NullPointerException If any argument or address is
+                                     <code>null</code>.
+        @throws Error If <code>c</code> does not represent a remote interface
+                      - an interface in which each method is marked as throwing
+                      <code>RMIException</code>, or if an object implementing
+                      this interface cannot be dynamically created.
+     */
+    public static <T> T createReplicated(Class<T> c, InetSocketAddress primary,
+                                         Collection<InetSocketAddress> followers,
+                                         boolean readYourWrites)
+    {
+        RMIUtil.checkNotNull(c, primary, followers);
+        RMIUtil.checkInterface(c);
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        addresses.add(primary);
+        for (InetSocketAddress follower : followers) {
+            RMIUtil.checkNotNull(follower);
+            addresses.add(follower);
+        }
+        ReplicatedInvocationHandler<T> handler =
+            new ReplicatedInvocationHandler<>(c, addresses, readYourWrites);
+        return c.cast(Proxy.newProxyInstance(c.getClassLoader(), new Class[] { c }, handler));
+    }
+
+    /** Creates a stub for the management interface of a remote skeleton.
+
+        <p>
+        The management interface is served on the skeleton's own port, next to
+        its remote interface, once it has been enabled with
+        <code>Skeleton.setManagementEnabled</code>. Calls to a skeleton which
+        has not enabled it fail with an <code>RMIException</code>.
+
+        @param address The network address of the remote skeleton.
+        @return The stub created.
+        @throws NullPointerException If <code>address</code> is
+                                     <code>null</code>.
+     */
+    public static Management management(InetSocketAddress address)
+    {
+        RMIUtil.checkNotNull(address);
+        StubInvocationHandler<Management> handler =
+            new StubInvocationHandler<>(Management.class, address, Request.MANAGEMENT);
+        return (Management) Proxy.newProxyInstance(Management.class.getClassLoader(),
+                new Class[] { Management.class }, handler);
+    }
 }
@@ -7,19 +7,77 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.ConnectException;
 import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
 
 class StubInvocationHandler<T> implements java.lang.reflect.InvocationHandler, Serializable {
+    /** Whether each method called so far declares <code>RMIException</code>. */
+    private static final ConcurrentHashMap<Method, Boolean> REMOTE_METHODS = new ConcurrentHashMap<>();
+
     private Class<T> c;
     private InetSocketAddress address;
+    private int object;
+    /** Whether the stub stands for an object passed by reference, whose export is leased. */
+    private boolean leased;
+    /** Whether calls go over the process's duplex connection to the skeleton. */
+    private boolean duplex;
+    /** Whether the stub stands for an object exported on a duplex connection. */
+    private boolean callback;
+    /** Duplex connection a callback stub was received on, through which it calls back. */
+    private transient Duplex channel;
 
     StubInvocationHandler(Class<T> c, InetSocketAddress address)
+    {
+        this(c, address, 0);
+    }
+
+    /** @param object id of the object the skeleton forwards calls to. */
+    StubInvocationHandler(Class<T> c, InetSocketAddress address, int object)
     {
         this.c = c;
         this.address = address;
+        this.object = object;
         System.out.println("create invocation handler with address: " + address);
     }
 
+    /** Marks the stub as standing for an object passed by reference. */
+    StubInvocationHandler<T> leased() {
+        this.leased = true;
+        return this;
+    }
+
+    /** Makes the stub call over the process's duplex connection to the skeleton. */
+    StubInvocationHandler<T> duplex() {
+        this.duplex = true;
+        return this;
+    }
+
+    /** Marks the stub as standing for an object exported on a duplex connection. */
+    StubInvocationHandler<T> callback() {
+        this.callback = true;
+        return this;
+    }
+
+    /**
+     * Holds a lease on the object of a stub passed by reference, while the
+     * stub is reachable, or binds a callback stub to the duplex connection
+     * it is read from.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (leased) LeaseRenewer.hold(this, address, object);
+        if (callback) {
+            channel = Duplex.reading();
+            if (channel != null) channel.hold(this, object);
+        }
+    }
+
+    private static boolean isRemote(Method method) {
+        for (Class<?> ex: method.getExceptionTypes()) {
+            if (ex.getName().equals(RMIException.class.getName())) return true;
+        }
+        return false;
+    }
+
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
     {
@@ -54,65 +112,238 @@ class StubInvocationHandler<T> implements java.lang.reflect.InvocationHandler, S
                 }
                 break;
         }
-        boolean isRmi = false;
-        for (Class<?> ex: method.getExceptionTypes()) {
-            if (ex.getName().equals(RMIException.class.getName())) {
-                isRmi = true;
-                break;
-            }
-        }
-        if (!isRmi) {
+        if (!REMOTE_METHODS.computeIfAbsent(method, StubInvocationHandler::isRemote)) {
             throw new Exception("invoked method doesn't belong to a remote interface");
         }
 
+        Cacheable cacheable = method.getAnnotation(Cacheable.class);
+        NearCache.Key key = null;
+        long generation = 0;
+        if (cacheable != null && cacheable.maxStaleness() > 0 && !callback
+                && StreamKind.of(method.getReturnType()) == null) {
+            try {
+                key = new NearCache.Key(object, method, args);
+                Object cached = NearCache.get(address, key);
+                if (cached != NearCache.MISS) return cached;
+                generation = NearCache.generation(address);
+            } catch (IOException ioe) {
+                // arguments which cannot be serialized fail the remote call below
+                key = null;
+            }
+        }
+
         Response response;
         try {
-            response = remoteInvoke(method, args);
+            response = duplex || callback ? duplexInvoke(method, args) : remoteInvoke(method, args);
         } catch (Exception e) {
             throw new RMIException(e.getMessage(), e.getCause());
         }
 
+        if (key != null && response != null && response.isSuccess()) {
+            NearCache.put(address, key, response.getOrThrow(),
+                    cacheable.unit().toNanos(cacheable.maxStaleness()), generation);
+        }
+
         if (response == null) {
             return null;
-        } else {
-            try {
-                return response.getOrThrow();
-            } catch (Throwable throwable) {
-                if (throwable instanceof InvocationTargetException) {
-                    throw ((InvocationTargetException) throwable).getTargetException();
-                } else if (throwable instanceof RMIException) {
-                    throw ((RMIException) throwable);
-                } else {
-                    throw throwable;
-                }
-            }
         }
+        return unwrap(response);
     }
 
     private Response remoteInvoke(Method method, Object[] args) throws RMIException {
+        Exchange exchange = null;
+        Events.StubCall event = new Events.StubCall();
+        event.begin();
+        ClientMetrics metrics = ClientMetrics.of(address, method);
+        metrics.begin();
+        long start = System.nanoTime();
+        Throwable error = null;
+        Request request = request(method, args);
+        TraceContext trace = request.getTrace();
+        long startMillis = trace == null ? 0 : System.currentTimeMillis();
+        boolean failed = true;
         try {
-            System.out.println("begin connect: " + address);
-            Socket connection = new Socket(address.getHostName(), address.getPort());
-            ObjectOutputStream oos = new ObjectOutputStream(connection.getOutputStream());
-            oos.flush();
-            if (args != null) {
-                System.out.println("pass in parameters: " + args[0]);
-                oos.writeObject(new Request(method, args));
-            } else {
-                oos.writeObject(new Request(method));
+            boolean timed = CallTiming.sample();
+            if (timed) request.timed();
+            exchange = exchange(request);
+            Response response = (Response) exchange.reply;
+            if (timed) {
+                Connection connection = exchange.connection;
+                CallTiming.publish(new CallTiming(method.getName(), exchange.connectNanos,
+                        connection.getEncodeNanos(), connection.getDecodeNanos(),
+                        System.nanoTime() - start, response.getTimings()));
             }
-            // oos.flush();
-            Thread.sleep(10);
-            ObjectInputStream ois = new ObjectInputStream(connection.getInputStream());
-            Object response = ois.readObject();
-            System.out.println("Get response: " + response);
-            oos.close();
-            ois.close();
-            return ((Response) response);
+            NearCache.observe(address, response);
+            LogPosition.wrote(response.getPosition());
+            event.requestBytes = exchange.connection.getSentBytes();
+            event.responseBytes = exchange.connection.getReceivedBytes();
+            metrics.exchanged(exchange.connectNanos, event.requestBytes, event.responseBytes);
+            failed = !response.isSuccess() && !response.isStream();
+            if (failed) error = response.getError();
+            if (response.isStream()) {
+                // the receiver owns the connection until the stream is consumed
+                StreamKind kind = response.getStreamKind();
+                Object view = kind == StreamKind.SUBSCRIPTION
+                        ? new RemoteSubscription<>(exchange.connection).start()
+                        : new StreamReceiver(exchange.connection).view(kind);
+                exchange.connection = null;
+                return Response.result(view);
+            }
+            ConnectionPool.release(exchange.connection);
+            exchange.connection = null;
+            return response;
         } catch (Exception e) {
+            error = e;
             e.printStackTrace();
             throw new RMIException(e.getMessage(), e.getCause());
+        } finally {
+            if (exchange != null && exchange.connection != null) {
+                ConnectionPool.close(exchange.connection);
+            }
+            metrics.end(System.nanoTime() - start, error);
+            if (trace != null) {
+                TraceContext.finish(trace, method.getName(), Span.Kind.CLIENT, startMillis,
+                        System.nanoTime() - start, failed, address);
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = method.getDeclaringClass().getName() + "." + method.getName();
+                event.remoteAddress = address.toString();
+                event.failed = failed;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Makes a call over a duplex connection: the one a callback stub was
+     * received on, or the process's own to the skeleton.
+     */
+    private Response duplexInvoke(Method method, Object[] args) throws RMIException {
+        ClientMetrics metrics = ClientMetrics.of(address, method);
+        metrics.begin();
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            Duplex channel = callback ? this.channel : Duplex.connect(address);
+            if (channel == null) {
+                throw new RMIException("callback stub used away from the connection it was received on");
+            }
+            Response response = channel.call(request(method, args), callback);
+            if (!callback) NearCache.observe(address, response);
+            error = response.getError();
+            return response;
+        } catch (IOException e) {
+            error = e;
+            throw new RMIException(e.getMessage(), e);
+        } catch (RMIException e) {
+            error = e;
+            throw e;
+        } finally {
+            metrics.end(System.nanoTime() - start, error);
+        }
+    }
+
+    /** Builds the request for a call of a method of the remote interface. */
+    Request request(Method method, Object[] args) {
+        Request request = args != null ? new Request(method, args) : new Request(method);
+        return request.to(object).after(LogPosition.required()).trace(TraceContext.outbound());
+    }
+
+    /**
+     * Sends the calls recorded by a batch in one message.
+     * @return the responses, in call order.
+     */
+    Response[] invokeBatch(Request[] requests, boolean parallel) throws RMIException {
+        Exchange exchange = null;
+        try {
+            exchange = exchange(new BatchRequest(requests, parallel));
+            BatchResponse batch = (BatchResponse) exchange.reply;
+            ConnectionPool.release(exchange.connection);
+            exchange.connection = null;
+            Response[] responses = new Response[batch.size()];
+            for (int i = 0; i < responses.length; i++) {
+                responses[i] = batch.get(i);
+                NearCache.observe(address, responses[i]);
+            }
+            return responses;
+        } catch (Exception e) {
+            throw new RMIException(e.getMessage(), e);
+        } finally {
+            if (exchange != null && exchange.connection != null) {
+                ConnectionPool.close(exchange.connection);
+            }
+        }
+    }
+
+    /**
+     * Returns the result of a call as a direct call on the stub would: remote
+     * exceptions are rethrown as they were thrown by the server object.
+     */
+    static Object unwrap(Response response) throws Throwable {
+        try {
+            return response.getOrThrow();
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /** Connection on which a message was sent, and the reply read from it. */
+    private static class Exchange {
+        private Connection connection;
+        private Object reply;
+        private long connectNanos;
+    }
+
+    /**
+     * Sends a message on a pooled connection, or on a new one if none is idle
+     * or writing to the pooled one fails, and reads the reply. A connection
+     * which closes once the message has been written is not retried, as the
+     * skeleton may have executed the call.
+     */
+    private Exchange exchange(Object message) throws IOException, ClassNotFoundException {
+        Exchange exchange = new Exchange();
+        exchange.connection = ConnectionPool.acquire(address);
+        boolean reused = exchange.connection != null;
+        if (!reused) {
+            System.out.println("begin connect: " + address);
+            connect(exchange);
+        }
+        try {
+            if (exchange(exchange, message, reused)) return exchange;
+            // the skeleton closed the idle connection, which could not take the request
+            ConnectionPool.close(exchange.connection);
+            connect(exchange);
+            exchange(exchange, message, false);
+            return exchange;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            ConnectionPool.close(exchange.connection);
+            throw e;
+        }
+    }
+
+    private void connect(Exchange exchange) throws IOException {
+        long start = System.nanoTime();
+        exchange.connection = ConnectionPool.connect(address);
+        exchange.connectNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Sends a message and reads the reply.
+     * @param reused whether the connection comes from the pool.
+     * @return <code>false</code> if the message could not be written to the
+     *         pooled connection, and was therefore not processed.
+     */
+    private boolean exchange(Exchange exchange, Object message, boolean reused)
+            throws IOException, ClassNotFoundException {
+        try {
+            exchange.connection.send(message);
+        } catch (IOException ioe) {
+            if (reused) return false;
+            throw ioe;
         }
+        exchange.reply = exchange.connection.receive();
+        return true;
     }
 
     @Override
@@ -132,7 +363,8 @@ class StubInvocationHandler<T> implements java.lang.reflect.InvocationHandler, S
     public boolean equals(Object obj) {
         if (obj != null && this.getClass().isAssignableFrom(obj.getClass())) {
             final StubInvocationHandler that = ((StubInvocationHandler) obj);
-            return this.address.equals(that.address) && this.c.getName().equals(that.c.getName());
+            return this.address.equals(that.address) && this.c.getName().equals(that.c.getName())
+                    && this.object == that.object;
         }
         return false;
     }
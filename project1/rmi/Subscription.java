@@ -0,0 +1,63 @@
+package rmi;
+
+import java.util.concurrent.TimeUnit;
+
+/** Events delivered to one subscriber of a <code>Topic</code>.
+
+    <p>
+    A remote method may return a subscription obtained from
+    <code>Topic.subscribe</code>. The skeleton then pushes the events
+    published on the topic to the stub as they occur, on the connection the
+    call was made on, and the caller receives a subscription through which it
+    takes them. For example:
+
+    <pre>
+    Subscription&lt;Quote&gt;     quotes = feed.quotes();
+    Quote                   quote;
+
+    while((quote = quotes.take()) != null)
+        show(quote);
+    </pre>
+
+    <p>
+    Events wait in a bounded buffer for each subscriber. A subscriber which
+    falls behind loses events according to the overflow policy of the topic,
+    and <code>getDropped</code> counts the events it lost. Failures of the
+    connection surface as <code>IllegalStateException</code>s caused by an
+    <code>RMIException</code>.
+ */
+public interface Subscription<E> extends AutoCloseable
+{
+    /** Waits for the next event.
+
+        @return The event, or <code>null</code> once the subscription has
+                ended and every event delivered before has been taken.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting.
+     */
+    E take() throws InterruptedException;
+
+    /** Waits for the next event for at most the given time.
+
+        @return The event, or <code>null</code> if none arrived in time or
+                the subscription has ended.
+        @throws InterruptedException If the thread is interrupted while
+                                     waiting.
+     */
+    E poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+    /** Returns the number of events published on the topic which this
+        subscriber will never receive, because its buffer was full or a later
+        event superseded them.
+     */
+    long getDropped();
+
+    /** Tells whether the subscription has ended. Events delivered before it
+        ended may still be taken.
+     */
+    boolean isClosed();
+
+    /** Ends the subscription. */
+    @Override
+    void close();
+}
@@ -0,0 +1,578 @@
+package rmi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/** Source of events pushed to subscribers.
+
+    <p>
+    A server publishes events on a topic, and a remote method hands each
+    caller a <code>Subscription</code> from <code>subscribe</code>, in place
+    of a method which callers would otherwise poll:
+
+    <pre>
+    private final Topic&lt;Quote&gt;  quotes = new Topic&lt;&gt;(256, Quote::symbol);
+
+    public Subscription&lt;Quote&gt; quotes()
+    {
+        return quotes.subscribe();
+    }
+    </pre>
+
+    <p>
+    Publishing never blocks. Each subscriber has a buffer of its own, holding
+    at most the capacity of the topic, from which its events are written to
+    the stub's connection by the skeleton's service threads. When a subscriber
+    falls behind and its buffer is full, the overflow policy decides which
+    event is lost: the oldest one waiting, or the one being published. A
+    topic created with a key function coalesces instead: an event replaces
+    any waiting event with the same key, so a slow subscriber receives the
+    latest event for each key, and the oldest waiting event is dropped only
+    when the buffer holds more keys than its capacity.
+
+    <p>
+    Events are written without blocking: a subscriber stalled long enough to
+    fill its socket holds no thread, only the chunk being written, and the
+    skeleton's event loop resumes writing once the socket drains. A stub
+    which closes its subscription closes its connection, which the event loop
+    notices at once, even on a quiet topic. Closing the topic ends every
+    subscription once the events already waiting have been delivered.
+ */
+public class Topic<E>
+{
+    /** Number of events buffered per subscriber by default. */
+    public static final int     DEFAULT_CAPACITY = 1024;
+
+    /** What happens to events published while a subscriber's buffer is full. */
+    public enum Overflow
+    {
+        /** The oldest event waiting is dropped. */
+        DROP_OLDEST,
+        /** The event being published is dropped. */
+        DROP_NEWEST,
+        /** An event replaces the one waiting with the same key, if any;
+            otherwise the oldest event waiting is dropped.
+         */
+        COALESCE
+    }
+
+    private final int                       capacity;
+    private final Overflow                  overflow;
+    private final Function<? super E, ?>    key;
+    private final Set<Subscriber>           subscribers = ConcurrentHashMap.newKeySet();
+    private final LongAdder                 dropped = new LongAdder();
+    private volatile boolean                closed;
+
+    /** Creates a topic which buffers <code>DEFAULT_CAPACITY</code> events per
+        subscriber and drops the oldest when a buffer is full.
+     */
+    public Topic()
+    {
+        this(DEFAULT_CAPACITY, Overflow.DROP_OLDEST);
+    }
+
+    /** Creates a topic which drops events when a subscriber's buffer is full.
+
+        @param capacity The number of events buffered per subscriber.
+        @param overflow The event dropped when a buffer is full.
+        @throws IllegalArgumentException If <code>capacity</code> is not
+                                         positive, or <code>overflow</code>
+                                         is <code>COALESCE</code>, which
+                                         needs a key.
+     */
+    public Topic(int capacity, Overflow overflow)
+    {
+        this(capacity, overflow, null);
+
+        if(overflow == Overflow.COALESCE)
+            throw new IllegalArgumentException("coalescing topics need a key");
+    }
+
+    /** Creates a topic which coalesces the events waiting for each
+        subscriber by key.
+
+        @param capacity The number of distinct keys buffered per subscriber.
+        @param key The function giving the key of an event.
+        @throws IllegalArgumentException If <code>capacity</code> is not
+                                         positive.
+        @throws NullPointerException If <code>key</code> is
+                                     <code>null</code>.
+     */
+    public Topic(int capacity, Function<? super E, ?> key)
+    {
+        this(capacity, Overflow.COALESCE, key);
+
+        RMIUtil.checkNotNull(key);
+    }
+
+    private Topic(int capacity, Overflow overflow, Function<? super E, ?> key)
+    {
+        if(capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+
+        RMIUtil.checkNotNull(overflow);
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.key = key;
+    }
+
+    /** Subscribes to the events published from now on.
+
+        @return The subscription, which a remote method returns to push the
+                events to its caller, or which may be consumed locally.
+        @throws IllegalStateException If the topic has been closed.
+     */
+    public Subscription<E> subscribe()
+    {
+        return subscribe(Collections.<E>emptyList());
+    }
+
+    /** Subscribes to the given events, then to those published from now on.
+        The caller must keep events from being published until this returns,
+        or they may be delivered out of order.
+
+        @param backlog The events to deliver first, subject to the overflow
+                       policy like published ones.
+        @return The subscription.
+        @throws IllegalStateException If the topic has been closed.
+     */
+    Subscription<E> subscribe(Iterable<? extends E> backlog)
+    {
+        Subscriber  subscriber = new Subscriber();
+
+        for(E event : backlog)
+            subscriber.offer(event, key == null ? null : key.apply(event));
+
+        subscribers.add(subscriber);
+
+        if(closed)
+        {
+            subscribers.remove(subscriber);
+            throw new IllegalStateException("topic is closed");
+        }
+
+        return subscriber;
+    }
+
+    /** Publishes an event to every current subscriber, without waiting for
+        any of them.
+
+        @param event The event.
+        @throws NullPointerException If <code>event</code> is
+                                     <code>null</code>.
+     */
+    public void publish(E event)
+    {
+        RMIUtil.checkNotNull(event);
+
+        Object  k = key == null ? null : key.apply(event);
+
+        for(Subscriber subscriber : subscribers)
+            subscriber.offer(event, k);
+    }
+
+    /** Returns the number of current subscribers. */
+    public int getSubscribers()
+    {
+        return subscribers.size();
+    }
+
+    /** Returns the number of events dropped or superseded, over all
+        subscribers.
+     */
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    /** Ends every subscription, after the events waiting have been
+        delivered, and refuses new ones.
+     */
+    public void close()
+    {
+        closed = true;
+
+        for(Subscriber subscriber : subscribers)
+            subscriber.close();
+    }
+
+    /** Subscription of one subscriber, consumed either locally or by the
+        skeleton which pushes it to a stub.
+     */
+    final class Subscriber implements Subscription<E>, EventLoop.Writer
+    {
+        private final ArrayDeque<E>             queue;
+        private final LinkedHashMap<Object, E>  latest;
+        private long                            lost;
+        private long                            reported;
+        private boolean                         ended;
+        private Connection                      connection;
+        private Executor                        executor;
+        private EventLoop                       loop;
+        private Runnable                        detached;
+        private boolean                         flushing;
+        private ByteBuffer[]                    pending;
+        private boolean                         pendingLast;
+        private boolean                         released;
+
+        private Subscriber()
+        {
+            queue = key == null ? new ArrayDeque<E>() : null;
+            latest = key == null ? null : new LinkedHashMap<Object, E>();
+        }
+
+        /** Buffers an event, applying the overflow policy. */
+        private synchronized void offer(E event, Object k)
+        {
+            if(ended)
+                return;
+
+            if(latest != null)
+            {
+                if(latest.put(k, event) != null)
+                    drop();
+                else if(latest.size() > capacity)
+                {
+                    Iterator<E>     eldest = latest.values().iterator();
+
+                    eldest.next();
+                    eldest.remove();
+                    drop();
+                }
+            }
+            else if(queue.size() < capacity)
+                queue.add(event);
+            else
+            {
+                drop();
+
+                if(overflow == Overflow.DROP_NEWEST)
+                    return;
+
+                queue.poll();
+                queue.add(event);
+            }
+
+            notifyAll();
+            schedule();
+        }
+
+        private void drop()
+        {
+            ++lost;
+            dropped.increment();
+        }
+
+        private int size()
+        {
+            return latest != null ? latest.size() : queue.size();
+        }
+
+        private E next()
+        {
+            if(queue != null)
+                return queue.poll();
+
+            Iterator<E>     eldest = latest.values().iterator();
+            E               event = eldest.next();
+
+            eldest.remove();
+            return event;
+        }
+
+        @Override
+        public synchronized E take() throws InterruptedException
+        {
+            while(size() == 0 && !ended)
+                wait();
+
+            return size() == 0 ? null : next();
+        }
+
+        @Override
+        public synchronized E poll(long timeout, TimeUnit unit)
+            throws InterruptedException
+        {
+            long    deadline = System.nanoTime() + unit.toNanos(timeout);
+            long    remaining;
+
+            while(size() == 0 && !ended
+                  && (remaining = deadline - System.nanoTime()) > 0)
+            {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            return size() == 0 ? null : next();
+        }
+
+        @Override
+        public synchronized long getDropped()
+        {
+            return lost;
+        }
+
+        @Override
+        public synchronized boolean isClosed()
+        {
+            return ended;
+        }
+
+        @Override
+        public void close()
+        {
+            subscribers.remove(this);
+
+            synchronized(this)
+            {
+                if(ended)
+                    return;
+
+                ended = true;
+                notifyAll();
+                schedule();
+            }
+        }
+
+        /** Pushes the events of the subscription to a stub from now on.
+
+            @param connection The connection on which the subscription was
+                              returned, which belongs to the subscription
+                              until it ends.
+            @param executor The executor encoding events and writing them to
+                            the connection.
+            @param loop The event loop which watches the connection, and
+                        resumes writing once a full socket drains.
+            @param detached Called once the subscription has ended and the
+                            connection is no longer used; the connection is
+                            closed if writing to it failed or the stub closed
+                            it.
+         */
+        void attach(Connection connection, Executor executor, EventLoop loop,
+                    Runnable detached)
+        {
+            try
+            {
+                synchronized(this)
+                {
+                    this.connection = connection;
+                    this.executor = executor;
+                    this.loop = loop;
+                    this.detached = detached;
+                    loop.watch(connection, this);
+                    schedule();
+                }
+            }
+            catch(IOException e)
+            {
+                fail();
+            }
+        }
+
+        /** Starts writing waiting events, unless a write is under way. */
+        private void schedule()
+        {
+            if(connection == null || flushing || released
+               || (size() == 0 && !ended))
+            {
+                return;
+            }
+
+            flushing = true;
+            resume();
+        }
+
+        /** Goes on writing events on the executor. */
+        private void resume()
+        {
+            try
+            {
+                executor.execute(this::flush);
+            }
+            catch(RejectedExecutionException e)
+            {
+                fail();
+            }
+        }
+
+        /** Writes the waiting events in chunks, and a last chunk once the
+            subscription has ended, until the socket is full.
+         */
+        private void flush()
+        {
+            try
+            {
+                while(true)
+                {
+                    Object[]    events;
+                    boolean     last;
+                    long        skipped;
+
+                    synchronized(this)
+                    {
+                        if(released || (size() == 0 && !ended))
+                        {
+                            flushing = false;
+                            return;
+                        }
+
+                        events = new Object[Math.min(size(),
+                                                     StreamSender.CHUNK_SIZE)];
+
+                        for(int i = 0; i < events.length; ++i)
+                            events[i] = next();
+
+                        last = ended && size() == 0;
+                        skipped = lost - reported;
+                        reported = lost;
+                    }
+
+                    ByteBuffer[]    frame = connection.frameEncoded(
+                        Connection.encode(new StreamChunk(events, last, null,
+                                                          skipped)));
+
+                    if(!write(frame, last))
+                    {
+                        synchronized(this)
+                        {
+                            pending = frame;
+                            pendingLast = last;
+                        }
+
+                        loop.awaitWritable(connection);
+                        return;
+                    }
+
+                    if(last)
+                    {
+                        detached.run();
+                        return;
+                    }
+                }
+            }
+            catch(IOException e)
+            {
+                fail();
+            }
+        }
+
+        /** Writes the rest of a chunk once the socket has room, then goes
+            on with the next one.
+         */
+        @Override
+        public void writable()
+        {
+            ByteBuffer[]    frame;
+            boolean         last;
+
+            synchronized(this)
+            {
+                frame = pending;
+                last = pendingLast;
+            }
+
+            if(frame == null)
+                return;
+
+            try
+            {
+                if(!write(frame, last))
+                {
+                    loop.awaitWritable(connection);
+                    return;
+                }
+            }
+            catch(IOException e)
+            {
+                fail();
+                return;
+            }
+
+            synchronized(this)
+            {
+                pending = null;
+            }
+
+            if(last)
+                detached.run();
+            else
+                resume();
+        }
+
+        /** Writes as much of a chunk as the socket takes. The last chunk is
+            written under the lock, so that a hangup caused by the stub's
+            next call on the connection finds it handed back already.
+
+            @return Whether the whole chunk has been written.
+         */
+        private boolean write(ByteBuffer[] frame, boolean last)
+            throws IOException
+        {
+            if(!last)
+                return connection.writeSome(frame);
+
+            synchronized(this)
+            {
+                if(released)
+                    throw new IOException("subscription failed");
+
+                if(!connection.writeSome(frame))
+                    return false;
+
+                released = true;
+                return true;
+            }
+        }
+
+        /** Ends the subscription after the stub closed its connection, or
+            the skeleton stopped watching it.
+         */
+        @Override
+        public void hangup()
+        {
+            fail();
+        }
+
+        /** Ends the subscription after its connection failed or closed. */
+        private void fail()
+        {
+            subscribers.remove(this);
+
+            synchronized(this)
+            {
+                ended = true;
+
+                if(queue != null)
+                    queue.clear();
+                else
+                    latest.clear();
+
+                if(released)
+                    return;
+
+                released = true;
+            }
+
+            try
+            {
+                connection.close();
+            }
+            catch(IOException e)
+            {
+                // the connection is being discarded
+            }
+
+            detached.run();
+        }
+    }
+}
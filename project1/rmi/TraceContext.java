@@ -0,0 +1,197 @@
+package rmi;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Identifies the span of a traced call within its trace.
+
+    <p>
+    A trace is the tree of remote calls made on behalf of one piece of work,
+    and a span is one call in it, as seen by the stub or by the skeleton.
+    Each thread has a current context. When a stub is called on a thread with
+    a current context, the call becomes a child span of it, and the context of
+    that span is sent with the request. The skeleton makes its own span a
+    child of the stub's, and installs it as the current context of the
+    service thread while the server object runs, so that calls the server
+    object makes through other stubs join the same trace.
+
+    <p>
+    Spans of sampled traces are exported to the sink set with
+    <code>setSink</code> when they finish; unsampled traces are propagated but
+    cost nothing more. A trace is begun explicitly with <code>begin</code>, or
+    by a stub call made outside any trace, which is sampled with the
+    probability set by <code>setSampleRate</code>. For example:
+
+    <pre>
+    TraceContext.setSink(new FileSpanSink(new File("spans.tsv")));
+    try (TraceContext.Scope scope = TraceContext.begin(true))
+    {
+        stub.lookup(1);
+    }
+    </pre>
+ */
+public final class TraceContext implements Serializable
+{
+    private static final ThreadLocal<TraceContext>  current = new ThreadLocal<>();
+    private static volatile SpanSink                sink;
+    private static volatile double                  sampleRate;
+
+    private final long      traceId;
+    private final long      spanId;
+    private final long      parentId;
+    private final boolean   sampled;
+
+    private TraceContext(long traceId, long spanId, long parentId,
+                         boolean sampled)
+    {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentId = parentId;
+        this.sampled = sampled;
+    }
+
+    /** Restores the context which was current before a trace was begun. */
+    public static final class Scope implements AutoCloseable
+    {
+        private final TraceContext  previous;
+
+        private Scope(TraceContext previous)
+        {
+            this.previous = previous;
+        }
+
+        /** Makes the previous context current again. */
+        @Override
+        public void close()
+        {
+            swap(previous);
+        }
+    }
+
+    /** Begins a new trace on the current thread.
+
+        @param sampled Whether the spans of the trace are exported.
+        @return A scope which, when closed, restores the context which was
+                current before.
+     */
+    public static Scope begin(boolean sampled)
+    {
+        return new Scope(swap(new TraceContext(newId(), newId(), 0, sampled)));
+    }
+
+    /** Returns the context of the current thread, or <code>null</code> if
+        it is not part of a trace.
+     */
+    public static TraceContext current()
+    {
+        return current.get();
+    }
+
+    /** Sets the sink to which the spans of sampled traces are exported.
+
+        @param sink The sink, or <code>null</code> to drop all spans.
+     */
+    public static void setSink(SpanSink sink)
+    {
+        TraceContext.sink = sink;
+    }
+
+    /** Sets the probability with which a stub call made outside any trace
+        begins a new, sampled, trace.
+
+        @param rate A fraction between zero, the default, and one.
+        @throws IllegalArgumentException If <code>rate</code> is not between
+                                         zero and one.
+     */
+    public static void setSampleRate(double rate)
+    {
+        if (!(rate >= 0 && rate <= 1))
+            throw new IllegalArgumentException("sample rate out of range: " + rate);
+        sampleRate = rate;
+    }
+
+    /** Returns the identifier of the trace. */
+    public long getTraceId()
+    {
+        return traceId;
+    }
+
+    /** Returns the identifier of the span. */
+    public long getSpanId()
+    {
+        return spanId;
+    }
+
+    /** Returns the identifier of the parent span, or zero for the root. */
+    public long getParentId()
+    {
+        return parentId;
+    }
+
+    /** Tells whether the spans of the trace are exported. */
+    public boolean isSampled()
+    {
+        return sampled;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Long.toHexString(traceId) + "/" + Long.toHexString(spanId)
+               + (sampled ? " sampled" : "");
+    }
+
+    /** Returns the context for a call made on the current thread: a child of
+        the current context, a new sampled trace, or <code>null</code>.
+     */
+    static TraceContext outbound()
+    {
+        TraceContext parent = current.get();
+        if (parent != null)
+            return parent.child();
+        double rate = sampleRate;
+        if (rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate))
+            return new TraceContext(newId(), newId(), 0, true);
+        return null;
+    }
+
+    /** Returns a new span of the same trace, whose parent is this one. */
+    TraceContext child()
+    {
+        return new TraceContext(traceId, newId(), spanId, sampled);
+    }
+
+    /** Makes a context current on this thread and returns the previous one. */
+    static TraceContext swap(TraceContext context)
+    {
+        TraceContext previous = current.get();
+        if (context == null)
+            current.remove();
+        else
+            current.set(context);
+        return previous;
+    }
+
+    /** Exports a finished span if its trace is sampled. */
+    static void finish(TraceContext context, String name, Span.Kind kind,
+                       long startMillis, long nanos, boolean error,
+                       Object remote)
+    {
+        SpanSink sink = TraceContext.sink;
+        if (sink == null || !context.sampled)
+            return;
+        sink.export(new Span(context, name, kind, startMillis, nanos, error,
+                             String.valueOf(remote)));
+    }
+
+    private static long newId()
+    {
+        long id;
+        do
+        {
+            id = ThreadLocalRandom.current().nextLong();
+        }
+        while(id == 0);
+        return id;
+    }
+}
@@ -0,0 +1,14 @@
+package rmi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Open connections of a skeleton and the bytes they carried, counted by the
+ * connections themselves.
+ */
+class Traffic {
+    final AtomicInteger open = new AtomicInteger();
+    final LongAdder in = new LongAdder();
+    final LongAdder out = new LongAdder();
+}
@@ -0,0 +1,229 @@
+package rmi;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Samples the stacks of a skeleton's invocations which run longer than their
+ * method's threshold.
+ *
+ * <p>
+ * Each service thread has a slot, in which it publishes the start time of the
+ * invocation it is running. A daemon thread wakes up every
+ * <code>PERIOD_MILLIS</code>, and samples the stack of every thread whose
+ * invocation has run past its threshold. Thresholds are only looked up by the
+ * sampling thread, so an invocation costs its thread two clock reads and a
+ * few field writes; only an invocation which was sampled takes the slot's
+ * lock, to collect its samples into a report.
+ *
+ * <p>
+ * The sampler sets <code>sampled</code> before checking that the invocation is
+ * still running, and the service thread clears <code>started</code> before
+ * checking <code>sampled</code>, so at least one of them sees the other's
+ * write: samples are never left behind for the next invocation.
+ */
+class Watchdog {
+    static final long PERIOD_MILLIS = 10;
+    private static final int ARGUMENT_LENGTH = 64;
+
+    private final List<Slot> slots = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Slot> slot = ThreadLocal.withInitial(this::register);
+    private final Map<String, Long> thresholds = new ConcurrentHashMap<>();
+    private volatile long defaultThreshold;
+    private volatile boolean enabled;
+    private volatile SlowCallReport.Listener listener = Watchdog::print;
+    private final String name;
+    private Thread thread;
+    private boolean running;
+
+    Watchdog(String name) {
+        this.name = name;
+    }
+
+    /** Whether any threshold is set. Invocations need not be watched otherwise. */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Sets the threshold of methods which have none of their own; zero for none. */
+    synchronized void setThreshold(long nanos) {
+        defaultThreshold = nanos;
+        changed();
+    }
+
+    /** Sets the threshold of all methods with the given name; zero to never report them. */
+    synchronized void setThreshold(String methodName, long nanos) {
+        thresholds.put(methodName, nanos);
+        changed();
+    }
+
+    void setListener(SlowCallReport.Listener listener) {
+        this.listener = listener != null ? listener : Watchdog::print;
+    }
+
+    /** Starts sampling, if any threshold is set, until <code>stop</code>. */
+    synchronized void start() {
+        running = true;
+        changed();
+    }
+
+    synchronized void stop() {
+        running = false;
+        changed();
+    }
+
+    private void changed() {
+        enabled = defaultThreshold > 0 || thresholds.values().stream().anyMatch(t -> t > 0);
+        if (running && enabled && thread == null) {
+            thread = new Thread(this::run, name);
+            thread.setDaemon(true);
+            thread.start();
+        } else if ((!running || !enabled) && thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /** Marks the start of an invocation on the calling thread. */
+    Slot begin(Method method, Object[] args) {
+        Slot slot = this.slot.get();
+        slot.method = method;
+        slot.args = args;
+        slot.started = System.nanoTime();
+        return slot;
+    }
+
+    /** Marks the end of an invocation, and reports it if it was sampled. */
+    void end(Slot slot) {
+        long elapsed = System.nanoTime() - slot.started;
+        slot.started = 0;
+        if (slot.sampled) report(slot, elapsed);
+        slot.args = null;
+    }
+
+    private Slot register() {
+        Slot slot = new Slot(Thread.currentThread());
+        slots.add(slot);
+        return slot;
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(PERIOD_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            sample();
+        }
+    }
+
+    private void sample() {
+        long now = System.nanoTime();
+        for (Slot slot: slots) {
+            if (!slot.thread.isAlive()) {
+                slots.remove(slot);
+                continue;
+            }
+            long started = slot.started;
+            if (started == 0) continue;
+            long threshold = threshold(slot.method);
+            if (threshold <= 0 || now - started < threshold) continue;
+            slot.sampled = true;
+            synchronized (slot) {
+                if (slot.started != started) continue;
+                slot.add(slot.thread.getStackTrace());
+            }
+        }
+    }
+
+    private long threshold(Method method) {
+        Long threshold = thresholds.get(method.getName());
+        return threshold != null ? threshold : defaultThreshold;
+    }
+
+    private void report(Slot slot, long elapsed) {
+        SlowCallReport report;
+        synchronized (slot) {
+            slot.sampled = false;
+            if (slot.samples == 0) return;
+            Method method = slot.method;
+            report = new SlowCallReport(method.getDeclaringClass().getName() + "." + method.getName(),
+                    summarize(slot.args), elapsed, slot.samples, slot.drain());
+        }
+        try {
+            listener.slowCall(report);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void print(SlowCallReport report) {
+        System.err.println("> " + report);
+    }
+
+    /** Describes arguments without risking a huge or failing <code>toString</code>. */
+    static String summarize(Object[] args) {
+        if (args == null) return "";
+        StringBuilder summary = new StringBuilder();
+        for (Object arg: args) {
+            if (summary.length() > 0) summary.append(", ");
+            if (arg == null) {
+                summary.append("null");
+            } else if (arg.getClass().isArray()) {
+                summary.append(arg.getClass().getComponentType().getSimpleName())
+                        .append('[').append(java.lang.reflect.Array.getLength(arg)).append(']');
+            } else {
+                String text;
+                try {
+                    text = String.valueOf(arg);
+                } catch (RuntimeException e) {
+                    text = arg.getClass().getName();
+                }
+                if (text.length() > ARGUMENT_LENGTH) text = text.substring(0, ARGUMENT_LENGTH) + "...";
+                summary.append(arg instanceof String ? '"' + text + '"' : text);
+            }
+        }
+        return summary.toString();
+    }
+
+    /** Invocation state of one service thread. */
+    static final class Slot {
+        private final Thread thread;
+        private Method method;
+        private Object[] args;
+        private volatile long started;
+        private volatile boolean sampled;
+        private final Map<List<StackTraceElement>, int[]> stacks = new HashMap<>();
+        private int samples;
+
+        Slot(Thread thread) {
+            this.thread = thread;
+        }
+
+        /** Counts a sample, keeping only the frames above the skeleton's own. */
+        private void add(StackTraceElement[] stack) {
+            int end = 0;
+            while (end < stack.length && !stack[end].getClassName().startsWith(Skeleton.class.getName())) {
+                end++;
+            }
+            stacks.computeIfAbsent(Arrays.asList(Arrays.copyOf(stack, end)), s -> new int[1])[0]++;
+            samples++;
+        }
+
+        private List<SlowCallReport.Stack> drain() {
+            List<SlowCallReport.Stack> sorted = new ArrayList<>();
+            stacks.forEach((frames, count) -> sorted.add(new SlowCallReport.Stack(frames, count[0])));
+            sorted.sort((a, b) -> Integer.compare(b.getCount(), a.getCount()));
+            stacks.clear();
+            samples = 0;
+            return sorted;
+        }
+    }
+}
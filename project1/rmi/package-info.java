@@ -60,6 +60,79 @@
     In case an exception is thrown remotely, it is transmitted back to the
     client.
 
+    <p>
+    A remote method may declare <code>java.util.Iterator</code>,
+    <code>java.util.stream.Stream</code> or
+    <code>java.util.concurrent.Flow.Publisher</code> as its return type. The
+    value returned by the server is then not serialized whole: its elements are
+    sent to the stub in chunks, and only as fast as the client consumes them.
+    The client may begin processing the first elements before the server has
+    produced the rest. The connection used by the call stays open until the
+    stream is exhausted or closed. A method may also return a
+    <code>Subscription</code> to a <code>Topic</code>: the server then pushes
+    each event published on the topic as it occurs, and a client which falls
+    behind loses events as the topic's overflow policy decides, rather than
+    slowing the server down.
+
+    <p>
+    Stubs keep connections to a skeleton open between calls and reuse them.
+    Class descriptors are sent in full only the first time they are used on a
+    connection; <code>ResetPolicy</code> bounds how many are remembered.
+
+    <p>
+    A call to the same method on many skeletons is made with
+    <code>Broadcast</code>, which waits for all the responses on one shared
+    thread and combines them as they arrive, reporting skeletons which failed
+    or did not answer in time. An interface partitioned across skeletons by
+    key is called through a stub created with <code>Stub.createSharded</code>,
+    which sends each call to the skeleton owning its <code>ShardKey</code>
+    argument on a <code>ShardRing</code>. A server object may also be copied
+    on a group of <code>Replica</code> skeletons, which serve its
+    <code>ReadOnly</code> methods from any copy and replicate its other
+    methods from a primary; a stub created with
+    <code>Stub.createReplicated</code> spreads reads over the group.
+
+    <p>
+    Methods of a remote interface annotated with <code>Cacheable</code> have
+    their results cached by the skeleton, which then answers repeated calls
+    with equal arguments without invoking the server object.
+
+    <p>
+    Many small calls to the same skeleton can be sent together, in one round
+    trip, using a <code>Batch</code>.
+
+    <p>
+    A skeleton can also serve a <code>Management</code> interface on its port,
+    through which its statistics are read and its thread pool tuned while it
+    runs. <code>StatsAggregator</code> merges the statistics of many skeletons.
+    Individual calls can be examined too: <code>CallTiming</code> breaks down
+    where the time of sampled calls went, and <code>TraceContext</code> follows
+    calls which skeletons make to other skeletons on behalf of a caller.
+    Calls and connections are also reported as flight recorder events, which
+    <code>RecordingAnalyzer</code> summarizes. Invocations which run past a
+    threshold are sampled while they run, and reported with the stacks at which
+    they spent their time as a <code>SlowCallReport</code>.
+
+    <p>
+    A process exporting many remote objects can start their skeletons with a
+    shared <code>SkeletonRuntime</code>, so that they are all served by a few
+    threads rather than each having threads of its own. A skeleton can also
+    serve many objects on its one port: each object exported with
+    <code>Skeleton.export</code> is given an id, which stubs created for it
+    send with every call. A skeleton to which many short-lived clients connect
+    can accept on several sockets sharing its port, with
+    <code>setAcceptors</code>.
+
+    <p>
+    Arguments and results which implement a remote interface are passed by
+    reference: they are exported automatically and replaced on the wire by
+    stubs, through which the receiver calls back. The stubs hold leases on
+    their objects, which are unexported once every stub has been garbage
+    collected and its lease released or expired. A client which cannot accept
+    connections creates its stub with <code>Stub.createDuplex</code> instead:
+    objects it passes are then exported on the connection the stub opened,
+    and the server calls them back over that same connection.
+
     <p>
     In the typical case, the server will create both the skeleton and the
     corresponding stub, as above. The stub will then be transmitted to any
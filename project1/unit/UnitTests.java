@@ -8,6 +8,31 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link rmi.SampleUnitTest}</li>
+    <li>{@link rmi.StreamTest}</li>
+    <li>{@link rmi.CompressionTest}</li>
+    <li>{@link rmi.BufferArenaTest}</li>
+    <li>{@link rmi.ReuseTest}</li>
+    <li>{@link rmi.CacheTest}</li>
+    <li>{@link rmi.NearCacheTest}</li>
+    <li>{@link rmi.CoalesceTest}</li>
+    <li>{@link rmi.BatchTest}</li>
+    <li>{@link rmi.MicroBatchTest}</li>
+    <li>{@link rmi.ManagementTest}</li>
+    <li>{@link rmi.TimingTest}</li>
+    <li>{@link rmi.TraceTest}</li>
+    <li>{@link rmi.FlightRecorderTest}</li>
+    <li>{@link rmi.AllocationTest}</li>
+    <li>{@link rmi.SlowCallTest}</li>
+    <li>{@link rmi.ClientMetricsTest}</li>
+    <li>{@link rmi.RuntimeTest}</li>
+    <li>{@link rmi.ObjectTableTest}</li>
+    <li>{@link rmi.AcceptorTest}</li>
+    <li>{@link rmi.RemoteReferenceTest}</li>
+    <li>{@link rmi.DuplexTest}</li>
+    <li>{@link rmi.SubscriptionTest}</li>
+    <li>{@link rmi.BroadcastTest}</li>
+    <li>{@link rmi.ShardTest}</li>
+    <li>{@link rmi.ReplicaTest}</li>
     </ul>
  */
 public class UnitTests
@@ -21,7 +46,32 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {rmi.SampleUnitTest.class};
+            new Class[] {rmi.SampleUnitTest.class,
+                         rmi.StreamTest.class,
+                         rmi.CompressionTest.class,
+                         rmi.BufferArenaTest.class,
+                         rmi.ReuseTest.class,
+                         rmi.CacheTest.class,
+                         rmi.NearCacheTest.class,
+                         rmi.CoalesceTest.class,
+                         rmi.BatchTest.class,
+                         rmi.MicroBatchTest.class,
+                         rmi.ManagementTest.class,
+                         rmi.TimingTest.class,
+                         rmi.TraceTest.class,
+                         rmi.FlightRecorderTest.class,
+                         rmi.AllocationTest.class,
+                         rmi.SlowCallTest.class,
+                         rmi.ClientMetricsTest.class,
+                         rmi.RuntimeTest.class,
+                         rmi.ObjectTableTest.class,
+                         rmi.AcceptorTest.class,
+                         rmi.RemoteReferenceTest.class,
+                         rmi.DuplexTest.class,
+                         rmi.SubscriptionTest.class,
+                         rmi.BroadcastTest.class,
+                         rmi.ShardTest.class,
+                         rmi.ReplicaTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
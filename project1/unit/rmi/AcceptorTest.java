@@ -0,0 +1,169 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/** Checks that a skeleton with several acceptors serves new connections on
+    its port, and that it can be stopped and started again.
+ */
+public class AcceptorTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking multiple acceptors";
+
+    private static final int    ACCEPTORS = 4;
+    private static final int    CONNECTIONS = 50;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7122);
+    private Skeleton<EchoInterface>     skeleton;
+
+    /** Starts a skeleton with several acceptors. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer(), address);
+        skeleton.setAcceptors(ACCEPTORS);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("checking the listening threads");
+
+        if(reusePortSupported() && listeningThreads() != ACCEPTORS)
+        {
+            throw new TestFailed("expected " + ACCEPTORS +
+                                 " listening threads, found " +
+                                 listeningThreads());
+        }
+
+        task("connecting repeatedly");
+
+        connect();
+
+        task("restarting the skeleton");
+
+        skeleton.stop();
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to restart skeleton", e);
+        }
+
+        connect();
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Makes one call on each of many new connections. */
+    private void connect() throws TestFailed
+    {
+        Method  echo;
+
+        try
+        {
+            echo = EchoInterface.class.getMethod("echo", int.class);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new TestFailed("echo method missing", e);
+        }
+
+        for(int i = 0; i < CONNECTIONS; ++i)
+        {
+            try
+            {
+                Connection  connection = ConnectionPool.connect(address);
+
+                try
+                {
+                    connection.send(new Request(echo, new Object[] {i}));
+
+                    Response    response = (Response)connection.receive();
+
+                    if(!Integer.valueOf(i).equals(response.getResult()))
+                        throw new TestFailed("wrong result on connection " + i);
+                }
+                finally
+                {
+                    connection.close();
+                }
+            }
+            catch(IOException | ClassNotFoundException e)
+            {
+                throw new TestFailed("connection " + i + " failed", e);
+            }
+        }
+    }
+
+    private static int listeningThreads()
+    {
+        int count = 0;
+
+        for(Thread thread : Thread.getAllStackTraces().keySet())
+        {
+            if(thread.getName().startsWith("rmi-listener-7122-"))
+                ++count;
+        }
+
+        return count;
+    }
+
+    private static boolean reusePortSupported()
+    {
+        try(ServerSocketChannel channel = ServerSocketChannel.open())
+        {
+            return channel.supportedOptions()
+                          .contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+        catch(IOException e)
+        {
+            return false;
+        }
+    }
+
+    public interface EchoInterface
+    {
+        int echo(int value) throws RMIException;
+    }
+
+    private static class EchoServer implements EchoInterface
+    {
+        @Override
+        public int echo(int value)
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package rmi;
+
+import test.*;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+
+/** Checks that simple calls survive the encoding which bypasses
+    serialization, and that a steady stream of them allocates little.
+ */
+public class AllocationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking allocation on the call path";
+
+    /** Bytes all threads may allocate per call, stub and skeleton together.
+        Calls cost about 1.5 KB when this test was written, and over 8 KB
+        when every message was serialized. Leak detection is turned off
+        while measuring, as it adds a stack trace per buffer borrowed.
+     */
+    private static final long   BUDGET = 4096;
+    private static final int    WARMUP = 20000;
+    /** Longest warm-up, so that a slow machine still fits the suite's
+        timeout. */
+    private static final long   WARMUP_NANOS = 1_000_000_000L;
+    private static final int    CALLS = 5000;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7113);
+    private final BufferArena           arena = BufferArena.shared();
+    private final boolean               leakDetection = arena.isLeakDetection();
+    private Skeleton<ValueInterface>    skeleton;
+    private ValueInterface              stub;
+
+    /** Starts a skeleton for the value interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<ValueInterface>(ValueInterface.class,
+                                                new ValueServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(ValueInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("passing simple values");
+
+        try
+        {
+            if(stub.add(40, 2L) != 42L)
+                throw new TestFailed("wrong sum");
+
+            if(!stub.append("caf", '\u00e9').equals("caf\u00e9"))
+                throw new TestFailed("wrong string");
+
+            if(stub.identity(null) != null)
+                throw new TestFailed("null was not passed");
+
+            Object[]    values = {Boolean.TRUE, (byte) -1, (short) 300, 'x',
+                                  Integer.MIN_VALUE, Long.MAX_VALUE, 1.5f,
+                                  Double.NaN, "", "text"};
+
+            for(Object value : values)
+            {
+                if(!value.equals(stub.identity(value)))
+                    throw new TestFailed(value + " was not passed intact");
+            }
+
+            List<String>    list = Arrays.asList("a", "b");
+
+            if(!list.equals(stub.identity(list)))
+                throw new TestFailed("serialized argument was not passed intact");
+
+            if(stub.overloaded(1) != 1 || stub.overloaded(Integer.valueOf(1)) != 2)
+                throw new TestFailed("overloads were confused");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        task("measuring allocation per call");
+
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+        if(!threads.isThreadAllocatedMemorySupported())
+        {
+            task();
+            return;
+        }
+
+        threads.setThreadAllocatedMemoryEnabled(true);
+        arena.setLeakDetection(false);
+
+        try
+        {
+            long    deadline = System.nanoTime() + WARMUP_NANOS;
+
+            for(int i = 0; i < WARMUP && System.nanoTime() < deadline; ++i)
+                stub.add(i, i);
+
+            long    before = allocated(threads);
+
+            for(int i = 0; i < CALLS; ++i)
+                stub.add(i, i);
+
+            long    perCall = (allocated(threads) - before) / CALLS;
+
+            if(perCall > BUDGET)
+            {
+                throw new TestFailed("calls allocate " + perCall
+                                     + " bytes each, more than " + BUDGET);
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton and restores leak detection. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        arena.setLeakDetection(leakDetection);
+    }
+
+    /** Returns the bytes allocated so far by all live threads. */
+    private static long allocated(com.sun.management.ThreadMXBean threads)
+    {
+        long    total = 0;
+
+        for(long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+        {
+            if(bytes > 0)
+                total += bytes;
+        }
+
+        return total;
+    }
+
+    public interface ValueInterface
+    {
+        long add(int a, long b) throws RMIException;
+
+        String append(String s, char c) throws RMIException;
+
+        Object identity(Object value) throws RMIException;
+
+        int overloaded(int value) throws RMIException;
+
+        int overloaded(Integer value) throws RMIException;
+    }
+
+    private static class ValueServer implements ValueInterface
+    {
+        @Override
+        public long add(int a, long b)
+        {
+            return a + b;
+        }
+
+        @Override
+        public String append(String s, char c)
+        {
+            return s + c;
+        }
+
+        @Override
+        public Object identity(Object value)
+        {
+            return value;
+        }
+
+        @Override
+        public int overloaded(int value)
+        {
+            return 1;
+        }
+
+        @Override
+        public int overloaded(Integer value)
+        {
+            return 2;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that batched calls are executed by the skeleton and that each
+    deferred result reports its own outcome.
+ */
+public class BatchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking batched calls";
+
+    private static final int    CALLS = 500;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7106);
+    private final AtomicInteger         touched = new AtomicInteger();
+    private Skeleton<BatchInterface>    skeleton;
+    private BatchInterface              stub;
+
+    /** Starts a skeleton for the batch interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<BatchInterface>(BatchInterface.class,
+                                                new BatchServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(BatchInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        for(Batch.Mode mode : Batch.Mode.values())
+        {
+            task("executing a " + mode.name().toLowerCase() + " batch");
+
+            try
+            {
+                Batch<BatchInterface>               batch = Batch.of(stub);
+                List<Batch.Deferred<Integer>>       squares = new ArrayList<>();
+
+                touched.set(0);
+
+                for(int i = 0; i < CALLS; ++i)
+                {
+                    final int   value = i;
+
+                    squares.add(batch.call(remote -> remote.square(value)));
+                }
+
+                Batch.Deferred<Void>    touch = batch.run(remote -> remote.touch());
+                Batch.Deferred<Integer> failure =
+                    batch.call(remote -> remote.fail("expected"));
+
+                batch.execute(mode);
+
+                for(int i = 0; i < CALLS; ++i)
+                {
+                    if(squares.get(i).get() != i * i)
+                        throw new TestFailed("wrong result for call " + i);
+                }
+
+                touch.get();
+
+                if(touched.get() != 1)
+                    throw new TestFailed("void call was not executed once");
+
+                try
+                {
+                    failure.get();
+                    throw new TestFailed("exception was not reported");
+                }
+                catch(IllegalStateException e)
+                {
+                    if(!"expected".equals(e.getMessage()))
+                        throw new TestFailed("wrong exception reported", e);
+                }
+            }
+            catch(TestFailed e) { throw e; }
+            catch(Throwable t)
+            {
+                throw new TestFailed("unable to execute batch", t);
+            }
+        }
+
+        task("recording a call with a streamed result");
+
+        try
+        {
+            Batch.of(stub).call(remote -> remote.stream());
+            throw new TestFailed("streamed call was recorded");
+        }
+        catch(IllegalArgumentException e) { }
+
+        task("reading a result before execution");
+
+        try
+        {
+            Batch.of(stub).call(remote -> remote.square(1)).get();
+            throw new TestFailed("result was available before execution");
+        }
+        catch(IllegalStateException e) { }
+        catch(TestFailed e) { throw e; }
+        catch(Exception e)
+        {
+            throw new TestFailed("unexpected exception", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    public interface BatchInterface
+    {
+        int square(int value) throws RMIException;
+
+        void touch() throws RMIException;
+
+        int fail(String message) throws RMIException;
+
+        Iterator<Integer> stream() throws RMIException;
+    }
+
+    private class BatchServer implements BatchInterface
+    {
+        @Override
+        public int square(int value)
+        {
+            return value * value;
+        }
+
+        @Override
+        public void touch()
+        {
+            touched.incrementAndGet();
+        }
+
+        @Override
+        public int fail(String message)
+        {
+            throw new IllegalStateException(message);
+        }
+
+        @Override
+        public Iterator<Integer> stream()
+        {
+            return null;
+        }
+    }
+}
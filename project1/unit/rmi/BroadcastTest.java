@@ -0,0 +1,292 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that a broadcast calls every skeleton, combines the results with
+    its aggregator, and reports failed and straggling skeletons.
+ */
+public class BroadcastTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking broadcast calls";
+
+    private static final int    SKELETONS = 6;
+    private static final int    SLOW = 2;
+    private static final long   DELAY = 400;
+    private static final int    BACKLOG = 4;
+
+    private final List<Skeleton<ShardInterface>>    skeletons = new ArrayList<>();
+    private final List<InetSocketAddress>           addresses = new ArrayList<>();
+    private final List<ShardServer>                 servers = new ArrayList<>();
+    private final InetSocketAddress                 absent =
+        new InetSocketAddress("127.0.0.1", 7199);
+    private final InetSocketAddress                 full =
+        new InetSocketAddress("127.0.0.1", 7139);
+    private final List<SocketChannel>               backlog = new ArrayList<>();
+    private ServerSocketChannel                     fullServer;
+
+    /** Starts the skeletons, and a server which never accepts, whose backlog
+        is filled so that connecting to it hangs. The last <code>SLOW</code>
+        skeletons answer late.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        try
+        {
+            fullServer = ServerSocketChannel.open().bind(full, 1);
+
+            for(int i = 0; i < BACKLOG; ++i)
+            {
+                SocketChannel   channel = SocketChannel.open();
+
+                backlog.add(channel);
+                channel.configureBlocking(false);
+                channel.connect(full);
+            }
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to start unresponsive server", e);
+        }
+
+        for(int i = 0; i < SKELETONS; ++i)
+        {
+            InetSocketAddress           address =
+                new InetSocketAddress("127.0.0.1", 7126 + i);
+            ShardServer                 server =
+                new ShardServer(i, i >= SKELETONS - SLOW);
+            Skeleton<ShardInterface>    skeleton = new Skeleton<ShardInterface>(
+                ShardInterface.class, server, address);
+
+            try
+            {
+                skeleton.start();
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("unable to start skeleton", e);
+            }
+
+            skeletons.add(skeleton);
+            addresses.add(address);
+            servers.add(server);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("listing the results of every skeleton");
+
+            Broadcast<ShardInterface>   fast = Broadcast.create(
+                ShardInterface.class,
+                addresses.subList(0, SKELETONS - SLOW));
+            Broadcast<ShardInterface>   all =
+                Broadcast.create(ShardInterface.class, addresses);
+            Broadcast.Result<List<Integer>> listed =
+                fast.call(s -> s.size()).get();
+            List<Integer>                   sizes = new ArrayList<>(listed.getValue());
+
+            Collections.sort(sizes);
+
+            if(!listed.isComplete() || !sizes.equals(List.of(0, 10, 20, 30)))
+                throw new TestFailed("wrong results: " + listed);
+
+            task("reducing the results");
+
+            if(fast.call(s -> s.size(), Broadcast.reducing(0, Integer::sum))
+                   .get().getValue() != 60)
+            {
+                throw new TestFailed("wrong sum");
+            }
+
+            task("reporting remote exceptions");
+
+            Broadcast.Result<List<Integer>> failed =
+                fast.call(s -> s.divide(3)).get();
+
+            if(failed.getValue().size() != SKELETONS - SLOW - 1
+               || !(failed.getFailures().get(addresses.get(0))
+                    instanceof ArithmeticException))
+            {
+                throw new TestFailed("remote exception not reported: " + failed);
+            }
+
+            task("completing with the first results");
+
+            Broadcast.Result<List<Integer>> first =
+                all.call(s -> s.size(), Broadcast.firstN(3)).get();
+
+            if(first.getValue().size() != 3
+               || first.getStragglers().size() != SKELETONS - 3)
+            {
+                throw new TestFailed("wrong first results: " + first);
+            }
+
+            task("reporting failures and stragglers");
+
+            List<InetSocketAddress>     targets = new ArrayList<>(addresses);
+
+            targets.add(absent);
+
+            Broadcast<ShardInterface>   timed =
+                Broadcast.create(ShardInterface.class, targets);
+
+            timed.setTimeout(DELAY / 2, TimeUnit.MILLISECONDS);
+
+            Broadcast.Result<List<Integer>> partial =
+                timed.call(s -> s.size()).get();
+
+            if(partial.getValue().size() != SKELETONS - SLOW
+               || partial.getStragglers().size() != SLOW
+               || !partial.getFailures().containsKey(absent))
+            {
+                throw new TestFailed("wrong partial results: " + partial);
+            }
+
+            if(!(partial.getFailures().get(absent) instanceof RMIException))
+                throw new TestFailed("unreachable skeleton not reported");
+
+            task("not repeating calls whose reused connection closes");
+
+            fast.call(s -> s.size()).get();
+
+            Broadcast.Result<List<Object>>  unsent =
+                fast.call(s -> s.bump()).get();
+
+            if(unsent.getFailures().size() != SKELETONS - SLOW)
+                throw new TestFailed("unsent results not reported: " + unsent);
+
+            for(int i = 0; i < SKELETONS - SLOW; ++i)
+            {
+                if(servers.get(i).bumps.get() != 1)
+                {
+                    throw new TestFailed("call was executed " +
+                                         servers.get(i).bumps.get() +
+                                         " times on skeleton " + i);
+                }
+            }
+
+            task("timing out skeletons which cannot be connected to");
+
+            Broadcast<ShardInterface>   hung = Broadcast.create(
+                ShardInterface.class, Collections.singletonList(full));
+
+            hung.setTimeout(DELAY / 2, TimeUnit.MILLISECONDS);
+
+            Broadcast.Result<List<Integer>> none =
+                hung.call(s -> s.size()).get(2 * DELAY, TimeUnit.MILLISECONDS);
+
+            if(!none.getStragglers().contains(full))
+                throw new TestFailed("unresponsive server not reported: " + none);
+        }
+        catch(ExecutionException e)
+        {
+            throw new TestFailed("broadcast failed", e);
+        }
+        catch(TimeoutException e)
+        {
+            throw new TestFailed("broadcast outlived its timeout", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeletons and the unresponsive server. */
+    @Override
+    protected void clean()
+    {
+        for(Skeleton<ShardInterface> skeleton : skeletons)
+            skeleton.stop();
+
+        try
+        {
+            for(SocketChannel channel : backlog)
+                channel.close();
+
+            if(fullServer != null)
+                fullServer.close();
+        }
+        catch(IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    public interface ShardInterface
+    {
+        int size() throws RMIException;
+
+        int divide(int value) throws RMIException;
+
+        Object bump() throws RMIException;
+    }
+
+    private static class ShardServer implements ShardInterface
+    {
+        private final int           index;
+        private final boolean       slow;
+        private final AtomicInteger bumps = new AtomicInteger();
+
+        ShardServer(int index, boolean slow)
+        {
+            this.index = index;
+            this.slow = slow;
+        }
+
+        @Override
+        public int size()
+        {
+            if(slow)
+            {
+                try
+                {
+                    Thread.sleep(DELAY);
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return 10 * index;
+        }
+
+        @Override
+        public int divide(int value)
+        {
+            return value / index;
+        }
+
+        /** Counts the call, and returns a result which cannot be sent. */
+        @Override
+        public Object bump()
+        {
+            bumps.incrementAndGet();
+            return new Object();
+        }
+    }
+}
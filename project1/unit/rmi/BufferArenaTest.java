@@ -0,0 +1,89 @@
+package rmi;
+
+import test.*;
+
+/** Checks pooling, growth and leak tracking in <code>BufferArena</code>. */
+public class BufferArenaTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking pooled buffer arena";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        BufferArena     arena = new BufferArena(null);
+
+        task("checking that released buffers are reused");
+
+        PooledBuffer    first = arena.acquire(100);
+        first.release();
+
+        PooledBuffer    second = arena.acquire(1000);
+
+        if(second.raw() != first.raw())
+            throw new TestFailed("released buffer was not reused");
+
+        if(!second.buffer().isDirect())
+            throw new TestFailed("pooled buffer is not direct");
+
+        if(arena.hitPercent() != 50)
+            throw new TestFailed("hit rate is " + arena.hitPercent() +
+                                 "% after one hit and one miss");
+
+        task("checking that buffers are released only once");
+
+        second.release();
+
+        try
+        {
+            second.release();
+            throw new TestFailed("second release was accepted");
+        }
+        catch(IllegalStateException e) { }
+
+        task("checking that output streams grow across size classes");
+
+        BufferOutputStream  stream = new BufferOutputStream(arena, 5);
+        byte[]              data = new byte[50000];
+
+        for(int i = 0; i < data.length; ++i)
+            data[i] = (byte)i;
+
+        stream.write(data, 0, data.length);
+
+        if(stream.size() != data.length)
+            throw new TestFailed("stream holds " + stream.size() + " bytes");
+
+        for(int i = 0; i < data.length; ++i)
+        {
+            if(stream.buffer().get(5 + i) != data[i])
+                throw new TestFailed("byte " + i + " corrupted while growing");
+        }
+
+        if(arena.outstanding() != 1)
+            throw new TestFailed("growing stream left " + arena.outstanding() +
+                                 " buffers outstanding");
+
+        stream.release();
+
+        task("checking that outstanding buffers are tracked");
+
+        arena.setLeakDetection(true);
+
+        PooledBuffer    leaked = arena.acquire(10);
+
+        if(arena.outstandingTraces().size() != 1)
+            throw new TestFailed("outstanding buffer was not tracked");
+
+        leaked.release();
+
+        if(!arena.outstandingTraces().isEmpty() || arena.outstanding() != 0)
+            throw new TestFailed("released buffer is still tracked");
+
+        task();
+    }
+}
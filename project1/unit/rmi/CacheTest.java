@@ -0,0 +1,163 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that the skeleton caches results of cacheable methods, and that
+    entries are invalidated, expired and evicted.
+ */
+public class CacheTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the skeleton result cache";
+
+    private final InetSocketAddress     address = new InetSocketAddress(7103);
+    private final AtomicInteger         calls = new AtomicInteger();
+    private Skeleton<LookupInterface>   skeleton;
+    private LookupInterface             stub;
+
+    /** Starts a skeleton for the lookup interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<LookupInterface>(LookupInterface.class,
+                                                 new LookupServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(LookupInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("repeating a cacheable call");
+
+            long    hits = count("hits");
+
+            expect(stub.lookup("a"), "a1", 1);
+            expect(stub.lookup("a"), "a1", 1);
+
+            if(count("hits") != hits + 1)
+                throw new TestFailed("cache hit was not counted");
+
+            task("calling with different arguments");
+
+            expect(stub.lookup("b"), "b2", 2);
+
+            task("calling after invalidation");
+
+            skeleton.invalidate("lookup", "a");
+            expect(stub.lookup("a"), "a3", 3);
+            expect(stub.lookup("b"), "b2", 3);
+
+            task("calling after expiry");
+
+            expect(stub.brief("a"), "a4", 4);
+            Thread.sleep(100);
+            expect(stub.brief("a"), "a5", 5);
+
+            task("calling after eviction");
+
+            long    evictions = count("evictions");
+
+            skeleton.setCacheLimits(1, Long.MAX_VALUE);
+
+            if(count("evictions") == evictions)
+                throw new TestFailed("eviction was not counted");
+
+            expect(stub.lookup("c"), "c6", 6);
+            expect(stub.lookup("a"), "a7", 7);
+            expect(stub.lookup("c"), "c8", 8);
+
+            task("stopping the skeleton");
+
+            String  prefix = skeleton.getMetricPrefix();
+
+            skeleton.stop();
+
+            if(Metrics.get(prefix + ".cache.hits") != null)
+                throw new TestFailed("cache metrics outlived the skeleton");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to call skeleton", t);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private void expect(String result, String expected, int invocations)
+        throws TestFailed
+    {
+        if(!expected.equals(result))
+        {
+            throw new TestFailed("expected " + expected + " but got " +
+                                 result);
+        }
+
+        if(calls.get() != invocations)
+        {
+            throw new TestFailed("server was invoked " + calls.get() +
+                                 " times instead of " + invocations);
+        }
+    }
+
+    /** Returns a counter of the skeleton's result cache. */
+    private long count(String counter)
+    {
+        Long    value = Metrics.get(skeleton.getMetricPrefix() + ".cache." +
+                                    counter);
+
+        return value == null ? 0 : value;
+    }
+
+    public interface LookupInterface
+    {
+        @Cacheable
+        String lookup(String key) throws RMIException;
+
+        @Cacheable(ttl = 50, unit = TimeUnit.MILLISECONDS)
+        String brief(String key) throws RMIException;
+    }
+
+    private class LookupServer implements LookupInterface
+    {
+        @Override
+        public String lookup(String key)
+        {
+            return key + calls.incrementAndGet();
+        }
+
+        @Override
+        public String brief(String key)
+        {
+            return key + calls.incrementAndGet();
+        }
+    }
+}
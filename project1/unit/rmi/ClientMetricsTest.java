@@ -0,0 +1,193 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+/** Checks the metrics recorded by stubs for each method and skeleton. */
+public class ClientMetricsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking client-side call metrics";
+
+    private final InetSocketAddress     address = new InetSocketAddress(7115);
+    private final InetSocketAddress     absent = new InetSocketAddress(7199);
+    private final CountDownLatch        release = new CountDownLatch(1);
+    private Skeleton<MeteredInterface>  skeleton;
+    private MeteredInterface            stub;
+
+    /** Starts a skeleton for the metered interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<MeteredInterface>(MeteredInterface.class,
+                                                  new MeteredServer(release),
+                                                  address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(MeteredInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        String  echo = "rmi.stub.MeteredInterface.echo.0_0_0_0:7115";
+        String  fail = "rmi.stub.MeteredInterface.fail.0_0_0_0:7115";
+        String  block = "rmi.stub.MeteredInterface.block.0_0_0_0:7115";
+        String  unreachable = "rmi.stub.MeteredInterface.echo.0_0_0_0:7199";
+
+        task("making successful calls");
+
+        try
+        {
+            for(int i = 0; i < 10; ++i)
+                stub.echo("message " + i);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        expect(echo + ".latency.us.count", 10);
+        expect(echo + ".connect.us.count", 1);
+        expect(echo + ".inflight", 0);
+
+        if(Metrics.get(echo + ".bytes.sent") <= 0
+           || Metrics.get(echo + ".bytes.received") <= 0)
+        {
+            throw new TestFailed("traffic was not counted");
+        }
+
+        task("making failing calls");
+
+        try
+        {
+            stub.fail();
+            throw new TestFailed("remote exception was not thrown");
+        }
+        catch(IllegalStateException e) { }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected exception", e);
+        }
+
+        expect(fail + ".errors." + IllegalStateException.class.getName(), 1);
+
+        try
+        {
+            Stub.create(MeteredInterface.class, absent).echo("lost");
+            throw new TestFailed("call to absent skeleton succeeded");
+        }
+        catch(RMIException e) { }
+
+        expect(unreachable + ".errors." + java.net.ConnectException.class.getName(), 1);
+
+        task("counting calls in flight");
+
+        Thread  caller = new Thread(() -> {
+            try
+            {
+                stub.block();
+            }
+            catch(RMIException e) { }
+        });
+
+        caller.start();
+
+        try
+        {
+            long    deadline = System.currentTimeMillis() + 5000;
+
+            while(!Long.valueOf(1).equals(Metrics.get(block + ".inflight")))
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("call in flight was not counted");
+
+                Thread.sleep(10);
+            }
+
+            release.countDown();
+            caller.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        expect(block + ".inflight", 0);
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        release.countDown();
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private static void expect(String name, long value) throws TestFailed
+    {
+        Long    actual = Metrics.get(name);
+
+        if(actual == null || actual != value)
+            throw new TestFailed(name + " is " + actual + ", expected " + value);
+    }
+
+    public interface MeteredInterface
+    {
+        String echo(String message) throws RMIException;
+
+        void fail() throws RMIException;
+
+        void block() throws RMIException;
+    }
+
+    private static class MeteredServer implements MeteredInterface
+    {
+        private final CountDownLatch    release;
+
+        MeteredServer(CountDownLatch release)
+        {
+            this.release = release;
+        }
+
+        @Override
+        public String echo(String message)
+        {
+            return message;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public void block()
+        {
+            try
+            {
+                release.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
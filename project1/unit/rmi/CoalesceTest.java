@@ -0,0 +1,167 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that concurrent calls to a coalesced method with equal arguments
+    share one invocation.
+ */
+public class CoalesceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking call coalescing";
+
+    private static final int    THREADS = 10;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7105);
+    private final AtomicInteger         calls = new AtomicInteger();
+    private Skeleton<SlowInterface>     skeleton;
+    private SlowInterface               stub;
+
+    /** Starts a skeleton for the slow interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<SlowInterface>(SlowInterface.class,
+                                               new SlowServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(SlowInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making concurrent calls with equal arguments");
+
+        long        followers = count("followers");
+        Thread[]    threads = new Thread[THREADS];
+        String[]    results = new String[THREADS];
+
+        for(int i = 0; i < THREADS; ++i)
+        {
+            final int   index = i;
+
+            threads[i] = new Thread(() -> {
+                try
+                {
+                    results[index] = stub.compute("key");
+                }
+                catch(Throwable t)
+                {
+                    results[index] = t.toString();
+                }
+            });
+            threads[i].start();
+        }
+
+        try
+        {
+            for(Thread thread : threads)
+                thread.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for calls", e);
+        }
+
+        for(String result : results)
+        {
+            if(!result.startsWith("key"))
+                throw new TestFailed("call failed: " + result);
+        }
+
+        if(calls.get() >= THREADS)
+            throw new TestFailed("every call invoked the server");
+
+        if(count("followers") - followers != THREADS - calls.get())
+            throw new TestFailed("coalesced calls were not counted");
+
+        task("checking that exceptions are shared");
+
+        try
+        {
+            stub.fail();
+            throw new TestFailed("exception was not rethrown");
+        }
+        catch(IllegalStateException e) { }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected RMI exception", e);
+        }
+
+        task("stopping the skeleton");
+
+        String      prefix = skeleton.getMetricPrefix();
+
+        skeleton.stop();
+
+        if(Metrics.get(prefix + ".coalesce.followers") != null)
+            throw new TestFailed("coalescing metrics outlived the skeleton");
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Returns a counter of the skeleton's coalesced calls. */
+    private long count(String counter)
+    {
+        Long    value = Metrics.get(skeleton.getMetricPrefix() + ".coalesce." +
+                                    counter);
+
+        return value == null ? 0 : value;
+    }
+
+    public interface SlowInterface
+    {
+        @Coalesced
+        String compute(String key) throws RMIException;
+
+        @Coalesced
+        void fail() throws RMIException;
+    }
+
+    private class SlowServer implements SlowInterface
+    {
+        @Override
+        public String compute(String key)
+        {
+            int     call = calls.incrementAndGet();
+
+            try
+            {
+                Thread.sleep(500);
+            }
+            catch(InterruptedException e) { }
+
+            return key + call;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/** Checks that large frames are compressed with the negotiated codec, and
+    that small frames are not.
+ */
+public class CompressionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking negotiated compression";
+
+    private final InetSocketAddress     address = new InetSocketAddress(7101);
+    private Skeleton<EchoInterface>     skeleton;
+    private EchoInterface               stub;
+
+    /** Starts an echo skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               text -> text, address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(EchoInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        String  name = "rmi.codec." + DeflateCodec.NAME + ".raw.bytes";
+
+        task("checking that the deflate round trip is lossless");
+
+        try
+        {
+            byte[]  data = new byte[10000];
+
+            for(int i = 0; i < data.length; ++i)
+                data[i] = (byte)(i % 17);
+
+            Codec   codec = Codecs.get(DeflateCodec.NAME);
+            byte[]  packed = codec.compress(data, 0, data.length);
+
+            if(!Arrays.equals(data, codec.decompress(packed, 0, packed.length,
+                                                     data.length)))
+            {
+                throw new TestFailed("deflate round trip corrupted data");
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("deflate round trip failed", t);
+        }
+
+        task("echoing a payload below the threshold");
+
+        try
+        {
+            long    before = count(name);
+
+            if(!"small".equals(stub.echo("small")))
+                throw new TestFailed("small payload corrupted");
+
+            if(count(name) != before)
+                throw new TestFailed("payload below threshold was compressed");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to echo small payload", e);
+        }
+
+        task("echoing a payload above the threshold");
+
+        try
+        {
+            char[]  chars = new char[Codecs.getThreshold() * 8];
+
+            Arrays.fill(chars, 'x');
+
+            String  text = new String(chars);
+            long    before = count(name);
+
+            if(!text.equals(stub.echo(text)))
+                throw new TestFailed("large payload corrupted");
+
+            if(count(name) == before)
+                throw new TestFailed("large response was not compressed");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to echo large payload", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private static long count(String name)
+    {
+        Long    value = Metrics.get(name);
+
+        return value == null ? 0 : value;
+    }
+
+    public interface EchoInterface
+    {
+        String echo(String text) throws RMIException;
+    }
+}
@@ -0,0 +1,219 @@
+package rmi;
+
+import test.*;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/** Checks that a server calls back objects passed through a duplex stub over
+    the connection the stub opened, both during and outside calls from the
+    client, and that the objects are released once the server drops them.
+ */
+public class DuplexTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking callbacks over duplex connections";
+
+    private final InetSocketAddress     address =
+        new InetSocketAddress("127.0.0.1", 7124);
+    private Skeleton<FeedInterface>     skeleton;
+    private FeedInterface               feed;
+
+    /** Starts a skeleton for the feed. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<FeedInterface>(FeedInterface.class,
+                                               new FeedServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        feed = Stub.createDuplex(FeedInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        int             exported = RemoteExports.size();
+        Subscriber      subscriber = new Subscriber(feed);
+
+        try
+        {
+            task("subscribing a callback");
+
+            feed.subscribe(subscriber);
+
+            task("calling back during a call");
+
+            if(feed.publish("first") != 1)
+                throw new TestFailed("callback not reached");
+
+            if(!subscriber.received.contains("first:1"))
+                throw new TestFailed("wrong callback: " + subscriber.received);
+
+            task("calling back outside any call");
+
+            feed.publishLater("second");
+
+            if(!subscriber.pushed.await(1, TimeUnit.SECONDS))
+                throw new TestFailed("pushed callback not reached");
+
+            task("checking that one connection was used");
+
+            if(skeleton.getStatistics().getOpenConnections() != 1)
+            {
+                throw new TestFailed(skeleton.getStatistics()
+                                         .getOpenConnections() +
+                                     " connections open");
+            }
+
+            if(RemoteExports.size() != exported)
+                throw new TestFailed("callback exported on a listening port");
+
+            task("releasing dropped callbacks");
+
+            feed.unsubscribeAll();
+
+            Duplex      duplex = Duplex.connect(address);
+            long        deadline = System.currentTimeMillis() + 2000;
+
+            while(duplex.exported() > 0)
+            {
+                if(System.currentTimeMillis() > deadline)
+                {
+                    throw new TestFailed(duplex.exported() +
+                                         " callbacks still exported");
+                }
+
+                System.gc();
+                Thread.sleep(20);
+            }
+        }
+        catch(RMIException | java.io.IOException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    public interface ListenerInterface
+    {
+        void receive(String message) throws RMIException;
+    }
+
+    public interface FeedInterface
+    {
+        void subscribe(ListenerInterface listener) throws RMIException;
+
+        void unsubscribeAll() throws RMIException;
+
+        int subscribers() throws RMIException;
+
+        int publish(String message) throws RMIException;
+
+        void publishLater(String message) throws RMIException;
+    }
+
+    /** Listener which calls the feed back from its callback. */
+    private static class Subscriber implements ListenerInterface
+    {
+        private final FeedInterface         feed;
+        private final List<String>          received =
+            new CopyOnWriteArrayList<String>();
+        private final CountDownLatch        pushed = new CountDownLatch(1);
+
+        Subscriber(FeedInterface feed)
+        {
+            this.feed = feed;
+        }
+
+        @Override
+        public void receive(String message) throws RMIException
+        {
+            received.add(message + ":" + feed.subscribers());
+
+            if(message.equals("second"))
+                pushed.countDown();
+        }
+    }
+
+    private static class FeedServer implements FeedInterface
+    {
+        private final List<ListenerInterface>   listeners =
+            new CopyOnWriteArrayList<ListenerInterface>();
+
+        @Override
+        public void subscribe(ListenerInterface listener) throws RMIException
+        {
+            if(!Proxy.isProxyClass(listener.getClass()))
+                throw new RMIException("listener was passed by value");
+
+            listeners.add(listener);
+        }
+
+        @Override
+        public void unsubscribeAll()
+        {
+            listeners.clear();
+        }
+
+        @Override
+        public int subscribers()
+        {
+            return listeners.size();
+        }
+
+        @Override
+        public int publish(String message) throws RMIException
+        {
+            for(ListenerInterface listener : listeners)
+                listener.receive(message);
+
+            return listeners.size();
+        }
+
+        @Override
+        public void publishLater(String message)
+        {
+            new Thread(() -> {
+                try
+                {
+                    Thread.sleep(20);
+                    publish(message);
+                }
+                catch(InterruptedException | RMIException e)
+                {
+                    e.printStackTrace();
+                }
+            }).start();
+        }
+    }
+}
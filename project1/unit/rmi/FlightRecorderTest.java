@@ -0,0 +1,191 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/** Checks that calls and connections are visible in flight recordings. */
+public class FlightRecorderTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking flight recorder events";
+
+    private static final String[]   EVENTS =
+        {"rmi.StubCall", "rmi.Accept", "rmi.QueueWait", "rmi.Invocation",
+         "rmi.Serialization", "rmi.ConnectionOpen", "rmi.ConnectionClose"};
+
+    private final InetSocketAddress     address = new InetSocketAddress(7112);
+    private Skeleton<EchoInterface>     skeleton;
+    private EchoInterface               stub;
+    private Path                        file;
+
+    /** Starts a skeleton for the echo interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               new EchoServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(EchoInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("recording calls");
+
+        try(Recording recording = new Recording())
+        {
+            for(String event : EVENTS)
+                recording.enable(event);
+
+            recording.start();
+
+            for(int i = 0; i < 5; ++i)
+                stub.echo("message " + i);
+
+            try
+            {
+                stub.fail();
+            }
+            catch(IllegalStateException e) { }
+
+            Connection  idle = ConnectionPool.acquire(address);
+
+            if(idle != null)
+                ConnectionPool.close(idle);
+
+            recording.stop();
+
+            file = Files.createTempFile("rmi", ".jfr");
+            recording.dump(file);
+        }
+        catch(IOException | RMIException e)
+        {
+            throw new TestFailed("unable to record calls", e);
+        }
+
+        task("checking recorded events");
+
+        Set<String>     seen = new HashSet<>();
+
+        try
+        {
+            for(RecordedEvent event : RecordingFile.readAllEvents(file))
+                seen.add(event.getEventType().getName());
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to read recording", e);
+        }
+
+        for(String event : EVENTS)
+        {
+            if(!seen.contains(event))
+                throw new TestFailed("no " + event + " event was recorded");
+        }
+
+        task("analyzing the recording");
+
+        List<RecordingAnalyzer.MethodSummary>   hottest;
+
+        try
+        {
+            hottest = RecordingAnalyzer.analyze(file);
+        }
+        catch(IOException e)
+        {
+            throw new TestFailed("unable to analyze recording", e);
+        }
+
+        String  echo = EchoInterface.class.getName() + ".echo";
+        String  fail = EchoInterface.class.getName() + ".fail";
+        int     found = 0;
+
+        for(RecordingAnalyzer.MethodSummary summary : hottest)
+        {
+            if(summary.getMethod().equals(echo))
+            {
+                if(summary.getCalls() != 5 || summary.getFailures() != 0
+                   || summary.getBytes() == 0)
+                {
+                    throw new TestFailed("unexpected summary: " + summary);
+                }
+
+                ++found;
+            }
+            else if(summary.getMethod().equals(fail))
+            {
+                if(summary.getCalls() != 1 || summary.getFailures() != 1)
+                    throw new TestFailed("unexpected summary: " + summary);
+
+                ++found;
+            }
+        }
+
+        if(found != 4)
+            throw new TestFailed("methods are missing from " + hottest);
+
+        task();
+    }
+
+    /** Stops the skeleton and deletes the recording. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+
+        try
+        {
+            if(file != null)
+                Files.deleteIfExists(file);
+        }
+        catch(IOException e) { }
+    }
+
+    public interface EchoInterface
+    {
+        String echo(String message) throws RMIException;
+
+        void fail() throws RMIException;
+    }
+
+    private static class EchoServer implements EchoInterface
+    {
+        @Override
+        public String echo(String message)
+        {
+            return message;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/** Checks that a skeleton reports its statistics and can be tuned through its
+    management interface.
+ */
+public class ManagementTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the management interface";
+
+    private static final long   RESIZE_DELAY = 200;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7108);
+    private final InetSocketAddress     absent = new InetSocketAddress(7199);
+    private final EchoServer            server = new EchoServer();
+    private Skeleton<EchoInterface>     skeleton;
+    private EchoInterface               stub;
+    private Management                  management;
+
+    /** Starts a skeleton for the echo interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<EchoInterface>(EchoInterface.class,
+                                               server, address);
+        server.skeleton = skeleton;
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(EchoInterface.class, address);
+        management = Stub.management(address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("checking that the management interface is disabled by default");
+
+        try
+        {
+            management.getStatistics();
+            throw new TestFailed("disabled management interface answered");
+        }
+        catch(RMIException e) { }
+
+        skeleton.setManagementEnabled(true);
+
+        task("making calls");
+
+        try
+        {
+            for(int i = 0; i < 10; ++i)
+                stub.echo("call " + i);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        try
+        {
+            stub.fail();
+            throw new TestFailed("exception was not rethrown");
+        }
+        catch(IllegalStateException e) { }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected RMI exception", e);
+        }
+
+        task("reading statistics");
+
+        Statistics  statistics = statistics();
+
+        Statistics.MethodStatistics echo = statistics.getMethods().get("echo");
+        Statistics.MethodStatistics fail = statistics.getMethods().get("fail");
+
+        if(echo == null || echo.getCalls() != 10 || echo.getErrors() != 0)
+            throw new TestFailed("calls of echo were not counted: " + echo);
+
+        if(fail == null || fail.getCalls() != 1 || fail.getErrors() != 1)
+            throw new TestFailed("failed call was not counted: " + fail);
+
+        if(echo.getLatency().getCount() != 10
+           || echo.getLatency().percentile(0.99) > echo.getLatency().getMax())
+        {
+            throw new TestFailed("inconsistent latencies: " + echo.getLatency());
+        }
+
+        if(statistics.getMethods().containsKey("getStatistics"))
+            throw new TestFailed("management calls were counted");
+
+        if(statistics.getOpenConnections() < 1)
+            throw new TestFailed("open connections were not counted");
+
+        if(statistics.getBytesIn() == 0 || statistics.getBytesOut() == 0)
+            throw new TestFailed("traffic was not counted");
+
+        if(statistics.getPoolSize() != 20)
+            throw new TestFailed("unexpected pool size " + statistics.getPoolSize());
+
+        task("changing the pool size and queue limit");
+
+        try
+        {
+            management.setPoolSize(4);
+            management.setQueueLimit(100);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to tune skeleton", e);
+        }
+
+        statistics = statistics();
+
+        if(statistics.getPoolSize() != 4 || statistics.getQueueLimit() != 100)
+            throw new TestFailed("tunables were not changed: " + statistics);
+
+        try
+        {
+            management.setPoolSize(0);
+            throw new TestFailed("invalid pool size was accepted");
+        }
+        catch(IllegalArgumentException e) { }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected RMI exception", e);
+        }
+
+        task("merging statistics of several skeletons");
+
+        StatsAggregator aggregator =
+            new StatsAggregator(Arrays.asList(address, address, absent));
+        Statistics      merged = aggregator.poll();
+
+        if(merged == null)
+            throw new TestFailed("no skeleton was reached");
+
+        if(!aggregator.getUnreachable().equals(Arrays.asList(absent)))
+        {
+            throw new TestFailed("unexpected unreachable skeletons: "
+                                 + aggregator.getUnreachable());
+        }
+
+        echo = merged.getMethods().get("echo");
+
+        if(echo.getCalls() != 20 || echo.getLatency().getCount() != 20)
+            throw new TestFailed("statistics were not merged: " + echo);
+
+        task("stopping while a call changes the pool size");
+
+        Thread  caller = new Thread(() -> {
+            try
+            {
+                stub.resize(2);
+            }
+            catch(RMIException e)
+            {
+                // the skeleton may close the connection first
+            }
+        });
+
+        try
+        {
+            caller.start();
+            Thread.sleep(RESIZE_DELAY / 4);
+
+            Thread  stopping = new Thread(skeleton::stop);
+
+            stopping.start();
+            stopping.join(1000);
+
+            if(stopping.isAlive())
+                throw new TestFailed("stop deadlocked with setPoolSize");
+
+            caller.join(1000);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private Statistics statistics() throws TestFailed
+    {
+        try
+        {
+            return management.getStatistics();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to read statistics", e);
+        }
+    }
+
+    public interface EchoInterface
+    {
+        String echo(String message) throws RMIException;
+
+        void fail() throws RMIException;
+
+        void resize(int threads) throws RMIException;
+    }
+
+    private static class EchoServer implements EchoInterface
+    {
+        private volatile Skeleton<EchoInterface>    skeleton;
+
+        @Override
+        public String echo(String message)
+        {
+            return message;
+        }
+
+        @Override
+        public void fail()
+        {
+            throw new IllegalStateException();
+        }
+
+        /** Waits, so that the skeleton can be stopped meanwhile, and then
+            changes its pool size as a management call would.
+         */
+        @Override
+        public void resize(int threads)
+        {
+            try
+            {
+                Thread.sleep(RESIZE_DELAY);
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+
+            skeleton.setPoolSize(threads);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that the skeleton merges concurrent calls of a batched method into
+    calls of its batch variant.
+ */
+public class MicroBatchTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking skeleton micro-batching";
+
+    private static final int    THREADS = 10;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7107);
+    private final AtomicInteger         batches = new AtomicInteger();
+    private Skeleton<SquareInterface>   skeleton;
+    private SquareInterface             stub;
+
+    /** Starts a skeleton for the square interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<SquareInterface>(SquareInterface.class,
+                                                 new SquareServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(SquareInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making concurrent calls within one window");
+
+        String  batchSizes = skeleton.getMetricPrefix() +
+                             ".batching.square.size.count";
+        long    recorded = count(batchSizes);
+
+        callConcurrently();
+
+        if(batches.get() >= THREADS)
+            throw new TestFailed("calls were not merged");
+
+        if(count(batchSizes) - recorded != batches.get())
+            throw new TestFailed("batch sizes were not recorded");
+
+        task("making concurrent calls with a batch size of one");
+
+        skeleton.setBatching("square", 200, TimeUnit.MILLISECONDS, 1);
+        batches.set(0);
+        callConcurrently();
+
+        if(batches.get() != THREADS)
+            throw new TestFailed("batches exceeded the maximum size");
+
+        task("checking that batch variant exceptions reach every caller");
+
+        try
+        {
+            stub.square(-1);
+            throw new TestFailed("exception was not rethrown");
+        }
+        catch(IllegalArgumentException e) { }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unexpected RMI exception", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private void callConcurrently() throws TestFailed
+    {
+        Thread[]    threads = new Thread[THREADS];
+        Object[]    results = new Object[THREADS];
+
+        for(int i = 0; i < THREADS; ++i)
+        {
+            final int   index = i;
+
+            threads[i] = new Thread(() -> {
+                try
+                {
+                    results[index] = stub.square(index);
+                }
+                catch(Throwable t)
+                {
+                    results[index] = t;
+                }
+            });
+            threads[i].start();
+        }
+
+        try
+        {
+            for(Thread thread : threads)
+                thread.join();
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted while waiting for calls", e);
+        }
+
+        for(int i = 0; i < THREADS; ++i)
+        {
+            if(!Integer.valueOf(i * i).equals(results[i]))
+                throw new TestFailed("call " + i + " returned " + results[i]);
+        }
+    }
+
+    private static long count(String name)
+    {
+        Long    value = Metrics.get(name);
+
+        return value == null ? 0 : value;
+    }
+
+    public interface SquareInterface
+    {
+        @Batched(value = "squareAll", window = 200)
+        int square(int value) throws RMIException;
+    }
+
+    public class SquareServer implements SquareInterface
+    {
+        @Override
+        public int square(int value)
+        {
+            return value * value;
+        }
+
+        public List<Integer> squareAll(List<Object[]> calls)
+        {
+            List<Integer>   results = new ArrayList<>();
+
+            batches.incrementAndGet();
+
+            for(Object[] call : calls)
+            {
+                int     value = (Integer)call[0];
+
+                if(value < 0)
+                    throw new IllegalArgumentException("negative value");
+
+                results.add(value * value);
+            }
+
+            return results;
+        }
+    }
+}
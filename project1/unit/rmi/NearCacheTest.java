@@ -0,0 +1,160 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that stubs cache results of cacheable methods, and drop them when
+    the skeleton invalidates results.
+ */
+public class NearCacheTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the stub near cache";
+
+    private final InetSocketAddress     address = new InetSocketAddress(7104);
+    private final AtomicInteger         calls = new AtomicInteger();
+    private Skeleton<LookupInterface>   skeleton;
+    private LookupInterface             stub;
+
+    /** Starts a skeleton for the lookup interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<LookupInterface>(LookupInterface.class,
+                                                 new LookupServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(LookupInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            task("repeating a call cached by the stub");
+
+            stub.touch();
+            stub.lookup("a");
+
+            long    hits = count("rmi.nearcache.hits");
+
+            if(!"a1".equals(stub.lookup("a")))
+                throw new TestFailed("wrong cached result");
+
+            if(count("rmi.nearcache.hits") != hits + 1)
+                throw new TestFailed("call was not served by the stub");
+
+            task("calling after the skeleton invalidated results");
+
+            skeleton.invalidate("lookup");
+            stub.touch();
+
+            if(!"a2".equals(stub.lookup("a")))
+                throw new TestFailed("stub served an invalidated result");
+
+            task("modifying a cached mutable result");
+
+            stub.list();
+            stub.list().add("changed");
+
+            if(stub.list().size() != 1)
+                throw new TestFailed("cached result was modified by a caller");
+
+            task("calling after the staleness bound");
+
+            stub.brief();
+            stub.brief();
+
+            long    misses = count("rmi.nearcache.misses");
+
+            Thread.sleep(100);
+            stub.brief();
+
+            if(count("rmi.nearcache.misses") != misses + 1)
+                throw new TestFailed("stub served a result beyond its bound");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to call skeleton", t);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private static long count(String name)
+    {
+        Long    value = Metrics.get(name);
+
+        return value == null ? 0 : value;
+    }
+
+    public interface LookupInterface
+    {
+        @Cacheable(maxStaleness = 60)
+        String lookup(String key) throws RMIException;
+
+        @Cacheable(maxStaleness = 60)
+        ArrayList<String> list() throws RMIException;
+
+        @Cacheable(maxStaleness = 50, unit = TimeUnit.MILLISECONDS)
+        int brief() throws RMIException;
+
+        void touch() throws RMIException;
+    }
+
+    private class LookupServer implements LookupInterface
+    {
+        @Override
+        public String lookup(String key)
+        {
+            return key + calls.incrementAndGet();
+        }
+
+        @Override
+        public ArrayList<String> list()
+        {
+            ArrayList<String>   list = new ArrayList<>();
+
+            list.add("original");
+
+            return list;
+        }
+
+        @Override
+        public int brief()
+        {
+            return calls.get();
+        }
+
+        @Override
+        public void touch()
+        {
+        }
+    }
+}
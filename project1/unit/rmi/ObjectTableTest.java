@@ -0,0 +1,203 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+
+/** Checks that many objects exported on one skeleton are each reached
+    through their own id, and that calls to unexported ids fail.
+ */
+public class ObjectTableTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking objects exported by id";
+
+    private static final int    OBJECTS = 200;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7121);
+    private final int[]                 ids = new int[OBJECTS];
+    private Skeleton<NamedInterface>    skeleton;
+    private int                         counterId;
+
+    /** Starts a skeleton and exports objects of two interfaces on it. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<NamedInterface>(NamedInterface.class,
+                                                new NamedServer("primary"),
+                                                address);
+
+        for(int i = 0; i < OBJECTS; ++i)
+            ids[i] = skeleton.export(NamedInterface.class,
+                                     new NamedServer("object " + i));
+
+        counterId = skeleton.export(CounterInterface.class, new CounterServer());
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("calling exported objects");
+
+        try
+        {
+            NamedInterface  primary = Stub.create(NamedInterface.class, address);
+
+            if(!primary.name().equals("primary"))
+                throw new TestFailed("primary object not reached");
+
+            for(int i = 0; i < OBJECTS; ++i)
+            {
+                NamedInterface  stub =
+                    Stub.create(NamedInterface.class, address, ids[i]);
+
+                if(!stub.name().equals("object " + i))
+                    throw new TestFailed("wrong object reached by id " + ids[i]);
+
+                if(!stub.cachedName().equals("object " + i))
+                    throw new TestFailed("cached result of another object");
+            }
+
+            CounterInterface    counter =
+                Stub.create(CounterInterface.class, address, counterId);
+
+            counter.increment();
+            counter.increment();
+
+            if(counter.get() != 2)
+                throw new TestFailed("wrong count: " + counter.get());
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        if(Stub.create(NamedInterface.class, address, ids[0])
+               .equals(Stub.create(NamedInterface.class, address, ids[1])))
+        {
+            throw new TestFailed("stubs for different objects are equal");
+        }
+
+        task("calling unexported objects");
+
+        NamedInterface  removed = Stub.create(NamedInterface.class, address,
+                                              ids[0]);
+
+        if(!skeleton.unexport(ids[0]))
+            throw new TestFailed("exported object was not found");
+
+        if(skeleton.unexport(ids[0]))
+            throw new TestFailed("object was unexported twice");
+
+        expectMissing(removed);
+        expectMissing(Stub.create(NamedInterface.class, address, 1 << 20));
+
+        try
+        {
+            NamedInterface  stub = Stub.create(NamedInterface.class, address,
+                                               ids[1]);
+
+            if(!stub.name().equals("object 1"))
+                throw new TestFailed("neighbour of unexported object lost");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private static void expectMissing(NamedInterface stub) throws TestFailed
+    {
+        try
+        {
+            stub.name();
+            throw new TestFailed("call to unexported object succeeded");
+        }
+        catch(RMIException e)
+        {
+            if(e.getMessage() == null
+               || !e.getMessage().contains("no object exported"))
+            {
+                throw new TestFailed("unclear exception for unexported object",
+                                     e);
+            }
+        }
+    }
+
+    public interface NamedInterface
+    {
+        String name() throws RMIException;
+
+        @Cacheable
+        String cachedName() throws RMIException;
+    }
+
+    public interface CounterInterface
+    {
+        void increment() throws RMIException;
+
+        int get() throws RMIException;
+    }
+
+    private static class NamedServer implements NamedInterface
+    {
+        private final String    name;
+
+        NamedServer(String name)
+        {
+            this.name = name;
+        }
+
+        @Override
+        public String name()
+        {
+            return name;
+        }
+
+        @Override
+        public String cachedName()
+        {
+            return name;
+        }
+    }
+
+    private static class CounterServer implements CounterInterface
+    {
+        private int count;
+
+        @Override
+        public synchronized void increment()
+        {
+            ++count;
+        }
+
+        @Override
+        public synchronized int get()
+        {
+            return count;
+        }
+    }
+}
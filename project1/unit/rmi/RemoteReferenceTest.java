@@ -0,0 +1,191 @@
+package rmi;
+
+import test.*;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/** Checks that objects implementing remote interfaces are passed by
+    reference, in both directions, and unexported once their stubs are
+    collected.
+ */
+public class RemoteReferenceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking objects passed by reference";
+
+    private static final long   LEASE = 300;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7123);
+    private Skeleton<LibraryInterface>  skeleton;
+    private LibraryInterface            stub;
+
+    /** Starts a skeleton for the library, with short leases. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        RemoteExports.setLeaseDuration(LEASE, TimeUnit.MILLISECONDS);
+
+        skeleton = new Skeleton<LibraryInterface>(LibraryInterface.class,
+                                                  new LibraryServer(),
+                                                  address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(LibraryInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        int exported = RemoteExports.size();
+
+        task("receiving a remote object");
+
+        try
+        {
+            DocumentInterface   document = stub.open("manual");
+
+            if(!Proxy.isProxyClass(document.getClass()))
+                throw new TestFailed("document was passed by value");
+
+            if(!document.line(3).equals("manual, line 3"))
+                throw new TestFailed("wrong line: " + document.line(3));
+
+            task("keeping the remote object past its lease");
+
+            Thread.sleep(3 * LEASE);
+
+            if(document.size() != 1000)
+                throw new TestFailed("lease of a held object expired");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        task("passing a remote object as an argument");
+
+        try
+        {
+            if(stub.count(new DocumentServer("notes", 7)) != 7)
+                throw new TestFailed("wrong size from the callback");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        task("releasing collected objects");
+
+        long    deadline = System.currentTimeMillis() + 2000;
+
+        while(RemoteExports.size() > exported)
+        {
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new TestFailed(RemoteExports.size() - exported +
+                                     " objects still exported");
+            }
+
+            System.gc();
+
+            try
+            {
+                Thread.sleep(20);
+            }
+            catch(InterruptedException e)
+            {
+                throw new TestFailed("interrupted", e);
+            }
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton and restores the lease duration. */
+    @Override
+    protected void clean()
+    {
+        RemoteExports.setLeaseDuration(RemoteExports.DEFAULT_LEASE,
+                                       TimeUnit.MILLISECONDS);
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    public interface DocumentInterface
+    {
+        String line(int index) throws RMIException;
+
+        int size() throws RMIException;
+    }
+
+    public interface LibraryInterface
+    {
+        DocumentInterface open(String name) throws RMIException;
+
+        int count(DocumentInterface document) throws RMIException;
+    }
+
+    /** Document which cannot be serialized, and so can only be passed by
+        reference.
+     */
+    private static class DocumentServer implements DocumentInterface
+    {
+        private final String    name;
+        private final int       size;
+
+        DocumentServer(String name, int size)
+        {
+            this.name = name;
+            this.size = size;
+        }
+
+        @Override
+        public String line(int index)
+        {
+            return name + ", line " + index;
+        }
+
+        @Override
+        public int size()
+        {
+            return size;
+        }
+    }
+
+    private static class LibraryServer implements LibraryInterface
+    {
+        @Override
+        public DocumentInterface open(String name)
+        {
+            return new DocumentServer(name, 1000);
+        }
+
+        @Override
+        public int count(DocumentInterface document) throws RMIException
+        {
+            if(!Proxy.isProxyClass(document.getClass()))
+                throw new RMIException("document was passed by value");
+
+            return document.size();
+        }
+    }
+}
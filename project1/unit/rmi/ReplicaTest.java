@@ -0,0 +1,260 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that followers apply the writes executed by the primary of a
+    replica group, that replicated stubs spread reads over the group and
+    send writes to the primary, and that reads can observe the caller's own
+    writes.
+ */
+public class ReplicaTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking replica groups";
+
+    private static final int    FOLLOWERS = 2;
+    private static final long   APPLY_DELAY = 100;
+
+    private final InetSocketAddress                 primaryAddress =
+        new InetSocketAddress("127.0.0.1", 7136);
+    private final List<InetSocketAddress>           followerAddresses =
+        new ArrayList<>();
+    private final List<Replica<CounterInterface>>   replicas = new ArrayList<>();
+    private final List<CounterServer>               servers = new ArrayList<>();
+
+    /** Starts the primary and its followers. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        CounterServer   primaryServer = new CounterServer();
+
+        servers.add(primaryServer);
+        replicas.add(Replica.primary(CounterInterface.class, primaryServer,
+                                     primaryAddress));
+
+        for(int i = 0; i < FOLLOWERS; ++i)
+        {
+            InetSocketAddress   address =
+                new InetSocketAddress("127.0.0.1", 7137 + i);
+            CounterServer       server = new CounterServer();
+
+            followerAddresses.add(address);
+            servers.add(server);
+            replicas.add(Replica.follower(CounterInterface.class, server,
+                                          address, primaryAddress));
+        }
+
+        try
+        {
+            for(Replica<CounterInterface> replica : replicas)
+                replica.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start replica", e);
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkReplication();
+            checkReads();
+            checkReadYourWrites();
+            checkForwarding();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        task();
+    }
+
+    /** Stops the replicas. */
+    @Override
+    protected void clean()
+    {
+        for(Replica<CounterInterface> replica : replicas)
+            replica.stop();
+    }
+
+    /** Writes through a replicated stub and waits for every follower to
+        apply the writes.
+     */
+    private void checkReplication() throws TestFailed, RMIException
+    {
+        task("applying the writes of the primary on followers");
+
+        CounterInterface    counters = Stub.createReplicated(
+            CounterInterface.class, primaryAddress, followerAddresses, false);
+
+        for(int i = 1; i <= 10; ++i)
+            counters.add("a", i);
+
+        if(replicas.get(0).getPosition() != 10)
+            throw new TestFailed("writes not logged by the primary");
+
+        awaitPosition(10);
+
+        for(CounterServer server : servers)
+        {
+            if(server.get("a") != 55)
+                throw new TestFailed("replica diverged: " + server.get("a"));
+        }
+    }
+
+    /** Reads through a replicated stub and checks that every member served
+        some of the reads.
+     */
+    private void checkReads() throws TestFailed, RMIException
+    {
+        task("spreading reads over the group");
+
+        CounterInterface    counters = Stub.createReplicated(
+            CounterInterface.class, primaryAddress, followerAddresses, false);
+
+        for(CounterServer server : servers)
+            server.reads.set(0);
+
+        for(int i = 0; i < 30; ++i)
+        {
+            if(counters.get("a") != 55)
+                throw new TestFailed("wrong value read");
+        }
+
+        for(int i = 0; i < servers.size(); ++i)
+        {
+            if(servers.get(i).reads.get() == 0)
+                throw new TestFailed("replica " + i + " served no reads");
+        }
+    }
+
+    /** Slows the followers down, and checks that reads made right after a
+        write observe it on every member.
+     */
+    private void checkReadYourWrites() throws TestFailed, RMIException
+    {
+        task("reading the caller's own writes");
+
+        CounterInterface    counters = Stub.createReplicated(
+            CounterInterface.class, primaryAddress, followerAddresses, true);
+
+        for(int i = 1; i < servers.size(); ++i)
+            servers.get(i).delay = APPLY_DELAY;
+
+        try
+        {
+            counters.add("b", 1);
+
+            for(int i = 0; i < 3 * servers.size(); ++i)
+            {
+                if(counters.get("b") != 1)
+                    throw new TestFailed("read missed the caller's write");
+            }
+        }
+        finally
+        {
+            for(CounterServer server : servers)
+                server.delay = 0;
+        }
+    }
+
+    /** Writes through a plain stub for a follower, and checks that the write
+        reaches the primary and is visible on that follower at once.
+     */
+    private void checkForwarding() throws TestFailed, RMIException
+    {
+        task("forwarding writes from a follower to the primary");
+
+        CounterInterface    follower = Stub.create(CounterInterface.class,
+                                                   followerAddresses.get(0));
+
+        follower.add("c", 7);
+
+        if(servers.get(0).get("c") != 7)
+            throw new TestFailed("write not forwarded to the primary");
+
+        if(follower.get("c") != 7)
+            throw new TestFailed("follower did not apply its own write");
+
+        awaitPosition(replicas.get(0).getPosition());
+    }
+
+    /** Waits until every replica has reached a log position. */
+    private void awaitPosition(long position) throws TestFailed
+    {
+        long    deadline = System.currentTimeMillis() + 1000;
+
+        for(Replica<CounterInterface> replica : replicas)
+        {
+            while(replica.getPosition() < position)
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed(replica + " did not catch up");
+
+                try
+                {
+                    Thread.sleep(5);
+                }
+                catch(InterruptedException e)
+                {
+                    throw new TestFailed("interrupted", e);
+                }
+            }
+        }
+    }
+
+    public interface CounterInterface
+    {
+        @ReadOnly
+        long get(String name) throws RMIException;
+
+        void add(String name, long delta) throws RMIException;
+    }
+
+    private static class CounterServer implements CounterInterface
+    {
+        private final Map<String, Long> counters = new ConcurrentHashMap<>();
+        private final AtomicInteger     reads = new AtomicInteger();
+        private volatile long           delay;
+
+        @Override
+        public long get(String name)
+        {
+            reads.incrementAndGet();
+            return counters.getOrDefault(name, 0L);
+        }
+
+        @Override
+        public void add(String name, long delta)
+        {
+            if(delay > 0)
+            {
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            counters.merge(name, delta, Long::sum);
+        }
+    }
+}
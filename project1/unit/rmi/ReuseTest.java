@@ -0,0 +1,177 @@
+package rmi;
+
+import test.*;
+
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Checks that stubs reuse connections, that class descriptors are sent once
+    per connection, that argument state is not cached between calls, and that
+    a call is not repeated when its connection closes after the request was
+    written.
+ */
+public class ReuseTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking connection reuse";
+
+    private static final int    CALLS = 100;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7102);
+    private final CounterServer         server = new CounterServer();
+    private Skeleton<CounterInterface>  skeleton;
+    private CounterInterface            stub;
+
+    /** Starts a skeleton for the counter interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<CounterInterface>(CounterInterface.class,
+                                                  server, address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(CounterInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making repeated calls with a mutated argument");
+
+        try
+        {
+            Box     box = new Box();
+
+            stub.read(box);
+
+            long    opened = count("rmi.connections.opened");
+            long    descriptors = count("rmi.serialization.descriptors.sent");
+
+            for(int i = 0; i < CALLS; ++i)
+            {
+                box.value = i;
+
+                if(stub.read(box) != i)
+                    throw new TestFailed("skeleton saw stale argument state");
+            }
+
+            if(count("rmi.connections.opened") != opened)
+                throw new TestFailed("stub opened new connections instead " +
+                                     "of reusing one");
+
+            if(count("rmi.serialization.descriptors.sent") != descriptors)
+                throw new TestFailed("class descriptors were sent again on " +
+                                     "a reused connection");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call skeleton", e);
+        }
+
+        task("calling after the skeleton has been restarted");
+
+        try
+        {
+            skeleton.stop();
+            skeleton.start();
+
+            if(stub.read(new Box()) != 0)
+                throw new TestFailed("wrong result after restart");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("stale pooled connection was not replaced",
+                                 e);
+        }
+
+        task("closing a reused connection after executing a call");
+
+        try
+        {
+            stub.read(new Box());
+            server.bumps.set(0);
+
+            try
+            {
+                stub.bump();
+                throw new TestFailed("unserializable result was returned");
+            }
+            catch(RMIException e)
+            {
+            }
+
+            if(server.bumps.get() != 1)
+            {
+                throw new TestFailed("call was executed " + server.bumps.get() +
+                                     " times");
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call skeleton", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private static long count(String name)
+    {
+        Long    value = Metrics.get(name);
+
+        return value == null ? 0 : value;
+    }
+
+    public interface CounterInterface
+    {
+        int read(Box box) throws RMIException;
+
+        Object bump() throws RMIException;
+    }
+
+    private static class CounterServer implements CounterInterface
+    {
+        private final AtomicInteger bumps = new AtomicInteger();
+
+        @Override
+        public int read(Box box)
+        {
+            return box.value;
+        }
+
+        /** Counts the call, and returns a result which cannot be sent. */
+        @Override
+        public Object bump()
+        {
+            bumps.incrementAndGet();
+            return new Object();
+        }
+    }
+
+    public static class Box implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        int     value;
+    }
+}
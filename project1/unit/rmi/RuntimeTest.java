@@ -0,0 +1,153 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Checks that skeletons sharing a runtime are served by its threads alone,
+    and that the threads are only created when needed.
+ */
+public class RuntimeTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking skeletons sharing a runtime";
+
+    private static final int    COUNT = 5;
+    private static final int    FIRST_PORT = 7116;
+
+    private final SkeletonRuntime   runtime = new SkeletonRuntime(1, 2);
+    private final List<Skeleton<EchoInterface>> skeletons = new ArrayList<>();
+
+    /** Creates skeletons on consecutive ports, all using the runtime. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        for(int i = 0; i < COUNT; ++i)
+        {
+            skeletons.add(new Skeleton<EchoInterface>(
+                EchoInterface.class, new EchoServer(),
+                new InetSocketAddress(FIRST_PORT + i), runtime));
+        }
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("starting skeletons");
+
+        if(runtime.getThreadCount() != 0)
+            throw new TestFailed("threads created before any skeleton started");
+
+        try
+        {
+            for(Skeleton<EchoInterface> skeleton : skeletons)
+                skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        if(runtime.getThreadCount() != 1)
+        {
+            throw new TestFailed("expected one I/O thread, found " +
+                                 runtime.getThreadCount() + " threads");
+        }
+
+        try
+        {
+            skeletons.get(0).setPoolSize(4);
+            throw new TestFailed("pool of a shared runtime was resized");
+        }
+        catch(IllegalStateException e) { }
+
+        task("calling every skeleton");
+
+        try
+        {
+            for(int round = 0; round < 3; ++round)
+            {
+                for(int i = 0; i < COUNT; ++i)
+                {
+                    EchoInterface   stub =
+                        Stub.create(EchoInterface.class,
+                                    new InetSocketAddress(FIRST_PORT + i));
+
+                    if(stub.echo(i) != i)
+                        throw new TestFailed("wrong result from skeleton " + i);
+                }
+            }
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        if(runtime.getThreadCount() > 3)
+        {
+            throw new TestFailed("runtime has " + runtime.getThreadCount() +
+                                 " threads, expected at most 3");
+        }
+
+        task("stopping one skeleton");
+
+        skeletons.get(0).stop();
+
+        try
+        {
+            Stub.create(EchoInterface.class,
+                        new InetSocketAddress(FIRST_PORT)).echo(0);
+            throw new TestFailed("stopped skeleton answered");
+        }
+        catch(RMIException e) { }
+
+        try
+        {
+            EchoInterface   stub =
+                Stub.create(EchoInterface.class,
+                            new InetSocketAddress(FIRST_PORT + 1));
+
+            if(stub.echo(1) != 1)
+                throw new TestFailed("wrong result after stopping a neighbour");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("neighbour of stopped skeleton failed", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeletons and shuts the runtime down. */
+    @Override
+    protected void clean()
+    {
+        for(Skeleton<EchoInterface> skeleton : skeletons)
+        {
+            if(skeleton != null)
+                skeleton.stop();
+        }
+
+        runtime.shutdown();
+    }
+
+    public interface EchoInterface
+    {
+        int echo(int value) throws RMIException;
+    }
+
+    private static class EchoServer implements EchoInterface
+    {
+        @Override
+        public int echo(int value)
+        {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/** Checks that a sharded stub routes each call to the skeleton owning its
+    key, that changing the members of a ring moves few keys, and that
+    batches are split between shards and sent in parallel.
+ */
+public class ShardTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking sharded stubs";
+
+    private static final int    SHARDS = 3;
+    private static final int    KEYS = 300;
+
+    private final List<Skeleton<StoreInterface>>    skeletons = new ArrayList<>();
+    private final List<StoreServer>                 servers = new ArrayList<>();
+    private final List<InetSocketAddress>           addresses = new ArrayList<>();
+    private final CyclicBarrier                     barrier =
+        new CyclicBarrier(SHARDS);
+    private ShardRing                               ring;
+    private StoreInterface                          store;
+
+    /** Starts the skeletons of the shards. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        for(int i = 0; i < SHARDS; ++i)
+        {
+            InetSocketAddress           address =
+                new InetSocketAddress("127.0.0.1", 7132 + i);
+            StoreServer                 server = new StoreServer(barrier);
+            Skeleton<StoreInterface>    skeleton = new Skeleton<StoreInterface>(
+                StoreInterface.class, server, address);
+
+            try
+            {
+                skeleton.start();
+            }
+            catch(RMIException e)
+            {
+                throw new TestFailed("unable to start skeleton", e);
+            }
+
+            skeletons.add(skeleton);
+            servers.add(server);
+            addresses.add(address);
+        }
+
+        ring = new ShardRing(addresses);
+        store = Stub.createSharded(StoreInterface.class, ring);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkRouting();
+            checkMembership();
+            checkBatch();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        task("rejecting interfaces without shard keys");
+
+        try
+        {
+            Stub.createSharded(UnkeyedInterface.class, ring);
+            throw new TestFailed("interface without shard key accepted");
+        }
+        catch(Error e)
+        {
+        }
+
+        task();
+    }
+
+    /** Stops the skeletons. */
+    @Override
+    protected void clean()
+    {
+        for(Skeleton<StoreInterface> skeleton : skeletons)
+            skeleton.stop();
+    }
+
+    /** Stores keys through the sharded stub and checks where they landed. */
+    private void checkRouting() throws TestFailed, RMIException
+    {
+        task("routing calls by shard key");
+
+        for(int i = 0; i < KEYS; ++i)
+            store.put("key" + i, "value" + i);
+
+        for(int i = 0; i < KEYS; ++i)
+        {
+            if(!("value" + i).equals(store.get("key" + i)))
+                throw new TestFailed("wrong value for key" + i);
+        }
+
+        for(int i = 0; i < SHARDS; ++i)
+        {
+            Map<String, String>     values = servers.get(i).values;
+
+            if(values.size() < KEYS / SHARDS / 2
+               || values.size() > KEYS / SHARDS * 2)
+            {
+                throw new TestFailed("shard " + i + " holds " + values.size() +
+                                     " keys of " + KEYS);
+            }
+
+            for(String key : values.keySet())
+            {
+                if(!ring.owner(key).equals(addresses.get(i)))
+                    throw new TestFailed(key + " stored on the wrong shard");
+            }
+        }
+    }
+
+    /** Adds and removes a member, and counts the keys which move. */
+    private void checkMembership() throws TestFailed
+    {
+        task("moving keys to an added member");
+
+        int                             keys = 10000;
+        InetSocketAddress               added =
+            new InetSocketAddress("127.0.0.1", 7135);
+        Map<Integer, InetSocketAddress> owners = new HashMap<>();
+
+        for(int i = 0; i < keys; ++i)
+            owners.put(i, ring.owner("key" + i));
+
+        ring.add(added);
+
+        int                             moved = 0;
+
+        for(int i = 0; i < keys; ++i)
+        {
+            InetSocketAddress           owner = ring.owner("key" + i);
+
+            if(owner.equals(owners.get(i)))
+                continue;
+
+            if(!owner.equals(added))
+                throw new TestFailed("key moved between existing members");
+
+            ++moved;
+        }
+
+        if(moved < keys / 8 || moved > keys * 3 / 8)
+        {
+            throw new TestFailed(moved + " of " + keys + " keys moved to " +
+                                 "the fourth member");
+        }
+
+        task("restoring keys after a member is removed");
+
+        ring.remove(added);
+
+        for(int i = 0; i < keys; ++i)
+        {
+            if(!ring.owner("key" + i).equals(owners.get(i)))
+                throw new TestFailed("key not restored to its owner");
+        }
+    }
+
+    /** Sends a batch over every shard, whose calls can only complete if the
+        shards execute them at the same time.
+     */
+    private void checkBatch() throws TestFailed, RMIException
+    {
+        task("splitting a batch between shards");
+
+        Batch<StoreInterface>                   batch = Batch.of(store);
+        List<Batch.Deferred<String>>            values = new ArrayList<>();
+        List<Batch.Deferred<Boolean>>           met = new ArrayList<>();
+
+        for(int i = 0; i < 30; ++i)
+        {
+            String  key = "key" + i;
+
+            values.add(batch.call(s -> s.get(key)));
+        }
+
+        for(InetSocketAddress address : addresses)
+        {
+            String  key = keyOwnedBy(address);
+
+            met.add(batch.call(s -> s.meet(key)));
+        }
+
+        batch.execute();
+
+        try
+        {
+            for(int i = 0; i < values.size(); ++i)
+            {
+                if(!("value" + i).equals(values.get(i).get()))
+                    throw new TestFailed("wrong value in batch for key" + i);
+            }
+
+            for(Batch.Deferred<Boolean> meeting : met)
+            {
+                if(!meeting.get())
+                    throw new TestFailed("shards not called in parallel");
+            }
+        }
+        catch(TestFailed e)
+        {
+            throw e;
+        }
+        catch(Exception e)
+        {
+            throw new TestFailed("batched call failed", e);
+        }
+    }
+
+    /** Finds a key owned by a member of the ring. */
+    private String keyOwnedBy(InetSocketAddress address)
+    {
+        for(int i = 0; ; ++i)
+        {
+            if(ring.owner("meet" + i).equals(address))
+                return "meet" + i;
+        }
+    }
+
+    public interface StoreInterface
+    {
+        String get(@ShardKey String key) throws RMIException;
+
+        void put(@ShardKey String key, String value) throws RMIException;
+
+        boolean meet(@ShardKey String key) throws RMIException;
+    }
+
+    public interface UnkeyedInterface
+    {
+        int size() throws RMIException;
+    }
+
+    private static class StoreServer implements StoreInterface
+    {
+        private final Map<String, String>   values = new ConcurrentHashMap<>();
+        private final CyclicBarrier         barrier;
+
+        StoreServer(CyclicBarrier barrier)
+        {
+            this.barrier = barrier;
+        }
+
+        @Override
+        public String get(String key)
+        {
+            return values.get(key);
+        }
+
+        @Override
+        public void put(String key, String value)
+        {
+            values.put(key, value);
+        }
+
+        @Override
+        public boolean meet(String key)
+        {
+            try
+            {
+                barrier.await(1, TimeUnit.SECONDS);
+                return true;
+            }
+            catch(InterruptedException | BrokenBarrierException |
+                  TimeoutException e)
+            {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Checks that invocations running past their threshold are sampled and
+    reported, and that others are not.
+ */
+public class SlowCallTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking slow call reports";
+
+    private final InetSocketAddress     address = new InetSocketAddress(7114);
+    private final List<SlowCallReport>  reports = new ArrayList<>();
+    private Skeleton<SlowInterface>     skeleton;
+    private SlowInterface               stub;
+
+    /** Starts a skeleton which reports calls taking over 50 milliseconds,
+        except those of <code>ignored</code>.
+     */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<SlowInterface>(SlowInterface.class,
+                                               new SlowServer(), address);
+        skeleton.setSlowCallThreshold(50, TimeUnit.MILLISECONDS);
+        skeleton.setSlowCallThreshold("ignored", 0, TimeUnit.MILLISECONDS);
+        skeleton.setSlowCallListener(report -> {
+            synchronized(reports)
+            {
+                reports.add(report);
+            }
+        });
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(SlowInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making calls under the threshold");
+
+        try
+        {
+            for(int i = 0; i < 5; ++i)
+                stub.work(1, "fast");
+
+            stub.ignored(300);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        synchronized(reports)
+        {
+            if(!reports.isEmpty())
+                throw new TestFailed("fast or ignored call reported: " + reports);
+        }
+
+        task("making a slow call");
+
+        try
+        {
+            stub.work(300, "slow");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+
+        SlowCallReport  report;
+
+        synchronized(reports)
+        {
+            if(reports.size() != 1)
+                throw new TestFailed("expected one report, got " + reports);
+
+            report = reports.get(0);
+        }
+
+        if(!report.getMethod().equals(SlowInterface.class.getName() + ".work"))
+            throw new TestFailed("wrong method: " + report.getMethod());
+
+        if(!report.getArguments().equals("300, \"slow\""))
+            throw new TestFailed("wrong arguments: " + report.getArguments());
+
+        if(report.getElapsedNanos() < TimeUnit.MILLISECONDS.toNanos(300))
+            throw new TestFailed("elapsed time too short: " + report);
+
+        if(report.getSampleCount() < 5 || report.getStacks().isEmpty())
+            throw new TestFailed("too few samples: " + report);
+
+        boolean inServer = false;
+
+        for(StackTraceElement frame : report.getStacks().get(0).getFrames())
+        {
+            if(frame.getClassName().equals(SlowServer.class.getName()))
+                inServer = true;
+
+            if(frame.getClassName().startsWith(Skeleton.class.getName()))
+                throw new TestFailed("skeleton frames were not trimmed: " + report);
+        }
+
+        if(!inServer)
+            throw new TestFailed("server object missing from stack: " + report);
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    public interface SlowInterface
+    {
+        void work(long millis, String label) throws RMIException;
+
+        void ignored(long millis) throws RMIException;
+    }
+
+    private static class SlowServer implements SlowInterface
+    {
+        @Override
+        public void work(long millis, String label)
+        {
+            sleep(millis);
+        }
+
+        @Override
+        public void ignored(long millis)
+        {
+            sleep(millis);
+        }
+
+        private static void sleep(long millis)
+        {
+            try
+            {
+                Thread.sleep(millis);
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/** Checks that stream-like return values are delivered in chunks, with
+    credit-based flow control.
+ */
+public class StreamTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking streamed return values";
+
+    private static final int    COUNT = 5000;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7100);
+    private final AtomicInteger         pulled = new AtomicInteger();
+    private Skeleton<StreamInterface>   skeleton;
+    private StreamInterface             stub;
+
+    /** Starts a skeleton for the streaming interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<StreamInterface>(StreamInterface.class,
+                                                 new StreamServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(StreamInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("consuming a remote iterator");
+
+        try
+        {
+            Iterator<Integer>   iterator = stub.iterate(COUNT);
+            int                 expected = 0;
+
+            while(iterator.hasNext())
+            {
+                if(iterator.next() != expected++)
+                    throw new TestFailed("iterator returned elements out of " +
+                                         "order");
+            }
+
+            if(expected != COUNT)
+                throw new TestFailed("iterator returned " + expected +
+                                     " elements instead of " + COUNT);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call streaming method", e);
+        }
+
+        task("checking that the skeleton does not run ahead of the stub");
+
+        try
+        {
+            pulled.set(0);
+            Iterator<Integer>   iterator = stub.iterate(COUNT);
+
+            iterator.next();
+            Thread.sleep(200);
+
+            if(pulled.get() > StreamReceiver.WINDOW + StreamSender.CHUNK_SIZE)
+                throw new TestFailed("skeleton pulled " + pulled.get() +
+                                     " elements without credit");
+
+            ((AutoCloseable)iterator).close();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to check flow control", t);
+        }
+
+        task("consuming a remote stream");
+
+        try (Stream<String> stream = stub.words(COUNT))
+        {
+            if(stream.filter(s -> s.startsWith("w")).count() != COUNT)
+                throw new TestFailed("stream returned wrong number of elements");
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to call streaming method", e);
+        }
+
+        task("subscribing to a remote publisher");
+
+        try
+        {
+            Collector   collector = new Collector();
+
+            stub.publish(100).subscribe(collector);
+
+            if(!collector.await().equals(IntStream.range(0, 100).boxed()
+                                         .collect(Collectors.toList())))
+                throw new TestFailed("publisher delivered wrong elements");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to subscribe to publisher", t);
+        }
+
+        task("checking that source exceptions reach the stub");
+
+        try
+        {
+            Iterator<Integer>   iterator = stub.failing();
+
+            while(iterator.hasNext())
+                iterator.next();
+
+            throw new TestFailed("source exception was not rethrown");
+        }
+        catch(UnsupportedOperationException e) { }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception from failing source", t);
+        }
+
+        task("stopping the skeleton while a stream is unread");
+
+        try
+        {
+            Iterator<Integer>   iterator = stub.iterate(100000);
+
+            iterator.next();
+
+            Thread  stopping = new Thread(skeleton::stop);
+
+            stopping.start();
+            stopping.join(1000);
+
+            if(stopping.isAlive())
+                throw new TestFailed("skeleton did not stop while a stream " +
+                                     "was unread");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unable to check stopping", t);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    public interface StreamInterface
+    {
+        Iterator<Integer> iterate(int count) throws RMIException;
+
+        Stream<String> words(int count) throws RMIException;
+
+        Flow.Publisher<Integer> publish(int count) throws RMIException;
+
+        Iterator<Integer> failing() throws RMIException;
+    }
+
+    private class StreamServer implements StreamInterface
+    {
+        @Override
+        public Iterator<Integer> iterate(int count)
+        {
+            return IntStream.range(0, count).peek(i -> pulled.incrementAndGet())
+                            .boxed().iterator();
+        }
+
+        @Override
+        public Stream<String> words(int count)
+        {
+            return IntStream.range(0, count).mapToObj(i -> "w" + i);
+        }
+
+        @Override
+        public Flow.Publisher<Integer> publish(int count)
+        {
+            SubmissionPublisher<Integer>    publisher =
+                new SubmissionPublisher<>();
+
+            new Thread(() -> {
+                while(publisher.getNumberOfSubscribers() == 0)
+                    Thread.yield();
+
+                for(int i = 0; i < count; ++i)
+                    publisher.submit(i);
+
+                publisher.close();
+            }).start();
+
+            return publisher;
+        }
+
+        @Override
+        public Iterator<Integer> failing()
+        {
+            return Stream.<Integer>iterate(0, i -> {
+                if(i == 100)
+                    throw new UnsupportedOperationException();
+
+                return i + 1;
+            }).iterator();
+        }
+    }
+
+    private static class Collector implements Flow.Subscriber<Integer>
+    {
+        private final List<Integer> items = new ArrayList<>();
+        private Flow.Subscription   subscription;
+        private boolean             done;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+            subscription.request(7);
+        }
+
+        @Override
+        public synchronized void onNext(Integer item)
+        {
+            items.add(item);
+
+            if(items.size() % 7 == 0)
+                subscription.request(7);
+        }
+
+        @Override
+        public synchronized void onError(Throwable throwable)
+        {
+            done = true;
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onComplete()
+        {
+            done = true;
+            notifyAll();
+        }
+
+        synchronized List<Integer> await() throws InterruptedException
+        {
+            while(!done)
+                wait();
+
+            return items;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package rmi;
+
+import test.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Checks that events published on a topic are pushed to remote
+    subscribers, that full buffers drop or coalesce events according to the
+    topic's policy, that subscriptions end from either side, and that a
+    stalled subscriber holds no service thread.
+ */
+public class SubscriptionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking pushed subscriptions";
+
+    private static final int    EVENTS = 100;
+    private static final int    BLOBS = 256;
+    private static final int    BLOB_SIZE = 64 * 1024;
+
+    private final InetSocketAddress     address =
+        new InetSocketAddress("127.0.0.1", 7125);
+    private final FeedServer            server = new FeedServer();
+    private Skeleton<FeedInterface>     skeleton;
+    private FeedInterface               feed;
+
+    /** Starts a skeleton for the feed. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<FeedInterface>(FeedInterface.class, server,
+                                               address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        feed = Stub.create(FeedInterface.class, address);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            checkPolicies();
+            checkPush();
+            checkCancel();
+            checkStall();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+        catch(InterruptedException e)
+        {
+            throw new TestFailed("interrupted", e);
+        }
+
+        task();
+    }
+
+    /** Stops the skeleton. */
+    @Override
+    protected void clean()
+    {
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    /** Fills local subscriptions and checks which events are kept. */
+    private void checkPolicies() throws TestFailed, InterruptedException
+    {
+        task("dropping the newest events");
+
+        Topic<Integer>          drops = new Topic<>(4, Topic.Overflow.DROP_NEWEST);
+        Subscription<Integer>   newest = drops.subscribe();
+
+        for(int i = 0; i < 10; ++i)
+            drops.publish(i);
+
+        expect(newest, 0, 1, 2, 3);
+
+        if(newest.getDropped() != 6)
+            throw new TestFailed("wrong count of dropped events");
+
+        task("dropping the oldest events");
+
+        Topic<Integer>          olds = new Topic<>(4, Topic.Overflow.DROP_OLDEST);
+        Subscription<Integer>   oldest = olds.subscribe();
+
+        for(int i = 0; i < 10; ++i)
+            olds.publish(i);
+
+        expect(oldest, 6, 7, 8, 9);
+
+        task("coalescing events by key");
+
+        Topic<Integer>          tens = new Topic<>(2, i -> i / 10);
+        Subscription<Integer>   latest = tens.subscribe();
+
+        for(int i = 0; i < 20; ++i)
+            tens.publish(i);
+
+        expect(latest, 9, 19);
+
+        tens.publish(25);
+        expect(latest, 25);
+
+        if(latest.getDropped() != 18 || tens.getDropped() != 18)
+            throw new TestFailed("wrong count of superseded events");
+
+        task("closing a topic");
+
+        tens.publish(30);
+        tens.close();
+
+        expect(latest, 30);
+
+        if(latest.take() != null || !latest.isClosed())
+            throw new TestFailed("subscription outlived its topic");
+    }
+
+    /** Subscribes remotely, and checks that events are pushed in order until
+        the server ends the subscription.
+     */
+    private void checkPush()
+        throws TestFailed, RMIException, InterruptedException
+    {
+        task("pushing events to a remote subscriber");
+
+        Subscription<Integer>   numbers = feed.numbers();
+
+        if(numbers == null || server.topic.getSubscribers() != 1)
+            throw new TestFailed("subscription not registered");
+
+        feed.publish(EVENTS);
+
+        for(int i = 0; i < EVENTS; ++i)
+        {
+            Integer     event = numbers.poll(1, TimeUnit.SECONDS);
+
+            if(event == null || event != i)
+                throw new TestFailed("expected event " + i + ", got " + event);
+        }
+
+        if(numbers.getDropped() != 0)
+            throw new TestFailed("events dropped for a fast subscriber");
+
+        task("ending a remote subscription from the server");
+
+        feed.end();
+
+        if(numbers.poll(1, TimeUnit.SECONDS) != null || !numbers.isClosed())
+            throw new TestFailed("subscription did not end");
+
+        task("calling the server after a subscription");
+
+        if(feed.subscribers() != 0)
+            throw new TestFailed("ended subscription still registered");
+    }
+
+    /** Closes a remote subscription and checks that the server drops it,
+        without publishing any more events to it.
+     */
+    private void checkCancel()
+        throws TestFailed, RMIException, InterruptedException
+    {
+        task("ending a remote subscription from the client");
+
+        Subscription<Integer>   numbers = feed.numbers();
+
+        feed.publish(1);
+
+        if(numbers.poll(1, TimeUnit.SECONDS) == null)
+            throw new TestFailed("event not pushed");
+
+        numbers.close();
+
+        long    deadline = System.currentTimeMillis() + 2000;
+
+        while(feed.subscribers() > 0)
+        {
+            if(System.currentTimeMillis() > deadline)
+                throw new TestFailed("closed subscription still registered");
+
+            Thread.sleep(10);
+        }
+    }
+
+    /** Subscribes on a connection which is never read, fills its socket,
+        and checks that the server goes on serving calls with a single
+        thread.
+     */
+    private void checkStall()
+        throws TestFailed, RMIException, InterruptedException
+    {
+        task("stalling a remote subscriber");
+
+        Connection  connection;
+
+        try
+        {
+            connection = ConnectionPool.connect(address);
+            connection.send(new Request(
+                FeedInterface.class.getMethod("blobs")));
+        }
+        catch(IOException | NoSuchMethodException e)
+        {
+            throw new TestFailed("unable to subscribe", e);
+        }
+
+        try
+        {
+            long    deadline = System.currentTimeMillis() + 1000;
+
+            while(server.blobs.getSubscribers() == 0)
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("subscription not registered");
+
+                Thread.sleep(10);
+            }
+
+            skeleton.setPoolSize(1);
+            feed.publishBlobs();
+
+            if(feed.subscribers() != 0)
+                throw new TestFailed("unexpected subscriber");
+        }
+        finally
+        {
+            try
+            {
+                connection.close();
+            }
+            catch(IOException e)
+            {
+                // the skeleton closes its end as well
+            }
+        }
+    }
+
+    /** Takes the events waiting on a subscription and compares them with
+        those expected.
+     */
+    private static void expect(Subscription<Integer> subscription,
+                               int... expected)
+        throws TestFailed, InterruptedException
+    {
+        for(int value : expected)
+        {
+            Integer     event = subscription.poll(0, TimeUnit.SECONDS);
+
+            if(event == null || event != value)
+            {
+                throw new TestFailed("expected event " + value + ", got " +
+                                     event);
+            }
+        }
+
+        if(subscription.poll(0, TimeUnit.SECONDS) != null)
+            throw new TestFailed("unexpected event");
+    }
+
+    public interface FeedInterface
+    {
+        Subscription<Integer> numbers() throws RMIException;
+
+        void publish(int count) throws RMIException;
+
+        int subscribers() throws RMIException;
+
+        void end() throws RMIException;
+
+        Subscription<byte[]> blobs() throws RMIException;
+
+        void publishBlobs() throws RMIException;
+    }
+
+    private static class FeedServer implements FeedInterface
+    {
+        private volatile Topic<Integer>     topic = new Topic<>();
+        private final Topic<byte[]>         blobs =
+            new Topic<>(BLOBS, Topic.Overflow.DROP_NEWEST);
+
+        @Override
+        public Subscription<Integer> numbers()
+        {
+            return topic.subscribe();
+        }
+
+        @Override
+        public void publish(int count)
+        {
+            for(int i = 0; i < count; ++i)
+                topic.publish(i);
+        }
+
+        @Override
+        public int subscribers()
+        {
+            return topic.getSubscribers();
+        }
+
+        @Override
+        public void end()
+        {
+            Topic<Integer>  ended = topic;
+
+            topic = new Topic<>();
+            ended.close();
+        }
+
+        @Override
+        public Subscription<byte[]> blobs()
+        {
+            return blobs.subscribe();
+        }
+
+        /** Publishes random blobs, which the connection cannot compress. */
+        @Override
+        public void publishBlobs()
+        {
+            byte[]  blob = new byte[BLOB_SIZE];
+
+            new Random(1).nextBytes(blob);
+
+            for(int i = 0; i < BLOBS; ++i)
+                blobs.publish(blob.clone());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package rmi;
+
+import test.*;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Checks that sampled calls report the time taken by each phase. */
+public class TimingTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking per-call timing breakdowns";
+
+    private static final long   DELAY = 50;
+
+    private final InetSocketAddress     address = new InetSocketAddress(7109);
+    private final List<CallTiming>      heard = new ArrayList<>();
+    private final CallTiming.Listener   listener = heard::add;
+    private Skeleton<SleepInterface>    skeleton;
+    private SleepInterface              stub;
+
+    /** Starts a skeleton for the sleeping interface. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        skeleton = new Skeleton<SleepInterface>(SleepInterface.class,
+                                                new SleepServer(), address);
+
+        try
+        {
+            skeleton.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeleton", e);
+        }
+
+        stub = Stub.create(SleepInterface.class, address);
+        CallTiming.addListener(listener);
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making a sampled call on a new connection");
+
+        CallTiming.setSampleRate(1);
+        call();
+
+        CallTiming  first = CallTiming.last();
+
+        if(first == null || !first.getMethodName().equals("sleep"))
+            throw new TestFailed("sampled call was not timed");
+
+        if(!first.hasServerTimings())
+            throw new TestFailed("skeleton returned no timings");
+
+        if(first.getConnectNanos() == 0)
+            throw new TestFailed("connecting was not timed");
+
+        if(first.getServiceNanos() < TimeUnit.MILLISECONDS.toNanos(DELAY))
+            throw new TestFailed("service time is too short: " + first);
+
+        if(first.getTotalNanos() < first.getServiceNanos()
+           || first.getEncodeNanos() == 0 || first.getDecodeNanos() == 0)
+        {
+            throw new TestFailed("inconsistent breakdown: " + first);
+        }
+
+        if(heard.size() != 1 || heard.get(0) != first)
+            throw new TestFailed("listener was not told of the call");
+
+        task("making a sampled call on a reused connection");
+
+        call();
+
+        if(CallTiming.last() == first || CallTiming.last().getConnectNanos() != 0)
+            throw new TestFailed("unexpected breakdown: " + CallTiming.last());
+
+        task("making a call which is not sampled");
+
+        CallTiming  second = CallTiming.last();
+
+        CallTiming.setSampleRate(0);
+        call();
+
+        if(CallTiming.last() != second || heard.size() != 2)
+            throw new TestFailed("call was timed although not sampled");
+
+        task();
+    }
+
+    /** Stops the skeleton and stops sampling. */
+    @Override
+    protected void clean()
+    {
+        CallTiming.setSampleRate(0);
+        CallTiming.removeListener(listener);
+
+        if(skeleton != null)
+            skeleton.stop();
+    }
+
+    private void call() throws TestFailed
+    {
+        try
+        {
+            stub.sleep(DELAY);
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+    }
+
+    public interface SleepInterface
+    {
+        void sleep(long millis) throws RMIException;
+    }
+
+    private static class SleepServer implements SleepInterface
+    {
+        @Override
+        public void sleep(long millis)
+        {
+            try
+            {
+                Thread.sleep(millis);
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+}
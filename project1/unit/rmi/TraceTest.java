@@ -0,0 +1,234 @@
+package rmi;
+
+import test.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Checks that trace contexts follow nested remote calls and that their
+    spans are exported.
+ */
+public class TraceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking trace context propagation";
+
+    private final InetSocketAddress     frontAddress = new InetSocketAddress(7110);
+    private final InetSocketAddress     backAddress = new InetSocketAddress(7111);
+    private final List<Span>            spans = new ArrayList<>();
+    private Skeleton<HopInterface>      front;
+    private Skeleton<HopInterface>      back;
+    private HopInterface                stub;
+
+    /** Starts a front skeleton whose server object calls a back skeleton. */
+    @Override
+    protected void initialize() throws TestFailed
+    {
+        HopInterface    backStub = Stub.create(HopInterface.class, backAddress);
+
+        back = new Skeleton<HopInterface>(HopInterface.class, new HopServer(null),
+                                          backAddress);
+        front = new Skeleton<HopInterface>(HopInterface.class,
+                                           new HopServer(backStub), frontAddress);
+
+        try
+        {
+            back.start();
+            front.start();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("unable to start skeletons", e);
+        }
+
+        stub = Stub.create(HopInterface.class, frontAddress);
+        TraceContext.setSink(span -> {
+            synchronized(spans)
+            {
+                spans.add(span);
+            }
+        });
+    }
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        task("making a nested call in a sampled trace");
+
+        TraceContext    root;
+        String          seen;
+
+        TraceContext.Scope  scope = TraceContext.begin(true);
+
+        try
+        {
+            root = TraceContext.current();
+            seen = stub.hop();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+        finally
+        {
+            scope.close();
+        }
+
+        if(TraceContext.current() != null)
+            throw new TestFailed("trace context was not restored");
+
+        if(!seen.startsWith(Long.toHexString(root.getTraceId()) + "/"))
+            throw new TestFailed("server object saw the wrong context: " + seen);
+
+        Map<String, Span>   byName = new HashMap<>();
+
+        synchronized(spans)
+        {
+            if(spans.size() != 4)
+                throw new TestFailed("expected four spans, got " + spans);
+
+            for(Span span : spans)
+            {
+                if(span.getTraceId() != root.getTraceId())
+                    throw new TestFailed("span of another trace: " + span);
+
+                byName.put(span.getKind() + " " + span.getName()
+                           + (span.getParentId() == root.getSpanId() ? " root" : ""),
+                           span);
+            }
+        }
+
+        Span    frontClient = byName.get("CLIENT hop root");
+        Span    frontServer = byName.get("SERVER hop");
+        Span    backClient = byName.get("CLIENT leaf");
+        Span    backServer = byName.get("SERVER leaf");
+
+        if(frontClient == null || frontServer == null || backClient == null
+           || backServer == null)
+        {
+            throw new TestFailed("missing spans: " + byName);
+        }
+
+        if(frontServer.getParentId() != frontClient.getSpanId()
+           || backClient.getParentId() != frontServer.getSpanId()
+           || backServer.getParentId() != backClient.getSpanId())
+        {
+            throw new TestFailed("spans are not nested: " + byName);
+        }
+
+        task("making a call in an unsampled trace");
+
+        spans.clear();
+
+        scope = TraceContext.begin(false);
+
+        try
+        {
+            stub.hop();
+        }
+        catch(RMIException e)
+        {
+            throw new TestFailed("call failed", e);
+        }
+        finally
+        {
+            scope.close();
+        }
+
+        if(!spans.isEmpty())
+            throw new TestFailed("unsampled spans were exported: " + spans);
+
+        task("writing spans to a file");
+
+        File    file = null;
+
+        try
+        {
+            file = File.createTempFile("spans", ".tsv");
+
+            try(FileSpanSink sink = new FileSpanSink(file))
+            {
+                TraceContext.setSink(sink);
+
+                scope = TraceContext.begin(true);
+
+                try
+                {
+                    stub.hop();
+                }
+                finally
+                {
+                    scope.close();
+                }
+            }
+
+            List<String>    lines = Files.readAllLines(file.toPath());
+
+            if(lines.size() != 4 || lines.get(0).split("\t").length != 9)
+                throw new TestFailed("unexpected span file: " + lines);
+        }
+        catch(IOException | RMIException e)
+        {
+            throw new TestFailed("unable to write spans", e);
+        }
+        finally
+        {
+            if(file != null)
+                file.delete();
+        }
+
+        task();
+    }
+
+    /** Stops the skeletons and the export of spans. */
+    @Override
+    protected void clean()
+    {
+        TraceContext.setSink(null);
+
+        if(front != null)
+            front.stop();
+
+        if(back != null)
+            back.stop();
+    }
+
+    public interface HopInterface
+    {
+        String hop() throws RMIException;
+
+        String leaf() throws RMIException;
+    }
+
+    private static class HopServer implements HopInterface
+    {
+        private final HopInterface  next;
+
+        HopServer(HopInterface next)
+        {
+            this.next = next;
+        }
+
+        @Override
+        public String hop() throws RMIException
+        {
+            return next.leaf();
+        }
+
+        @Override
+        public String leaf()
+        {
+            return String.valueOf(TraceContext.current());
+        }
+    }
+}